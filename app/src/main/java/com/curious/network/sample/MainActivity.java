@@ -5,6 +5,7 @@ import android.util.Log;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.curious.network.HttpCallback;
 import com.curious.network.SAHttpLogInterceptor;
 import com.curious.network.base.SAHttpClient;
 import com.curious.network.base.SAHttpUrl;
@@ -12,12 +13,9 @@ import com.curious.network.base.SARequest;
 import com.curious.network.base.SAResponse;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
 
-    private ExecutorService executorService = Executors.newFixedThreadPool(2);
     private SAHttpClient httpClient;
 
     @Override
@@ -36,25 +34,25 @@ public class MainActivity extends AppCompatActivity {
                 .connectTimeout(30_000)
                 .build();
 
-        executorService.submit(() -> {
-            executorService.submit(() -> {
-                SARequest.Builder builder = new SARequest.Builder()
-                        .method(SARequest.HttpMethod.GET)
-                        .url(new SAHttpUrl.Builder()
-                                .url("https://github.com")
-                                .build());
-
-                try {
-                    SAResponse response = httpClient.newCall(builder.build()).execute();
-                    if (response != null) {
-                        if (response.isSuccessful()) {
-                            Log.i("http result", response.body().string());
-                        }
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
+        SARequest request = new SARequest.Builder()
+                .method(SARequest.HttpMethod.GET)
+                .url(new SAHttpUrl.Builder()
+                        .url("https://github.com")
+                        .build())
+                .build();
+
+        httpClient.newCall(request).enqueue(new HttpCallback() {
+            @Override
+            public void onFailure(SAResponse response, IOException e) {
+                e.printStackTrace();
+            }
+
+            @Override
+            public void onResponse(SAResponse response) throws IOException {
+                if (response.isSuccessful()) {
+                    Log.i("http result", response.body().string());
                 }
-            });
+            }
         });
     }
 }
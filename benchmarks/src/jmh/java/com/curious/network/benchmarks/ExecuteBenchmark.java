@@ -0,0 +1,106 @@
+package com.curious.network.benchmarks;
+
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SATransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对同一进程内的回环 HTTP 服务器执行完整的 {@link com.curious.network.base.SACall#execute()} 并读取响应体，
+ * 包括拦截器、连接池复用、HTTP/1.1 编解码。服务器的开销也计算在内，适合比较不同版本之间的变化
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecuteBenchmark {
+    @Param({"64", "65536"})
+    public int bodySize;
+
+    @Param({"HTTP_1_1", "HTTP_URL_CONNECTION"})
+    public String transport;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private SAHttpClient client;
+    private SARequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final byte[] body = new byte[bodySize];
+        // 默认开启 Nagle，响应头和响应体分两次写出时会被延迟确认拖慢 40ms，测到的就只是这个延迟
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                while (in.read() != -1) {
+                    // 读完请求体
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        client = new SAHttpClient.Builder()
+                .transport("HTTP_URL_CONNECTION".equals(transport)
+                        ? SATransport.HTTP_URL_CONNECTION : SATransport.HTTP_1_1)
+                .build();
+        request = new SARequest.Builder()
+                .url(SAHttpUrl.get("http://127.0.0.1:" + server.getAddress().getPort() + "/bench"))
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.connectionPool().evictAll();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public byte[] execute() throws IOException {
+        SAResponse response = client.newCall(request).execute();
+        try {
+            return response.body().bytes();
+        } finally {
+            response.close();
+        }
+    }
+}
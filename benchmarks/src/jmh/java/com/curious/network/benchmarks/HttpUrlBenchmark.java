@@ -0,0 +1,51 @@
+package com.curious.network.benchmarks;
+
+import com.curious.network.base.SAHttpUrl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SAHttpUrl.Builder#build()}，每次 build 都会执行 encodeUrl()，拼接 path、query 并通过 URL 和 URI 重新编码
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HttpUrlBenchmark {
+    private static final String SIMPLE = "https://api.example.com/v1/users";
+    private static final String WITH_QUERY = "https://api.example.com/v1/search?q=android&page=2";
+
+    @Benchmark
+    public SAHttpUrl parseSimple() {
+        return SAHttpUrl.get(SIMPLE);
+    }
+
+    @Benchmark
+    public SAHttpUrl parseWithQuery() {
+        return SAHttpUrl.get(WITH_QUERY);
+    }
+
+    /** 需要编码的 path 和 query，覆盖 encodeUrl() 的拼接和转义 */
+    @Benchmark
+    public SAHttpUrl buildWithSegmentsAndParams() {
+        return new SAHttpUrl.Builder()
+                .url(SIMPLE)
+                .pathSegements("42", "photos", "2020 年")
+                .setQueryParam("size", "large")
+                .setQueryParam("filter", "a b&c")
+                .setQueryParam("lang", "zh-CN")
+                .build();
+    }
+}
@@ -0,0 +1,74 @@
+package com.curious.network.benchmarks;
+
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SARealChain;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 经过 N 个什么都不做的拦截器调用 {@link SARealChain#proceed(SARequest)}，最后一个拦截器直接返回响应，
+ * 衡量责任链本身每一层的开销
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InterceptorChainBenchmark {
+    @Param({"0", "5", "20"})
+    public int interceptorCount;
+
+    private List<SAInterceptor> interceptors;
+    private SARequest request;
+
+    @Setup
+    public void setUp() {
+        request = new SARequest.Builder()
+                .url(SAHttpUrl.get("https://api.example.com/v1/users"))
+                .build();
+        final SAResponse response = new SAResponse.Builder()
+                .code(200)
+                .message("OK")
+                .request(request)
+                .build();
+        interceptors = new ArrayList<>();
+        for (int i = 0; i < interceptorCount; i++) {
+            interceptors.add(new SAInterceptor() {
+                @Override
+                public SAResponse intercept(Chain chain) throws IOException {
+                    return chain.proceed(chain.request());
+                }
+            });
+        }
+        interceptors.add(new SAInterceptor() {
+            @Override
+            public SAResponse intercept(Chain chain) {
+                return response;
+            }
+        });
+    }
+
+    @Benchmark
+    public SAResponse proceed() throws IOException {
+        return new SARealChain(interceptors, 0, request, null).proceed(request);
+    }
+}
@@ -0,0 +1,78 @@
+package com.curious.network.benchmarks;
+
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SARequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SARequest.Builder} 的头信息操作，setHeader 和 removeHeader 需要遍历已有的头信息
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBuilderBenchmark {
+    @Param({"4", "16", "64"})
+    public int headerCount;
+
+    private SAHttpUrl url;
+    private String[] names;
+    private SARequest request;
+
+    @Setup
+    public void setUp() {
+        url = SAHttpUrl.get("https://api.example.com/v1/users");
+        names = new String[headerCount];
+        for (int i = 0; i < headerCount; i++) {
+            names[i] = "X-Header-" + i;
+        }
+        request = addHeaders();
+    }
+
+    @Benchmark
+    public SARequest addHeaders() {
+        SARequest.Builder builder = new SARequest.Builder().url(url);
+        for (String name : names) {
+            builder.addHeader(name, "value");
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public SARequest setHeaders() {
+        SARequest.Builder builder = new SARequest.Builder().url(url);
+        for (String name : names) {
+            builder.setHeader(name, "value");
+        }
+        return builder.build();
+    }
+
+    /** 拦截器中常见的操作：复制请求，替换一个头信息，删除一个头信息 */
+    @Benchmark
+    public SARequest newBuilderSetAndRemove() {
+        return request.newBuilder()
+                .setHeader("Accept-Encoding", "gzip, deflate")
+                .removeHeader(names[0])
+                .build();
+    }
+
+    @Benchmark
+    public String headerLookup() {
+        return request.header(names[names.length - 1]);
+    }
+}
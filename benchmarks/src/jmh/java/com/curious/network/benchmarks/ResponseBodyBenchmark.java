@@ -0,0 +1,65 @@
+package com.curious.network.benchmarks;
+
+import com.curious.network.base.SAResponseBody;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SAResponseBody#bytes()} 和 {@link SAResponseBody#string()}，
+ * 长度已知时一次读满，未知时（chunked、gzip 解压后）通过 SegmentPool 分段读取
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseBodyBenchmark {
+    @Param({"128", "16384", "1048576"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean knownLength;
+
+    private byte[] content;
+
+    @Setup
+    public void setUp() {
+        // 中英文混合的 UTF-8 文本
+        byte[] unit = "{\"name\":\"网络\",\"value\":42}".getBytes(Charset.forName("UTF-8"));
+        content = new byte[size];
+        for (int i = 0; i < size; i += unit.length) {
+            System.arraycopy(unit, 0, content, i, Math.min(unit.length, size - i));
+        }
+    }
+
+    private SAResponseBody newBody() {
+        return SAResponseBody.create("application/json; charset=utf-8",
+                knownLength ? content.length : -1, new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public byte[] bytes() throws IOException {
+        return newBody().bytes();
+    }
+
+    @Benchmark
+    public String string() throws IOException {
+        return newBody().string();
+    }
+}
@@ -0,0 +1,121 @@
+package com.curious.network.loadtest;
+
+/**
+ * 对数分桶的延迟直方图，单位是微秒，相对误差不超过 1/64（约 1.6%）。
+ * 小于 128us 的值每微秒一个桶，之后每个 2 的幂区间分成 64 个桶。
+ * <p>
+ * 不是线程安全的：每个压测线程记录自己的直方图，结束后再 {@link #add(LatencyHistogram)} 合并
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    void recordNanos(long nanos) {
+        record(Math.max(0, nanos / 1000));
+    }
+
+    void record(long micros) {
+        counts[index(micros)]++;
+        totalCount++;
+        sum += micros;
+        if (micros < min) min = micros;
+        if (micros > max) max = micros;
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    long count() {
+        return totalCount;
+    }
+
+    long min() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    long max() {
+        return max;
+    }
+
+    double mean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    /**
+     * @param percentile 0 到 100
+     * @return 至少 percentile% 的记录不大于的值，取所在桶的上界
+     */
+    long percentile(double percentile) {
+        if (totalCount == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += counts[i];
+            if (cumulative >= target) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 按 2 的幂合并成一行输出，用 # 的个数表示占比
+     */
+    String distribution() {
+        long[] rows = new long[64];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts[i] == 0) continue;
+            long upper = upperBound(i);
+            rows[upper == 0 ? 0 : 64 - Long.numberOfLeadingZeros(upper)] += counts[i];
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int row = 0; row < rows.length; row++) {
+            if (rows[row] == 0) continue;
+            long lower = row == 0 ? 0 : 1L << (row - 1);
+            long upper = row == 0 ? 0 : (1L << row) - 1;
+            int bar = (int) Math.round(rows[row] * 50.0 / totalCount);
+            builder.append(String.format("  %10s - %-10s %9d  ", format(lower), format(upper), rows[row]));
+            for (int j = 0; j < bar; j++) builder.append('#');
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    static String format(long micros) {
+        if (micros < 1000) return micros + "us";
+        if (micros < 1000000) return String.format("%.2fms", micros / 1000.0);
+        return String.format("%.2fs", micros / 1000000.0);
+    }
+
+    static int index(long value) {
+        if (value < LINEAR_LIMIT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + mantissa;
+    }
+
+    static long upperBound(int index) {
+        if (index < LINEAR_LIMIT) return index;
+        int offset = index - LINEAR_LIMIT;
+        int exponent = offset / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long mantissa = offset % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,513 @@
+package com.curious.network.loadtest;
+
+import com.curious.network.HttpCallback;
+import com.curious.network.base.SAConnectionPool;
+import com.curious.network.base.SADispatcher;
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SARequestBody;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SATransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在本机启动 {@link LoadTestServer}，用 N 个并发调用方持续请求 {@link SAHttpClient}，
+ * 输出每秒请求数、延迟分布（p50/p90/p99/p99.9）、错误统计以及连接和线程的使用情况。
+ * <pre>
+ * --concurrency=32       并发调用方的数量
+ * --duration=10s         测量时长，和 --requests 二选一
+ * --requests=0           总请求数，大于 0 时忽略 --duration
+ * --warmup=2s            预热时长，这段时间的请求不计入结果
+ * --mode=sync            sync：每个调用方一个线程调用 execute()；async：通过 enqueue() 交给 SADispatcher
+ * --transport=http1      http1、urlconnection 或 nio，nio 配合 async 模式时等待响应不占用线程
+ * --latency=0ms          服务器处理每个请求的延迟
+ * --jitter=0ms           在延迟上随机增加 0 到 jitter
+ * --body=1k              响应体大小，可以使用 k、m 后缀
+ * --request-body=0       大于 0 时使用 POST 发送这么大的请求体
+ * --status=200:100       状态码比例，例如 200:98,500:1,503:1
+ * --keep-alive=on        on、off，或者数字 N 表示每个连接最多处理 N 个请求
+ * --pool-idle=5          连接池最多保留的空闲连接数
+ * --max-per-host=5       async 模式下 SADispatcher 对同一个 host 的并发限制
+ * </pre>
+ */
+public final class LoadTest {
+    private final Options options;
+    private final LoadTestServer server;
+    private final SAHttpClient client;
+    private final SARequest request;
+
+    private volatile boolean stopped;
+    private volatile long measureStartNanos;
+    private final AtomicLong remainingRequests;
+    private final AtomicLong bodyBytes = new AtomicLong();
+    private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final ResourceSampler sampler;
+
+    private LoadTest(Options options) throws IOException {
+        this.options = options;
+        this.server = new LoadTestServer(options.latencyMicros, options.jitterMicros, options.bodySize,
+                options.statusCodes, options.statusWeights, options.maxRequestsPerConnection);
+        this.client = new SAHttpClient.Builder()
+                .transport(options.transport)
+                .connectionPool(new SAConnectionPool(options.poolIdle, 5, TimeUnit.MINUTES))
+                .dispatcher(new SADispatcher(Math.max(64, options.concurrency), options.maxPerHost))
+                .retryOnConnectionFailure(false)
+                .maxRetryTimes(0)
+                .readTimeout(30_000)
+                .build();
+        SARequest.Builder builder = new SARequest.Builder()
+                .url(SAHttpUrl.get("http://127.0.0.1:" + server.port() + "/load"));
+        if (options.requestBodySize > 0) {
+            builder.method(SARequest.HttpMethod.POST)
+                    .body(SARequestBody.create("application/octet-stream", new String(new char[options.requestBodySize])
+                            .replace('\0', 'x')));
+        }
+        this.request = builder.build();
+        this.remainingRequests = new AtomicLong(options.requests > 0 ? options.requests : Long.MAX_VALUE);
+        this.sampler = new ResourceSampler(server, client);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: LoadTest [--concurrency=32] [--duration=10s | --requests=N] [--warmup=2s]"
+                    + " [--mode=sync|async] [--transport=http1|urlconnection|nio] [--latency=0ms] [--jitter=0ms]"
+                    + " [--body=1k] [--request-body=0] [--status=200:100] [--keep-alive=on|off|N]"
+                    + " [--pool-idle=5] [--max-per-host=5]");
+            System.exit(2);
+            return;
+        }
+        LoadTest loadTest = new LoadTest(options);
+        try {
+            loadTest.run();
+        } finally {
+            loadTest.server.close();
+            loadTest.client.connectionPool().evictAll();
+        }
+        System.exit(0);
+    }
+
+    private void run() throws InterruptedException {
+        System.out.println(options);
+        long warmupNanos = options.requests > 0 ? 0 : options.warmupNanos;
+        long startNanos = System.nanoTime();
+        measureStartNanos = startNanos + warmupNanos;
+        sampler.start(measureStartNanos);
+
+        Thread stopper = null;
+        if (options.requests <= 0) {
+            stopper = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(measureStartNanos + options.durationNanos - System.nanoTime());
+                    } catch (InterruptedException ignored) {
+                    }
+                    stopped = true;
+                }
+            }, "LoadTest stopper");
+            stopper.setDaemon(true);
+            stopper.start();
+        }
+
+        if (options.async) {
+            runAsync();
+        } else {
+            runSync();
+        }
+        long endNanos = System.nanoTime();
+        sampler.stop();
+        report(endNanos - measureStartNanos);
+    }
+
+    private void runSync() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        final List<LatencyHistogram> histograms = new ArrayList<>();
+        for (int i = 0; i < options.concurrency; i++) {
+            final LatencyHistogram threadHistogram = new LatencyHistogram();
+            histograms.add(threadHistogram);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!stopped && remainingRequests.getAndDecrement() > 0) {
+                        long start = System.nanoTime();
+                        try {
+                            SAResponse response = client.newCall(request).execute();
+                            consume(response);
+                        } catch (IOException e) {
+                            error(start, e);
+                            continue;
+                        }
+                        if (start >= measureStartNanos) {
+                            threadHistogram.recordNanos(System.nanoTime() - start);
+                        }
+                    }
+                }
+            }, "LoadTest caller-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (LatencyHistogram threadHistogram : histograms) {
+            histogram.add(threadHistogram);
+        }
+    }
+
+    /**
+     * 最多 concurrency 个请求同时在 SADispatcher 中排队或执行，延迟包括排队时间
+     */
+    private void runAsync() throws InterruptedException {
+        final Semaphore inFlight = new Semaphore(options.concurrency);
+        while (!stopped && remainingRequests.getAndDecrement() > 0) {
+            inFlight.acquire();
+            final long start = System.nanoTime();
+            client.newCall(request).enqueue(new HttpCallback() {
+                @Override
+                public void onFailure(SAResponse response, IOException e) {
+                    error(start, e);
+                    inFlight.release();
+                }
+
+                @Override
+                public void onResponse(SAResponse response) {
+                    try {
+                        consume(response);
+                        if (start >= measureStartNanos) {
+                            long elapsed = System.nanoTime() - start;
+                            synchronized (histogram) {
+                                histogram.recordNanos(elapsed);
+                            }
+                        }
+                    } catch (IOException e) {
+                        error(start, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        }
+        inFlight.acquire(options.concurrency);
+    }
+
+    private void consume(SAResponse response) throws IOException {
+        try {
+            InputStream in = response.body().byteStream();
+            byte[] buffer = new byte[8 * 1024];
+            long total = 0;
+            for (int count; (count = in.read(buffer)) != -1; ) {
+                total += count;
+            }
+            bodyBytes.addAndGet(total);
+            if (!response.isSuccessful()) {
+                countError("HTTP " + response.code());
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    private void error(long start, IOException e) {
+        if (start >= measureStartNanos) {
+            countError(e.getClass().getName() + (e.getMessage() != null ? ": " + e.getMessage() : ""));
+        }
+    }
+
+    private void countError(String key) {
+        AtomicLong count = errors.get(key);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = errors.putIfAbsent(key, created);
+            if (count == null) count = created;
+        }
+        count.incrementAndGet();
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long completed = histogram.count();
+        long failed = 0;
+        Map<String, Long> sortedErrors = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : errors.entrySet()) {
+            sortedErrors.put(entry.getKey(), entry.getValue().get());
+            if (!entry.getKey().startsWith("HTTP ")) failed += entry.getValue().get();
+        }
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "%nRequests:   %d completed, %d failed in %.2fs = %.1f req/s, %.1f MB/s read%n",
+                completed, failed, seconds, completed / seconds, bodyBytes.get() / seconds / (1024 * 1024)));
+        out.append(String.format(Locale.US, "Latency:    min %s  mean %s  p50 %s  p90 %s  p99 %s  p99.9 %s  max %s%n",
+                LatencyHistogram.format(histogram.min()), LatencyHistogram.format((long) histogram.mean()),
+                LatencyHistogram.format(histogram.percentile(50)), LatencyHistogram.format(histogram.percentile(90)),
+                LatencyHistogram.format(histogram.percentile(99)), LatencyHistogram.format(histogram.percentile(99.9)),
+                LatencyHistogram.format(histogram.max())));
+        out.append("Distribution:\n").append(histogram.distribution());
+        out.append("Errors:");
+        if (sortedErrors.isEmpty()) {
+            out.append(" none\n");
+        } else {
+            out.append('\n');
+            for (Map.Entry<String, Long> entry : sortedErrors.entrySet()) {
+                out.append(String.format(Locale.US, "  %8d  %s%n", entry.getValue(), entry.getKey()));
+            }
+        }
+        long connections = server.acceptedConnections();
+        out.append(String.format(Locale.US, "Sockets:    %d connections accepted by server (%.1f requests/connection),"
+                        + " peak %d open; %d idle in client pool at end%n",
+                connections, connections == 0 ? 0 : (double) server.requests() / connections,
+                server.peakOpenConnections(), client.connectionPool().idleConnectionCount()));
+        out.append(sampler.summary());
+        System.out.print(out);
+    }
+
+    /**
+     * 每 100ms 采样一次 JVM 线程数、打开的文件描述符数和 SADispatcher 中的请求数
+     */
+    private static final class ResourceSampler implements Runnable {
+        private final LoadTestServer server;
+        private final SAHttpClient client;
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        private final Thread thread = new Thread(this, "LoadTest sampler");
+        private volatile boolean running = true;
+        private volatile long measureStartNanos;
+
+        private int baselineThreads;
+        private long baselineFds = -1;
+        private int peakThreads;
+        private long peakFds = -1;
+        private int peakRunningCalls;
+        private int peakQueuedCalls;
+        private long samples;
+        private long threadSum;
+
+        ResourceSampler(LoadTestServer server, SAHttpClient client) {
+            this.server = server;
+            this.client = client;
+            thread.setDaemon(true);
+        }
+
+        void start(long measureStartNanos) {
+            this.measureStartNanos = measureStartNanos;
+            baselineThreads = threads.getThreadCount();
+            baselineFds = openFileDescriptors();
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                if (System.nanoTime() >= measureStartNanos) {
+                    sample();
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private synchronized void sample() {
+            int threadCount = threads.getThreadCount();
+            peakThreads = Math.max(peakThreads, threadCount);
+            threadSum += threadCount;
+            samples++;
+            peakFds = Math.max(peakFds, openFileDescriptors());
+            SADispatcher dispatcher = client.dispatcher();
+            peakRunningCalls = Math.max(peakRunningCalls, dispatcher.runningCallsCount());
+            peakQueuedCalls = Math.max(peakQueuedCalls, dispatcher.queuedCallsCount());
+        }
+
+        /** 只在 Unix 的 HotSpot/OpenJDK 上可用，其他情况返回 -1 */
+        private long openFileDescriptors() {
+            if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+                return ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+            }
+            return -1;
+        }
+
+        synchronized String summary() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format(Locale.US, "Threads:    %d before start, peak %d, mean %.0f"
+                            + " (includes %d server threads at end)%n",
+                    baselineThreads, peakThreads, samples == 0 ? 0 : (double) threadSum / samples,
+                    server.openConnections()));
+            if (peakFds >= 0) {
+                out.append(String.format(Locale.US, "Open fds:   %d before start, peak %d (client and server sockets)%n",
+                        baselineFds, peakFds));
+            }
+            out.append(String.format(Locale.US, "Dispatcher: peak %d running, %d queued%n",
+                    peakRunningCalls, peakQueuedCalls));
+            return out.toString();
+        }
+    }
+
+    static final class Options {
+        int concurrency = 32;
+        long durationNanos = TimeUnit.SECONDS.toNanos(10);
+        long warmupNanos = TimeUnit.SECONDS.toNanos(2);
+        long requests;
+        boolean async;
+        SATransport.Factory transport = SATransport.HTTP_1_1;
+        String transportName = "http1";
+        long latencyMicros;
+        long jitterMicros;
+        int bodySize = 1024;
+        int requestBodySize;
+        int[] statusCodes = {200};
+        int[] statusWeights = {100};
+        String statusMix = "200:100";
+        int maxRequestsPerConnection;
+        int poolIdle = 5;
+        int maxPerHost = 5;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (arg.equals("--help") || arg.equals("-h")) {
+                    throw new IllegalArgumentException("SAHttpClient loopback load test");
+                }
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals == -1) {
+                    throw new IllegalArgumentException("Unexpected argument: " + arg);
+                }
+                String name = arg.substring(2, equals);
+                String value = arg.substring(equals + 1);
+                switch (name) {
+                    case "concurrency":
+                        options.concurrency = positive(name, Integer.parseInt(value));
+                        break;
+                    case "duration":
+                        options.durationNanos = TimeUnit.MICROSECONDS.toNanos(parseMicros(value));
+                        break;
+                    case "requests":
+                        options.requests = Long.parseLong(value);
+                        break;
+                    case "warmup":
+                        options.warmupNanos = TimeUnit.MICROSECONDS.toNanos(parseMicros(value));
+                        break;
+                    case "mode":
+                        if (!value.equals("sync") && !value.equals("async")) {
+                            throw new IllegalArgumentException("--mode must be sync or async");
+                        }
+                        options.async = value.equals("async");
+                        break;
+                    case "transport":
+                        if (value.equals("http1")) {
+                            options.transport = SATransport.HTTP_1_1;
+                        } else if (value.equals("urlconnection")) {
+                            options.transport = SATransport.HTTP_URL_CONNECTION;
+                        } else if (value.equals("nio")) {
+                            options.transport = SATransport.NIO;
+                        } else {
+                            throw new IllegalArgumentException("--transport must be http1, urlconnection or nio");
+                        }
+                        options.transportName = value;
+                        break;
+                    case "latency":
+                        options.latencyMicros = parseMicros(value);
+                        break;
+                    case "jitter":
+                        options.jitterMicros = parseMicros(value);
+                        break;
+                    case "body":
+                        options.bodySize = (int) parseBytes(value);
+                        break;
+                    case "request-body":
+                        options.requestBodySize = (int) parseBytes(value);
+                        break;
+                    case "status":
+                        options.parseStatusMix(value);
+                        break;
+                    case "keep-alive":
+                        options.maxRequestsPerConnection = value.equals("on") ? 0
+                                : value.equals("off") ? 1 : positive(name, Integer.parseInt(value));
+                        break;
+                    case "pool-idle":
+                        options.poolIdle = Integer.parseInt(value);
+                        break;
+                    case "max-per-host":
+                        options.maxPerHost = positive(name, Integer.parseInt(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: --" + name);
+                }
+            }
+            return options;
+        }
+
+        private void parseStatusMix(String value) {
+            String[] parts = value.split(",");
+            statusCodes = new int[parts.length];
+            statusWeights = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                String[] codeAndWeight = parts[i].split(":");
+                statusCodes[i] = Integer.parseInt(codeAndWeight[0].trim());
+                statusWeights[i] = codeAndWeight.length > 1 ? positive("status", Integer.parseInt(codeAndWeight[1].trim())) : 1;
+            }
+            statusMix = value;
+        }
+
+        private static int positive(String name, int value) {
+            if (value <= 0) throw new IllegalArgumentException("--" + name + " must be positive: " + value);
+            return value;
+        }
+
+        /** 支持 us、ms、s 后缀，没有后缀时按毫秒 */
+        static long parseMicros(String value) {
+            if (value.endsWith("us")) return Long.parseLong(value.substring(0, value.length() - 2));
+            if (value.endsWith("ms")) return Long.parseLong(value.substring(0, value.length() - 2)) * 1000;
+            if (value.endsWith("s")) return Long.parseLong(value.substring(0, value.length() - 1)) * 1000000;
+            return Long.parseLong(value) * 1000;
+        }
+
+        /** 支持 k、m 后缀 */
+        static long parseBytes(String value) {
+            String lower = value.toLowerCase(Locale.US);
+            if (lower.endsWith("k")) return Long.parseLong(lower.substring(0, lower.length() - 1)) * 1024;
+            if (lower.endsWith("m")) return Long.parseLong(lower.substring(0, lower.length() - 1)) * 1024 * 1024;
+            return Long.parseLong(lower);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "SAHttpClient load test: transport=%s mode=%s concurrency=%d %s"
+                            + " latency=%s+%s body=%dB request-body=%dB status=%s keep-alive=%s pool-idle=%d%s",
+                    transportName, async ? "async" : "sync", concurrency,
+                    requests > 0 ? "requests=" + requests
+                            : "duration=" + TimeUnit.NANOSECONDS.toMillis(durationNanos) + "ms warmup="
+                            + TimeUnit.NANOSECONDS.toMillis(warmupNanos) + "ms",
+                    LatencyHistogram.format(latencyMicros), LatencyHistogram.format(jitterMicros),
+                    bodySize, requestBodySize, statusMix,
+                    maxRequestsPerConnection == 0 ? "on" : maxRequestsPerConnection == 1 ? "off"
+                            : String.valueOf(maxRequestsPerConnection),
+                    poolIdle, async ? " max-per-host=" + maxPerHost : "");
+        }
+    }
+}
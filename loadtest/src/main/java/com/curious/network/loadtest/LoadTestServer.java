@@ -0,0 +1,272 @@
+package com.curious.network.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 压测用的 HTTP/1.1 服务器，每个连接一个线程。可以配置响应延迟、响应体大小、状态码比例，
+ * 以及每个连接最多处理多少个请求后主动关闭，用来模拟不支持或者限制 keep-alive 的服务器
+ */
+final class LoadTestServer implements Closeable {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final long latencyMicros;
+    private final long jitterMicros;
+    private final byte[] body;
+    private final int[] statusCodes;
+    private final int[] statusWeights;
+    private final int totalWeight;
+    private final int maxRequestsPerConnection;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private final AtomicLong acceptedConnections = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicInteger peakOpenConnections = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param maxRequestsPerConnection 每个连接最多处理的请求数，1 表示不支持 keep-alive，0 表示不限制
+     */
+    LoadTestServer(long latencyMicros, long jitterMicros, int bodySize, int[] statusCodes, int[] statusWeights,
+                   int maxRequestsPerConnection) throws IOException {
+        this.latencyMicros = latencyMicros;
+        this.jitterMicros = jitterMicros;
+        this.body = new byte[bodySize];
+        new Random(0).nextBytes(body);
+        this.statusCodes = statusCodes;
+        this.statusWeights = statusWeights;
+        int total = 0;
+        for (int weight : statusWeights) total += weight;
+        this.totalWeight = total;
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger id = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LoadTestServer-" + id.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    long acceptedConnections() {
+        return acceptedConnections.get();
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    int openConnections() {
+        return openSockets.size();
+    }
+
+    int peakOpenConnections() {
+        return peakOpenConnections.get();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            acceptedConnections.incrementAndGet();
+            openSockets.add(socket);
+            int open = openSockets.size();
+            for (int peak; (peak = peakOpenConnections.get()) < open; ) {
+                if (peakOpenConnections.compareAndSet(peak, open)) break;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException ignored) {
+                        // 客户端关闭连接
+                    } finally {
+                        openSockets.remove(socket);
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        InputStream in = new BufferedInputStream(socket.getInputStream(), 8 * 1024);
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 8 * 1024);
+        Random random = new Random();
+        for (int served = 1; ; served++) {
+            String requestLine = readLine(in);
+            if (requestLine == null) return;
+            long contentLength = 0;
+            boolean chunked = false;
+            boolean clientClose = false;
+            for (String line; (line = readLine(in)) != null && !line.isEmpty(); ) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) continue;
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    clientClose = value.equalsIgnoreCase("close");
+                }
+            }
+            if (chunked) {
+                discardChunked(in);
+            } else {
+                discard(in, contentLength);
+            }
+            requests.incrementAndGet();
+
+            long delay = latencyMicros + (jitterMicros > 0 ? (long) (random.nextDouble() * jitterMicros) : 0);
+            if (delay > 0) {
+                try {
+                    TimeUnit.MICROSECONDS.sleep(delay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            int code = pickStatus(random);
+            boolean close = clientClose || closed
+                    || (maxRequestsPerConnection > 0 && served >= maxRequestsPerConnection);
+            StringBuilder head = new StringBuilder(128)
+                    .append("HTTP/1.1 ").append(code).append(' ').append(reason(code)).append("\r\n")
+                    .append("Content-Type: application/octet-stream\r\n")
+                    .append("Content-Length: ").append(body.length).append("\r\n");
+            if (close) head.append("Connection: close\r\n");
+            head.append("\r\n");
+            out.write(head.toString().getBytes(ISO_8859_1));
+            out.write(body);
+            out.flush();
+            if (close) return;
+        }
+    }
+
+    private int pickStatus(Random random) {
+        if (statusCodes.length == 1) return statusCodes[0];
+        int value = random.nextInt(totalWeight);
+        for (int i = 0; i < statusCodes.length; i++) {
+            value -= statusWeights[i];
+            if (value < 0) return statusCodes[i];
+        }
+        return statusCodes[statusCodes.length - 1];
+    }
+
+    private static String reason(int code) {
+        switch (code) {
+            case 200:
+                return "OK";
+            case 404:
+                return "Not Found";
+            case 500:
+                return "Internal Server Error";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Status";
+        }
+    }
+
+    /** 读取一行，连接在行首关闭时返回 null */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder builder = new StringBuilder(64);
+        for (int c; (c = in.read()) != '\n'; ) {
+            if (c == -1) {
+                if (builder.length() == 0) return null;
+                throw new SocketException("unexpected end of stream");
+            }
+            if (c != '\r') builder.append((char) c);
+        }
+        return builder.toString();
+    }
+
+    private static void discard(InputStream in, long byteCount) throws IOException {
+        while (byteCount > 0) {
+            long skipped = in.skip(byteCount);
+            if (skipped <= 0) {
+                if (in.read() == -1) throw new SocketException("unexpected end of stream");
+                skipped = 1;
+            }
+            byteCount -= skipped;
+        }
+    }
+
+    private static void discardChunked(InputStream in) throws IOException {
+        while (true) {
+            String line = readLine(in);
+            if (line == null) throw new SocketException("unexpected end of stream");
+            int extension = line.indexOf(';');
+            long size = Long.parseLong((extension != -1 ? line.substring(0, extension) : line).trim(), 16);
+            if (size == 0) {
+                // trailers
+                for (String trailer; (trailer = readLine(in)) != null && !trailer.isEmpty(); ) {
+                }
+                return;
+            }
+            discard(in, size);
+            readLine(in);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : openSockets) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        executor.shutdownNow();
+    }
+}
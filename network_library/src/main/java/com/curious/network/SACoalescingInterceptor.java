@@ -0,0 +1,229 @@
+package com.curious.network;
+
+import com.curious.network.base.SACall;
+import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SAResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并同时发出的相同 GET 请求，只有第一个请求访问网络，其余请求等待并共享它的响应。
+ * <p>
+ * url、method 和构造时指定的请求头都相同才算相同的请求。每个调用方拿到各自的 {@link SAResponseBody}，
+ * 底层共享同一份字节数组；响应体超过 maxBodySize 时不共享，等待的请求各自访问网络。
+ * 第一个请求被取消或者超时的话，等待的请求也各自访问网络；等待中的请求可以被自己的调用取消或者超时中止。
+ * 通过 {@link com.curious.network.base.SAHttpClient.Builder#addInterceptor(SAInterceptor)} 启用
+ */
+public class SACoalescingInterceptor implements SAInterceptor {
+    private static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+
+    private final List<String> keyHeaders;
+    private final int maxBodySize;
+
+    // guarded by this
+    private final Map<String, InFlight> inFlights = new HashMap<>();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * @param keyHeaders 参与比较的请求头，比如 Authorization、Accept-Language
+     */
+    public SACoalescingInterceptor(String... keyHeaders) {
+        this(DEFAULT_MAX_BODY_SIZE, keyHeaders);
+    }
+
+    /**
+     * @param maxBodySize 可以共享的最大响应体字节数
+     * @param keyHeaders 参与比较的请求头，比如 Authorization、Accept-Language
+     */
+    public SACoalescingInterceptor(int maxBodySize, String... keyHeaders) {
+        if (maxBodySize <= 0) throw new IllegalArgumentException("maxBodySize <= 0: " + maxBodySize);
+        this.maxBodySize = maxBodySize;
+        this.keyHeaders = Arrays.asList(keyHeaders);
+    }
+
+    /**
+     * 没有访问网络、直接共享了其他请求响应的次数
+     */
+    public long coalescedCount() {
+        return coalescedCount.get();
+    }
+
+    @Override
+    public SAResponse intercept(Chain chain) throws IOException {
+        SARequest request = chain.request();
+        // Range 请求不合并，分段下载的每一段都要单独请求
+        if (request.method() != SARequest.HttpMethod.GET || request.header("Range") != null) {
+            return chain.proceed(request);
+        }
+
+        String key = key(request);
+        InFlight inFlight;
+        boolean leader;
+        synchronized (this) {
+            inFlight = inFlights.get(key);
+            leader = inFlight == null;
+            if (leader) {
+                inFlight = new InFlight();
+                inFlights.put(key, inFlight);
+            }
+        }
+
+        if (leader) {
+            return proceedAsLeader(chain, key, inFlight);
+        }
+
+        Follower follower = new Follower(inFlight);
+        SACall call = chain.call();
+        if (call instanceof SARealCall) {
+            ((SARealCall) call).exchangeStarted(follower);
+        }
+        try {
+            follower.await();
+        } finally {
+            if (call instanceof SARealCall) {
+                ((SARealCall) call).exchangeFinished(follower);
+            }
+        }
+        if (inFlight.failure != null) {
+            throw new IOException("coalesced call failed: " + request.url(), inFlight.failure);
+        }
+        if (inFlight.response == null) {
+            // 响应体太大没有共享，或者第一个请求被取消，自己访问网络
+            return chain.proceed(request);
+        }
+        coalescedCount.incrementAndGet();
+        return share(inFlight.response, inFlight.body, request);
+    }
+
+    private SAResponse proceedAsLeader(Chain chain, String key, InFlight inFlight) throws IOException {
+        SAResponse response = null;
+        try {
+            response = chain.proceed(chain.request());
+            SAResponseBody body = response.body();
+            if (body == null || body.contentLength() > maxBodySize) {
+                return response;
+            }
+
+            InputStream source = body.byteStream();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                    body.contentLength() > 0 ? (int) body.contentLength() : 1024);
+            byte[] tmp = new byte[8 * 1024];
+            int length;
+            while ((length = source.read(tmp)) != -1) {
+                buffer.write(tmp, 0, length);
+                if (buffer.size() > maxBodySize) {
+                    // 响应体太大，已经读取的部分加上剩余的流交给自己的调用方
+                    InputStream rest = new SequenceInputStream(
+                            new ByteArrayInputStream(buffer.toByteArray()), source);
+                    return response.newBuilder()
+                            .body(SAResponseBody.create(body.contentType(), body.contentLength(), rest))
+                            .build();
+                }
+            }
+            SAResponseBody.closeQuietly(source);
+
+            inFlight.response = response;
+            inFlight.body = buffer.toByteArray();
+            return share(response, inFlight.body, response.request());
+        } catch (IOException e) {
+            // 取消和超时只针对第一个请求自己的调用，不传给等待的请求
+            if (!isAbandoned(chain.call())) inFlight.failure = e;
+            SAResponseBody.closeQuietly(response);
+            throw e;
+        } catch (RuntimeException e) {
+            inFlight.failure = new IOException(e);
+            SAResponseBody.closeQuietly(response);
+            throw e;
+        } finally {
+            synchronized (this) {
+                inFlights.remove(key);
+            }
+            inFlight.complete();
+        }
+    }
+
+    private static boolean isAbandoned(SACall call) {
+        return call.isCanceled() || (call instanceof SARealCall && ((SARealCall) call).isTimedOut());
+    }
+
+    private static SAResponse share(SAResponse response, byte[] body, SARequest request) {
+        return response.newBuilder()
+                .request(request)
+                .body(SAResponseBody.create(response.body().contentType(), body.length, new ByteArrayInputStream(body)))
+                .build();
+    }
+
+    private String key(SARequest request) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(request.method()).append(' ').append(request.url().toString());
+        for (String name : keyHeaders) {
+            builder.append('\n').append(name).append(':').append(request.header(name));
+        }
+        return builder.toString();
+    }
+
+    private static final class InFlight {
+        // 由 this 保护
+        boolean done;
+
+        // 在 complete 之前写入，之后只读
+        SAResponse response;
+        byte[] body;
+        IOException failure;
+
+        synchronized void complete() {
+            done = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 等待第一个请求完成，作为一次交换登记到自己的调用上，取消或者调用超时时停止等待
+     */
+    private static final class Follower implements SARealCall.Cancelable {
+        private final InFlight inFlight;
+        // 由 inFlight 保护
+        private boolean canceled;
+
+        Follower(InFlight inFlight) {
+            this.inFlight = inFlight;
+        }
+
+        void await() throws IOException {
+            synchronized (inFlight) {
+                while (!inFlight.done && !canceled) {
+                    try {
+                        inFlight.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while waiting for coalesced call");
+                    }
+                }
+                // 调用超时时由 SARealCall 替换为 InterruptedIOException("timeout")
+                if (!inFlight.done) throw new IOException("Canceled");
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (inFlight) {
+                canceled = true;
+                inFlight.notifyAll();
+            }
+        }
+    }
+}
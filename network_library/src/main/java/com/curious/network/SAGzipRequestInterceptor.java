@@ -0,0 +1,144 @@
+package com.curious.network;
+
+import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SARequestBody;
+import com.curious.network.base.SAResponse;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 用 gzip 压缩较大的请求体，并设置 Content-Encoding: gzip。压缩后的长度事先不知道，请求体以 chunked 方式发送。
+ * <p>
+ * 服务器必须支持解压请求体，可以用 hosts 限制只对这些 host 压缩。
+ * 通过 {@link com.curious.network.base.SAHttpClient.Builder#addInterceptor(SAInterceptor)} 启用
+ */
+public class SAGzipRequestInterceptor implements SAInterceptor {
+    private static final long DEFAULT_MIN_SIZE = 1024;
+
+    private final long minSize;
+    private final Set<String> hosts;
+
+    /**
+     * @param hosts 允许压缩的 host，为空时对所有 host 压缩
+     */
+    public SAGzipRequestInterceptor(String... hosts) {
+        this(DEFAULT_MIN_SIZE, hosts);
+    }
+
+    /**
+     * @param minSize 请求体不小于这个字节数时才压缩，长度未知的请求体总是压缩
+     * @param hosts 允许压缩的 host，为空时对所有 host 压缩
+     */
+    public SAGzipRequestInterceptor(long minSize, String... hosts) {
+        if (minSize < 0) throw new IllegalArgumentException("minSize < 0: " + minSize);
+        this.minSize = minSize;
+        Set<String> hostSet = new HashSet<>();
+        for (String host : hosts) {
+            hostSet.add(host.toLowerCase(Locale.US));
+        }
+        this.hosts = Collections.unmodifiableSet(hostSet);
+    }
+
+    @Override
+    public SAResponse intercept(Chain chain) throws IOException {
+        SARequest request = chain.request();
+        SARequestBody body = request.body();
+        if (body == null
+                || !SARequest.HttpMethod.permitsRequestBody(request.method())
+                || request.header("Content-Encoding") != null
+                || !acceptsGzip(request)) {
+            return chain.proceed(request);
+        }
+        long contentLength = body.contentLength();
+        if (contentLength != -1 && contentLength < minSize) {
+            return chain.proceed(request);
+        }
+
+        SARequest compressedRequest = request.newBuilder()
+                .setHeader("Content-Encoding", "gzip")
+                .removeHeader("Content-Length")
+                .body(gzip(body))
+                .build();
+        return chain.proceed(compressedRequest);
+    }
+
+    private boolean acceptsGzip(SARequest request) {
+        return hosts.isEmpty() || hosts.contains(request.url().host().toLowerCase(Locale.US));
+    }
+
+    private static SARequestBody gzip(final SARequestBody body) {
+        return new SARequestBody() {
+            @Override
+            public long contentLength() {
+                // 压缩后的长度未知
+                return -1;
+            }
+
+            @Override
+            public String contentType() {
+                return body.contentType();
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                // 关闭 gzip 流时释放 Deflater，但不能关闭底层的请求流
+                OutputStream notClosing = new FilterOutputStream(out) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                };
+                GzipSink gzipSink = new GzipSink(notClosing);
+                boolean success = false;
+                try {
+                    body.writeTo(gzipSink);
+                    gzipSink.finish();
+                    success = true;
+                } finally {
+                    if (success) {
+                        gzipSink.close();
+                    } else {
+                        // 失败时不再写 gzip 结尾，只释放 Deflater，原来的异常继续抛出
+                        gzipSink.release();
+                    }
+                }
+            }
+
+            @Override
+            public boolean isOneShot() {
+                return body.isOneShot();
+            }
+
+            @Override
+            public String stringContent() {
+                return body.stringContent();
+            }
+        };
+    }
+
+    /**
+     * 可以不写结尾就释放 Deflater 的 gzip 流
+     */
+    private static final class GzipSink extends GZIPOutputStream {
+        GzipSink(OutputStream out) throws IOException {
+            super(out, 8 * 1024);
+        }
+
+        void release() {
+            def.end();
+        }
+    }
+}
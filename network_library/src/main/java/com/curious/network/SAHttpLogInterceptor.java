@@ -4,46 +4,287 @@ import android.util.Log;
 
 import com.curious.network.base.SAHeader;
 import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SAMediaType;
 import com.curious.network.base.SARequest;
+import com.curious.network.base.SARequestBody;
 import com.curious.network.base.SAResponse;
+import com.curious.network.base.SAResponseBody;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * request，response log
+ * <p>
+ * 不会提前读取响应体，{@link Level#BODY} 时在调用方读取响应体的同时记录最多 maxBodyBytes 个字节，读完或关闭后输出；
+ * 看起来不是文本的响应体只输出长度
  */
 public class SAHttpLogInterceptor implements SAInterceptor {
 
     private static final String TAG = "SAHttpLogInterceptor";
+    private static final long DEFAULT_MAX_BODY_BYTES = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("utf-8");
+
+    public enum Level {
+        /** 不输出日志 */
+        NONE,
+        /** 请求行、响应行、耗时和请求体、响应体的长度 */
+        BASIC,
+        /** 在 BASIC 的基础上输出请求头和响应头 */
+        HEADERS,
+        /** 在 HEADERS 的基础上输出请求体和响应体，最多 maxBodyBytes 个字节 */
+        BODY
+    }
+
+    private volatile Level level;
+    private final long maxBodyBytes;
+
+    public SAHttpLogInterceptor() {
+        this(Level.BODY);
+    }
+
+    public SAHttpLogInterceptor(Level level) {
+        this(level, DEFAULT_MAX_BODY_BYTES);
+    }
+
+    /**
+     * @param level 日志级别
+     * @param maxBodyBytes {@link Level#BODY} 时每个请求体、响应体最多输出的字节数
+     */
+    public SAHttpLogInterceptor(Level level, long maxBodyBytes) {
+        if (level == null) throw new IllegalArgumentException("level == null");
+        if (maxBodyBytes < 0) throw new IllegalArgumentException("maxBodyBytes < 0: " + maxBodyBytes);
+        this.level = level;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * 运行时调整日志级别，对之后的请求生效
+     */
+    public void setLevel(Level level) {
+        if (level == null) throw new IllegalArgumentException("level == null");
+        this.level = level;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
 
     @Override
     public SAResponse intercept(SAInterceptor.Chain chain) throws IOException {
+        Level level = this.level;
         SARequest request = chain.request();
+        if (level == Level.NONE) {
+            return chain.proceed(request);
+        }
+
+        boolean logHeaders = level == Level.HEADERS || level == Level.BODY;
+        boolean logBody = level == Level.BODY;
+
+        SARequestBody requestBody = request.body();
         StringBuilder builder = new StringBuilder();
-        builder.append("=====request part=====\n");
-        builder.append(request.method().toString()).append("  ").append(request.url().toString()).append("\n");
-        List<SAHeader> headerList = request.headers();
-        if (!headerList.isEmpty()) {
-            for (SAHeader header : headerList) {
-                builder.append(header.getName()).append(":").append(header.getValue()).append("  ").append(header.isSetHeader()).append("\n");
-            }
+        builder.append("--> ").append(request.method().toString()).append(' ').append(request.url().toString());
+        if (requestBody != null) {
+            builder.append(" (").append(requestBody.contentLength()).append("-byte body)");
         }
-        builder.append("\n\n").append(request.body().stringContent()).append("\n");
-        builder.append("=====response part=====\n");
-        SAResponse response = chain.proceed(request);
-        if (response != null) {
-            builder.append(response.code()).append("  \n");
+        builder.append('\n');
+        if (logHeaders) {
+            appendHeaders(builder, request.headers());
         }
-        List<SAHeader> responseHeaderList = response.headers();
-        if (!responseHeaderList.isEmpty()) {
-            for (SAHeader header : responseHeaderList) {
-                builder.append(header.getName()).append(":").append(header.getValue()).append("\n");
+        if (logBody && requestBody != null) {
+            String content = requestBody.stringContent();
+            if (content != null && !content.isEmpty()) {
+                builder.append('\n').append(truncate(content)).append('\n');
             }
         }
-        builder.append("\n\n").append(response.body().string()).append("\n");
+        builder.append("--> END ").append(request.method().toString());
+        Log.i(TAG, builder.toString());
+
+        long startNs = System.nanoTime();
+        SAResponse response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            Log.i(TAG, "<-- HTTP FAILED: " + e);
+            throw e;
+        }
+        long tookMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+
+        SAResponseBody body = response.body();
+        String url = response.request() != null ? response.request().url().toString() : request.url().toString();
+        builder.setLength(0);
+        builder.append("<-- ").append(response.code()).append(' ').append(response.message())
+                .append(' ').append(url).append(" (").append(tookMs).append("ms");
+        if (body != null) {
+            long contentLength = body.contentLength();
+            builder.append(", ").append(contentLength != -1 ? contentLength + "-byte" : "unknown-length").append(" body");
+        }
+        builder.append(")\n");
+        if (logHeaders) {
+            appendHeaders(builder, response.headers());
+        }
+
+        if (!logBody || body == null || body.byteStream() == null) {
+            builder.append("<-- END HTTP");
+            Log.i(TAG, builder.toString());
+            return response;
+        }
 
         Log.i(TAG, builder.toString());
-        return response;
+        SAMediaType mediaType = body.mediaType();
+        Charset charset = mediaType != null ? mediaType.charset(UTF_8) : UTF_8;
+        InputStream loggingStream = new LoggingInputStream(body.byteStream(), body.contentLength(), url, charset);
+        return response.newBuilder()
+                .body(SAResponseBody.create(body.contentType(), body.contentLength(), loggingStream))
+                .build();
+    }
+
+    private static void appendHeaders(StringBuilder builder, List<SAHeader> headers) {
+        for (SAHeader header : headers) {
+            if (header.getName() == null) continue;
+            builder.append(header.getName()).append(": ").append(header.getValue()).append('\n');
+        }
+    }
+
+    private String truncate(String content) {
+        if (content.length() <= maxBodyBytes) {
+            return content;
+        }
+        return content.substring(0, (int) maxBodyBytes) + "...(" + content.length() + " chars total)";
+    }
+
+    /**
+     * 边读边记录前 maxBodyBytes 个字节，读到结尾或者关闭时输出一次日志
+     */
+    private final class LoggingInputStream extends FilterInputStream {
+        private final String url;
+        private final Charset charset;
+        private final ByteArrayOutputStream captured;
+        private long totalBytes;
+        private boolean logged;
+
+        LoggingInputStream(InputStream in, long contentLength, String url, Charset charset) {
+            super(in);
+            this.url = url;
+            this.charset = charset;
+            long initialSize = contentLength >= 0 ? Math.min(contentLength, maxBodyBytes) : Math.min(1024, maxBodyBytes);
+            this.captured = new ByteArrayOutputStream((int) Math.max(initialSize, 1));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                log(null);
+            } else {
+                capture(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count;
+            try {
+                count = super.read(b, off, len);
+            } catch (IOException e) {
+                log(e);
+                throw e;
+            }
+            if (count == -1) {
+                log(null);
+            } else {
+                capture(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            totalBytes += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            log(null);
+            super.close();
+        }
+
+        private void capture(byte[] b, int off, int count) {
+            totalBytes += count;
+            long remaining = maxBodyBytes - captured.size();
+            if (remaining > 0) {
+                captured.write(b, off, (int) Math.min(remaining, count));
+            }
+        }
+
+        private void log(IOException e) {
+            if (logged) return;
+            logged = true;
+            StringBuilder builder = new StringBuilder();
+            builder.append(url).append('\n');
+            boolean truncated = totalBytes > captured.size();
+            // 截断的前缀末尾可能只有半个字符，不作为结尾解码，直接丢弃
+            String text = decode(captured.toByteArray(), charset, !truncated);
+            if (isPlaintext(text)) {
+                if (!text.isEmpty()) {
+                    builder.append(text).append('\n');
+                }
+                if (truncated) {
+                    builder.append("...(truncated)\n");
+                }
+                builder.append("<-- END HTTP (").append(totalBytes).append("-byte body");
+                if (e != null) builder.append(" read, failed: ").append(e);
+            } else {
+                builder.append("<-- END HTTP (binary ").append(totalBytes).append("-byte body omitted");
+                if (e != null) builder.append(", failed: ").append(e);
+            }
+            builder.append(')');
+            Log.i(TAG, builder.toString());
+        }
+    }
+
+    /**
+     * 非法字节替换为 U+FFFD；endOfInput 为 false 时末尾不完整的字符留在输入中，不输出
+     */
+    static String decode(byte[] bytes, Charset charset, boolean endOfInput) {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer out = CharBuffer.allocate((int) (bytes.length * (double) decoder.maxCharsPerByte()) + 1);
+        decoder.decode(ByteBuffer.wrap(bytes), out, endOfInput);
+        if (endOfInput) decoder.flush(out);
+        out.flip();
+        return out.toString();
+    }
+
+    /**
+     * 检查前 64 个字符，出现空白以外的控制字符或者无法解码的字节就认为是二进制内容
+     */
+    static boolean isPlaintext(String text) {
+        int limit = Math.min(text.length(), 64);
+        for (int i = 0; i < limit; i++) {
+            char c = text.charAt(i);
+            if (c == '\uFFFD' || (Character.isISOControl(c) && !Character.isWhitespace(c))) {
+                return false;
+            }
+        }
+        return true;
     }
 }
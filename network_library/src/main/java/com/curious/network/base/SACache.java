@@ -0,0 +1,487 @@
+package com.curious.network.base;
+
+import com.curious.network.base.internal.Util;
+import com.curious.network.base.internal.cache.CacheRequest;
+import com.curious.network.base.internal.cache.CacheStrategy;
+import com.curious.network.base.internal.cache.DiskLruCache;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Http 响应的磁盘缓存，只缓存 GET 请求，总大小超过 maxSize 时按 LRU 淘汰。
+ * <p>
+ * 新鲜度遵循 Cache-Control / Expires，过期的条目会带上 If-None-Match 或 If-Modified-Since 去服务器验证，
+ * 服务器返回 304 时直接使用磁盘中的响应体。通过 {@link SAHttpClient.Builder#cache(SACache)} 启用
+ */
+public final class SACache implements Closeable {
+    private static final int VERSION = 201912;
+    private static final int ENTRY_METADATA = 0;
+    private static final int ENTRY_BODY = 1;
+    private static final int ENTRY_COUNT = 2;
+
+    private final File directory;
+    private final DiskLruCache cache;
+
+    // 统计数据，guarded by this
+    private int writeSuccessCount;
+    private int writeAbortCount;
+    private int networkCount;
+    private int hitCount;
+    private int requestCount;
+
+    /**
+     * @param directory 缓存目录，只能被一个 SACache 使用
+     * @param maxSize 缓存的最大字节数
+     */
+    public SACache(File directory, long maxSize) {
+        this.directory = directory;
+        this.cache = new DiskLruCache(directory, VERSION, ENTRY_COUNT, maxSize);
+    }
+
+    public static String key(SAHttpUrl url) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+            byte[] md5bytes = messageDigest.digest(url.toString().getBytes(Util.UTF_8));
+            char[] hex = new char[md5bytes.length * 2];
+            char[] digits = "0123456789abcdef".toCharArray();
+            for (int i = 0; i < md5bytes.length; i++) {
+                hex[i * 2] = digits[(md5bytes[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = digits[md5bytes[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * 读取缓存的响应，不存在或者 Vary 指定的请求头不匹配时返回 null。
+     * 仅供内部的 CacheInterceptor 调用
+     */
+    public SAResponse get(SARequest request) {
+        String key = key(request.url());
+        DiskLruCache.Snapshot snapshot;
+        try {
+            snapshot = cache.get(key);
+            if (snapshot == null) {
+                return null;
+            }
+        } catch (IOException e) {
+            // 缓存不可读时当作没有缓存
+            return null;
+        }
+
+        Entry entry;
+        try {
+            entry = Entry.read(snapshot.getInputStream(ENTRY_METADATA));
+        } catch (IOException e) {
+            snapshot.close();
+            return null;
+        }
+
+        if (!entry.matches(request)) {
+            snapshot.close();
+            return null;
+        }
+        return entry.response(request, snapshot);
+    }
+
+    /**
+     * 开始写入缓存，响应不能缓存时返回 null。仅供内部的 CacheInterceptor 调用
+     */
+    public CacheRequest put(SAResponse response) {
+        SARequest request = response.request();
+        if (request.method() != SARequest.HttpMethod.GET) {
+            // 其他请求方法即使技术上可以缓存，实现起来也很复杂，收益很低
+            return null;
+        }
+        if (hasVaryAll(response)) {
+            return null;
+        }
+
+        Entry entry = new Entry(response);
+        DiskLruCache.Editor editor = null;
+        try {
+            editor = cache.edit(key(request.url()));
+            if (editor == null) {
+                return null;
+            }
+            entry.writeTo(editor);
+            return new RealCacheRequest(editor);
+        } catch (IOException e) {
+            abortQuietly(editor);
+            return null;
+        }
+    }
+
+    /**
+     * 删除 url 对应的缓存，用于 POST、PUT、DELETE 等会修改资源的请求
+     */
+    public void remove(SARequest request) throws IOException {
+        cache.remove(key(request.url()));
+    }
+
+    /**
+     * 服务器返回 304 后，用新的响应头更新缓存的元数据，响应体不变
+     */
+    public void update(SAResponse cached, SAResponse network) {
+        Entry entry = new Entry(network);
+        DiskLruCache.Snapshot snapshot = ((CacheResponseBody) cached.body()).snapshot;
+        DiskLruCache.Editor editor = null;
+        try {
+            editor = snapshot.edit();
+            if (editor != null) {
+                entry.writeTo(editor);
+                editor.commit();
+            }
+        } catch (IOException e) {
+            abortQuietly(editor);
+        }
+    }
+
+    private static void abortQuietly(DiskLruCache.Editor editor) {
+        try {
+            if (editor != null) {
+                editor.abort();
+            }
+        } catch (IOException ignored) {
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    /** 删除所有缓存 */
+    public void evictAll() throws IOException {
+        cache.evictAll();
+    }
+
+    /** 删除缓存目录中的所有文件 */
+    public void delete() throws IOException {
+        cache.delete();
+    }
+
+    public long size() throws IOException {
+        return cache.size();
+    }
+
+    public long maxSize() {
+        return cache.maxSize();
+    }
+
+    public File directory() {
+        return directory;
+    }
+
+    @Override
+    public void close() throws IOException {
+        cache.close();
+    }
+
+    public synchronized void trackResponse(CacheStrategy cacheStrategy) {
+        requestCount++;
+        if (cacheStrategy.networkRequest != null) {
+            // 不论是否带条件头，都访问了网络
+            networkCount++;
+        } else if (cacheStrategy.cacheResponse != null) {
+            hitCount++;
+        }
+    }
+
+    /** 条件请求返回 304，缓存被验证后继续使用 */
+    public synchronized void trackConditionalCacheHit() {
+        hitCount++;
+    }
+
+    public synchronized int writeAbortCount() {
+        return writeAbortCount;
+    }
+
+    public synchronized int writeSuccessCount() {
+        return writeSuccessCount;
+    }
+
+    public synchronized int networkCount() {
+        return networkCount;
+    }
+
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public synchronized int requestCount() {
+        return requestCount;
+    }
+
+    private static boolean hasVaryAll(SAResponse response) {
+        return varyFields(response.headers()).contains("*");
+    }
+
+    /**
+     * 返回 Vary 头中列出的请求头名称，统一为小写
+     */
+    static Set<String> varyFields(List<SAHeader> responseHeaders) {
+        Set<String> result = Collections.emptySet();
+        for (SAHeader header : responseHeaders) {
+            if (!"Vary".equalsIgnoreCase(header.getName())) continue;
+            for (String varyField : header.getValue().split(",")) {
+                if (result.isEmpty()) {
+                    result = new TreeSet<>();
+                }
+                result.add(varyField.trim().toLowerCase(Locale.US));
+            }
+        }
+        return result;
+    }
+
+    private final class RealCacheRequest implements CacheRequest {
+        private final DiskLruCache.Editor editor;
+        private OutputStream body;
+        private boolean done;
+
+        RealCacheRequest(DiskLruCache.Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override
+        public OutputStream body() throws IOException {
+            if (body == null) {
+                body = new BufferedOutputStream(editor.newOutputStream(ENTRY_BODY), 8 * 1024);
+            }
+            return body;
+        }
+
+        @Override
+        public void commit() throws IOException {
+            synchronized (SACache.this) {
+                if (done) return;
+                done = true;
+                writeSuccessCount++;
+            }
+            if (body != null) {
+                body.close();
+            }
+            editor.commit();
+        }
+
+        @Override
+        public void abort() {
+            synchronized (SACache.this) {
+                if (done) return;
+                done = true;
+                writeAbortCount++;
+            }
+            SAResponseBody.closeQuietly(body);
+            abortQuietly(editor);
+        }
+    }
+
+    /**
+     * 缓存条目的元数据，以文本格式保存：
+     * <pre>
+     *     url
+     *     method
+     *     Vary 相关请求头的数量
+     *     name: value
+     *     状态码
+     *     状态信息
+     *     响应头的数量
+     *     name: value
+     *     发出请求的时间
+     *     收到响应的时间
+     * </pre>
+     */
+    private static final class Entry {
+        private final String url;
+        private final String method;
+        private final List<SAHeader> varyHeaders;
+        private final int code;
+        private final String message;
+        private final List<SAHeader> responseHeaders;
+        private final long sentRequestMillis;
+        private final long receivedResponseMillis;
+
+        Entry(SAResponse response) {
+            SARequest request = response.request();
+            this.url = request.url().toString();
+            this.method = request.method().toString();
+            this.varyHeaders = new ArrayList<>();
+            Set<String> varyFields = varyFields(response.headers());
+            for (SAHeader header : request.headers()) {
+                if (varyFields.contains(header.getName().toLowerCase(Locale.US))) {
+                    varyHeaders.add(header);
+                }
+            }
+            this.code = response.code();
+            this.message = response.message() != null ? response.message() : "";
+            this.responseHeaders = new ArrayList<>();
+            for (SAHeader header : response.headers()) {
+                // HttpURLConnection 会把状态行作为 name 为 null 的头信息返回
+                if (header.getName() != null) {
+                    responseHeaders.add(header);
+                }
+            }
+            this.sentRequestMillis = response.sentRequestAtMillis();
+            this.receivedResponseMillis = response.receivedResponseAtMillis();
+        }
+
+        private Entry(String url, String method, List<SAHeader> varyHeaders, int code, String message,
+                      List<SAHeader> responseHeaders, long sentRequestMillis, long receivedResponseMillis) {
+            this.url = url;
+            this.method = method;
+            this.varyHeaders = varyHeaders;
+            this.code = code;
+            this.message = message;
+            this.responseHeaders = responseHeaders;
+            this.sentRequestMillis = sentRequestMillis;
+            this.receivedResponseMillis = receivedResponseMillis;
+        }
+
+        static Entry read(InputStream in) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, Util.UTF_8));
+            try {
+                String url = reader.readLine();
+                String method = reader.readLine();
+                List<SAHeader> varyHeaders = readHeaders(reader);
+                int code = Integer.parseInt(readLine(reader));
+                String message = readLine(reader);
+                List<SAHeader> responseHeaders = readHeaders(reader);
+                long sentRequestMillis = Long.parseLong(readLine(reader));
+                long receivedResponseMillis = Long.parseLong(readLine(reader));
+                if (url == null || method == null) {
+                    throw new IOException("unexpected cache entry");
+                }
+                return new Entry(url, method, varyHeaders, code, message, responseHeaders,
+                        sentRequestMillis, receivedResponseMillis);
+            } catch (NumberFormatException e) {
+                throw new IOException("unexpected cache entry: " + e.getMessage());
+            } finally {
+                reader.close();
+            }
+        }
+
+        private static String readLine(BufferedReader reader) throws IOException {
+            String line = reader.readLine();
+            if (line == null) throw new IOException("unexpected end of cache entry");
+            return line;
+        }
+
+        private static List<SAHeader> readHeaders(BufferedReader reader) throws IOException {
+            int count = Integer.parseInt(readLine(reader));
+            List<SAHeader> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String line = readLine(reader);
+                int index = line.indexOf(':');
+                if (index == -1) throw new IOException("unexpected header line: " + line);
+                result.add(new SAHeader(line.substring(0, index), line.substring(index + 2), true));
+            }
+            return result;
+        }
+
+        void writeTo(DiskLruCache.Editor editor) throws IOException {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(editor.newOutputStream(ENTRY_METADATA), Util.UTF_8));
+            try {
+                writer.write(url + '\n');
+                writer.write(method + '\n');
+                writeHeaders(writer, varyHeaders);
+                writer.write(Integer.toString(code) + '\n');
+                writer.write(message + '\n');
+                writeHeaders(writer, responseHeaders);
+                writer.write(Long.toString(sentRequestMillis) + '\n');
+                writer.write(Long.toString(receivedResponseMillis) + '\n');
+            } finally {
+                writer.close();
+            }
+        }
+
+        private static void writeHeaders(Writer writer, List<SAHeader> headers) throws IOException {
+            writer.write(Integer.toString(headers.size()) + '\n');
+            for (SAHeader header : headers) {
+                writer.write(header.getName() + ": " + header.getValue() + '\n');
+            }
+        }
+
+        /**
+         * url、method 相同，并且 Vary 指定的请求头的值也相同时，才能使用这条缓存
+         */
+        boolean matches(SARequest request) {
+            if (!url.equals(request.url().toString()) || !method.equals(request.method().toString())) {
+                return false;
+            }
+            for (String field : varyFields(responseHeaders)) {
+                if (!equalsNullable(Util.headerValue(varyHeaders, field), request.header(field))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean equalsNullable(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        SAResponse response(SARequest request, DiskLruCache.Snapshot snapshot) {
+            String contentType = Util.headerValue(responseHeaders, "Content-Type");
+            return new SAResponse.Builder()
+                    .request(request)
+                    .code(code)
+                    .message(message)
+                    .headers(responseHeaders)
+                    .body(new CacheResponseBody(snapshot, contentType))
+                    .sentRequestAtMillis(sentRequestMillis)
+                    .receivedResponseAtMillis(receivedResponseMillis)
+                    .build();
+        }
+    }
+
+    /** 从磁盘读取的响应体，关闭时释放快照 */
+    private static final class CacheResponseBody extends SAResponseBody {
+        final DiskLruCache.Snapshot snapshot;
+        private final String contentType;
+        private final InputStream bodyStream;
+
+        CacheResponseBody(final DiskLruCache.Snapshot snapshot, String contentType) {
+            this.snapshot = snapshot;
+            this.contentType = contentType;
+            this.bodyStream = new FilterInputStream(snapshot.getInputStream(ENTRY_BODY)) {
+                @Override
+                public void close() throws IOException {
+                    snapshot.close();
+                    super.close();
+                }
+            };
+        }
+
+        @Override
+        public String contentType() {
+            return contentType;
+        }
+
+        @Override
+        public long contentLength() {
+            return snapshot.getLength(ENTRY_BODY);
+        }
+
+        @Override
+        public InputStream byteStream() {
+            return bodyStream;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.curious.network.base;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带缓存的 {@link SADns}，按 host 缓存解析结果 ttl 时间，解析失败的结果缓存 negativeTtl 时间。
+ * <p>
+ * 缓存的条目剩余不到 1/4 ttl 时，命中的请求仍然直接使用缓存，同时在后台线程重新解析，
+ * 常用的 host 不会因为过期而让请求等待解析；同一个 host 同时只有一次解析，其他请求等待它的结果。
+ * 可以在应用启动时调用 {@link #prefetch(String...)} 提前解析已知的 host
+ */
+public final class SACachingDns implements SADns {
+    private static final Executor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SAHttp Dns");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final SADns delegate;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /** 正在解析的 host */
+    private final ConcurrentHashMap<String, FutureTask<Entry>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    /**
+     * 使用系统解析，成功的结果缓存 60 秒，失败的结果缓存 10 秒
+     */
+    public SACachingDns() {
+        this(SADns.SYSTEM, 60, 10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param delegate 实际完成解析的 {@link SADns}
+     * @param ttl 解析成功的结果缓存的时间
+     * @param negativeTtl 解析失败的结果缓存的时间，为 0 时不缓存失败的结果
+     * @param timeUnit ttl 和 negativeTtl 的单位
+     */
+    public SACachingDns(SADns delegate, long ttl, long negativeTtl, TimeUnit timeUnit) {
+        if (delegate == null) throw new IllegalArgumentException("delegate == null");
+        if (ttl <= 0) throw new IllegalArgumentException("ttl <= 0: " + ttl);
+        if (negativeTtl < 0) throw new IllegalArgumentException("negativeTtl < 0: " + negativeTtl);
+        this.delegate = delegate;
+        this.ttlNanos = timeUnit.toNanos(ttl);
+        this.negativeTtlNanos = timeUnit.toNanos(negativeTtl);
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        if (hostname == null) throw new UnknownHostException("hostname == null");
+        String host = hostname.toLowerCase(Locale.US);
+        Entry entry = entries.get(host);
+        long now = System.nanoTime();
+        if (entry != null && now - entry.expiresAtNanos < 0) {
+            hitCount.incrementAndGet();
+            if (entry.addresses != null && now - entry.refreshAtNanos >= 0) {
+                refreshAsync(host);
+            }
+            return entry.result();
+        }
+        missCount.incrementAndGet();
+        return resolve(host).result();
+    }
+
+    /**
+     * 在后台线程解析这些 host，已经缓存并且不需要刷新的 host 会被跳过
+     */
+    public void prefetch(String... hostnames) {
+        long now = System.nanoTime();
+        for (String hostname : hostnames) {
+            if (hostname == null) continue;
+            String host = hostname.toLowerCase(Locale.US);
+            Entry entry = entries.get(host);
+            if (entry != null && now - entry.refreshAtNanos < 0) continue;
+            refreshAsync(host);
+        }
+    }
+
+    /**
+     * 清除所有缓存的结果，例如网络切换之后
+     */
+    public void evictAll() {
+        entries.clear();
+    }
+
+    /** 直接使用缓存结果的次数，包括失败的结果 */
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    /** 需要等待解析的次数 */
+    public long missCount() {
+        return missCount.get();
+    }
+
+    /** 后台刷新和预解析的次数 */
+    public long refreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * 在当前线程解析，同一个 host 已经在解析时等待它的结果
+     */
+    private Entry resolve(String host) {
+        FutureTask<Entry> task = new FutureTask<>(new LookupTask(host));
+        FutureTask<Entry> existing = pending.putIfAbsent(host, task);
+        if (existing == null) {
+            task.run();
+        } else {
+            task = existing;
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    // 解析本身不能中断，等它完成后恢复中断状态
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // delegate 抛出的非受检异常原样抛出，LookupTask 不会抛出受检异常
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private void refreshAsync(String host) {
+        FutureTask<Entry> task = new FutureTask<>(new LookupTask(host));
+        if (pending.putIfAbsent(host, task) != null) return;
+        refreshCount.incrementAndGet();
+        executor.execute(task);
+    }
+
+    private final class LookupTask implements Callable<Entry> {
+        private final String host;
+
+        LookupTask(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public Entry call() {
+            try {
+                Entry entry;
+                try {
+                    List<InetAddress> addresses = delegate.lookup(host);
+                    if (addresses == null || addresses.isEmpty()) {
+                        throw new UnknownHostException(delegate + " returned no addresses for " + host);
+                    }
+                    long now = System.nanoTime();
+                    entry = new Entry(Collections.unmodifiableList(new ArrayList<>(addresses)), null,
+                            now + ttlNanos, now + ttlNanos - ttlNanos / 4);
+                } catch (UnknownHostException e) {
+                    long now = System.nanoTime();
+                    entry = new Entry(null, e.getMessage(), now + negativeTtlNanos, now + negativeTtlNanos);
+                    Entry previous = entries.get(host);
+                    if (previous != null && previous.addresses != null && now - previous.expiresAtNanos < 0) {
+                        // 刷新失败时继续使用还没有过期的结果
+                        return previous;
+                    }
+                    if (negativeTtlNanos == 0) {
+                        entries.remove(host);
+                        return entry;
+                    }
+                }
+                entries.put(host, entry);
+                return entry;
+            } finally {
+                pending.remove(host);
+            }
+        }
+    }
+
+    private static final class Entry {
+        /** 解析失败时为 null */
+        final List<InetAddress> addresses;
+        final String failureMessage;
+        final long expiresAtNanos;
+        final long refreshAtNanos;
+
+        Entry(List<InetAddress> addresses, String failureMessage, long expiresAtNanos, long refreshAtNanos) {
+            this.addresses = addresses;
+            this.failureMessage = failureMessage;
+            this.expiresAtNanos = expiresAtNanos;
+            this.refreshAtNanos = refreshAtNanos;
+        }
+
+        List<InetAddress> result() throws UnknownHostException {
+            if (addresses == null) throw new UnknownHostException(failureMessage);
+            return addresses;
+        }
+    }
+}
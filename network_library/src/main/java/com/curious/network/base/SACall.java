@@ -16,9 +16,12 @@ public interface SACall {
     /** 异步请求 */
     void enqueue(HttpCallback callback);
 
-    /** 取消请求 */
+    /** 取消请求，可以在任意线程多次调用 */
     void cancel();
 
+    /** 是否调用过 {@link #cancel()} */
+    boolean isCanceled();
+
 
     interface Factory {
         SACall newCall(SARequest request);
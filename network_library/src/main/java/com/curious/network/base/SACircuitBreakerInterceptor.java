@@ -0,0 +1,342 @@
+package com.curious.network.base;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 按 {@link SAHttpUrl#host()} 熔断的应用拦截器，通过 {@link SAHttpClient.Builder#addInterceptor} 添加。
+ * <p>
+ * 每个 host 在最近 window 时间内统计调用的失败率和慢调用率，调用数达到 minimumCalls 并且任意一个比例超过阈值时熔断（OPEN），
+ * 之后的调用直接以 {@link CircuitOpenException} 失败，不再等待连接和读取超时，也不会重试。
+ * 熔断 openDuration 之后进入半开（HALF_OPEN），只放行 probeCalls 个探测调用：全部成功时恢复（CLOSED），任何一个失败或者过慢时重新熔断。
+ * <p>
+ * IOException 和 5xx 响应算作失败，收到响应头的时间超过 slowCallDuration 算作慢调用，被取消的调用不计入统计。
+ * 作为应用拦截器，一次调用的所有重试和重定向只统计一次
+ */
+public final class SACircuitBreakerInterceptor implements SAInterceptor {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 熔断状态变化的回调，在触发变化的调用线程中执行，不能阻塞
+     */
+    public interface Listener {
+        void onStateChange(String host, State from, State to);
+    }
+
+    /**
+     * host 处于熔断状态，调用没有发出
+     */
+    public static final class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final String host;
+
+        CircuitOpenException(String host) {
+            super("circuit open for " + host);
+            this.host = host;
+        }
+
+        public String host() {
+            return host;
+        }
+    }
+
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallDurationNanos;
+    private final int minimumCalls;
+    private final long bucketNanos;
+    private final int bucketCount;
+    private final long openDurationNanos;
+    private final int probeCalls;
+    private final Listener listener;
+    /** 时间桶从这个时间开始编号 */
+    private final long startNanos = System.nanoTime();
+
+    private final ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    private SACircuitBreakerInterceptor(Builder builder) {
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.slowCallDurationNanos = builder.slowCallDurationNanos;
+        this.minimumCalls = builder.minimumCalls;
+        this.bucketCount = builder.bucketCount;
+        this.bucketNanos = builder.windowNanos / builder.bucketCount;
+        this.openDurationNanos = builder.openDurationNanos;
+        this.probeCalls = builder.probeCalls;
+        this.listener = builder.listener;
+    }
+
+    @Override
+    public SAResponse intercept(Chain chain) throws IOException {
+        SARequest request = chain.request();
+        String host = request.url().host();
+        Circuit circuit = circuit(host);
+        Phase probe = circuit.acquire();
+
+        long startNanos = System.nanoTime();
+        SAResponse response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            if (chain.call().isCanceled()) {
+                circuit.release(probe);
+            } else {
+                circuit.record(probe, true, System.nanoTime() - startNanos >= slowCallDurationNanos);
+            }
+            throw e;
+        } catch (RuntimeException | Error e) {
+            circuit.release(probe);
+            throw e;
+        }
+        circuit.record(probe, response.code() >= 500, System.nanoTime() - startNanos >= slowCallDurationNanos);
+        return response;
+    }
+
+    /**
+     * @return 没有调用过这个 host 时为 {@link State#CLOSED}
+     */
+    public State state(String host) {
+        Circuit circuit = circuits.get(host);
+        return circuit == null ? State.CLOSED : circuit.phase.get().state;
+    }
+
+    private Circuit circuit(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            Circuit created = new Circuit(host);
+            circuit = circuits.putIfAbsent(host, created);
+            if (circuit == null) circuit = created;
+        }
+        return circuit;
+    }
+
+    /**
+     * 一次进入的状态。每次状态变化都换成新的对象，半开状态的探测次数和成功次数属于这一轮，
+     * 之前几轮的探测结束时发现状态已经不是自己的那一轮，不会影响当前的统计
+     */
+    private static final class Phase {
+        final State state;
+        final long startNanos = System.nanoTime();
+        /** 半开状态剩余的探测次数 */
+        final AtomicInteger probePermits;
+        /** 半开状态成功的探测次数 */
+        final AtomicInteger probeSuccesses = new AtomicInteger();
+
+        Phase(State state, int probePermits) {
+            this.state = state;
+            this.probePermits = new AtomicInteger(probePermits);
+        }
+
+        /**
+         * 探测次数大于 0 时取出一次，被拒绝的调用不会改变它
+         */
+        boolean tryAcquire() {
+            while (true) {
+                int permits = probePermits.get();
+                if (permits <= 0) return false;
+                if (probePermits.compareAndSet(permits, permits - 1)) return true;
+            }
+        }
+    }
+
+    /**
+     * 一个 host 的熔断状态，所有字段都是无锁的，状态变化通过 CAS 替换 {@link Phase} 完成
+     */
+    private final class Circuit {
+        final String host;
+        final AtomicReference<Phase> phase = new AtomicReference<>(new Phase(State.CLOSED, 0));
+        final Bucket[] buckets;
+
+        Circuit(String host) {
+            this.host = host;
+            this.buckets = new Bucket[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                buckets[i] = new Bucket();
+            }
+        }
+
+        /**
+         * @return 作为半开状态的探测调用放行时返回这一轮的状态，否则返回 null
+         * @throws CircuitOpenException 熔断中，或者半开状态的探测次数已经用完
+         */
+        Phase acquire() throws CircuitOpenException {
+            while (true) {
+                Phase current = phase.get();
+                if (current.state == State.CLOSED) return null;
+                if (current.state == State.OPEN) {
+                    if (System.nanoTime() - current.startNanos < openDurationNanos) throw new CircuitOpenException(host);
+                    transition(current, new Phase(State.HALF_OPEN, probeCalls));
+                    continue;
+                }
+                if (current.tryAcquire()) return current;
+                throw new CircuitOpenException(host);
+            }
+        }
+
+        /**
+         * 探测调用被取消，归还这一轮的探测次数
+         */
+        void release(Phase probe) {
+            if (probe != null && phase.get() == probe) probe.probePermits.incrementAndGet();
+        }
+
+        void record(Phase probe, boolean failed, boolean slow) {
+            if (probe != null) {
+                // 同一轮的其他探测已经改变了状态
+                if (phase.get() != probe) return;
+                if (failed || slow) {
+                    transition(probe, new Phase(State.OPEN, 0));
+                } else if (probe.probeSuccesses.incrementAndGet() >= probeCalls
+                        && transition(probe, new Phase(State.CLOSED, 0))) {
+                    for (Bucket bucket : buckets) {
+                        bucket.epoch.set(-1);
+                    }
+                }
+                return;
+            }
+            long epoch = (System.nanoTime() - startNanos) / bucketNanos;
+            Bucket bucket = buckets[(int) (epoch % bucketCount)];
+            bucket.roll(epoch);
+            bucket.total.incrementAndGet();
+            if (failed) bucket.failures.incrementAndGet();
+            if (slow) bucket.slowCalls.incrementAndGet();
+            Phase current = phase.get();
+            if (current.state == State.CLOSED && shouldOpen(epoch)) {
+                transition(current, new Phase(State.OPEN, 0));
+            }
+        }
+
+        private boolean shouldOpen(long epoch) {
+            long total = 0, failures = 0, slowCalls = 0;
+            for (Bucket bucket : buckets) {
+                // 只统计窗口内的桶
+                if (epoch - bucket.epoch.get() >= bucketCount) continue;
+                total += bucket.total.get();
+                failures += bucket.failures.get();
+                slowCalls += bucket.slowCalls.get();
+            }
+            if (total < minimumCalls) return false;
+            return failures * 100 >= failureRateThreshold * total
+                    || slowCalls * 100 >= slowCallRateThreshold * total;
+        }
+
+        private boolean transition(Phase from, Phase to) {
+            if (!phase.compareAndSet(from, to)) return false;
+            if (listener != null) listener.onStateChange(host, from.state, to.state);
+            return true;
+        }
+    }
+
+    /**
+     * 滑动窗口中的一个时间桶，epoch 为桶对应的时间段，过期的桶在下一次记录时清零
+     */
+    private static final class Bucket {
+        final AtomicLong epoch = new AtomicLong(-1);
+        final AtomicInteger total = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger slowCalls = new AtomicInteger();
+
+        void roll(long current) {
+            long previous = epoch.get();
+            if (previous != current && epoch.compareAndSet(previous, current)) {
+                // 和并发的记录之间有很小的竞争，统计是近似的
+                total.set(0);
+                failures.set(0);
+                slowCalls.set(0);
+            }
+        }
+    }
+
+    public static final class Builder {
+        private int failureRateThreshold = 50;
+        private int slowCallRateThreshold = 100;
+        private long slowCallDurationNanos = TimeUnit.SECONDS.toNanos(5);
+        private int minimumCalls = 20;
+        private long windowNanos = TimeUnit.SECONDS.toNanos(10);
+        private int bucketCount = 10;
+        private long openDurationNanos = TimeUnit.SECONDS.toNanos(30);
+        private int probeCalls = 3;
+        private Listener listener;
+
+        /**
+         * @param percent 失败率达到这个百分比时熔断，默认是 50
+         * @return Builder
+         */
+        public Builder failureRateThreshold(int percent) {
+            if (percent < 1 || percent > 100) throw new IllegalArgumentException("percent out of range: " + percent);
+            this.failureRateThreshold = percent;
+            return this;
+        }
+
+        /**
+         * @param percent 慢调用率达到这个百分比时熔断，默认是 100
+         * @param slowCallDuration 收到响应头的时间超过它时算作慢调用，默认是 5s
+         * @return Builder
+         */
+        public Builder slowCallRateThreshold(int percent, long slowCallDuration, TimeUnit timeUnit) {
+            if (percent < 1 || percent > 100) throw new IllegalArgumentException("percent out of range: " + percent);
+            if (slowCallDuration <= 0) throw new IllegalArgumentException("slowCallDuration <= 0: " + slowCallDuration);
+            this.slowCallRateThreshold = percent;
+            this.slowCallDurationNanos = timeUnit.toNanos(slowCallDuration);
+            return this;
+        }
+
+        /**
+         * @param minimumCalls 窗口内的调用数达到它之后才计算比例，默认是 20
+         * @return Builder
+         */
+        public Builder minimumCalls(int minimumCalls) {
+            if (minimumCalls < 1) throw new IllegalArgumentException("minimumCalls < 1: " + minimumCalls);
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * @param window 统计的时间窗口，分成 10 个桶滑动，默认是 10s
+         * @return Builder
+         */
+        public Builder window(long window, TimeUnit timeUnit) {
+            long nanos = timeUnit.toNanos(window);
+            if (nanos < bucketCount) throw new IllegalArgumentException("window too small: " + window);
+            this.windowNanos = nanos;
+            return this;
+        }
+
+        /**
+         * @param openDuration 熔断之后等待多久进入半开状态，默认是 30s
+         * @return Builder
+         */
+        public Builder openDuration(long openDuration, TimeUnit timeUnit) {
+            if (openDuration < 0) throw new IllegalArgumentException("openDuration < 0: " + openDuration);
+            this.openDurationNanos = timeUnit.toNanos(openDuration);
+            return this;
+        }
+
+        /**
+         * @param probeCalls 半开状态放行的探测调用数，默认是 3
+         * @return Builder
+         */
+        public Builder probeCalls(int probeCalls) {
+            if (probeCalls < 1) throw new IllegalArgumentException("probeCalls < 1: " + probeCalls);
+            this.probeCalls = probeCalls;
+            return this;
+        }
+
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public SACircuitBreakerInterceptor build() {
+            return new SACircuitBreakerInterceptor(this);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.curious.network.base;
+
+import com.curious.network.base.internal.connection.RealConnection;
+import com.curious.network.base.internal.connection.Route;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 空闲连接池，按 {@link Route}（scheme、host、port、proxy）复用连接，省去重复的 TCP 和 TLS 握手。
+ * 空闲超过 keepAliveDuration 的连接，以及超出 maxIdleConnections 的最久未使用的连接，会被后台线程关闭
+ */
+public final class SAConnectionPool {
+    /** 空闲时间超过这个值的连接，复用前需要读取 socket 做一次完整的健康检查 */
+    private static final long EXTENSIVE_HEALTH_CHECK_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final Executor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SAHttp ConnectionPool");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final int maxIdleConnections;
+    private final long keepAliveDurationNs;
+
+    /** 空闲连接，最近放回的在队头 */
+    private final Deque<RealConnection> connections = new ArrayDeque<>();
+    private boolean cleanupRunning;
+
+    private final Runnable cleanupRunnable = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                long waitNanos = cleanup(System.nanoTime());
+                if (waitNanos == -1) return;
+                if (waitNanos > 0) {
+                    long waitMillis = waitNanos / 1000000L;
+                    waitNanos -= (waitMillis * 1000000L);
+                    synchronized (SAConnectionPool.this) {
+                        try {
+                            SAConnectionPool.this.wait(waitMillis, (int) waitNanos);
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                }
+            }
+        }
+    };
+
+    public SAConnectionPool() {
+        this(5, 5, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param maxIdleConnections 最多保留的空闲连接数
+     * @param keepAliveDuration 空闲连接的最长保留时间
+     * @param timeUnit keepAliveDuration 的单位
+     */
+    public SAConnectionPool(int maxIdleConnections, long keepAliveDuration, TimeUnit timeUnit) {
+        if (keepAliveDuration <= 0) {
+            throw new IllegalArgumentException("keepAliveDuration <= 0: " + keepAliveDuration);
+        }
+        this.maxIdleConnections = maxIdleConnections;
+        this.keepAliveDurationNs = timeUnit.toNanos(keepAliveDuration);
+    }
+
+    public int maxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public long keepAliveDurationNanos() {
+        return keepAliveDurationNs;
+    }
+
+    public synchronized int idleConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * 取出一个可以复用的空闲连接，没有时返回 null。仅供 {@link SATransport} 的实现调用
+     *
+     * @param route 路由
+     * @return 已经从池中移除的连接，使用完后需要调用 {@link #put(RealConnection)} 放回
+     */
+    public RealConnection get(Route route) {
+        long now = System.nanoTime();
+        while (true) {
+            RealConnection candidate = null;
+            synchronized (this) {
+                for (Iterator<RealConnection> i = connections.iterator(); i.hasNext(); ) {
+                    RealConnection connection = i.next();
+                    if (connection.route().equals(route)) {
+                        i.remove();
+                        candidate = connection;
+                        break;
+                    }
+                }
+            }
+            if (candidate == null) return null;
+            boolean doExtensiveChecks = now - candidate.idleAtNanos() > EXTENSIVE_HEALTH_CHECK_NANOS;
+            if (candidate.isHealthy(doExtensiveChecks)) return candidate;
+            candidate.close();
+        }
+    }
+
+    /**
+     * 交换完成后把连接放回连接池。仅供 {@link SATransport} 的实现调用
+     */
+    public void put(RealConnection connection) {
+        if (maxIdleConnections == 0) {
+            connection.close();
+            return;
+        }
+        synchronized (this) {
+            connection.idleAtNanos(System.nanoTime());
+            connections.addFirst(connection);
+            if (!cleanupRunning) {
+                cleanupRunning = true;
+                executor.execute(cleanupRunnable);
+            }
+        }
+    }
+
+    /** 关闭并移除所有空闲连接 */
+    public void evictAll() {
+        List<RealConnection> evictedConnections = new ArrayList<>();
+        synchronized (this) {
+            evictedConnections.addAll(connections);
+            connections.clear();
+        }
+        for (RealConnection connection : evictedConnections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 关闭过期或超出数量的空闲连接
+     *
+     * @return 距离下一次需要清理的纳秒数，-1 表示连接池已经空了
+     */
+    long cleanup(long now) {
+        RealConnection longestIdleConnection = null;
+        long longestIdleDurationNs = Long.MIN_VALUE;
+        synchronized (this) {
+            for (RealConnection connection : connections) {
+                long idleDurationNs = now - connection.idleAtNanos();
+                if (idleDurationNs > longestIdleDurationNs) {
+                    longestIdleDurationNs = idleDurationNs;
+                    longestIdleConnection = connection;
+                }
+            }
+            if (longestIdleConnection == null) {
+                cleanupRunning = false;
+                return -1;
+            }
+            if (longestIdleDurationNs < keepAliveDurationNs && connections.size() <= maxIdleConnections) {
+                return keepAliveDurationNs - longestIdleDurationNs;
+            }
+            connections.remove(longestIdleConnection);
+        }
+        longestIdleConnection.close();
+        // 立即再清理一次
+        return 0;
+    }
+}
@@ -0,0 +1,173 @@
+package com.curious.network.base;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步请求的调度器，由 {@link SAHttpClient} 持有。
+ * 同时执行的请求总数不超过 {@link #maxRequests()}，同一个 host 的请求数不超过 {@link #maxRequestsPerHost()}，
+ * 超出限制的请求在 readyAsyncCalls 中排队，等待前面的请求结束后再按顺序执行
+ */
+public final class SADispatcher {
+    private final int maxRequests;
+    private final int maxRequestsPerHost;
+    private final ExecutorService executorService;
+
+    /** 等待执行的异步请求 */
+    private final Deque<SARealCall.AsyncCall> readyAsyncCalls = new ArrayDeque<>();
+
+    /** 正在执行的异步请求 */
+    private final Deque<SARealCall.AsyncCall> runningAsyncCalls = new ArrayDeque<>();
+
+    /** 正在执行的同步请求，只用于统计 */
+    private final Deque<SARealCall> runningSyncCalls = new ArrayDeque<>();
+
+    public SADispatcher() {
+        this(64, 5);
+    }
+
+    /**
+     * @param maxRequests 同时执行的最大请求数。线程池优先复用空闲线程，只在没有空闲线程时创建，
+     *                    通过 {@link SATransport.Async} 执行的请求只在回调时占用线程
+     * @param maxRequestsPerHost 同一个 host 同时执行的最大请求数
+     */
+    public SADispatcher(int maxRequests, int maxRequestsPerHost) {
+        if (maxRequests < 1) throw new IllegalArgumentException("maxRequests < 1: " + maxRequests);
+        if (maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("maxRequestsPerHost < 1: " + maxRequestsPerHost);
+        }
+        this.maxRequests = maxRequests;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        // 并发数已经由 maxRequests 限制，线程池本身不需要上限
+        this.executorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new DispatcherThreadFactory());
+    }
+
+    public int maxRequests() {
+        return maxRequests;
+    }
+
+    public int maxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public ExecutorService executorService() {
+        return executorService;
+    }
+
+    void enqueue(SARealCall.AsyncCall call) {
+        synchronized (this) {
+            readyAsyncCalls.add(call);
+        }
+        promoteAndExecute();
+    }
+
+    /**
+     * 从等待队列中移除被取消的请求并回调失败，已经开始执行的请求由拦截器链和传输层结束
+     */
+    void cancel(SARealCall.AsyncCall call) {
+        synchronized (this) {
+            if (!readyAsyncCalls.remove(call)) return;
+        }
+        call.failQueued(executorService);
+    }
+
+    /**
+     * 取消 {@link SARequest#tag()} 等于 tag 的所有等待中和执行中的请求，比如离开页面时取消这个页面发起的请求
+     */
+    public void cancelAll(Object tag) {
+        if (tag == null) throw new IllegalArgumentException("tag == null");
+        List<SARealCall> calls = new ArrayList<>();
+        synchronized (this) {
+            for (SARealCall.AsyncCall asyncCall : readyAsyncCalls) {
+                if (tag.equals(asyncCall.get().request().tag())) calls.add(asyncCall.get());
+            }
+            for (SARealCall.AsyncCall asyncCall : runningAsyncCalls) {
+                if (tag.equals(asyncCall.get().request().tag())) calls.add(asyncCall.get());
+            }
+            for (SARealCall call : runningSyncCalls) {
+                if (tag.equals(call.request().tag())) calls.add(call);
+            }
+        }
+        // cancel 会回到 dispatcher 移除等待中的请求，不能持有锁调用
+        for (SARealCall call : calls) {
+            call.cancel();
+        }
+    }
+
+    synchronized void executed(SARealCall call) {
+        runningSyncCalls.add(call);
+    }
+
+    void finished(SARealCall.AsyncCall call) {
+        finished(runningAsyncCalls, call);
+    }
+
+    void finished(SARealCall call) {
+        finished(runningSyncCalls, call);
+    }
+
+    private <T> void finished(Deque<T> calls, T call) {
+        synchronized (this) {
+            if (!calls.remove(call)) throw new AssertionError("Call wasn't in-flight!");
+        }
+        promoteAndExecute();
+    }
+
+    /**
+     * 将符合并发限制的请求从 readyAsyncCalls 移到 runningAsyncCalls，并交给线程池执行。
+     * 不能在持有锁的情况下提交任务，避免回调中再次调用 dispatcher 造成死锁
+     */
+    private void promoteAndExecute() {
+        Deque<SARealCall.AsyncCall> executableCalls = new ArrayDeque<>();
+        synchronized (this) {
+            for (Iterator<SARealCall.AsyncCall> i = readyAsyncCalls.iterator(); i.hasNext(); ) {
+                SARealCall.AsyncCall asyncCall = i.next();
+                if (runningAsyncCalls.size() >= maxRequests) break;
+                if (runningCallsForHost(asyncCall) >= maxRequestsPerHost) continue;
+                i.remove();
+                executableCalls.add(asyncCall);
+                runningAsyncCalls.add(asyncCall);
+            }
+        }
+        for (SARealCall.AsyncCall asyncCall : executableCalls) {
+            asyncCall.executeOn(executorService);
+        }
+    }
+
+    private int runningCallsForHost(SARealCall.AsyncCall call) {
+        int result = 0;
+        for (SARealCall.AsyncCall c : runningAsyncCalls) {
+            if (c.host().equals(call.host())) result++;
+        }
+        return result;
+    }
+
+    public synchronized int queuedCallsCount() {
+        return readyAsyncCalls.size();
+    }
+
+    public synchronized int runningCallsCount() {
+        return runningAsyncCalls.size() + runningSyncCalls.size();
+    }
+
+    private static final class DispatcherThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SAHttp Dispatcher #" + count.incrementAndGet());
+            thread.setDaemon(false);
+            return thread;
+        }
+    }
+}
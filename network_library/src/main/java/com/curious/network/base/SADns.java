@@ -0,0 +1,32 @@
+package com.curious.network.base;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 域名解析，通过 {@link SAHttpClient.Builder#dns(SADns)} 替换。默认使用带缓存的 {@link SACachingDns}。
+ * <p>
+ * {@link SATransport#HTTP_URL_CONNECTION} 由系统完成解析，不使用这个接口；经过 SOCKS 代理时由代理解析
+ */
+public interface SADns {
+    /**
+     * 直接使用 {@link InetAddress#getAllByName(String)}，每次都交给系统解析
+     */
+    SADns SYSTEM = new SADns() {
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            if (hostname == null) throw new UnknownHostException("hostname == null");
+            return Arrays.asList(InetAddress.getAllByName(hostname));
+        }
+    };
+
+    /**
+     * 解析 host 的所有地址，会在执行请求的线程中同步调用
+     *
+     * @return 至少包含一个地址，按尝试连接的顺序排列
+     * @throws UnknownHostException 解析失败
+     */
+    List<InetAddress> lookup(String hostname) throws UnknownHostException;
+}
@@ -0,0 +1,616 @@
+package com.curious.network.base;
+
+import com.curious.network.HttpCallback;
+import com.curious.network.base.internal.TimingWheel;
+import com.curious.network.base.internal.Util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分段并行、可以断点续传的下载。
+ * <p>
+ * 先用 Range: bytes=0-0 探测服务器是否支持 Range 以及文件总长度，支持时把文件分成若干段，通过 {@link SADispatcher}
+ * 并行下载，按偏移量写入预先分配好的文件。下载进度保存在 target 旁边的 .sadl 日志文件中，
+ * 中断后再次下载只请求缺少的部分；服务器的文件发生变化（If-Range 不匹配或者总长度不同）时重新开始。
+ * 服务器没有返回强 ETag 或 Last-Modified 时无法确认文件没有变化，中断后不续传。
+ * 服务器不支持 Range 时退化为普通的单连接下载。
+ * <pre>
+ * SADownload download = client.newDownload(request, new File(dir, "video.mp4"));
+ * File file = download.execute(); // 阻塞，需要在子线程中调用
+ * </pre>
+ */
+public final class SADownload {
+    public interface Listener {
+        /**
+         * 在下载线程中回调
+         *
+         * @param downloaded 已经下载的字节数，包括之前中断前下载的部分
+         * @param total 文件总长度，未知时为 -1
+         */
+        void onProgress(long downloaded, long total);
+    }
+
+    private static final String JOURNAL_SUFFIX = ".sadl";
+    private static final String MAGIC = "com.curious.network.SADownload";
+    private static final String VERSION = "1";
+    private static final int HTTP_PARTIAL = 206;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** 每段下载这么多字节后更新一次日志 */
+    private static final long JOURNAL_INTERVAL_BYTES = 512 * 1024;
+
+    private final SAHttpClient client;
+    private final SARequest request;
+    private final File target;
+    private final File journalFile;
+    private final int segmentCount;
+    private final long minSegmentSize;
+    private final Listener listener;
+
+    private volatile boolean canceled;
+    private final AtomicLong downloaded = new AtomicLong();
+
+    // guarded by this
+    private boolean executed;
+    private final List<SACall> runningCalls = new ArrayList<>();
+
+    private SADownload(Builder builder) {
+        this.client = builder.client;
+        this.request = builder.request;
+        this.target = builder.target;
+        this.journalFile = new File(target.getPath() + JOURNAL_SUFFIX);
+        this.segmentCount = builder.segmentCount;
+        this.minSegmentSize = builder.minSegmentSize;
+        this.listener = builder.listener;
+    }
+
+    public SARequest request() {
+        return request;
+    }
+
+    public File target() {
+        return target;
+    }
+
+    /**
+     * 开始或者继续下载，阻塞直到完成
+     *
+     * @return 下载完成的文件
+     * @throws IOException 下载失败，已经下载的部分会保留，再次创建相同的下载可以继续
+     */
+    public File execute() throws IOException {
+        synchronized (this) {
+            if (executed) throw new IllegalStateException("Already Executed");
+            executed = true;
+        }
+
+        Journal journal = Journal.read(journalFile, request.url().toString());
+        if (journal != null && journal.validator != null && target.length() == journal.length) {
+            try {
+                downloadSegments(journal);
+                return finish(journal);
+            } catch (ResourceChangedException e) {
+                // 服务器上的文件已经变化，重新下载
+            }
+        }
+        journalFile.delete();
+        downloaded.set(0);
+        return downloadFresh();
+    }
+
+    /**
+     * 取消下载，已经下载的部分和日志会保留
+     */
+    public void cancel() {
+        canceled = true;
+        cancelCalls();
+    }
+
+    private void cancelCalls() {
+        List<SACall> calls;
+        synchronized (this) {
+            calls = new ArrayList<>(runningCalls);
+        }
+        for (SACall call : calls) {
+            call.cancel();
+        }
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    private File downloadFresh() throws IOException {
+        SAResponse probe = execute(request.newBuilder().setHeader("Range", "bytes=0-0").build());
+        try {
+            if (probe.code() == HTTP_PARTIAL) {
+                long total = contentRangeTotal(probe.header("Content-Range"));
+                if (total > 0 && !"none".equalsIgnoreCase(probe.header("Accept-Ranges"))) {
+                    probe.close();
+                    Journal journal = new Journal(request.url().toString(), total, validator(probe),
+                            split(total));
+                    RandomAccessFile file = new RandomAccessFile(target, "rw");
+                    try {
+                        file.setLength(total);
+                    } finally {
+                        file.close();
+                    }
+                    journal.write(journalFile);
+                    try {
+                        downloadSegments(journal);
+                    } catch (ResourceChangedException e) {
+                        throw new IOException("resource changed while downloading: " + request.url(), e);
+                    }
+                    return finish(journal);
+                }
+            } else if (probe.isSuccessful()) {
+                // 服务器忽略了 Range，直接使用这个完整的响应
+                return downloadWhole(probe);
+            } else if (probe.code() != HTTP_RANGE_NOT_SATISFIABLE) {
+                throw new IOException("Unexpected response code " + probe.code() + " for " + request.url());
+            }
+        } finally {
+            probe.close();
+        }
+        // 空文件或者无法得知总长度，不分段下载
+        SAResponse response = execute(request);
+        try {
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response code " + response.code() + " for " + request.url());
+            }
+            return downloadWhole(response);
+        } finally {
+            response.close();
+        }
+    }
+
+    private SAResponse execute(SARequest request) throws IOException {
+        if (canceled) throw new IOException("Canceled");
+        SACall call = client.newCall(request);
+        synchronized (this) {
+            runningCalls.add(call);
+        }
+        try {
+            return call.execute();
+        } finally {
+            synchronized (this) {
+                runningCalls.remove(call);
+            }
+        }
+    }
+
+    private File downloadWhole(SAResponse response) throws IOException {
+        SAResponseBody body = response.body();
+        long total = body.contentLength();
+        InputStream in = body.byteStream();
+        OutputStream out = new FileOutputStream(target);
+        long written = 0;
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                if (canceled) throw new IOException("Canceled");
+                out.write(buffer, 0, count);
+                written += count;
+                progress(count, total);
+            }
+        } finally {
+            out.close();
+            SAResponseBody.closeQuietly(in);
+        }
+        if (total != -1 && written != total) {
+            throw new ProtocolException("expected " + total + " bytes but received " + written);
+        }
+        return target;
+    }
+
+    private List<Segment> split(long total) {
+        int count = (int) Math.max(1, Math.min(segmentCount, (total + minSegmentSize - 1) / minSegmentSize));
+        long size = total / count;
+        List<Segment> segments = new ArrayList<>(count);
+        long start = 0;
+        for (int i = 0; i < count; i++) {
+            long end = i == count - 1 ? total : start + size;
+            segments.add(new Segment(start, end, 0));
+            start = end;
+        }
+        return segments;
+    }
+
+    /**
+     * 并行下载所有没有完成的段，任何一段最终失败时取消其他段
+     */
+    private void downloadSegments(Journal journal) throws IOException {
+        List<Segment> pending = new ArrayList<>();
+        long done = 0;
+        for (Segment segment : journal.segments) {
+            done += segment.done;
+            if (!segment.isComplete()) pending.add(segment);
+        }
+        downloaded.set(done);
+        if (pending.isEmpty()) return;
+
+        RandomAccessFile file = new RandomAccessFile(target, "rw");
+        SegmentsRun run = new SegmentsRun(journal, file.getChannel(), pending.size());
+        try {
+            for (Segment segment : pending) {
+                fetch(run, segment, 0);
+            }
+            try {
+                run.latch.await();
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while downloading " + request.url());
+            }
+        } finally {
+            file.close();
+            journal.writeQuietly(journalFile);
+        }
+        if (run.failure != null) throw run.failure;
+    }
+
+    private void fetch(final SegmentsRun run, final Segment segment, final int attempt) {
+        if (canceled || run.failure != null) {
+            run.fail(canceled ? new IOException("Canceled") : null);
+            return;
+        }
+        final long offset = segment.start + segment.done;
+        SARequest.Builder builder = request.newBuilder()
+                .setHeader("Range", "bytes=" + offset + "-" + (segment.end - 1));
+        if (run.journal.validator != null) {
+            builder.setHeader("If-Range", run.journal.validator);
+        }
+        final SACall call = client.newCall(builder.build());
+        synchronized (this) {
+            runningCalls.add(call);
+        }
+        call.enqueue(new HttpCallback() {
+            @Override
+            public void onFailure(SAResponse response, IOException e) {
+                finished(call);
+                retryOrFail(run, segment, attempt, false, e);
+            }
+
+            @Override
+            public void onResponse(SAResponse response) {
+                long before = segment.done;
+                try {
+                    if (response.code() == HttpURLConnection.HTTP_OK) {
+                        throw new ResourceChangedException();
+                    }
+                    if (response.code() != HTTP_PARTIAL) {
+                        throw new IOException("Unexpected response code " + response.code() + " for " + request.url());
+                    }
+                    long total = contentRangeTotal(response.header("Content-Range"));
+                    if (total != -1 && total != run.journal.length) {
+                        throw new ResourceChangedException();
+                    }
+                    long start = contentRangeStart(response.header("Content-Range"));
+                    if (start != offset) {
+                        throw new ProtocolException("expected range starting at " + offset
+                                + " but was " + response.header("Content-Range"));
+                    }
+                    copy(run, segment, response.body().byteStream());
+                    if (!segment.isComplete()) {
+                        throw new ProtocolException("range " + offset + "-" + (segment.end - 1)
+                                + " ended after " + (segment.done - before + offset));
+                    }
+                    run.journal.writeQuietly(journalFile);
+                    finished(call);
+                    run.segmentComplete();
+                } catch (IOException e) {
+                    finished(call);
+                    retryOrFail(run, segment, attempt, segment.done > before, e);
+                } finally {
+                    SAResponseBody.closeQuietly(response);
+                }
+            }
+        });
+    }
+
+    private void copy(SegmentsRun run, Segment segment, InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long sinceJournal = 0;
+        while (!segment.isComplete()) {
+            if (canceled) throw new IOException("Canceled");
+            int count = in.read(buffer, 0, (int) Math.min(buffer.length, segment.end - segment.start - segment.done));
+            if (count == -1) return;
+            ByteBuffer source = ByteBuffer.wrap(buffer, 0, count);
+            long position = segment.start + segment.done;
+            while (source.hasRemaining()) {
+                position += run.channel.write(source, position);
+            }
+            // 数据写入之后才更新进度，日志中记录的范围一定已经写入文件
+            segment.done += count;
+            progress(count, run.journal.length);
+            sinceJournal += count;
+            if (sinceJournal >= JOURNAL_INTERVAL_BYTES) {
+                run.journal.writeQuietly(journalFile);
+                sinceJournal = 0;
+            }
+        }
+    }
+
+    private void retryOrFail(final SegmentsRun run, final Segment segment, int attempt, boolean madeProgress,
+                             IOException e) {
+        // 有进展的失败不计入重试次数，网络不稳定时继续从断点下载
+        final int nextAttempt = madeProgress ? 0 : attempt + 1;
+        if (!(e instanceof ResourceChangedException) && !canceled && run.failure == null
+                && nextAttempt <= client.maxRetryTimes()) {
+            long delayMillis = client.retryPolicy().backoffMillis(Math.max(0, nextAttempt - 1));
+            if (delayMillis <= 0) {
+                fetch(run, segment, nextAttempt);
+                return;
+            }
+            // 在计时线程中等待，不占用回调线程
+            TimingWheel.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fetch(run, segment, nextAttempt);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            run.fail(e);
+            // 其他段也不再继续，文件变化时会重新下载，所以不能设置 canceled
+            cancelCalls();
+        }
+    }
+
+    private synchronized void finished(SACall call) {
+        runningCalls.remove(call);
+    }
+
+    private void progress(long count, long total) {
+        long current = downloaded.addAndGet(count);
+        if (listener != null) {
+            listener.onProgress(current, total);
+        }
+    }
+
+    private File finish(Journal journal) throws IOException {
+        for (Segment segment : journal.segments) {
+            if (!segment.isComplete()) {
+                throw new IOException("download incomplete: " + request.url());
+            }
+        }
+        journalFile.delete();
+        return target;
+    }
+
+    /** 强 ETag 或者 Last-Modified，用于 If-Range */
+    private static String validator(SAResponse response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    /** Content-Range: bytes 0-0/1234 中的 1234，未知时返回 -1 */
+    private static long contentRangeTotal(String contentRange) {
+        if (contentRange == null) return -1;
+        int slash = contentRange.indexOf('/');
+        if (slash == -1) return -1;
+        return Util.parseLong(contentRange.substring(slash + 1).trim(), -1);
+    }
+
+    /** Content-Range: bytes 100-199/1234 中的 100 */
+    private static long contentRangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) return -1;
+        int dash = contentRange.indexOf('-');
+        if (dash == -1) return -1;
+        return Util.parseLong(contentRange.substring("bytes ".length(), dash).trim(), -1);
+    }
+
+    /** 服务器返回 200 而不是 206，If-Range 不匹配，文件已经变化 */
+    private static final class ResourceChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ResourceChangedException() {
+            super("resource changed");
+        }
+    }
+
+    /** 一次并行下载的共享状态 */
+    private static final class SegmentsRun {
+        final Journal journal;
+        final FileChannel channel;
+        final CountDownLatch latch;
+        volatile IOException failure;
+
+        SegmentsRun(Journal journal, FileChannel channel, int pending) {
+            this.journal = journal;
+            this.channel = channel;
+            this.latch = new CountDownLatch(pending);
+        }
+
+        void segmentComplete() {
+            latch.countDown();
+        }
+
+        synchronized void fail(IOException e) {
+            if (failure == null && e != null) {
+                failure = e;
+            }
+            latch.countDown();
+        }
+    }
+
+    /** [start, end) 范围，done 为已经写入文件的字节数 */
+    private static final class Segment {
+        final long start;
+        final long end;
+        volatile long done;
+
+        Segment(long start, long end, long done) {
+            this.start = start;
+            this.end = end;
+            this.done = done;
+        }
+
+        boolean isComplete() {
+            return start + done >= end;
+        }
+    }
+
+    /**
+     * 下载进度日志，格式：
+     * <pre>
+     *     com.curious.network.SADownload
+     *     1
+     *     url
+     *     文件总长度
+     *     ETag 或 Last-Modified，没有时为空行
+     *     段数
+     *     start end done（每段一行）
+     * </pre>
+     */
+    private static final class Journal {
+        final String url;
+        final long length;
+        final String validator;
+        final List<Segment> segments;
+
+        Journal(String url, long length, String validator, List<Segment> segments) {
+            this.url = url;
+            this.length = length;
+            this.validator = validator;
+            this.segments = segments;
+        }
+
+        /**
+         * @return 日志不存在、格式不正确或者 url 不同时返回 null
+         */
+        static Journal read(File file, String url) {
+            if (!file.exists()) return null;
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Util.UTF_8));
+                if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) return null;
+                if (!url.equals(reader.readLine())) return null;
+                long length = Long.parseLong(reader.readLine());
+                String validator = reader.readLine();
+                int count = Integer.parseInt(reader.readLine());
+                List<Segment> segments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    String[] parts = reader.readLine().split(" ");
+                    segments.add(new Segment(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                            Long.parseLong(parts[2])));
+                }
+                return new Journal(url, length, validator.isEmpty() ? null : validator, segments);
+            } catch (IOException | RuntimeException e) {
+                return null;
+            } finally {
+                SAResponseBody.closeQuietly(reader);
+            }
+        }
+
+        /**
+         * 先写临时文件再重命名，中途被杀掉也不会留下不完整的日志。
+         * 没有 validator 时无法用 If-Range 确认文件没有变化，不保存进度
+         */
+        synchronized void write(File file) throws IOException {
+            if (validator == null) return;
+            File tmp = new File(file.getPath() + ".tmp");
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), Util.UTF_8);
+            try {
+                writer.write(MAGIC + "\n" + VERSION + "\n" + url + "\n" + length + "\n"
+                        + (validator != null ? validator : "") + "\n" + segments.size() + "\n");
+                for (Segment segment : segments) {
+                    writer.write(segment.start + " " + segment.end + " " + segment.done + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) throw new IOException("failed to rename " + tmp);
+            }
+        }
+
+        void writeQuietly(File file) {
+            try {
+                write(file);
+            } catch (IOException ignored) {
+                // 日志写入失败只影响续传
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final SAHttpClient client;
+        private final SARequest request;
+        private final File target;
+        private int segmentCount = 4;
+        private long minSegmentSize = 1024 * 1024;
+        private Listener listener;
+
+        /**
+         * @param client 用于执行请求，并行的段受 {@link SADispatcher} 的并发限制
+         * @param request GET 请求
+         * @param target 下载到的文件，进度日志保存在同一目录下的 target.sadl 中
+         */
+        public Builder(SAHttpClient client, SARequest request, File target) {
+            if (client == null) throw new NullPointerException("client == null");
+            if (request == null) throw new NullPointerException("request == null");
+            if (target == null) throw new NullPointerException("target == null");
+            if (request.method() != SARequest.HttpMethod.GET) {
+                throw new IllegalArgumentException("download requires GET but was " + request.method());
+            }
+            this.client = client;
+            this.request = request;
+            this.target = target;
+        }
+
+        /**
+         * @param segmentCount 最多同时下载的段数，默认是 4
+         * @return Builder
+         */
+        public Builder segmentCount(int segmentCount) {
+            if (segmentCount < 1) throw new IllegalArgumentException("segmentCount < 1: " + segmentCount);
+            this.segmentCount = segmentCount;
+            return this;
+        }
+
+        /**
+         * @param minSegmentSize 每段的最小字节数，较小的文件会分成更少的段，默认是 1MB
+         * @return Builder
+         */
+        public Builder minSegmentSize(long minSegmentSize) {
+            if (minSegmentSize < 1) throw new IllegalArgumentException("minSegmentSize < 1: " + minSegmentSize);
+            this.minSegmentSize = minSegmentSize;
+            return this;
+        }
+
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public SADownload build() {
+            return new SADownload(this);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.curious.network.base;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * 请求各个阶段的事件回调，用于统计 DNS、连接、TLS 握手、首字节时间（TTFB）和响应体下载各花了多少时间。
+ * <p>
+ * 每个 {@link SACall} 通过 {@link Factory} 创建一个实例，所有方法都在执行请求的线程中同步调用
+ * （{@link SATransport#NIO} 的网络事件在事件循环线程中回调），不能阻塞，也不能抛出异常。atNanos 都是 {@link System#nanoTime()} 的值，只能用于计算同一进程内的时间差。
+ * 一次调用中的事件依次为：
+ * <pre>
+ * callStart
+ *   [dnsStart dnsEnd] [connectStart [secureConnectStart secureConnectEnd] connectEnd] connectionAcquired
+ *   requestHeadersStart requestHeadersEnd [requestBodyStart requestBodyEnd]
+ *   responseHeadersStart responseHeadersEnd responseBodyEnd
+ * callEnd | callFailed
+ * </pre>
+ * 复用连接时没有 DNS 和连接事件；命中缓存时没有任何网络事件；重试和重定向会让网络事件出现多次。
+ * callEnd 在响应体读完或者关闭时回调
+ */
+public abstract class SAEventListener {
+    public static final SAEventListener NONE = new SAEventListener() {
+    };
+
+    public interface Factory {
+        SAEventListener create(SACall call);
+    }
+
+    /**
+     * 所有请求共享同一个 listener
+     */
+    public static Factory factory(final SAEventListener listener) {
+        if (listener == null) throw new NullPointerException("listener == null");
+        return new Factory() {
+            @Override
+            public SAEventListener create(SACall call) {
+                return listener;
+            }
+        };
+    }
+
+    /** 开始执行，异步请求在线程池中开始执行时回调，不包括排队的时间 */
+    public void callStart(SACall call, long atNanos) {
+    }
+
+    public void dnsStart(SACall call, long atNanos, String host) {
+    }
+
+    public void dnsEnd(SACall call, long atNanos, String host, List<InetAddress> addresses) {
+    }
+
+    /** 每尝试一个地址回调一次 */
+    public void connectStart(SACall call, long atNanos, InetSocketAddress address, Proxy proxy) {
+    }
+
+    public void secureConnectStart(SACall call, long atNanos) {
+    }
+
+    /** TLS 握手完成，session 可以用来查看协议版本和加密套件 */
+    public void secureConnectEnd(SACall call, long atNanos, SSLSession session) {
+    }
+
+    /**
+     * TLS 握手完成，传输层回调的是这个方法，默认转给 {@link #secureConnectEnd(SACall, long, SSLSession)}
+     *
+     * @param resumed 是否恢复了之前的 session，没有进行完整握手。TLS 1.3 无法判断，总是 false，见 {@link SATlsSessionCache}
+     */
+    public void secureConnectEnd(SACall call, long atNanos, SSLSession session, boolean resumed) {
+        secureConnectEnd(call, atNanos, session);
+    }
+
+    /** TCP 连接、代理隧道和 TLS 握手都已完成 */
+    public void connectEnd(SACall call, long atNanos, InetSocketAddress address, Proxy proxy) {
+    }
+
+    public void connectFailed(SACall call, long atNanos, InetSocketAddress address, Proxy proxy, IOException e) {
+    }
+
+    /**
+     * 得到用于这次交换的连接
+     *
+     * @param reused 是否为连接池中复用的连接
+     */
+    public void connectionAcquired(SACall call, long atNanos, boolean reused) {
+    }
+
+    public void requestHeadersStart(SACall call, long atNanos) {
+    }
+
+    /** @param headerByteCount 请求行和头信息的字节数 */
+    public void requestHeadersEnd(SACall call, long atNanos, SARequest request, long headerByteCount) {
+    }
+
+    public void requestBodyStart(SACall call, long atNanos) {
+    }
+
+    /** @param byteCount 请求体的字节数，不包括 chunked 编码的开销 */
+    public void requestBodyEnd(SACall call, long atNanos, long byteCount) {
+    }
+
+    /** 请求已经发送完，开始等待响应，到 {@link #responseHeadersEnd} 的时间主要是服务器的处理时间 */
+    public void responseHeadersStart(SACall call, long atNanos) {
+    }
+
+    public void responseHeadersEnd(SACall call, long atNanos, SAResponse response) {
+    }
+
+    /** @param byteCount 从网络上读到的响应体字节数，压缩的响应是压缩后的长度 */
+    public void responseBodyEnd(SACall call, long atNanos, long byteCount) {
+    }
+
+    /** 响应体读完或者被关闭 */
+    public void callEnd(SACall call, long atNanos) {
+    }
+
+    /** 请求失败，或者读取响应体时失败 */
+    public void callFailed(SACall call, long atNanos, IOException e) {
+    }
+}
@@ -0,0 +1,168 @@
+package com.curious.network.base;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对冲请求的配置，通过 {@link SAHttpClient.Builder#hedgingPolicy(SAHedgingPolicy)} 开启。
+ * <p>
+ * 可以重试的请求（见 {@link SARetryPolicy#permitsRetry}）发出后 delay 时间内还没有收到响应头时，再发出一个相同的请求，
+ * 使用先收到的响应并取消另一个，用少量额外的请求避开偶尔很慢的服务器实例。
+ * delay 可以是固定值，也可以是这个 host 最近响应时间的某个百分位，样本不足时使用固定值。
+ * 额外的请求要通过 {@link SARetryBudget}，默认不超过调用量的 5%
+ */
+public final class SAHedgingPolicy {
+    /** 每个 host 保留的响应时间样本数 */
+    private static final int SAMPLE_SIZE = 128;
+    /** 样本数达到它之后才使用百分位 */
+    private static final int MIN_SAMPLES = 20;
+    /** 每记录这么多样本重新计算一次百分位 */
+    private static final int RECOMPUTE_INTERVAL = 16;
+
+    private final long delayMillis;
+    private final int percentile;
+    private final SARetryBudget budget;
+
+    private final ConcurrentHashMap<String, Latencies> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    private SAHedgingPolicy(Builder builder) {
+        this.delayMillis = builder.delayMillis;
+        this.percentile = builder.percentile;
+        this.budget = builder.budget;
+    }
+
+    public long delayMillis() {
+        return delayMillis;
+    }
+
+    /**
+     * @return 未设置时为 0，总是使用固定的 delay
+     */
+    public int percentile() {
+        return percentile;
+    }
+
+    /**
+     * @return 没有设置时为 null，不限制额外的请求量
+     */
+    public SARetryBudget budget() {
+        return budget;
+    }
+
+    /** 发出的对冲请求数 */
+    public long hedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /** 对冲请求先收到响应的次数 */
+    public long hedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * 一个可以对冲的调用开始，向预算中存入令牌
+     */
+    public void callStarted() {
+        if (budget != null) budget.deposit();
+    }
+
+    /**
+     * 发出对冲请求之前从预算中取出令牌
+     */
+    public boolean acquireHedge() {
+        if (budget != null && !budget.tryWithdraw()) return false;
+        hedgeCount.incrementAndGet();
+        return true;
+    }
+
+    public void hedgeWon() {
+        hedgeWinCount.incrementAndGet();
+    }
+
+    /**
+     * @return 发出对冲请求之前等待的毫秒数
+     */
+    public long delayMillis(String host) {
+        if (percentile == 0) return delayMillis;
+        Latencies hostLatencies = latencies.get(host);
+        long observed = hostLatencies == null ? -1 : hostLatencies.percentileMillis;
+        return observed >= 0 ? observed : delayMillis;
+    }
+
+    /**
+     * 记录收到响应头的时间，只在使用百分位时保留
+     */
+    public void recordLatency(String host, long millis) {
+        if (percentile == 0) return;
+        Latencies hostLatencies = latencies.get(host);
+        if (hostLatencies == null) {
+            Latencies created = new Latencies();
+            hostLatencies = latencies.putIfAbsent(host, created);
+            if (hostLatencies == null) hostLatencies = created;
+        }
+        hostLatencies.record(millis);
+    }
+
+    /**
+     * 一个 host 最近的响应时间，环形保存
+     */
+    private final class Latencies {
+        private final long[] samples = new long[SAMPLE_SIZE];
+        private long count;
+        volatile long percentileMillis = -1;
+
+        synchronized void record(long millis) {
+            samples[(int) (count++ % SAMPLE_SIZE)] = millis;
+            if (count < MIN_SAMPLES || (count % RECOMPUTE_INTERVAL != 0 && percentileMillis >= 0)) return;
+            int size = (int) Math.min(count, SAMPLE_SIZE);
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            percentileMillis = sorted[Math.min(size - 1, size * percentile / 100)];
+        }
+    }
+
+    public static final class Builder {
+        private long delayMillis = 100;
+        private int percentile;
+        private SARetryBudget budget = new SARetryBudget(0.05, 5);
+
+        /**
+         * @param delay 固定的等待时间，使用百分位时在样本不足前使用，默认是 100ms
+         * @return Builder
+         */
+        public Builder delay(long delay, TimeUnit timeUnit) {
+            if (delay < 0) throw new IllegalArgumentException("delay < 0: " + delay);
+            this.delayMillis = timeUnit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * 按 host 最近的响应时间决定等待时间，比如 95 表示超过 95% 的请求的响应时间之后发出对冲请求
+         *
+         * @param percentile 1~99，默认不使用
+         * @return Builder
+         */
+        public Builder percentile(int percentile) {
+            if (percentile < 1 || percentile > 99) throw new IllegalArgumentException("percentile out of range: " + percentile);
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * @param budget 默认对冲请求不超过调用量的 5%，最多保存 5 个令牌；为 null 时不限制
+         * @return Builder
+         */
+        public Builder budget(SARetryBudget budget) {
+            this.budget = budget;
+            return this;
+        }
+
+        public SAHedgingPolicy build() {
+            return new SAHedgingPolicy(this);
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package com.curious.network.base;
 
+import java.io.File;
 import java.net.CookiePolicy;
 import java.net.Proxy;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 
 /**
@@ -21,10 +24,21 @@ public final class SAHttpClient implements SACall.Factory {
     private final int readTimeout;
     private final int writeTimeout;
     private final SSLSocketFactory sslSocketFactory;
+    private final SSLContext sslContext;
     private final List<SAInterceptor> interceptors;
     private final CookiePolicy cookiePolicy;
     private final int retryTimes;
     private final int maxFollows;
+    private final SADispatcher dispatcher;
+    private final SAConnectionPool connectionPool;
+    private final SATransport transport;
+    private final SACache cache;
+    private final SAMemoryCache memoryCache;
+    private final SAEventListener.Factory eventListenerFactory;
+    private final SADns dns;
+    private final SATlsSessionCache tlsSessionCache;
+    private final SARetryPolicy retryPolicy;
+    private final SAHedgingPolicy hedgingPolicy;
 
     public SAHttpClient(Builder builder) {
         this.urlConnectionFollowRedirects = builder.urlConnectionFollowRedirects;
@@ -34,12 +48,29 @@ public final class SAHttpClient implements SACall.Factory {
         this.connectTimeout = builder.connectTimeout;
         this.readTimeout = builder.readTimeout;
         this.writeTimeout = builder.writeTimeout;
-        this.sslSocketFactory = builder.sslSocketFactory;
+        this.tlsSessionCache = builder.tlsSessionCache;
+        this.sslContext = builder.sslContext != null || builder.sslSocketFactory != null
+                ? builder.sslContext : newSslContext();
+        if (builder.sslContext == null && sslContext != null) {
+            // 调用方传入的 SSLContext 可能被其他代码共享，不修改它的配置
+            tlsSessionCache.apply(sslContext);
+        }
+        this.sslSocketFactory = builder.sslSocketFactory != null || sslContext == null
+                ? builder.sslSocketFactory : sslContext.getSocketFactory();
         this.interceptors = builder.interceptors;
         this.cookiePolicy = builder.cookiePolicy;
         this.proxy = builder.proxy;
         this.retryTimes = builder.retryTimes;
+        this.retryPolicy = builder.retryPolicy;
+        this.hedgingPolicy = builder.hedgingPolicy;
         this.maxFollows = builder.maxFollows;
+        this.dispatcher = builder.dispatcher;
+        this.connectionPool = builder.connectionPool;
+        this.cache = builder.cache;
+        this.memoryCache = builder.memoryCache;
+        this.eventListenerFactory = builder.eventListenerFactory;
+        this.dns = builder.dns;
+        this.transport = builder.transportFactory.create(this);
     }
 
 //    //重试失败后是否要增加时间
@@ -89,6 +120,10 @@ public final class SAHttpClient implements SACall.Factory {
         return sslSocketFactory;
     }
 
+    public SSLContext sslContext() {
+        return sslContext;
+    }
+
     public List<SAInterceptor> interceptors() {
         return interceptors;
     }
@@ -101,15 +136,96 @@ public final class SAHttpClient implements SACall.Factory {
         return retryTimes;
     }
 
+    public SARetryPolicy retryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @return 未设置时为 null，不发出对冲请求
+     */
+    public SAHedgingPolicy hedgingPolicy() {
+        return hedgingPolicy;
+    }
+
     public int maxFollows() {
         return maxFollows;
     }
 
+    public SADispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    public SAConnectionPool connectionPool() {
+        return connectionPool;
+    }
+
+    public SATransport transport() {
+        return transport;
+    }
+
+    public SACache cache() {
+        return cache;
+    }
+
+    /**
+     * 内存缓存，命中、未命中和淘汰次数见 {@link SAMemoryCache#hitCount()}、{@link SAMemoryCache#missCount()}、
+     * {@link SAMemoryCache#evictionCount()}
+     *
+     * @return 未设置时为 null
+     */
+    public SAMemoryCache memoryCache() {
+        return memoryCache;
+    }
+
+    public SAEventListener.Factory eventListenerFactory() {
+        return eventListenerFactory;
+    }
+
+    public SADns dns() {
+        return dns;
+    }
+
+    public SATlsSessionCache tlsSessionCache() {
+        return tlsSessionCache;
+    }
+
+    /**
+     * 没有设置 TLS 配置时，每个 client 使用自己的 SSLContext，所有连接共享它的 session 缓存
+     *
+     * @return 创建失败时返回 null，使用系统默认的配置
+     */
+    private static SSLContext newSslContext() {
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+            return sslContext;
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
     @Override
     public SACall newCall(SARequest request) {
         return SARealCall.newRealCall(this, request);
     }
 
+    /**
+     * 取消所有 {@link SARequest#tag()} 等于 tag 的请求，见 {@link SADispatcher#cancelAll(Object)}
+     */
+    public void cancelAll(Object tag) {
+        dispatcher.cancelAll(tag);
+    }
+
+    /**
+     * 分段并行、可以断点续传的下载，需要调整段数等参数时使用 {@link SADownload.Builder}
+     *
+     * @param request GET 请求
+     * @param target 下载到的文件
+     */
+    public SADownload newDownload(SARequest request, File target) {
+        return new SADownload.Builder(this, request, target).build();
+    }
+
     public static final class Builder {
         Proxy proxy;
         boolean followRedirects;
@@ -120,10 +236,21 @@ public final class SAHttpClient implements SACall.Factory {
         int readTimeout;
         int writeTimeout;
         SSLSocketFactory sslSocketFactory;
+        SSLContext sslContext;
         final List<SAInterceptor> interceptors = new ArrayList<>();
         CookiePolicy cookiePolicy;
         int retryTimes;
+        SARetryPolicy retryPolicy;
+        SAHedgingPolicy hedgingPolicy;
         int maxFollows;
+        SADispatcher dispatcher;
+        SAConnectionPool connectionPool;
+        SATransport.Factory transportFactory;
+        SACache cache;
+        SAMemoryCache memoryCache;
+        SAEventListener.Factory eventListenerFactory;
+        SADns dns;
+        SATlsSessionCache tlsSessionCache;
 
         public Builder() {
             followRedirects = true;
@@ -134,8 +261,15 @@ public final class SAHttpClient implements SACall.Factory {
             writeTimeout = 10_000;
             cookiePolicy = CookiePolicy.ACCEPT_NONE;
             retryTimes = 3;
+            retryPolicy = new SARetryPolicy.Builder().build();
             maxFollows = 3;
             urlConnectionFollowRedirects = false;
+            dispatcher = new SADispatcher();
+            connectionPool = new SAConnectionPool();
+            transportFactory = SATransport.HTTP_1_1;
+            eventListenerFactory = SAEventListener.factory(SAEventListener.NONE);
+            dns = new SACachingDns();
+            tlsSessionCache = new SATlsSessionCache();
         }
 
         public Builder proxy(Proxy proxy) {
@@ -155,7 +289,8 @@ public final class SAHttpClient implements SACall.Factory {
         }
 
         /**
-         * 设置 HTTPURLConnection.setInstanceFollowRedirects，如果此值为 false，会再判断 followRedirects，是否为 true，如果为 true，那么在 FollowAndRetryInterceptor 会处理重定向问题
+         * 设置 HTTPURLConnection.setInstanceFollowRedirects，如果此值为 false，会再判断 followRedirects，是否为 true，如果为 true，那么在 FollowAndRetryInterceptor 会处理重定向问题。
+         * 只对 {@link SATransport#HTTP_URL_CONNECTION} 生效，其他传输层不会自动处理重定向
          *
          * @param isRedirects HTTPURLConnection.setInstanceFollowRedirects
          * @return Builder
@@ -181,11 +316,42 @@ public final class SAHttpClient implements SACall.Factory {
             return this;
         }
 
+        /**
+         * 设置重试的退避时间、Retry-After、幂等性和重试预算，重试次数仍然由 {@link #maxRetryTimes} 限制
+         *
+         * @param retryPolicy 默认是 {@link SARetryPolicy.Builder#build()}
+         * @return Builder
+         */
+        public Builder retryPolicy(SARetryPolicy retryPolicy) {
+            if (retryPolicy == null) throw new IllegalArgumentException("retryPolicy == null");
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * 开启对冲请求，可以重试的请求在一段时间内没有响应时再发出一个相同的请求，使用先收到的响应。
+         * 开启后 {@link SATransport.Async} 的异步请求也会在线程池中执行
+         *
+         * @param hedgingPolicy 默认为 null，不使用对冲
+         * @return Builder
+         */
+        public Builder hedgingPolicy(SAHedgingPolicy hedgingPolicy) {
+            this.hedgingPolicy = hedgingPolicy;
+            return this;
+        }
+
         public Builder retryOnConnectionFailure(boolean retryOnConnectionFailure) {
             this.retryOnConnectionFailure = retryOnConnectionFailure;
             return this;
         }
 
+        /**
+         * 整个调用的超时时间，从开始执行到响应体读完，包括 DNS、连接、所有重试和重定向。
+         * 到期时中止正在进行的网络交换，调用以 InterruptedIOException("timeout") 失败
+         *
+         * @param callTimeout 毫秒，默认为 0，不限制
+         * @return Builder
+         */
         public Builder callTimeout(int callTimeout) {
             this.callTimeout = callTimeout;
             return this;
@@ -211,6 +377,126 @@ public final class SAHttpClient implements SACall.Factory {
             return this;
         }
 
+        /**
+         * 设置 TLS 使用的 SSLContext，没有单独设置 {@link #sslSocketFactory} 时使用它的 SocketFactory。
+         * {@link SATransport#NIO} 基于 SSLEngine，自定义证书校验等 TLS 配置需要通过这里设置。
+         * 不会修改它的 session 缓存大小和有效期，{@link #tlsSessionCache} 只用于统计
+         */
+        public Builder sslContext(SSLContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        /**
+         * 设置异步请求的调度器，可以在多个 {@link SAHttpClient} 之间共享，从而共享并发限制和线程池
+         *
+         * @param dispatcher 默认最多同时执行 64 个请求，同一个 host 最多 5 个
+         * @return Builder
+         */
+        public Builder dispatcher(SADispatcher dispatcher) {
+            if (dispatcher == null) throw new IllegalArgumentException("dispatcher == null");
+            this.dispatcher = dispatcher;
+            return this;
+        }
+
+        /**
+         * 设置连接池，可以在多个 {@link SAHttpClient} 之间共享
+         *
+         * @param connectionPool 默认最多保留 5 个空闲连接，每个最多空闲 5 分钟
+         * @return Builder
+         */
+        public Builder connectionPool(SAConnectionPool connectionPool) {
+            if (connectionPool == null) throw new IllegalArgumentException("connectionPool == null");
+            this.connectionPool = connectionPool;
+            return this;
+        }
+
+        /**
+         * 设置传输层实现
+         *
+         * @param transportFactory 默认是 {@link SATransport#HTTP_1_1}，
+         *                         使用 {@link SATransport#HTTP_URL_CONNECTION} 时连接复用由系统负责，{@link #connectionPool} 不生效；
+         *                         使用 {@link SATransport#NIO} 时由少量事件循环线程完成所有交换，连接池只使用 {@link #connectionPool} 的配置；
+         *                         使用 {@link SATransport#HTTP_2} 时每个 host 只保持一条连接，空闲时间使用 {@link #connectionPool} 的 keepAliveDuration
+         * @return Builder
+         */
+        public Builder transport(SATransport.Factory transportFactory) {
+            if (transportFactory == null) throw new IllegalArgumentException("transportFactory == null");
+            this.transportFactory = transportFactory;
+            return this;
+        }
+
+        /**
+         * 设置 HTTP 响应缓存，遵循 Cache-Control、Expires 等规则，过期后使用 ETag、Last-Modified 向服务器验证
+         *
+         * @param cache 默认为 null，不使用缓存
+         * @return Builder
+         */
+        public Builder cache(SACache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * 设置内存中的热点缓存，只保存较小的响应，在磁盘缓存之前查询，命中时没有文件读写
+         *
+         * @param memoryCache 默认为 null，不使用内存缓存
+         * @return Builder
+         */
+        public Builder memoryCache(SAMemoryCache memoryCache) {
+            this.memoryCache = memoryCache;
+            return this;
+        }
+
+        /**
+         * 所有请求共享同一个事件回调，用于统计各个阶段的耗时
+         *
+         * @param eventListener 默认是 {@link SAEventListener#NONE}
+         * @return Builder
+         */
+        public Builder eventListener(SAEventListener eventListener) {
+            if (eventListener == null) throw new IllegalArgumentException("eventListener == null");
+            this.eventListenerFactory = SAEventListener.factory(eventListener);
+            return this;
+        }
+
+        /**
+         * 为每个请求创建单独的事件回调，可以在 listener 中保存这个请求各阶段的时间
+         *
+         * @param eventListenerFactory 事件回调的工厂
+         * @return Builder
+         */
+        public Builder eventListenerFactory(SAEventListener.Factory eventListenerFactory) {
+            if (eventListenerFactory == null) throw new IllegalArgumentException("eventListenerFactory == null");
+            this.eventListenerFactory = eventListenerFactory;
+            return this;
+        }
+
+        /**
+         * 设置域名解析，需要在多个 {@link SAHttpClient} 之间共享缓存，或者在启动时 {@link SACachingDns#prefetch(String...)} 时传入同一个实例
+         *
+         * @param dns 默认是每个 Builder 单独的 {@link SACachingDns}，使用 {@link SADns#SYSTEM} 时不缓存
+         * @return Builder
+         */
+        public Builder dns(SADns dns) {
+            if (dns == null) throw new IllegalArgumentException("dns == null");
+            this.dns = dns;
+            return this;
+        }
+
+        /**
+         * 设置 TLS session 缓存的大小和有效期，同时统计恢复 session 的握手比例。
+         * 大小和有效期只应用于 client 自己创建的 SSLContext，设置了 {@link #sslContext} 时不会修改它
+         *
+         * @param tlsSessionCache 默认最多缓存 64 个 session，每个保留 1 天
+         * @return Builder
+         */
+        public Builder tlsSessionCache(SATlsSessionCache tlsSessionCache) {
+            if (tlsSessionCache == null) throw new IllegalArgumentException("tlsSessionCache == null");
+            this.tlsSessionCache = tlsSessionCache;
+            return this;
+        }
+
         public Builder addInterceptor(SAInterceptor interceptor) {
             if (interceptor == null) throw new IllegalArgumentException("interceptor == null");
             interceptors.add(interceptor);
@@ -239,7 +239,7 @@ public final class SAHttpUrl {
         private String url;
         private String scheme;
         private String host;
-        private int port;
+        private int port = -1;
         private Map<String, String> queryParamMap = new HashMap<>();
         private List<String> pathSegments = new ArrayList<>();
 
@@ -249,6 +249,7 @@ public final class SAHttpUrl {
                 URI uri = new URI(url);
                 scheme = uri.getScheme();
                 host = uri.getHost();
+                port = uri.getPort();
             } catch (URISyntaxException e) {
                 throw new IllegalArgumentException("the url is invalid, please check it");
             }
@@ -8,6 +8,9 @@ public interface SAInterceptor {
     interface Chain {
         SARequest request();
 
+        /** 返回当前请求所属的 Call */
+        SACall call();
+
         SAResponse proceed(SARequest request) throws IOException;
     }
 }
@@ -0,0 +1,104 @@
+package com.curious.network.base;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 解析后的 Content-Type，比如 text/html; charset=utf-8
+ */
+public final class SAMediaType {
+    private static final String TOKEN = "([a-zA-Z0-9-!#$%&'*+.^_`{|}~]+)";
+    private static final String QUOTED = "\"([^\"]*)\"";
+    private static final Pattern TYPE_SUBTYPE = Pattern.compile(TOKEN + "/" + TOKEN);
+    private static final Pattern PARAMETER = Pattern.compile(
+            ";\\s*(?:" + TOKEN + "=(?:" + TOKEN + "|" + QUOTED + "))?");
+
+    private final String mediaType;
+    private final String type;
+    private final String subtype;
+    private final String charset;
+
+    private SAMediaType(String mediaType, String type, String subtype, String charset) {
+        this.mediaType = mediaType;
+        this.type = type;
+        this.subtype = subtype;
+        this.charset = charset;
+    }
+
+    /**
+     * 解析 Content-Type
+     *
+     * @param string 比如 application/json; charset=utf-8
+     * @return 格式不正确时返回 null
+     */
+    public static SAMediaType parse(String string) {
+        if (string == null) return null;
+        Matcher typeSubtype = TYPE_SUBTYPE.matcher(string);
+        if (!typeSubtype.lookingAt()) return null;
+        String type = typeSubtype.group(1).toLowerCase(Locale.US);
+        String subtype = typeSubtype.group(2).toLowerCase(Locale.US);
+
+        String charset = null;
+        Matcher parameter = PARAMETER.matcher(string);
+        for (int s = typeSubtype.end(); s < string.length(); s = parameter.end()) {
+            parameter.region(s, string.length());
+            if (!parameter.lookingAt()) return null;
+
+            String name = parameter.group(1);
+            if (name == null || !name.equalsIgnoreCase("charset")) continue;
+            String charsetParameter = parameter.group(2) != null ? parameter.group(2) : parameter.group(3);
+            if (charset != null && !charsetParameter.equalsIgnoreCase(charset)) {
+                // 多个不同的 charset
+                return null;
+            }
+            charset = charsetParameter;
+        }
+        return new SAMediaType(string, type, subtype, charset);
+    }
+
+    /** 比如 text、application、image */
+    public String type() {
+        return type;
+    }
+
+    /** 比如 plain、json、png */
+    public String subtype() {
+        return subtype;
+    }
+
+    /**
+     * @return 没有指定 charset 或者不支持时返回 null
+     */
+    public Charset charset() {
+        return charset(null);
+    }
+
+    /**
+     * @param defaultValue 没有指定 charset 或者不支持时返回的值
+     */
+    public Charset charset(Charset defaultValue) {
+        try {
+            return charset != null ? Charset.forName(charset) : defaultValue;
+        } catch (IllegalArgumentException e) {
+            // 不合法或者不支持的 charset
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof SAMediaType && ((SAMediaType) other).mediaType.equals(mediaType);
+    }
+
+    @Override
+    public int hashCode() {
+        return mediaType.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mediaType;
+    }
+}
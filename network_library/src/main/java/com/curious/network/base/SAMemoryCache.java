@@ -0,0 +1,310 @@
+package com.curious.network.base;
+
+import com.curious.network.base.internal.Util;
+import com.curious.network.base.internal.cache.CacheRequest;
+import com.curious.network.base.internal.cache.CacheStrategy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 内存中的热点响应缓存，位于透明解压和 {@link SACache} 之前，只保存较小的 GET 响应，总字节数超过 maxSize 时按 LRU 淘汰。
+ * 保存的是解压后的响应体，命中时不需要再解压。
+ * <p>
+ * 按 method + {@link SAHttpUrl#toString()} 索引，Vary 指定的请求头也必须相同。命中时直接包装内存中的字节数组，
+ * 没有文件读写和拷贝；条目过期后直接丢弃，交给磁盘缓存或网络处理。通过 {@link SAHttpClient.Builder#memoryCache(SAMemoryCache)} 启用
+ */
+public final class SAMemoryCache {
+    /** 估算每个条目除响应体之外占用的字节数 */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final long maxSize;
+    private final int maxEntrySize;
+
+    // guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(0, 0.75f, true);
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long putCount;
+    private long evictionCount;
+
+    /**
+     * @param maxSize 所有条目的最大字节数
+     */
+    public SAMemoryCache(long maxSize) {
+        this(maxSize, (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxSize / 8)));
+    }
+
+    /**
+     * @param maxSize 所有条目的最大字节数
+     * @param maxEntrySize 单个响应体的最大字节数，超过的响应不进入内存缓存
+     */
+    public SAMemoryCache(long maxSize, int maxEntrySize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+        if (maxEntrySize <= 0) throw new IllegalArgumentException("maxEntrySize <= 0: " + maxEntrySize);
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    private static String key(SARequest.HttpMethod method, SAHttpUrl url) {
+        return method + " " + url.toString();
+    }
+
+    /**
+     * 返回仍然新鲜的缓存响应，不存在、Vary 不匹配或者已经过期时返回 null。
+     * 仅供内部的 CacheInterceptor 调用
+     */
+    public SAResponse get(SARequest request) {
+        String key = key(request.method(), request.url());
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+
+        SAResponse response = entry != null && entry.matches(request) ? entry.response(request) : null;
+        if (response != null) {
+            CacheStrategy strategy = new CacheStrategy.Factory(System.currentTimeMillis(), request, response).get();
+            if (strategy.networkRequest != null || strategy.cacheResponse == null) {
+                // 已经过期或者请求要求验证，内存中的条目不再有用
+                remove(key, entry);
+                response = null;
+            }
+        }
+
+        synchronized (this) {
+            if (response != null) {
+                hitCount++;
+            } else {
+                missCount++;
+            }
+        }
+        return response;
+    }
+
+    /**
+     * 开始写入内存缓存，响应不能缓存或者响应体太大时返回 null。仅供内部的 CacheInterceptor 调用
+     */
+    public CacheRequest put(SAResponse response) {
+        SARequest request = response.request();
+        if (request.method() != SARequest.HttpMethod.GET) {
+            return null;
+        }
+        if (SACache.varyFields(response.headers()).contains("*")) {
+            return null;
+        }
+        SAResponseBody body = response.body();
+        if (body == null || body.contentLength() > maxEntrySize) {
+            return null;
+        }
+        return new MemoryCacheRequest(response, body.contentLength());
+    }
+
+    /**
+     * 删除 url 对应的缓存，用于 POST、PUT、DELETE 等会修改资源的请求
+     */
+    public synchronized void remove(SARequest request) {
+        Entry entry = entries.remove(key(SARequest.HttpMethod.GET, request.url()));
+        if (entry != null) {
+            size -= entry.size();
+        }
+    }
+
+    private synchronized void remove(String key, Entry expected) {
+        if (entries.get(key) == expected) {
+            entries.remove(key);
+            size -= expected.size();
+        }
+    }
+
+    private synchronized void insert(String key, Entry entry) {
+        putCount++;
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            size -= previous.size();
+        }
+        size += entry.size();
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            size -= eldest.size();
+            evictionCount++;
+        }
+    }
+
+    /** 删除所有缓存 */
+    public synchronized void evictAll() {
+        entries.clear();
+        size = 0;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public long maxSize() {
+        return maxSize;
+    }
+
+    public synchronized int entryCount() {
+        return entries.size();
+    }
+
+    /** 直接从内存返回响应的次数 */
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    /** 内存中没有可用响应的次数 */
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    public synchronized long putCount() {
+        return putCount;
+    }
+
+    /** 因为超出 maxSize 被淘汰的条目数量 */
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    private final class MemoryCacheRequest implements CacheRequest {
+        private final String key;
+        private final SAResponse response;
+        private final LimitedOutputStream body;
+
+        MemoryCacheRequest(SAResponse response, long contentLength) {
+            this.key = key(response.request().method(), response.request().url());
+            this.response = response;
+            this.body = new LimitedOutputStream(contentLength > 0 ? (int) contentLength : 32);
+        }
+
+        @Override
+        public OutputStream body() {
+            return body;
+        }
+
+        @Override
+        public void commit() {
+            if (body.overflow) return;
+            insert(key, new Entry(response, body.bytes()));
+        }
+
+        @Override
+        public void abort() {
+            body.overflow = true;
+        }
+    }
+
+    /** 写入超过 maxEntrySize 后丢弃已有数据，这次写入不会提交 */
+    private final class LimitedOutputStream extends ByteArrayOutputStream {
+        boolean overflow;
+
+        LimitedOutputStream(int initialSize) {
+            super(initialSize);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if (overflow) return;
+            if (count + len > maxEntrySize) {
+                overflow = true;
+                buf = new byte[0];
+                count = 0;
+                return;
+            }
+            super.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        /** Content-Length 准确时直接使用内部数组，省去一次拷贝 */
+        synchronized byte[] bytes() {
+            return count == buf.length ? buf : toByteArray();
+        }
+    }
+
+    private static final class Entry {
+        private final List<SAHeader> varyHeaders;
+        private final int code;
+        private final String message;
+        private final List<SAHeader> headers;
+        private final String contentType;
+        private final byte[] body;
+        private final long sentRequestAtMillis;
+        private final long receivedResponseAtMillis;
+
+        Entry(SAResponse response, byte[] body) {
+            SARequest request = response.request();
+            this.varyHeaders = new ArrayList<>();
+            Set<String> varyFields = SACache.varyFields(response.headers());
+            for (SAHeader header : request.headers()) {
+                if (header.getName() != null && varyFields.contains(header.getName().toLowerCase(Locale.US))) {
+                    varyHeaders.add(header);
+                }
+            }
+            this.code = response.code();
+            this.message = response.message();
+            this.headers = Collections.unmodifiableList(new ArrayList<>(response.headers()));
+            this.contentType = response.header("Content-Type");
+            this.body = body;
+            this.sentRequestAtMillis = response.sentRequestAtMillis();
+            this.receivedResponseAtMillis = response.receivedResponseAtMillis();
+        }
+
+        long size() {
+            long size = ENTRY_OVERHEAD + body.length;
+            for (SAHeader header : headers) {
+                size += (header.getName() != null ? header.getName().length() : 0) + header.getValue().length();
+            }
+            return size;
+        }
+
+        boolean matches(SARequest request) {
+            for (String field : SACache.varyFields(headers)) {
+                String cached = Util.headerValue(varyHeaders, field);
+                String current = request.header(field);
+                if (cached == null ? current != null : !cached.equals(current)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        SAResponse response(SARequest request) {
+            return new SAResponse.Builder()
+                    .request(request)
+                    .code(code)
+                    .message(message)
+                    .headers(headers)
+                    .body(SAResponseBody.create(contentType, body.length, new ByteArrayInputStream(body)))
+                    .sentRequestAtMillis(sentRequestAtMillis)
+                    .receivedResponseAtMillis(receivedResponseAtMillis)
+                    .build();
+        }
+    }
+}
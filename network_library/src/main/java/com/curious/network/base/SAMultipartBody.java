@@ -0,0 +1,343 @@
+package com.curious.network.base;
+
+import com.curious.network.base.internal.ChannelRequestBody;
+import com.curious.network.base.internal.Util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * multipart 请求体，可以混合文本字段、字节数组和文件。各部分的长度都已知时提前算出总长度，以定长方式发送；
+ * 写入时逐个部分输出，文件不会读入内存
+ * <pre>
+ * SAMultipartBody body = new SAMultipartBody.Builder()
+ *         .addFormDataPart("title", "holiday")
+ *         .addFormDataPart("photo", "1.jpg", SARequestBody.create("image/jpeg", file))
+ *         .build();
+ * </pre>
+ */
+public final class SAMultipartBody extends ChannelRequestBody {
+    public static final String MIXED = "multipart/mixed";
+    public static final String ALTERNATIVE = "multipart/alternative";
+    public static final String DIGEST = "multipart/digest";
+    public static final String PARALLEL = "multipart/parallel";
+    public static final String FORM = "multipart/form-data";
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] DASH_DASH = {'-', '-'};
+
+    private final String boundary;
+    private final String contentType;
+    private final List<Part> parts;
+    private final byte[] boundaryBytes;
+    private long contentLength = -2L;
+
+    private SAMultipartBody(String boundary, String type, List<Part> parts) {
+        this.boundary = boundary;
+        this.contentType = type + "; boundary=" + boundary;
+        this.parts = Collections.unmodifiableList(new ArrayList<>(parts));
+        this.boundaryBytes = boundary.getBytes(Util.UTF_8);
+    }
+
+    public String boundary() {
+        return boundary;
+    }
+
+    public List<Part> parts() {
+        return parts;
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * 所有部分的长度都已知时返回总长度，否则返回 -1，以 chunked 方式发送
+     */
+    @Override
+    public long contentLength() {
+        long result = contentLength;
+        if (result != -2L) return result;
+        return contentLength = computeLength();
+    }
+
+    @Override
+    public boolean isOneShot() {
+        for (Part part : parts) {
+            if (part.body.isOneShot()) return true;
+        }
+        return false;
+    }
+
+    private long computeLength() {
+        long byteCount = 0;
+        for (Part part : parts) {
+            long bodyLength = part.body.contentLength();
+            if (bodyLength == -1) return -1;
+            byteCount += DASH_DASH.length + boundaryBytes.length + CRLF.length;
+            byteCount += part.headerBytes.length;
+            byteCount += bodyLength + CRLF.length;
+        }
+        byteCount += DASH_DASH.length + boundaryBytes.length + DASH_DASH.length + CRLF.length;
+        return byteCount;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        for (Part part : parts) {
+            writePartHead(out, part);
+            part.body.writeTo(out);
+            out.write(CRLF);
+        }
+        writeClose(out);
+    }
+
+    /**
+     * 分隔符和头信息写入 channel，长度已知的文件部分交给 {@link ChannelRequestBody#writeTo(WritableByteChannel)}
+     */
+    @Override
+    public void writeTo(WritableByteChannel sink) throws IOException {
+        OutputStream out = Channels.newOutputStream(sink);
+        for (Part part : parts) {
+            writePartHead(out, part);
+            if (part.body instanceof ChannelRequestBody) {
+                ((ChannelRequestBody) part.body).writeTo(sink);
+            } else {
+                OutputStream partSink = new BufferedOutputStream(out, 8 * 1024);
+                part.body.writeTo(partSink);
+                partSink.flush();
+            }
+            write(sink, CRLF);
+        }
+        writeClose(out);
+    }
+
+    /**
+     * 分隔符、头信息和内存中的部分合并成字节片段，文件部分保持为文件片段
+     */
+    @Override
+    public boolean segments(List<Segment> sink) throws IOException {
+        if (contentLength() == -1) return false;
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        for (Part part : parts) {
+            writePartHead(pending, part);
+            if (part.body instanceof ChannelRequestBody) {
+                sink.add(Segment.of(pending.toByteArray()));
+                pending.reset();
+                if (!((ChannelRequestBody) part.body).segments(sink)) return false;
+            } else {
+                part.body.writeTo(pending);
+            }
+            pending.write(CRLF);
+        }
+        writeClose(pending);
+        sink.add(Segment.of(pending.toByteArray()));
+        return true;
+    }
+
+    private void writePartHead(OutputStream out, Part part) throws IOException {
+        // 头信息一次写出，避免在 channel 上产生很多小的写操作
+        byte[] head = new byte[DASH_DASH.length + boundaryBytes.length + CRLF.length + part.headerBytes.length];
+        int offset = 0;
+        System.arraycopy(DASH_DASH, 0, head, offset, DASH_DASH.length);
+        offset += DASH_DASH.length;
+        System.arraycopy(boundaryBytes, 0, head, offset, boundaryBytes.length);
+        offset += boundaryBytes.length;
+        System.arraycopy(CRLF, 0, head, offset, CRLF.length);
+        offset += CRLF.length;
+        System.arraycopy(part.headerBytes, 0, head, offset, part.headerBytes.length);
+        out.write(head);
+    }
+
+    private void writeClose(OutputStream out) throws IOException {
+        byte[] close = new byte[DASH_DASH.length * 2 + boundaryBytes.length + CRLF.length];
+        System.arraycopy(DASH_DASH, 0, close, 0, DASH_DASH.length);
+        System.arraycopy(boundaryBytes, 0, close, DASH_DASH.length, boundaryBytes.length);
+        System.arraycopy(DASH_DASH, 0, close, DASH_DASH.length + boundaryBytes.length, DASH_DASH.length);
+        System.arraycopy(CRLF, 0, close, DASH_DASH.length * 2 + boundaryBytes.length, CRLF.length);
+        out.write(close);
+    }
+
+    private static void write(WritableByteChannel sink, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            sink.write(buffer);
+        }
+    }
+
+    public static final class Part {
+        private final List<SAHeader> headers;
+        private final SARequestBody body;
+        /** 头信息和结尾的空行，构造时编码一次 */
+        private final byte[] headerBytes;
+
+        private Part(List<SAHeader> headers, SARequestBody body) {
+            this.headers = Collections.unmodifiableList(new ArrayList<>(headers));
+            this.body = body;
+
+            StringBuilder builder = new StringBuilder();
+            for (SAHeader header : headers) {
+                builder.append(header.getName()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            if (body.contentType() != null) {
+                builder.append("Content-Type: ").append(body.contentType()).append("\r\n");
+            }
+            if (body.contentLength() != -1) {
+                builder.append("Content-Length: ").append(body.contentLength()).append("\r\n");
+            }
+            builder.append("\r\n");
+            this.headerBytes = builder.toString().getBytes(Util.UTF_8);
+        }
+
+        public List<SAHeader> headers() {
+            return headers;
+        }
+
+        public SARequestBody body() {
+            return body;
+        }
+    }
+
+    public static final class Builder {
+        private final String boundary;
+        private String type = FORM;
+        private final List<Part> parts = new ArrayList<>();
+
+        public Builder() {
+            this(UUID.randomUUID().toString());
+        }
+
+        public Builder(String boundary) {
+            if (boundary == null || boundary.isEmpty()) {
+                throw new IllegalArgumentException("boundary is empty");
+            }
+            this.boundary = boundary;
+        }
+
+        /**
+         * @param type 默认是 {@link #FORM}，也可以是 {@link #MIXED} 等其他 multipart 类型
+         * @return Builder
+         */
+        public Builder setType(String type) {
+            if (type == null || !type.startsWith("multipart/")) {
+                throw new IllegalArgumentException("multipart != " + type);
+            }
+            this.type = type;
+            return this;
+        }
+
+        /**
+         * 添加一个部分，Content-Type 和 Content-Length 由 body 决定，不能出现在 headers 中
+         */
+        public Builder addPart(List<SAHeader> headers, SARequestBody body) {
+            if (body == null) throw new NullPointerException("body == null");
+            List<SAHeader> partHeaders = headers != null ? headers : Collections.<SAHeader>emptyList();
+            for (SAHeader header : partHeaders) {
+                if ("Content-Type".equalsIgnoreCase(header.getName())
+                        || "Content-Length".equalsIgnoreCase(header.getName())) {
+                    throw new IllegalArgumentException("Unexpected header: " + header.getName());
+                }
+            }
+            parts.add(new Part(partHeaders, body));
+            return this;
+        }
+
+        /** 添加文本字段 */
+        public Builder addFormDataPart(String name, String value) {
+            return addFormDataPart(name, null, new TextBody(value == null ? "" : value));
+        }
+
+        /** 添加文件字段，Content-Type 由 body 决定 */
+        public Builder addFormDataPart(String name, String filename, SARequestBody body) {
+            if (name == null) throw new NullPointerException("name == null");
+            StringBuilder disposition = new StringBuilder("form-data; name=");
+            appendQuotedString(disposition, name);
+            if (filename != null) {
+                disposition.append("; filename=");
+                appendQuotedString(disposition, filename);
+            }
+            List<SAHeader> headers = new ArrayList<>();
+            headers.add(new SAHeader("Content-Disposition", disposition.toString(), true));
+            return addPart(headers, body);
+        }
+
+        /** 添加文件字段，文件名取 file.getName() */
+        public Builder addFormDataPart(String name, String contentType, File file) {
+            return addFormDataPart(name, file.getName(), SARequestBody.create(contentType, file));
+        }
+
+        public SAMultipartBody build() {
+            if (parts.isEmpty()) {
+                throw new IllegalStateException("Multipart body must have at least one part.");
+            }
+            return new SAMultipartBody(boundary, type, parts);
+        }
+    }
+
+    /**
+     * 引号内的双引号和换行需要转义，参考 WHATWG HTML 规范中 multipart/form-data 的编码方式
+     */
+    static void appendQuotedString(StringBuilder target, String key) {
+        target.append('"');
+        for (int i = 0, len = key.length(); i < len; i++) {
+            char ch = key.charAt(i);
+            switch (ch) {
+                case '\n':
+                    target.append("%0A");
+                    break;
+                case '\r':
+                    target.append("%0D");
+                    break;
+                case '"':
+                    target.append("%22");
+                    break;
+                default:
+                    target.append(ch);
+                    break;
+            }
+        }
+        target.append('"');
+    }
+
+    /** 没有 Content-Type 的 UTF-8 文本字段 */
+    private static final class TextBody extends SARequestBody {
+        private final String value;
+        private final byte[] bytes;
+
+        TextBody(String value) {
+            this.value = value;
+            this.bytes = value.getBytes(Util.UTF_8);
+        }
+
+        @Override
+        public long contentLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public String contentType() {
+            return null;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(bytes);
+        }
+
+        @Override
+        public String stringContent() {
+            return value;
+        }
+    }
+}
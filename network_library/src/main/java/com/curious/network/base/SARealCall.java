@@ -1,15 +1,30 @@
 package com.curious.network.base;
 
 
+import android.util.Log;
+
 import com.curious.network.HttpCallback;
+import com.curious.network.base.internal.CacheInterceptor;
 import com.curious.network.base.internal.ConnectInterceptor;
+import com.curious.network.base.internal.ContentEncodingInterceptor;
 import com.curious.network.base.internal.CookiesInterceptor;
+import com.curious.network.base.internal.CountingInputStream;
 import com.curious.network.base.internal.FollowAndRetryInterceptor;
+import com.curious.network.base.internal.HedgingInterceptor;
+import com.curious.network.base.internal.MemoryCacheInterceptor;
+import com.curious.network.base.internal.TimingWheel;
+import com.curious.network.base.internal.Util;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 实际的 Http 请求操作在这里发生
@@ -19,11 +34,17 @@ public class SARealCall implements SACall {
     final SAHttpClient client;
     /** The application's original request unadulterated by redirects or auth headers. */
     final SARequest originalRequest;
+    private SAEventListener eventListener;
 
     // Guarded by this.
     private boolean executed;
-    private boolean isCanceled;
-    private HttpURLConnection connection = null;
+    /** 异步请求的执行单元，取消时从 dispatcher 的等待队列中移除 */
+    private AsyncCall asyncCall;
+    /** 正在进行的网络交换，取消或者调用超时时中止它 */
+    private Cancelable exchange;
+    private volatile boolean canceled;
+    private TimingWheel.Timeout timeout;
+    private volatile boolean timedOut;
 
     private SARealCall(SAHttpClient client, SARequest originalRequest) {
         this.client = client;
@@ -32,6 +53,7 @@ public class SARealCall implements SACall {
 
     static SARealCall newRealCall(SAHttpClient client, SARequest originalRequest) {
         SARealCall call = new SARealCall(client, originalRequest);
+        call.eventListener = client.eventListenerFactory().create(call);
         return call;
     }
 
@@ -40,38 +62,479 @@ public class SARealCall implements SACall {
         return this.originalRequest;
     }
 
+    /**
+     * 这个请求的事件回调，供 {@link SATransport} 的实现在各个网络阶段调用
+     */
+    public SAEventListener eventListener() {
+        return eventListener;
+    }
 
-    @Override
-    public SAResponse execute() throws IOException {
 
-        //回调请求前
-        SAResponse response = getResponseWithInterceptorChain();
-        //回调请求后
+    /**
+     * 正在进行的一次网络交换（包括建立连接）。调用被取消或者超时时调用 {@link #cancel()}，
+     * 实现不能阻塞，被中止的交换中等待读写的线程应当尽快以 IOException 结束
+     */
+    public interface Cancelable {
+        void cancel();
+    }
+
+    /**
+     * 传输层开始一次交换之前登记，之后取消调用或者调用超时会中止它；交换结束、连接可以被其他调用复用之前需要调用 {@link #exchangeFinished}
+     *
+     * @throws InterruptedIOException 调用已经超时
+     * @throws IOException 调用已经被取消
+     */
+    public synchronized void exchangeStarted(Cancelable exchange) throws IOException {
+        if (timedOut) throw new InterruptedIOException("timeout");
+        if (canceled) throw new IOException("Canceled");
+        this.exchange = exchange;
+    }
+
+    public synchronized void exchangeFinished(Cancelable exchange) {
+        if (this.exchange == exchange) {
+            this.exchange = null;
+        }
+    }
+
+    /**
+     * 对冲请求的一次尝试，和这个调用共享 client 和事件回调，可以单独取消。
+     * 尝试的交换登记在它自己上，这个调用被取消或者超时时需要由登记在这个调用上的交换取消它
+     */
+    public SARealCall newAttempt() {
+        SARealCall attempt = new SARealCall(client, originalRequest);
+        attempt.eventListener = eventListener;
+        attempt.executed = true;
+        return attempt;
+    }
+
+    /**
+     * 开始计时，{@link SAHttpClient#callTimeout()} 覆盖所有重试、重定向和响应体的读取
+     */
+    private void timeoutEnter() {
+        if (client.callTimeout() <= 0) return;
+        timeout = TimingWheel.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SARealCall.this) {
+                    timedOut = true;
+                    if (exchange != null) {
+                        exchange.cancel();
+                        exchange = null;
+                    }
+                }
+            }
+        }, client.callTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 调用结束时停止计时
+     *
+     * @param e 调用失败的原因，超时导致的失败替换为 InterruptedIOException("timeout")，
+     *          取消导致的失败（比如连接被关闭）替换为 IOException("Canceled")
+     */
+    private IOException callExit(IOException e) {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        if (e == null) return null;
+        if (timedOut) {
+            if (e instanceof InterruptedIOException) return e;
+            InterruptedIOException timeoutException = new InterruptedIOException("timeout");
+            timeoutException.initCause(e);
+            return timeoutException;
+        }
+        if (canceled && (e.getClass() != IOException.class || !"Canceled".equals(e.getMessage()))) {
+            return new IOException("Canceled", e);
+        }
+        return e;
+    }
 
-        return response;
+    @Override
+    public SAResponse execute() throws IOException {
+        synchronized (this) {
+            if (executed) throw new IllegalStateException("Already Executed");
+            executed = true;
+        }
+        eventListener.callStart(this, System.nanoTime());
+        timeoutEnter();
+        try {
+            client.dispatcher().executed(this);
+            return getResponseWithInterceptorChain();
+        } finally {
+            client.dispatcher().finished(this);
+        }
     }
 
     @Override
     public void enqueue(HttpCallback callback) {
-        //TODO 暂未实现，后续再补充
+        if (callback == null) throw new NullPointerException("callback == null");
+        AsyncCall asyncCall = new AsyncCall(callback);
+        synchronized (this) {
+            if (executed) throw new IllegalStateException("Already Executed");
+            executed = true;
+            this.asyncCall = asyncCall;
+        }
+        client.dispatcher().enqueue(asyncCall);
     }
 
+    /**
+     * 可以在任意线程多次调用。还在排队的异步请求直接回调 onFailure；正在进行的请求立即关闭连接，
+     * 阻塞在读写上的线程以 IOException("Canceled") 结束，不再重试和重定向。已经完成的请求不受影响
+     */
     @Override
     public void cancel() {
-        isCanceled = false;
-
+        AsyncCall queued;
+        synchronized (this) {
+            if (canceled) return;
+            canceled = true;
+            if (exchange != null) {
+                exchange.cancel();
+                exchange = null;
+            }
+            queued = asyncCall;
+        }
+        if (queued != null) {
+            // 不能持有 this 调用 dispatcher，dispatcher 的 cancelAll 会在它的锁外调用 cancel
+            client.dispatcher().cancel(queued);
+        }
     }
 
+    @Override
     public boolean isCanceled() {
-        return isCanceled;
+        return canceled;
+    }
+
+    /** 是否因为 {@link SAHttpClient#callTimeout()} 超时被中止 */
+    public boolean isTimedOut() {
+        return timedOut;
     }
 
     private SAResponse getResponseWithInterceptorChain() throws IOException {
         List<SAInterceptor> interceptors = new ArrayList<>(client.interceptors());
-        interceptors.add(new FollowAndRetryInterceptor(client));
+        FollowAndRetryInterceptor followAndRetry = new FollowAndRetryInterceptor(client);
+        interceptors.add(followAndRetry);
+        if (client.hedgingPolicy() != null) {
+            interceptors.add(new HedgingInterceptor(client, followAndRetry));
+        }
         interceptors.add(new CookiesInterceptor());
+        if (client.memoryCache() != null) {
+            interceptors.add(new MemoryCacheInterceptor(client.memoryCache()));
+        }
+        interceptors.add(new ContentEncodingInterceptor());
+        interceptors.add(new CacheInterceptor(client.cache()));
         interceptors.add(new ConnectInterceptor(client));
         SAInterceptor.Chain chain = new SARealChain(interceptors, 0, originalRequest, this);
-        return chain.proceed(originalRequest);
+        SAResponse response;
+        try {
+            response = chain.proceed(originalRequest);
+        } catch (IOException e) {
+            e = callExit(e);
+            eventListener.callFailed(this, System.nanoTime(), e);
+            throw e;
+        }
+        return observeBody(response);
+    }
+
+    /**
+     * 响应体读完或者关闭时停止计时并回调 callEnd，读取失败时回调 callFailed
+     */
+    private SAResponse observeBody(SAResponse response) {
+        SAResponseBody body = response.body();
+        if (body == null || body.byteStream() == null) {
+            callExit(null);
+            eventListener.callEnd(this, System.nanoTime());
+            return response;
+        }
+        InputStream source = new CallSource(body.byteStream());
+        if (eventListener == SAEventListener.NONE && timeout == null) {
+            return response.newBuilder()
+                    .body(SAResponseBody.create(body.contentType(), body.contentLength(), source))
+                    .build();
+        }
+        InputStream observed = new CountingInputStream(source) {
+            @Override
+            protected void onEnd(long byteCount, IOException e) {
+                callExit(null);
+                if (e != null) {
+                    eventListener.callFailed(SARealCall.this, System.nanoTime(), e);
+                } else {
+                    eventListener.callEnd(SARealCall.this, System.nanoTime());
+                }
+            }
+        };
+        return response.newBuilder()
+                .body(SAResponseBody.create(body.contentType(), body.contentLength(), observed))
+                .build();
+    }
+
+    /**
+     * 取消或者超时中止交换后，读取响应体的异常替换为 IOException("Canceled") 或 InterruptedIOException("timeout")
+     */
+    private final class CallSource extends FilterInputStream {
+        CallSource(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return in.read();
+            } catch (IOException e) {
+                throw callExit(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return in.read(b, off, len);
+            } catch (IOException e) {
+                throw callExit(e);
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            try {
+                return in.skip(n);
+            } catch (IOException e) {
+                throw callExit(e);
+            }
+        }
+    }
+
+    /**
+     * 没有应用拦截器、缓存和对冲时，拦截器链只剩下重试、重定向和透明解压，可以不占用线程完成
+     */
+    private SATransport.Async asyncTransport() {
+        SATransport transport = client.transport();
+        if (!(transport instanceof SATransport.Async)) return null;
+        if (!client.interceptors().isEmpty() || client.cache() != null || client.memoryCache() != null) return null;
+        if (client.hedgingPolicy() != null) return null;
+        return (SATransport.Async) transport;
+    }
+
+    /**
+     * 通过 {@link SATransport.Async} 完成的异步请求，以回调的方式完成和拦截器链相同的重试、重定向和透明解压。
+     * 传输层的回调不能阻塞，结果交给 {@link AsyncCall#deliver} 在线程池中回调
+     */
+    private final class AsyncExchange implements SATransport.Callback {
+        private final AsyncCall asyncCall;
+        private final SATransport.Async transport;
+        private final ExecutorService executorService;
+        private final FollowAndRetryInterceptor.FollowUps followUps;
+        private final boolean transparentEncoding;
+
+        AsyncExchange(AsyncCall asyncCall, SATransport.Async transport, ExecutorService executorService) {
+            this.asyncCall = asyncCall;
+            this.transport = transport;
+            this.executorService = executorService;
+            this.followUps = new FollowAndRetryInterceptor(client).newFollowUps(SARealCall.this, originalRequest);
+            this.transparentEncoding = ContentEncodingInterceptor.isTransparent(originalRequest);
+        }
+
+        void start() {
+            eventListener.callStart(SARealCall.this, System.nanoTime());
+            timeoutEnter();
+            proceed();
+        }
+
+        private void proceed() {
+            SARequest request = followUps.request();
+            SARequest networkRequest = transparentEncoding ? ContentEncodingInterceptor.withAcceptEncoding(request) : request;
+            transport.enqueue(networkRequest, SARealCall.this, this);
+        }
+
+        /**
+         * 在计时线程中等待退避时间后重新发送，等待期间取消调用或者调用超时会提前发送，由传输层以失败结束
+         */
+        private void retryLater(long delayMillis) {
+            if (delayMillis <= 0) {
+                proceed();
+                return;
+            }
+            DelayedRetry retry = new DelayedRetry();
+            try {
+                exchangeStarted(retry);
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            retry.timeout = TimingWheel.get().schedule(retry, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void fail(IOException e) {
+            e = callExit(e);
+            eventListener.callFailed(SARealCall.this, System.nanoTime(), e);
+            asyncCall.deliver(executorService, null, e);
+        }
+
+        @Override
+        public void onResponse(SAResponse response) {
+            long delayMillis;
+            try {
+                delayMillis = followUps.onResponse(response);
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            if (delayMillis >= 0) {
+                retryLater(delayMillis);
+                return;
+            }
+            if (transparentEncoding) {
+                response = ContentEncodingInterceptor.decode(response);
+            }
+            asyncCall.deliver(executorService, observeBody(response), null);
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            long delayMillis = followUps.onFailure(e);
+            if (delayMillis >= 0) {
+                retryLater(delayMillis);
+                return;
+            }
+            fail(e);
+        }
+
+        private final class DelayedRetry implements Runnable, Cancelable {
+            private final AtomicBoolean started = new AtomicBoolean();
+            volatile TimingWheel.Timeout timeout;
+
+            @Override
+            public void run() {
+                if (!started.compareAndSet(false, true)) return;
+                exchangeFinished(this);
+                proceed();
+            }
+
+            @Override
+            public void cancel() {
+                TimingWheel.Timeout scheduled = timeout;
+                if (scheduled != null) scheduled.cancel();
+                // 持有 SARealCall 的锁，不能在这里发送
+                TimingWheel.get().schedule(this, 0, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 异步请求的执行单元，由 {@link SADispatcher} 调度，在线程池中执行并回调 {@link HttpCallback}
+     */
+    final class AsyncCall implements Runnable {
+        private final HttpCallback callback;
+
+        AsyncCall(HttpCallback callback) {
+            this.callback = callback;
+        }
+
+        SARealCall get() {
+            return SARealCall.this;
+        }
+
+        String host() {
+            return originalRequest.url().host();
+        }
+
+        /**
+         * 提交到线程池执行，如果线程池已经关闭，直接回调失败。
+         * 传输层支持 {@link SATransport.Async} 时直接在当前线程发起请求，只在回调时使用线程池
+         */
+        void executeOn(ExecutorService executorService) {
+            SATransport.Async asyncTransport = asyncTransport();
+            if (asyncTransport != null) {
+                new AsyncExchange(this, asyncTransport, executorService).start();
+                return;
+            }
+            boolean success = false;
+            try {
+                executorService.execute(this);
+                success = true;
+            } catch (RejectedExecutionException e) {
+                InterruptedIOException ioException = new InterruptedIOException("executor rejected");
+                ioException.initCause(e);
+                callback.onFailure(null, ioException);
+            } finally {
+                if (!success) {
+                    client.dispatcher().finished(this); // This call is no longer running!
+                }
+            }
+        }
+
+        /**
+         * 在线程池中回调结果，response 为 null 时回调失败
+         */
+        void deliver(ExecutorService executorService, final SAResponse response, final IOException failure) {
+            try {
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        String oldName = Thread.currentThread().getName();
+                        Thread.currentThread().setName("SAHttp " + originalRequest.url().toString());
+                        try {
+                            if (response != null) {
+                                callback.onResponse(response);
+                            } else {
+                                callback.onFailure(null, failure);
+                            }
+                        } catch (IOException e) {
+                            Log.i(TAG, "Callback failure for " + originalRequest.url().toString() + ", " + e);
+                        } finally {
+                            Thread.currentThread().setName(oldName);
+                            client.dispatcher().finished(AsyncCall.this);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Util.closeQuietly(response);
+                InterruptedIOException ioException = new InterruptedIOException("executor rejected");
+                ioException.initCause(e);
+                callback.onFailure(null, ioException);
+                client.dispatcher().finished(this);
+            }
+        }
+
+        /**
+         * 还在排队时被取消，在线程池中回调失败。这个请求没有开始执行，不需要通知 dispatcher
+         */
+        void failQueued(ExecutorService executorService) {
+            final IOException canceledException = new IOException("Canceled");
+            Runnable failure = new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFailure(null, canceledException);
+                }
+            };
+            try {
+                executorService.execute(failure);
+            } catch (RejectedExecutionException e) {
+                failure.run();
+            }
+        }
+
+        @Override
+        public void run() {
+            String oldName = Thread.currentThread().getName();
+            Thread.currentThread().setName("SAHttp " + originalRequest.url().toString());
+            boolean signalledCallback = false;
+            eventListener.callStart(SARealCall.this, System.nanoTime());
+            timeoutEnter();
+            try {
+                SAResponse response = getResponseWithInterceptorChain();
+                signalledCallback = true;
+                callback.onResponse(response);
+            } catch (IOException e) {
+                if (signalledCallback) {
+                    // 异常由 onResponse 抛出，不再重复回调
+                    Log.i(TAG, "Callback failure for " + originalRequest.url().toString() + ", " + e);
+                } else {
+                    callback.onFailure(null, e);
+                }
+            } finally {
+                Thread.currentThread().setName(oldName);
+                client.dispatcher().finished(this);
+            }
+        }
     }
 }
@@ -22,6 +22,18 @@ public class SARealChain implements SAInterceptor.Chain {
         return request;
     }
 
+    @Override
+    public SACall call() {
+        return call;
+    }
+
+    /**
+     * 同一位置的链，之后的拦截器和传输层使用另一个 call，用于对冲请求的每次尝试
+     */
+    public SARealChain withCall(SACall call) {
+        return new SARealChain(interceptors, index, request, call);
+    }
+
     @Override
     public SAResponse proceed(SARequest request) throws IOException {
         if (index >= interceptors.size()) throw new AssertionError();
@@ -9,10 +9,15 @@ import java.util.List;
  * Http Request 构建
  */
 public final class SARequest {
+    /** HTTP/2 流的默认权重 */
+    public static final int DEFAULT_PRIORITY = 16;
+
     private final SAHttpUrl url;
     private final HttpMethod method;
     private final SARequestBody body;
     private final List<SAHeader> headers;
+    private final int priority;
+    private final Object tag;
 
 
     public SARequest(Builder builder) {
@@ -20,6 +25,8 @@ public final class SARequest {
         this.method = builder.method;
         this.body = builder.body;
         this.headers = Collections.unmodifiableList(builder.headers);
+        this.priority = builder.priority;
+        this.tag = builder.tag;
     }
 
     public SAHttpUrl url() {
@@ -30,6 +37,21 @@ public final class SARequest {
         return headers;
     }
 
+    /**
+     * 忽略大小写，返回第一个名为 name 的头信息的值
+     *
+     * @param name name
+     * @return 不存在时返回 null
+     */
+    public String header(String name) {
+        for (SAHeader header : headers) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
     public SARequestBody body() {
         return body;
     }
@@ -42,6 +64,20 @@ public final class SARequest {
         return url.isHttps();
     }
 
+    /**
+     * HTTP/2 流的权重，见 {@link Builder#priority(int)}
+     */
+    public int priority() {
+        return priority;
+    }
+
+    /**
+     * 见 {@link Builder#tag(Object)}，没有设置时为 null
+     */
+    public Object tag() {
+        return tag;
+    }
+
     public Builder newBuilder(){
         return new Builder(this);
     }
@@ -51,12 +87,16 @@ public final class SARequest {
         private HttpMethod method;
         private SARequestBody body;
         private List<SAHeader> headers = new ArrayList<>();
+        private int priority = DEFAULT_PRIORITY;
+        private Object tag;
 
         Builder(SARequest request) {
             this.url = request.url;
             this.method = request.method;
             this.body = request.body;
-            this.headers = request.headers;
+            this.headers = new ArrayList<>(request.headers);
+            this.priority = request.priority;
+            this.tag = request.tag;
         }
 
         public Builder() {
@@ -79,6 +119,31 @@ public final class SARequest {
             return this;
         }
 
+        /**
+         * 设置 HTTP/2 流的权重，同一个连接上的并发请求按权重的比例分配服务器的发送带宽，
+         * 比如首屏接口可以设置得比图片高。HTTP/1.1 下没有作用
+         *
+         * @param weight 1~256，默认是 {@link #DEFAULT_PRIORITY}
+         * @return Builder
+         */
+        public Builder priority(int weight) {
+            if (weight < 1 || weight > 256) throw new IllegalArgumentException("weight out of range: " + weight);
+            this.priority = weight;
+            return this;
+        }
+
+        /**
+         * 给请求打上标记，之后可以通过 {@link SAHttpClient#cancelAll(Object)} 取消所有相同标记的请求，
+         * 比如使用页面对象作为标记。重定向和重试的请求保留同样的标记
+         *
+         * @param tag 按 equals 比较，为 null 时清除
+         * @return Builder
+         */
+        public Builder tag(Object tag) {
+            this.tag = tag;
+            return this;
+        }
+
         /**
          * Set a field with the specified value. If the field is not found, it is added. If the field is
          * found, the existing values are replaced.
@@ -115,6 +180,22 @@ public final class SARequest {
             return this;
         }
 
+        /**
+         * 忽略大小写删除所有同名头信息
+         *
+         * @param name name
+         * @return Builder
+         */
+        public Builder removeHeader(String name) {
+            Iterator<SAHeader> iterator = headers.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getName().equalsIgnoreCase(name)) {
+                    iterator.remove();
+                }
+            }
+            return this;
+        }
+
         public SARequest build() {
             if (body == null) {
                 body = SARequestBody.create("application/json; charset=UTF-8", "");
@@ -148,14 +229,28 @@ public final class SARequest {
             return this.value;
         }
 
+        /**
+         * 幂等的方法，重复发送和发送一次的效果相同，失败后可以重试
+         */
         public static boolean permitsRetry(HttpMethod method) {
-            return method == GET;
+            return method == GET
+                    || method == PUT
+                    || method == DELETE;
         }
 
         public static boolean permitsCache(HttpMethod method) {
             return method == GET || method == POST;
         }
 
+        /**
+         * 请求成功后，同一个 url 已缓存的响应需要失效
+         */
+        public static boolean invalidatesCache(HttpMethod method) {
+            return method == POST
+                    || method == PUT
+                    || method == DELETE;
+        }
+
         public static boolean permitsRequestBody(HttpMethod method) {
             return method == POST
                     || method == PUT
@@ -3,12 +3,17 @@ package com.curious.network.base;
 import android.net.Uri;
 import android.text.TextUtils;
 
+import com.curious.network.base.internal.ChannelRequestBody;
+
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.util.List;
 
 public abstract class SARequestBody {
+    private static final Charset UTF_8 = Charset.forName("utf-8");
 
     /**
      * 创建带 name-value 请求体的数据
@@ -36,12 +41,16 @@ public abstract class SARequestBody {
         if (contentType == null) {
             throw new NullPointerException("contentType == null");
         }
-        if (!contentType.contains("charset")) {
+        Charset charset = UTF_8;
+        SAMediaType mediaType = SAMediaType.parse(contentType);
+        if (mediaType != null && mediaType.charset() != null) {
+            charset = mediaType.charset();
+        } else {
             contentType += "; charset=utf-8";
         }
         byte[] bytes = null;
         if (content != null) {
-            bytes = content.getBytes(Charset.forName("utf-8"));
+            bytes = content.getBytes(charset);
         }
         return create(contentType, bytes);
     }
@@ -75,15 +84,62 @@ public abstract class SARequestBody {
 
             @Override
             public String stringContent() {
-                return new String(content, Charset.forName("utf-8"));
+                if (content == null) {
+                    return null;
+                }
+                SAMediaType mediaType = SAMediaType.parse(contentType);
+                Charset charset = mediaType != null ? mediaType.charset(UTF_8) : UTF_8;
+                return new String(content, charset);
             }
         };
     }
 
+    /**
+     * 上传文件，内存占用与文件大小无关。明文连接上由 {@link java.nio.channels.FileChannel#transferTo} 直接发送到 socket
+     *
+     * @param contentType contentType
+     * @param file 长度在调用时确定，之后追加到文件的内容不会发送
+     * @return SARequestBody
+     */
+    public static SARequestBody create(String contentType, File file) {
+        if (contentType == null) {
+            throw new NullPointerException("contentType == null");
+        }
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+        return ChannelRequestBody.create(contentType, file);
+    }
+
+    /**
+     * 从 channel 读取请求体，只能发送一次，失败后不会重试
+     *
+     * @param contentType contentType
+     * @param channel 由调用方负责关闭
+     * @param contentLength 未知时传 -1，使用 chunked 方式发送
+     * @return SARequestBody
+     */
+    public static SARequestBody create(String contentType, ReadableByteChannel channel, long contentLength) {
+        if (contentType == null) {
+            throw new NullPointerException("contentType == null");
+        }
+        if (channel == null) {
+            throw new NullPointerException("channel == null");
+        }
+        return ChannelRequestBody.create(contentType, channel, contentLength);
+    }
+
     public long contentLength() {
         return -1;
     }
 
+    /**
+     * 是否只能调用一次 writeTo，比如从流或者 channel 读取的请求体。这样的请求失败后不会重试
+     */
+    public boolean isOneShot() {
+        return false;
+    }
+
     public abstract String contentType();
 
     public abstract void writeTo(OutputStream out) throws IOException;
@@ -4,6 +4,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import static java.net.HttpURLConnection.HTTP_MOVED_PERM;
@@ -24,6 +25,9 @@ public final class SAResponse implements Closeable {
     final List<SAHeader> headers;
     final SAResponseBody body;
     final SARequest request;
+    final String protocol;
+    final long sentRequestAtMillis;
+    final long receivedResponseAtMillis;
 
 
     public SAResponse() {
@@ -36,6 +40,13 @@ public final class SAResponse implements Closeable {
         this.headers = Collections.unmodifiableList(builder.headers);
         this.message = builder.message;
         this.request = builder.request;
+        this.protocol = builder.protocol;
+        this.sentRequestAtMillis = builder.sentRequestAtMillis;
+        this.receivedResponseAtMillis = builder.receivedResponseAtMillis;
+    }
+
+    public SARequest request() {
+        return request;
     }
 
     public List<SAHeader> headers() {
@@ -52,10 +63,56 @@ public final class SAResponse implements Closeable {
         return tmpList;
     }
 
+    /**
+     * 忽略大小写，返回第一个名为 name 的头信息的值
+     *
+     * @param name name
+     * @return 不存在时返回 null
+     */
+    public String header(String name) {
+        for (SAHeader header : this.headers) {
+            if (header.getName() != null && header.getName().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
     public SAResponseBody body() {
         return body;
     }
 
+    /**
+     * 实际使用的协议，比如 "http/1.1"、"h2"
+     *
+     * @return 传输层不知道协议时（比如 {@link SATransport#HTTP_URL_CONNECTION}）为 null
+     */
+    public String protocol() {
+        return protocol;
+    }
+
+    /**
+     * 发出请求头时的时间戳，来自缓存的响应是当初请求网络时的时间
+     *
+     * @return System.currentTimeMillis()
+     */
+    public long sentRequestAtMillis() {
+        return sentRequestAtMillis;
+    }
+
+    /**
+     * 收到响应头时的时间戳，来自缓存的响应是当初请求网络时的时间
+     *
+     * @return System.currentTimeMillis()
+     */
+    public long receivedResponseAtMillis() {
+        return receivedResponseAtMillis;
+    }
+
+    public Builder newBuilder() {
+        return new Builder(this);
+    }
+
     /**
      * Http Status Code
      *
@@ -113,6 +170,7 @@ public final class SAResponse implements Closeable {
     @Override
     public String toString() {
         return "Response{protocol="
+                + protocol
                 + ", code="
                 + code
                 + ", message="
@@ -128,10 +186,24 @@ public final class SAResponse implements Closeable {
         List<SAHeader> headers = new ArrayList<>();
         SAResponseBody body;
         SARequest request;
+        String protocol;
+        long sentRequestAtMillis;
+        long receivedResponseAtMillis;
 
         public Builder() {
         }
 
+        Builder(SAResponse response) {
+            this.code = response.code;
+            this.message = response.message;
+            this.headers.addAll(response.headers);
+            this.body = response.body;
+            this.request = response.request;
+            this.protocol = response.protocol;
+            this.sentRequestAtMillis = response.sentRequestAtMillis;
+            this.receivedResponseAtMillis = response.receivedResponseAtMillis;
+        }
+
         public Builder code(int code) {
             this.code = code;
             return this;
@@ -147,6 +219,29 @@ public final class SAResponse implements Closeable {
             return this;
         }
 
+        /**
+         * 设置头信息，忽略大小写替换已有的同名头信息
+         */
+        public Builder header(String name, String value) {
+            removeHeader(name);
+            this.headers.add(new SAHeader(name, value, true));
+            return this;
+        }
+
+        /**
+         * 忽略大小写删除所有同名头信息
+         */
+        public Builder removeHeader(String name) {
+            Iterator<SAHeader> iterator = headers.iterator();
+            while (iterator.hasNext()) {
+                String headerName = iterator.next().getName();
+                if (headerName != null && headerName.equalsIgnoreCase(name)) {
+                    iterator.remove();
+                }
+            }
+            return this;
+        }
+
 
         public Builder body(SAResponseBody body) {
             this.body = body;
@@ -158,6 +253,21 @@ public final class SAResponse implements Closeable {
             return this;
         }
 
+        public Builder protocol(String protocol) {
+            this.protocol = protocol;
+            return this;
+        }
+
+        public Builder sentRequestAtMillis(long sentRequestAtMillis) {
+            this.sentRequestAtMillis = sentRequestAtMillis;
+            return this;
+        }
+
+        public Builder receivedResponseAtMillis(long receivedResponseAtMillis) {
+            this.receivedResponseAtMillis = receivedResponseAtMillis;
+            return this;
+        }
+
         public SAResponse build() {
             return new SAResponse(this);
         }
@@ -1,10 +1,15 @@
 package com.curious.network.base;
 
-import java.io.ByteArrayOutputStream;
+import com.curious.network.base.internal.SegmentPool;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
 public abstract class SAResponseBody {
 
@@ -14,44 +19,92 @@ public abstract class SAResponseBody {
 
     public abstract InputStream byteStream();
 
+    private static final Charset UTF_8 = Charset.forName("utf-8");
+
     private byte[] tmpData;
+    private String tmpString;
+    private SAMediaType mediaType;
+    private boolean mediaTypeParsed;
 
     /**
-     * 将 InputStream 流转换成字符串并且关闭流
+     * 从 {@link #contentType()} 解析出的 media type，只解析一次
+     *
+     * @return contentType 为空或者格式不正确时返回 null
+     */
+    public final SAMediaType mediaType() {
+        if (!mediaTypeParsed) {
+            mediaType = SAMediaType.parse(contentType());
+            mediaTypeParsed = true;
+        }
+        return mediaType;
+    }
+
+    /**
+     * 将 InputStream 流转换成字符串并且关闭流，按 Content-Type 中的 charset 解码，没有指定时使用 UTF-8。
+     * 直接从流中解码，不会先读出完整的字节数组
      *
      * @return string result
      * @throws IOException
      */
     public final String string() throws IOException {
-        byte[] tmp = bytes();
-        //此处 charset 需要根据 contentType 中解析出来
-        return new String(tmp, Charset.forName("utf-8"));
+        if (tmpString != null) {
+            return tmpString;
+        }
+        Charset charset = charset();
+        if (tmpData != null) {
+            return tmpString = new String(tmpData, charset);
+        }
+
+        long contentLength = contentLength();
+        if (contentLength > Integer.MAX_VALUE) {
+            throw new IOException("Cannot buffer entire body for content length: " + contentLength);
+        }
+        InputStream inputStream = byteStream();
+        try {
+            Reader reader = new InputStreamReader(inputStream, charset);
+            // 大多数编码下字符数不会超过字节数
+            StringBuilder builder = new StringBuilder(contentLength >= 0 ? (int) contentLength : 1024);
+            char[] buffer = new char[4 * 1024];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, count);
+            }
+            return tmpString = builder.toString();
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    private Charset charset() {
+        SAMediaType mediaType = mediaType();
+        return mediaType != null ? mediaType.charset(UTF_8) : UTF_8;
     }
 
     /**
-     * 从 InputStream 流中获取字节数组并且关闭流
+     * 从 InputStream 流中获取字节数组并且关闭流。
+     * 已知 contentLength 时直接读入最终的数组，否则先读入 {@link SegmentPool} 中的分段，最后只拷贝一次。
+     * {@link #string()} 直接从流中解码，没有保留原始字节，之后不能再调用
      *
      * @return byte array result
      * @throws IOException
+     * @throws IllegalStateException 已经调用过 {@link #string()}
      */
     public final byte[] bytes() throws IOException {
+        if (tmpData == null && tmpString != null) {
+            // 重新编码的结果和原始字节不一定相同，比如无法解码的字节已经被替换
+            throw new IllegalStateException("body already consumed by string()");
+        }
         if (tmpData == null) {
             long contentLength = contentLength();
             if (contentLength > Integer.MAX_VALUE) {
                 throw new IOException("Cannot buffer entire body for content length: " + contentLength);
             }
             InputStream inputStream = byteStream();
-            ByteArrayOutputStream baos = null;
             try {
-                baos = new ByteArrayOutputStream();
-                byte[] tmp = new byte[1024];
-                int length;
-                while ((length = inputStream.read(tmp)) != -1) {
-                    baos.write(tmp, 0, length);
-                }
-                return tmpData = baos.toByteArray();
+                return tmpData = contentLength >= 0
+                        ? readFully(inputStream, (int) contentLength)
+                        : readSegments(inputStream);
             } finally {
-                closeQuietly(baos);
                 closeQuietly(inputStream);
             }
         } else {
@@ -59,6 +112,59 @@ public abstract class SAResponseBody {
         }
     }
 
+    private static byte[] readFully(InputStream inputStream, int length) throws IOException {
+        byte[] result = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int count = inputStream.read(result, offset, length - offset);
+            if (count == -1) {
+                throw new IOException("Content-Length (" + length + ") and stream length (" + offset + ") disagree");
+            }
+            offset += count;
+        }
+        if (inputStream.read() != -1) {
+            throw new IOException("Content-Length (" + length + ") and stream length disagree");
+        }
+        return result;
+    }
+
+    private static byte[] readSegments(InputStream inputStream) throws IOException {
+        List<byte[]> segments = new ArrayList<>();
+        try {
+            byte[] segment = SegmentPool.take();
+            segments.add(segment);
+            int limit = 0;
+            long size = 0;
+            while (true) {
+                if (limit == segment.length) {
+                    segment = SegmentPool.take();
+                    segments.add(segment);
+                    limit = 0;
+                }
+                int count = inputStream.read(segment, limit, segment.length - limit);
+                if (count == -1) break;
+                limit += count;
+                size += count;
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Cannot buffer entire body, size exceeds " + Integer.MAX_VALUE);
+                }
+            }
+
+            byte[] result = new byte[(int) size];
+            int offset = 0;
+            for (byte[] s : segments) {
+                int count = (int) Math.min(s.length, size - offset);
+                System.arraycopy(s, 0, result, offset, count);
+                offset += count;
+            }
+            return result;
+        } finally {
+            for (byte[] s : segments) {
+                SegmentPool.recycle(s);
+            }
+        }
+    }
+
     /**
      * 自己处理完 InputStream 流以后，需要调用 close 关闭
      */
@@ -66,7 +172,11 @@ public abstract class SAResponseBody {
         closeQuietly(byteStream());
     }
 
-    public static SAResponseBody create(final String contentType, final int contentLength, final InputStream stream) {
+    public static SAResponseBody create(String contentType, int contentLength, InputStream stream) {
+        return create(contentType, (long) contentLength, stream);
+    }
+
+    public static SAResponseBody create(final String contentType, final long contentLength, final InputStream stream) {
         return new SAResponseBody() {
             @Override
             public String contentType() {
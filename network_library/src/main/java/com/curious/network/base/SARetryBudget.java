@@ -0,0 +1,85 @@
+package com.curious.network.base;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 重试预算，一个令牌桶。每个调用开始时存入 ratio 个令牌，每次重试取出 1 个，令牌不足时不再重试，
+ * 所以持续的重试量不会超过正常调用量的 ratio 倍；桶里最多保存 maxTokens 个令牌，刚启动或者调用很少时也可以重试几次。
+ * <p>
+ * 同一个 {@link SARetryPolicy} 的所有调用共享预算，服务大面积故障时重试不会成倍放大请求量
+ */
+public final class SARetryBudget {
+    /** 令牌按千分之一计数，避免浮点数的 CAS */
+    private static final long SCALE = 1000;
+
+    private final long depositPerCall;
+    private final long maxBalance;
+    private final AtomicLong balance;
+
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    /**
+     * 重试量不超过调用量的 10%，最多保存 10 个令牌
+     */
+    public SARetryBudget() {
+        this(0.1, 10);
+    }
+
+    /**
+     * @param ratio 每个调用存入的令牌数，也就是重试量和调用量的最大比例，0~1000
+     * @param maxTokens 最多保存的令牌数，初始时是满的
+     */
+    public SARetryBudget(double ratio, int maxTokens) {
+        if (!(ratio >= 0 && ratio <= 1000)) throw new IllegalArgumentException("ratio out of range: " + ratio);
+        if (maxTokens < 0) throw new IllegalArgumentException("maxTokens < 0: " + maxTokens);
+        this.depositPerCall = Math.round(ratio * SCALE);
+        this.maxBalance = maxTokens * SCALE;
+        this.balance = new AtomicLong(maxBalance);
+    }
+
+    /**
+     * 一个调用开始，存入令牌
+     */
+    public void deposit() {
+        while (true) {
+            long current = balance.get();
+            long next = Math.min(maxBalance, current + depositPerCall);
+            if (next == current || balance.compareAndSet(current, next)) return;
+        }
+    }
+
+    /**
+     * 重试之前取出一个令牌
+     *
+     * @return 令牌不足时返回 false，不能重试
+     */
+    public boolean tryWithdraw() {
+        while (true) {
+            long current = balance.get();
+            if (current < SCALE) {
+                exhaustedCount.incrementAndGet();
+                return false;
+            }
+            if (balance.compareAndSet(current, current - SCALE)) {
+                retryCount.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /** 当前可用的令牌数 */
+    public double tokens() {
+        return (double) balance.get() / SCALE;
+    }
+
+    /** 通过预算的重试次数 */
+    public long retryCount() {
+        return retryCount.get();
+    }
+
+    /** 因为预算不足而放弃的重试次数 */
+    public long exhaustedCount() {
+        return exhaustedCount.get();
+    }
+}
@@ -0,0 +1,174 @@
+package com.curious.network.base;
+
+import com.curious.network.base.internal.cache.HttpDate;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重试的等待时间和条件，由 {@link SAHttpClient} 的所有调用共享。
+ * <p>
+ * 第 n 次重试之前等待 [0, min(maxDelay, baseDelay * 2^n)) 之间的随机时间（full jitter），
+ * 同时失败的大量调用不会在同一时刻一起重试。429 和 503 响应带有 Retry-After 时按它等待，超过 maxRetryAfter 时直接返回响应。
+ * 默认只重试幂等的请求，见 {@link SARequest.HttpMethod#permitsRetry}，所有重试还要通过 {@link SARetryBudget}
+ */
+public final class SARetryPolicy {
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_UNAVAILABLE = 503;
+    private static final Random random = new Random();
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxRetryAfterMillis;
+    private final boolean retryNonIdempotent;
+    private final SARetryBudget budget;
+
+    private SARetryPolicy(Builder builder) {
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.maxRetryAfterMillis = builder.maxRetryAfterMillis;
+        this.retryNonIdempotent = builder.retryNonIdempotent;
+        this.budget = builder.budget;
+    }
+
+    public long baseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long maxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public long maxRetryAfterMillis() {
+        return maxRetryAfterMillis;
+    }
+
+    public boolean isRetryNonIdempotent() {
+        return retryNonIdempotent;
+    }
+
+    /**
+     * @return 没有设置时为 null，不限制重试量
+     */
+    public SARetryBudget budget() {
+        return budget;
+    }
+
+    /**
+     * 请求的方法是否允许重试
+     */
+    public boolean permitsRetry(SARequest request) {
+        return retryNonIdempotent || SARequest.HttpMethod.permitsRetry(request.method());
+    }
+
+    /**
+     * 一个调用开始，向预算中存入令牌
+     */
+    public void callStarted() {
+        if (budget != null) budget.deposit();
+    }
+
+    /**
+     * 其他条件都满足之后，从预算中取出一次重试
+     */
+    public boolean acquireRetry() {
+        return budget == null || budget.tryWithdraw();
+    }
+
+    /**
+     * @param retryTimes 已经重试的次数
+     * @return 这次重试之前等待的毫秒数
+     */
+    public long backoffMillis(int retryTimes) {
+        if (baseDelayMillis == 0) return 0;
+        long ceiling = retryTimes >= 62 || baseDelayMillis > maxDelayMillis >> retryTimes
+                ? maxDelayMillis : baseDelayMillis << retryTimes;
+        return (long) (random.nextDouble() * ceiling);
+    }
+
+    /**
+     * 响应是否可以按 Retry-After 重试
+     *
+     * @param retryTimes 已经重试的次数，没有 Retry-After 时用于计算退避时间
+     * @return 重试之前等待的毫秒数，不能重试时返回 -1
+     */
+    public long retryAfterMillis(SAResponse response, int retryTimes) {
+        int code = response.code();
+        if (code != HTTP_TOO_MANY_REQUESTS && code != HTTP_UNAVAILABLE) return -1;
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter == null) return backoffMillis(retryTimes);
+        long delayMillis = parseRetryAfter(retryAfter.trim());
+        return delayMillis <= maxRetryAfterMillis ? delayMillis : -1;
+    }
+
+    /**
+     * Retry-After 是秒数或者 HTTP 日期，无法解析时返回 -1
+     */
+    private static long parseRetryAfter(String value) {
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds < 0 ? -1 : TimeUnit.SECONDS.toMillis(Math.min(seconds, Integer.MAX_VALUE));
+        } catch (NumberFormatException ignored) {
+            // 不是秒数
+        }
+        Date date = HttpDate.parse(value);
+        if (date == null) return -1;
+        return Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+
+    public static final class Builder {
+        private long baseDelayMillis = 200;
+        private long maxDelayMillis = 5000;
+        private long maxRetryAfterMillis = 10_000;
+        private boolean retryNonIdempotent;
+        private SARetryBudget budget = new SARetryBudget();
+
+        /**
+         * 设置指数退避的时间，baseDelay 为 0 时立即重试
+         *
+         * @param baseDelay 第一次重试最多等待的时间，默认是 200ms
+         * @param maxDelay 每次重试最多等待的时间，默认是 5s
+         * @return Builder
+         */
+        public Builder backoff(long baseDelay, long maxDelay, TimeUnit timeUnit) {
+            if (baseDelay < 0) throw new IllegalArgumentException("baseDelay < 0: " + baseDelay);
+            if (maxDelay < baseDelay) throw new IllegalArgumentException("maxDelay < baseDelay: " + maxDelay);
+            this.baseDelayMillis = timeUnit.toMillis(baseDelay);
+            this.maxDelayMillis = timeUnit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * @param maxRetryAfter Retry-After 超过这个时间时不重试，直接返回 429 或 503 响应，默认是 10s
+         * @return Builder
+         */
+        public Builder maxRetryAfter(long maxRetryAfter, TimeUnit timeUnit) {
+            if (maxRetryAfter < 0) throw new IllegalArgumentException("maxRetryAfter < 0: " + maxRetryAfter);
+            this.maxRetryAfterMillis = timeUnit.toMillis(maxRetryAfter);
+            return this;
+        }
+
+        /**
+         * @param retryNonIdempotent 是否重试 POST 等非幂等的请求，服务器可能已经处理过失败的请求，默认是 false
+         * @return Builder
+         */
+        public Builder retryNonIdempotent(boolean retryNonIdempotent) {
+            this.retryNonIdempotent = retryNonIdempotent;
+            return this;
+        }
+
+        /**
+         * @param budget 默认是 {@link SARetryBudget#SARetryBudget()}，为 null 时不限制重试量
+         * @return Builder
+         */
+        public Builder budget(SARetryBudget budget) {
+            this.budget = budget;
+            return this;
+        }
+
+        public SARetryPolicy build() {
+            return new SARetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.curious.network.base;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * TLS session 缓存的配置和统计。{@link SAHttpClient} 的所有连接共享同一个 {@link SSLContext}，
+ * 它的客户端 session 缓存按 host:port 保存握手得到的 session，之后到同一个服务器的新连接可以通过 session ID
+ * 或 session ticket 恢复，省去证书校验和密钥交换的往返。
+ * <p>
+ * 缓存的大小和有效期只应用于 client 自己创建的 SSLContext，设置了 {@link SAHttpClient.Builder#sslContext}
+ * 或者 {@link SAHttpClient.Builder#sslSocketFactory} 时不会修改，仍然会统计握手次数。
+ * TLS 1.2 通过比较同一个 host:port 前后两次握手的 session ID 判断是否恢复；TLS 1.3 恢复时 session ID
+ * 也会变化，无法判断，计入 {@link #unknownHandshakeCount()}。
+ * 通过 {@link SAHttpClient.Builder#tlsSessionCache(SATlsSessionCache)} 设置，每次握手是否恢复了 session 见
+ * {@link SAEventListener#secureConnectEnd(SACall, long, SSLSession, boolean)}
+ */
+public final class SATlsSessionCache {
+    private final int maxSessions;
+    private final int timeoutSeconds;
+
+    private final AtomicLong fullHandshakeCount = new AtomicLong();
+    private final AtomicLong resumedHandshakeCount = new AtomicLong();
+    private final AtomicLong unknownHandshakeCount = new AtomicLong();
+    /** host:port 最近一次握手的 session ID，guarded by itself */
+    private final Map<String, byte[]> sessionIds;
+
+    /**
+     * 最多缓存 64 个 session，每个最多保留 1 天
+     */
+    public SATlsSessionCache() {
+        this(64, 1, TimeUnit.DAYS);
+    }
+
+    /**
+     * @param maxSessions 最多缓存的 session 数，超过时淘汰最久未使用的
+     * @param timeout session 的最长保留时间，服务器通常还有自己的限制
+     * @param timeUnit timeout 的单位
+     */
+    public SATlsSessionCache(int maxSessions, long timeout, TimeUnit timeUnit) {
+        if (maxSessions <= 0) throw new IllegalArgumentException("maxSessions <= 0: " + maxSessions);
+        if (timeout <= 0) throw new IllegalArgumentException("timeout <= 0: " + timeout);
+        this.maxSessions = maxSessions;
+        this.timeoutSeconds = (int) Math.max(1, Math.min(Integer.MAX_VALUE, timeUnit.toSeconds(timeout)));
+        this.sessionIds = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > SATlsSessionCache.this.maxSessions;
+            }
+        };
+    }
+
+    public int maxSessions() {
+        return maxSessions;
+    }
+
+    public int timeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    /** 完整握手的次数 */
+    public long fullHandshakeCount() {
+        return fullHandshakeCount.get();
+    }
+
+    /** 恢复了之前 session 的握手次数 */
+    public long resumedHandshakeCount() {
+        return resumedHandshakeCount.get();
+    }
+
+    /** 无法判断是否恢复了 session 的握手次数，比如 TLS 1.3 */
+    public long unknownHandshakeCount() {
+        return unknownHandshakeCount.get();
+    }
+
+    /**
+     * 恢复 session 的握手占能够判断的握手的比例，还没有握手时为 0
+     */
+    public double resumptionRate() {
+        long resumed = resumedHandshakeCount.get();
+        long total = resumed + fullHandshakeCount.get();
+        return total == 0 ? 0 : (double) resumed / total;
+    }
+
+    /**
+     * 设置 sslContext 的客户端 session 缓存，仅供 {@link SAHttpClient} 调用
+     */
+    void apply(SSLContext sslContext) {
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext == null) return;
+        sessionContext.setSessionCacheSize(maxSessions);
+        sessionContext.setSessionTimeout(timeoutSeconds);
+    }
+
+    /**
+     * 握手之前开启 session ticket。Java 13 以上默认开启，Android 的 Conscrypt 需要通过反射设置。仅供内部的传输层调用
+     */
+    public void prepare(SSLSocket socket) {
+        enableSessionTickets(socket);
+    }
+
+    /**
+     * 同 {@link #prepare(SSLSocket)}，用于 {@link SATransport#NIO}
+     */
+    public void prepare(SSLEngine engine) {
+        enableSessionTickets(engine);
+    }
+
+    /**
+     * 记录一次完成的握手，仅供内部的传输层调用
+     *
+     * @return 是否恢复了之前的 session，无法判断时返回 false
+     */
+    public boolean recordHandshake(String host, int port, SSLSession session) {
+        if (session == null || "TLSv1.3".equals(session.getProtocol())) {
+            // TLS 1.3 的 PSK 恢复也会得到新的 session ID 和创建时间
+            unknownHandshakeCount.incrementAndGet();
+            return false;
+        }
+        byte[] id = session.getId();
+        byte[] previous;
+        synchronized (sessionIds) {
+            previous = sessionIds.put(host + ":" + port, id);
+        }
+        // 恢复的 session 沿用之前的 session ID，完整握手时服务器分配新的 ID
+        boolean resumed = id != null && id.length > 0 && Arrays.equals(id, previous);
+        if (resumed) {
+            resumedHandshakeCount.incrementAndGet();
+        } else {
+            fullHandshakeCount.incrementAndGet();
+        }
+        return resumed;
+    }
+
+    private static void enableSessionTickets(Object socketOrEngine) {
+        try {
+            Method method = socketOrEngine.getClass().getMethod("setUseSessionTickets", boolean.class);
+            method.invoke(socketOrEngine, true);
+        } catch (Exception ignored) {
+            // 不是 Conscrypt 的实现
+        }
+    }
+}
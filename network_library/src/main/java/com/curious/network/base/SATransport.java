@@ -0,0 +1,100 @@
+package com.curious.network.base;
+
+import com.curious.network.base.internal.UrlConnectionTransport;
+import com.curious.network.base.internal.http1.Http1Transport;
+import com.curious.network.base.internal.http2.Http2Transport;
+import com.curious.network.base.internal.nio.NioTransport;
+
+import java.io.IOException;
+
+/**
+ * 实际完成一次 Http 交换的传输层，由 {@link com.curious.network.base.internal.ConnectInterceptor} 调用。
+ * 每个 {@link SAHttpClient} 只创建一个实例，所有请求共享，所以实现必须是线程安全的
+ */
+public interface SATransport {
+
+    /**
+     * 发送请求并在收到响应头后返回，响应体由调用方从 {@link SAResponseBody#byteStream()} 中读取
+     *
+     * @param request 经过拦截器处理后的请求
+     * @param call 请求所属的 Call
+     * @return SAResponse
+     * @throws IOException
+     */
+    SAResponse execute(SARequest request, SARealCall call) throws IOException;
+
+    /**
+     * 不占用线程等待网络的传输层。没有应用拦截器，也没有配置 {@link SACache}、{@link SAMemoryCache} 时，
+     * {@link SACall#enqueue} 直接通过它发送请求，重试、重定向和透明解压由 {@link SARealCall} 以回调的方式完成，
+     * 只有回调 {@link com.curious.network.HttpCallback} 时才占用 {@link SADispatcher} 的线程
+     */
+    interface Async {
+        /**
+         * 开始发送请求，不能阻塞当前线程
+         *
+         * @param callback 在传输层的线程中回调，不能阻塞，也不能读取响应体
+         */
+        void enqueue(SARequest request, SARealCall call, Callback callback);
+    }
+
+    interface Callback {
+        /** 收到响应头，响应体由调用方在其他线程中读取 */
+        void onResponse(SAResponse response);
+
+        void onFailure(IOException e);
+    }
+
+    interface Factory {
+        SATransport create(SAHttpClient client);
+    }
+
+    /** 基于 Socket 的 HTTP/1.1 实现，通过 {@link SAConnectionPool} 复用连接，默认使用 */
+    Factory HTTP_1_1 = new Factory() {
+        @Override
+        public SATransport create(SAHttpClient client) {
+            return new Http1Transport(client);
+        }
+    };
+
+    /**
+     * HTTP/2 实现，https 通过 ALPN 协商 h2，同一个 host 的所有请求共享一条连接并发执行，头信息使用 HPACK 压缩。
+     * 服务器不支持 h2 时，以及 http 请求，回退到 {@link #HTTP_1_1}。请求的优先级见 {@link SARequest.Builder#priority(int)}
+     */
+    Factory HTTP_2 = new Factory() {
+        @Override
+        public SATransport create(SAHttpClient client) {
+            return new Http2Transport(client, false);
+        }
+    };
+
+    /**
+     * 和 {@link #HTTP_2} 相同，但 http 请求不经过协商直接使用明文的 h2c，服务器必须支持，主要用于本地测试
+     */
+    Factory H2_PRIOR_KNOWLEDGE = new Factory() {
+        @Override
+        public SATransport create(SAHttpClient client) {
+            return new Http2Transport(client, true);
+        }
+    };
+
+    /** 基于系统 HttpURLConnection 的实现 */
+    Factory HTTP_URL_CONNECTION = new Factory() {
+        @Override
+        public SATransport create(SAHttpClient client) {
+            return new UrlConnectionTransport(client);
+        }
+    };
+
+    /**
+     * 基于 Selector 和 SocketChannel 的 HTTP/1.1 实现，https 使用 SSLEngine。每个请求是事件循环上的一个状态机，
+     * 等待连接和响应时不占用线程，适合大量并发的慢请求和长轮询。不支持代理，也不支持 {@link SAHttpClient#sslSocketFactory()}，
+     * 文件请求体和由文件组成的 multipart 请求体在事件循环中分块读取发送，其他请求体会先完整缓存在内存中，
+     * 超过 8MB 时请求失败
+     */
+    Factory NIO = new Factory() {
+        @Override
+        public SATransport create(SAHttpClient client) {
+            return new NioTransport(client);
+        }
+    };
+}
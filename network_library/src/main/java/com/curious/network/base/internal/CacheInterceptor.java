@@ -0,0 +1,236 @@
+package com.curious.network.base.internal;
+
+import com.curious.network.base.SACache;
+import com.curious.network.base.SAHeader;
+import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SAResponseBody;
+import com.curious.network.base.internal.cache.CacheRequest;
+import com.curious.network.base.internal.cache.CacheStrategy;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 磁盘缓存拦截器，新鲜的缓存直接返回，过期的缓存转为条件请求，服务器返回 304 时使用磁盘中的响应体。
+ * 内存缓存由位于透明解压之前的 {@link MemoryCacheInterceptor} 处理
+ */
+public class CacheInterceptor implements SAInterceptor {
+    private static final int HTTP_GATEWAY_TIMEOUT = 504;
+
+    private final SACache cache;
+
+    public CacheInterceptor(SACache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public SAResponse intercept(Chain chain) throws IOException {
+        SARequest request = chain.request();
+        // 缓存只保存完整的响应，Range 请求直接访问网络
+        if (cache == null || request.header("Range") != null) {
+            return chain.proceed(request);
+        }
+
+        SAResponse cacheCandidate = request.method() == SARequest.HttpMethod.GET ? cache.get(request) : null;
+        CacheStrategy strategy = new CacheStrategy.Factory(System.currentTimeMillis(), request, cacheCandidate).get();
+        SARequest networkRequest = strategy.networkRequest;
+        SAResponse cacheResponse = strategy.cacheResponse;
+        cache.trackResponse(strategy);
+
+        if (cacheCandidate != null && cacheResponse == null) {
+            // 缓存不可用，关闭快照
+            SAResponseBody.closeQuietly(cacheCandidate);
+        }
+
+        // 请求要求 only-if-cached，但缓存不可用
+        if (networkRequest == null && cacheResponse == null) {
+            return new SAResponse.Builder()
+                    .request(request)
+                    .code(HTTP_GATEWAY_TIMEOUT)
+                    .message("Unsatisfiable Request (only-if-cached)")
+                    .body(SAResponseBody.create(null, 0, new ByteArrayInputStream(new byte[0])))
+                    .sentRequestAtMillis(-1L)
+                    .receivedResponseAtMillis(System.currentTimeMillis())
+                    .build();
+        }
+
+        // 磁盘缓存仍然新鲜，不访问网络
+        if (networkRequest == null) {
+            return cacheResponse;
+        }
+
+        SAResponse networkResponse = null;
+        try {
+            networkResponse = chain.proceed(networkRequest);
+        } finally {
+            if (networkResponse == null && cacheResponse != null) {
+                SAResponseBody.closeQuietly(cacheResponse);
+            }
+        }
+
+        if (cacheResponse != null) {
+            if (networkResponse.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                SAResponse response = new SAResponse.Builder()
+                        .request(cacheResponse.request())
+                        .code(cacheResponse.code())
+                        .message(cacheResponse.message())
+                        .headers(combine(cacheResponse.headers(), networkResponse.headers()))
+                        .body(cacheResponse.body())
+                        .sentRequestAtMillis(networkResponse.sentRequestAtMillis())
+                        .receivedResponseAtMillis(networkResponse.receivedResponseAtMillis())
+                        .build();
+                networkResponse.close();
+                cache.trackConditionalCacheHit();
+                cache.update(cacheResponse, response);
+                return response;
+            } else {
+                SAResponseBody.closeQuietly(cacheResponse);
+            }
+        }
+
+        if (SARequest.HttpMethod.invalidatesCache(networkRequest.method())) {
+            try {
+                cache.remove(networkRequest);
+            } catch (IOException ignored) {
+                // 缓存不可写
+            }
+            return networkResponse;
+        }
+
+        if (CacheStrategy.isCacheable(networkResponse, networkRequest)) {
+            return cacheWritingResponse(cache.put(networkResponse), networkResponse);
+        }
+        return networkResponse;
+    }
+
+    /**
+     * 调用方读取响应体的同时写入缓存，读到结尾时提交，中途关闭则放弃这次缓存
+     */
+    static SAResponse cacheWritingResponse(final CacheRequest cacheRequest, SAResponse response) throws IOException {
+        if (cacheRequest == null) return response;
+        final SAResponseBody body = response.body();
+        final OutputStream cacheBody = cacheRequest.body();
+        InputStream teeStream = new FilterInputStream(body.byteStream()) {
+            private boolean cacheRequestClosed;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                int count = read(b, 0, 1);
+                return count == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int bytesRead;
+                try {
+                    bytesRead = super.read(b, off, len);
+                } catch (IOException e) {
+                    if (!cacheRequestClosed) {
+                        cacheRequestClosed = true;
+                        cacheRequest.abort();
+                    }
+                    throw e;
+                }
+
+                if (bytesRead == -1) {
+                    if (!cacheRequestClosed) {
+                        cacheRequestClosed = true;
+                        try {
+                            cacheRequest.commit();
+                        } catch (IOException ignored) {
+                            // 缓存写入失败不影响调用方
+                        }
+                    }
+                    return -1;
+                }
+
+                if (!cacheRequestClosed) {
+                    try {
+                        cacheBody.write(b, off, bytesRead);
+                    } catch (IOException e) {
+                        cacheRequestClosed = true;
+                        cacheRequest.abort();
+                    }
+                }
+                return bytesRead;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                // 跳过的数据也需要写入缓存
+                byte[] buffer = new byte[(int) Math.min(n, 8 * 1024)];
+                int read = read(buffer, 0, buffer.length);
+                return read == -1 ? 0 : read;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!cacheRequestClosed) {
+                    cacheRequestClosed = true;
+                    cacheRequest.abort();
+                }
+                super.close();
+            }
+        };
+        return response.newBuilder()
+                .body(SAResponseBody.create(body.contentType(), body.contentLength(), teeStream))
+                .build();
+    }
+
+    /**
+     * 合并缓存的响应头和 304 响应中的头信息，Content-* 相关的头以缓存为准
+     */
+    private static List<SAHeader> combine(List<SAHeader> cachedHeaders, List<SAHeader> networkHeaders) {
+        List<SAHeader> result = new ArrayList<>();
+        for (SAHeader header : cachedHeaders) {
+            String name = header.getName();
+            if (name == null) continue;
+            if ("Warning".equalsIgnoreCase(name) && header.getValue().startsWith("1")) {
+                continue; // 丢弃 1xx 的警告
+            }
+            if (isContentSpecificHeader(name) || !isEndToEnd(name) || Util.headerValue(networkHeaders, name) == null) {
+                result.add(header);
+            }
+        }
+        for (SAHeader header : networkHeaders) {
+            String name = header.getName();
+            if (name == null) continue;
+            if (!isContentSpecificHeader(name) && isEndToEnd(name)) {
+                result.add(header);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isContentSpecificHeader(String fieldName) {
+        return "Content-Length".equalsIgnoreCase(fieldName)
+                || "Content-Encoding".equalsIgnoreCase(fieldName)
+                || "Content-Type".equalsIgnoreCase(fieldName);
+    }
+
+    /** RFC 2616 13.5.1 中定义的逐跳头信息以外的都是端到端头信息 */
+    private static boolean isEndToEnd(String fieldName) {
+        return !"Connection".equalsIgnoreCase(fieldName)
+                && !"Keep-Alive".equalsIgnoreCase(fieldName)
+                && !"Proxy-Authenticate".equalsIgnoreCase(fieldName)
+                && !"Proxy-Authorization".equalsIgnoreCase(fieldName)
+                && !"TE".equalsIgnoreCase(fieldName)
+                && !"Trailers".equalsIgnoreCase(fieldName)
+                && !"Transfer-Encoding".equalsIgnoreCase(fieldName)
+                && !"Upgrade".equalsIgnoreCase(fieldName);
+    }
+}
@@ -0,0 +1,249 @@
+package com.curious.network.base.internal;
+
+import com.curious.network.base.SARequestBody;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * 可以直接写入 {@link WritableByteChannel} 的请求体。
+ * Socket 传输层在明文连接上发送定长请求体时，会调用 {@link #writeTo(WritableByteChannel)}，
+ * 文件通过 {@link FileChannel#transferTo} 由内核直接发送到 socket，不经过 Java 堆
+ */
+public abstract class ChannelRequestBody extends SARequestBody {
+    /** 读写文件和 channel 时使用的缓冲区大小 */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 写入 channel，必须恰好写入 {@link #contentLength()} 个字节
+     */
+    public abstract void writeTo(WritableByteChannel sink) throws IOException;
+
+    @Override
+    public String stringContent() {
+        return null;
+    }
+
+    /**
+     * 把请求体拆成按顺序发送的片段，非阻塞的传输层在事件循环中分段读取文件片段，不需要把整个请求体缓存在内存中
+     *
+     * @param sink 收集片段
+     * @return 不能拆分时返回 false，sink 中已经添加的片段无效
+     */
+    public boolean segments(List<Segment> sink) throws IOException {
+        return false;
+    }
+
+    public static ChannelRequestBody create(String contentType, File file) {
+        return new FileBody(contentType, file);
+    }
+
+    public static ChannelRequestBody create(String contentType, ReadableByteChannel channel, long contentLength) {
+        return new ReadableChannelBody(contentType, channel, contentLength);
+    }
+
+    /**
+     * 文件请求体，长度在创建时确定，之后追加的内容不会发送；可以重复写入，支持重试
+     */
+    static final class FileBody extends ChannelRequestBody {
+        private final String contentType;
+        private final File file;
+        private final long length;
+
+        FileBody(String contentType, File file) {
+            this.contentType = contentType;
+            this.file = file;
+            this.length = file.length();
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public String contentType() {
+            return contentType;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long remaining = length;
+                while (remaining > 0) {
+                    int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (count == -1) throw unexpectedEnd(file, length, length - remaining);
+                    out.write(buffer, 0, count);
+                    remaining -= count;
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        public boolean segments(List<Segment> sink) {
+            sink.add(new Segment(null, file, length));
+            return true;
+        }
+
+        @Override
+        public void writeTo(WritableByteChannel sink) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                long position = 0;
+                while (position < length) {
+                    long count = channel.transferTo(position, length - position, sink);
+                    if (count <= 0 && channel.size() <= position) throw unexpectedEnd(file, length, position);
+                    position += count;
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        static ProtocolException unexpectedEnd(File file, long length, long written) {
+            return new ProtocolException("file " + file + " shrank while uploading: expected "
+                    + length + " bytes but was " + written);
+        }
+    }
+
+    /**
+     * 请求体的一个片段，内存中的字节或者文件的前 length 个字节
+     */
+    public static final class Segment {
+        private final byte[] bytes;
+        private final File file;
+        private final long length;
+
+        private Segment(byte[] bytes, File file, long length) {
+            this.bytes = bytes;
+            this.file = file;
+            this.length = length;
+        }
+
+        public static Segment of(byte[] bytes) {
+            return new Segment(bytes, null, bytes.length);
+        }
+
+        /** 内存中的片段，文件片段为 null */
+        public byte[] bytes() {
+            return bytes;
+        }
+
+        /** 文件片段，内存中的片段为 null */
+        public File file() {
+            return file;
+        }
+
+        public long length() {
+            return length;
+        }
+
+        /**
+         * 从头读取文件片段
+         */
+        public FileChannel openFile() throws IOException {
+            return new FileInputStream(file).getChannel();
+        }
+
+        /**
+         * 文件在发送过程中变短了
+         */
+        public ProtocolException unexpectedEnd(long written) {
+            return FileBody.unexpectedEnd(file, length, written);
+        }
+    }
+
+    /**
+     * 从 channel 读取的请求体，只能写入一次，不会被重试
+     */
+    static final class ReadableChannelBody extends ChannelRequestBody {
+        private final String contentType;
+        private final ReadableByteChannel source;
+        private final long contentLength;
+        private boolean consumed;
+
+        ReadableChannelBody(String contentType, ReadableByteChannel source, long contentLength) {
+            this.contentType = contentType;
+            this.source = source;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public String contentType() {
+            return contentType;
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return true;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            checkNotConsumed();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long written = 0;
+            while (contentLength == -1 || written < contentLength) {
+                buffer.clear();
+                if (contentLength != -1) {
+                    buffer.limit((int) Math.min(buffer.capacity(), contentLength - written));
+                }
+                int count = source.read(buffer);
+                if (count == -1) break;
+                out.write(buffer.array(), 0, count);
+                written += count;
+            }
+            checkLength(written);
+        }
+
+        @Override
+        public void writeTo(WritableByteChannel sink) throws IOException {
+            checkNotConsumed();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long written = 0;
+            while (contentLength == -1 || written < contentLength) {
+                buffer.clear();
+                if (contentLength != -1) {
+                    buffer.limit((int) Math.min(buffer.capacity(), contentLength - written));
+                }
+                int count = source.read(buffer);
+                if (count == -1) break;
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    sink.write(buffer);
+                }
+                written += count;
+            }
+            checkLength(written);
+        }
+
+        private synchronized void checkNotConsumed() throws IOException {
+            if (consumed) throw new IllegalStateException("one-shot request body already written");
+            consumed = true;
+        }
+
+        private void checkLength(long written) throws ProtocolException {
+            if (contentLength != -1 && written != contentLength) {
+                throw new ProtocolException("expected " + contentLength + " bytes but channel ended after " + written);
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.curious.network.base.internal;
+
+import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SAResponseBody;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 透明压缩：调用方没有设置 Accept-Encoding 时加上 gzip, deflate，并在读取响应体时边读边解压，
+ * 去掉 Content-Encoding 和 Content-Length。位于缓存之前，磁盘缓存中保存的是压缩后的数据
+ */
+public class ContentEncodingInterceptor implements SAInterceptor {
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    @Override
+    public SAResponse intercept(Chain chain) throws IOException {
+        SARequest request = chain.request();
+        if (!isTransparent(request)) {
+            return chain.proceed(request);
+        }
+        return decode(chain.proceed(withAcceptEncoding(request)));
+    }
+
+    /**
+     * 调用方没有指定 Accept-Encoding 时才透明解压。Range 请求的偏移量针对的是编码后的数据，不能透明解压
+     */
+    public static boolean isTransparent(SARequest request) {
+        return request.header("Accept-Encoding") == null && request.header("Range") == null;
+    }
+
+    public static SARequest withAcceptEncoding(SARequest request) {
+        return request.newBuilder()
+                .setHeader("Accept-Encoding", ACCEPT_ENCODING)
+                .build();
+    }
+
+    /**
+     * 响应是 gzip 或 deflate 编码时，返回边读边解压的响应
+     */
+    public static SAResponse decode(SAResponse response) {
+        String contentEncoding = response.header("Content-Encoding");
+        boolean gzip = "gzip".equalsIgnoreCase(contentEncoding);
+        boolean deflate = "deflate".equalsIgnoreCase(contentEncoding);
+        if (!gzip && !deflate) {
+            return response;
+        }
+
+        SAResponseBody body = response.body();
+        SAResponse.Builder builder = response.newBuilder()
+                .removeHeader("Content-Encoding")
+                .removeHeader("Content-Length");
+        if (body == null || body.byteStream() == null || !hasBody(response)) {
+            return builder.build();
+        }
+        // 解压后的长度只有读完才知道
+        InputStream decoded = new InflatingInputStream(body.byteStream(), gzip);
+        return builder.body(SAResponseBody.create(body.contentType(), -1, decoded)).build();
+    }
+
+    private static boolean hasBody(SAResponse response) {
+        int code = response.code();
+        if ((code >= 100 && code < 200)
+                || code == HttpURLConnection.HTTP_NO_CONTENT
+                || code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return false;
+        }
+        return response.body().contentLength() != 0;
+    }
+
+    /**
+     * 第一次读取时才创建解压流，避免在调用方线程之外阻塞读取 gzip 头。
+     * deflate 既可能是 zlib 格式，也可能是服务器错误发送的裸 deflate 数据，根据前两个字节判断
+     */
+    private static final class InflatingInputStream extends FilterInputStream {
+        private final InputStream source;
+        private final boolean gzip;
+        private Inflater inflater;
+        private boolean initialized;
+        private boolean closed;
+
+        InflatingInputStream(InputStream source, boolean gzip) {
+            super(source);
+            this.source = source;
+            this.gzip = gzip;
+        }
+
+        private InputStream inflating() throws IOException {
+            if (closed) throw new IOException("closed");
+            if (initialized) {
+                return in;
+            }
+            initialized = true;
+            if (gzip) {
+                in = new GZIPInputStream(in, SegmentPool.SEGMENT_SIZE);
+                return in;
+            }
+            BufferedInputStream buffered = new BufferedInputStream(in, SegmentPool.SEGMENT_SIZE);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean zlib = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            inflater = new Inflater(!zlib);
+            in = new InflaterInputStream(buffered, inflater, SegmentPool.SEGMENT_SIZE);
+            return in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = inflating().read();
+            if (b == -1) exhaustSource();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = inflating().read(b, off, len);
+            if (count == -1) exhaustSource();
+            return count;
+        }
+
+        /**
+         * 解压结束时原始流不一定读到了结尾，继续读到 -1，缓存才能提交、连接才能放回连接池
+         */
+        private void exhaustSource() throws IOException {
+            byte[] buffer = new byte[64];
+            int count;
+            do {
+                count = source.read(buffer);
+            } while (count != -1);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return inflating().skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed) throw new IOException("closed");
+            return initialized ? in.available() : 0;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                in.close();
+            } finally {
+                if (inflater != null) {
+                    inflater.end();
+                }
+            }
+        }
+    }
+}
@@ -8,7 +8,7 @@ import com.curious.network.base.SAResponse;
 import java.io.IOException;
 
 /**
- * 缓存处理，TODO 暂未实现
+ * Cookie 处理，TODO 暂未实现
  */
 public class CookiesInterceptor implements SAInterceptor {
 
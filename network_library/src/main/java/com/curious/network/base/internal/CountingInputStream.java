@@ -0,0 +1,87 @@
+package com.curious.network.base.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 统计读取的字节数，在读到结尾、关闭或者读取失败时回调一次 {@link #onEnd(long, IOException)}
+ */
+public abstract class CountingInputStream extends FilterInputStream {
+    private long byteCount;
+    private boolean ended;
+
+    protected CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * @param byteCount 已经读取的字节数
+     * @param e 读取失败时的异常，正常结束或者关闭时为 null
+     */
+    protected abstract void onEnd(long byteCount, IOException e);
+
+    @Override
+    public int read() throws IOException {
+        try {
+            int b = in.read();
+            if (b == -1) {
+                end(null);
+            } else {
+                byteCount++;
+            }
+            return b;
+        } catch (IOException e) {
+            end(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        try {
+            int count = in.read(b, off, len);
+            if (count == -1) {
+                end(null);
+            } else {
+                byteCount += count;
+            }
+            return count;
+        } catch (IOException e) {
+            end(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        try {
+            long skipped = in.skip(n);
+            byteCount += skipped;
+            return skipped;
+        } catch (IOException e) {
+            end(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            end(null);
+        }
+    }
+
+    private void end(IOException e) {
+        if (ended) return;
+        ended = true;
+        onEnd(byteCount, e);
+    }
+}
@@ -3,11 +3,14 @@ package com.curious.network.base.internal;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.curious.network.base.SACall;
 import com.curious.network.base.SAHttpClient;
 import com.curious.network.base.SAHttpUrl;
 import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SARealCall;
 import com.curious.network.base.SARequest;
 import com.curious.network.base.SAResponse;
+import com.curious.network.base.SARetryPolicy;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -19,12 +22,13 @@ import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.security.cert.CertificateException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLPeerUnverifiedException;
 
 /**
- * 重定向和重试拦截器
+ * 重定向和重试拦截器。每次调用的重试和重定向由 {@link FollowUps} 决定，异步传输层的回调也使用它
  */
 public class FollowAndRetryInterceptor implements SAInterceptor {
 
@@ -41,48 +45,177 @@ public class FollowAndRetryInterceptor implements SAInterceptor {
 
     @Override
     public SAResponse intercept(Chain chain) throws IOException {
-        SARequest request = chain.request();
-        SAResponse response = null;
-        int retryTimes = 0, followTimes = 0;
+        SACall call = chain.call();
+        FollowUps followUps = newFollowUps((SARealCall) call, chain.request());
         while (true) {
+            if (call.isCanceled()) {
+                throw new IOException("Canceled");
+            }
+            SAResponse response;
+            long delayMillis;
             try {
-                response = chain.proceed(request);
+                response = chain.proceed(followUps.request());
             } catch (IOException e) {
-                if (client.isRetryOnConnectionFailure()) {
-                    if (retryTimes++ >= client.maxRetryTimes()) {
-                        Log.i(TAG, retryTimes + " retry times has be executed. ");
-                        throw e;
-                    }
-                    if (!isOneShotRequest(e) && isRecoverable(e)) {
-                        Log.i(TAG,"retry connection, times: " + retryTimes);
-                        continue;
-                    } else {
-                        break;
-                    }
-                } else {
-                    throw e;
-                }
+                delayMillis = followUps.onFailure(e);
+                if (delayMillis < 0) throw e;
+                backoff(call, delayMillis);
+                continue;
             }
+            delayMillis = followUps.onResponse(response);
+            if (delayMillis < 0) return response;
+            backoff(call, delayMillis);
+        }
+    }
 
-            //目前遇到重定向，只是将数据按照新的 Location 重发，此处需要完善
-            //https://developer.mozilla.org/zh-CN/docs/Web/HTTP/Redirections
-            if (!client.isUrlConnectionFollowRedirects() && client.isFollowRedirects() && needRedirects(response.code())) {
-                if (followTimes++ >= client.maxFollows()) {
-                    throw new ProtocolException(followTimes + " follow times has be executed. You should check your request url.");
-                }
-                response.close();
-                String location = getLocation(response, request.url().toString());
-                SARequest.HttpMethod method = request.method();
-                if (!TextUtils.isEmpty(location)) {
-                    Log.i(TAG,"start new redirect, times: " + followTimes + ",location:" + location);
-                    //重新设置 url 地址
-                    request = request.newBuilder().method(method).url(SAHttpUrl.get(location)).build();
-                    continue;
-                }
+    /**
+     * 开始一次调用的重试和重定向
+     */
+    public FollowUps newFollowUps(SARealCall call, SARequest request) {
+        client.retryPolicy().callStarted();
+        return new FollowUps(call, request);
+    }
+
+    /**
+     * 一次调用的重试和重定向状态。每次发送 {@link #request()} 之后用结果调用 {@link #onResponse} 或者 {@link #onFailure}，
+     * 返回值不小于 0 时等待这么多毫秒后重新发送 {@link #request()}。调用被取消或者超时后不再重试和重定向
+     */
+    public final class FollowUps {
+        private final SARealCall call;
+        private SARequest request;
+        private int retryTimes;
+        private int followTimes;
+
+        FollowUps(SARealCall call, SARequest request) {
+            this.call = call;
+            this.request = request;
+        }
+
+        /** 下一次要发送的请求 */
+        public SARequest request() {
+            return request;
+        }
+
+        /**
+         * @return 需要重试或者重定向时关闭 response，返回发送之前等待的毫秒数；response 就是最终结果时返回 -1
+         * @throws IOException 重定向次数超过限制，response 已经关闭
+         */
+        public long onResponse(SAResponse response) throws IOException {
+            if (isAbandoned()) return -1;
+            long retryDelay = retryDelay(request, response, retryTimes);
+            if (retryDelay >= 0) {
+                Util.closeQuietly(response);
+                retryTimes++;
+                return retryDelay;
+            }
+            SARequest followUp;
+            try {
+                followUp = followUpRequest(request, response, followTimes++);
+            } catch (IOException e) {
+                Util.closeQuietly(response);
+                throw e;
             }
-            break;
+            if (followUp == null) return -1;
+            request = followUp;
+            return 0;
+        }
+
+        /**
+         * @return 可以重试时返回退避的毫秒数，否则返回 -1，由调用方抛出 e
+         */
+        public long onFailure(IOException e) {
+            if (isAbandoned() || !canRetry(request, e, retryTimes)) return -1;
+            return client.retryPolicy().backoffMillis(retryTimes++);
+        }
+
+        private boolean isAbandoned() {
+            return call.isCanceled() || call.isTimedOut();
         }
-        return response;
+    }
+
+    /**
+     * 失败的请求是否可以重试。可以重试时会占用一次 {@link SARetryPolicy} 的预算，
+     * 重试之前需要等待 {@link SARetryPolicy#backoffMillis(int)}
+     *
+     * @param retryTimes 已经重试的次数
+     */
+    private boolean canRetry(SARequest request, IOException e, int retryTimes) {
+        if (!client.isRetryOnConnectionFailure()) {
+            return false;
+        }
+        if (retryTimes >= client.maxRetryTimes()) {
+            Log.i(TAG, retryTimes + " retry times has be executed. ");
+            return false;
+        }
+        if (!isOneShotRequest(e) && isRetryable(request) && isRecoverable(e)
+                && client.retryPolicy().acquireRetry()) {
+            Log.i(TAG, "retry connection, times: " + (retryTimes + 1));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 429 和 503 响应是否需要按 Retry-After 重试，需要重试时调用方关闭 response，等待之后重新发送同一个请求
+     *
+     * @param retryTimes 已经重试的次数
+     * @return 重试之前等待的毫秒数，不需要重试时返回 -1
+     */
+    private long retryDelay(SARequest request, SAResponse response, int retryTimes) {
+        if (!client.isRetryOnConnectionFailure() || retryTimes >= client.maxRetryTimes() || !isRetryable(request)) {
+            return -1;
+        }
+        long delayMillis = client.retryPolicy().retryAfterMillis(response, retryTimes);
+        if (delayMillis < 0 || !client.retryPolicy().acquireRetry()) {
+            return -1;
+        }
+        Log.i(TAG, "retry " + response.code() + " after " + delayMillis + "ms, times: " + (retryTimes + 1));
+        return delayMillis;
+    }
+
+    /**
+     * 请求的方法和请求体是否允许重新发送，对冲请求也使用同样的规则
+     */
+    public boolean isRetryable(SARequest request) {
+        return client.retryPolicy().permitsRetry(request) && !isOneShotBody(request);
+    }
+
+    /**
+     * 在当前线程等待退避时间，等待期间取消调用或者调用超时会立即结束
+     */
+    private static void backoff(SACall call, long delayMillis) throws IOException {
+        if (delayMillis <= 0) return;
+        SARealCall realCall = (SARealCall) call;
+        Backoff backoff = new Backoff();
+        realCall.exchangeStarted(backoff);
+        try {
+            backoff.await(delayMillis);
+        } finally {
+            realCall.exchangeFinished(backoff);
+        }
+    }
+
+    /**
+     * 需要重定向时关闭 response，返回新的请求，否则返回 null
+     *
+     * @param followTimes 已经重定向的次数
+     */
+    private SARequest followUpRequest(SARequest request, SAResponse response, int followTimes) throws IOException {
+        //目前遇到重定向，只是将数据按照新的 Location 重发，此处需要完善
+        //https://developer.mozilla.org/zh-CN/docs/Web/HTTP/Redirections
+        if (client.isUrlConnectionFollowRedirects() || !client.isFollowRedirects() || !needRedirects(response.code())) {
+            return null;
+        }
+        if (followTimes >= client.maxFollows()) {
+            throw new ProtocolException((followTimes + 1) + " follow times has be executed. You should check your request url.");
+        }
+        String location = getLocation(response, request.url().toString());
+        if (TextUtils.isEmpty(location)) {
+            return null;
+        }
+        response.close();
+        Log.i(TAG, "start new redirect, times: " + (followTimes + 1) + ",location:" + location);
+        //重新设置 url 地址
+        return request.newBuilder().method(request.method()).url(SAHttpUrl.get(location)).build();
     }
 
     /**
@@ -94,6 +227,13 @@ public class FollowAndRetryInterceptor implements SAInterceptor {
         return exception instanceof FileNotFoundException;
     }
 
+    /**
+     * 请求体只能发送一次时不能重试
+     */
+    private boolean isOneShotBody(SARequest request) {
+        return request.body() != null && request.body().isOneShot();
+    }
+
     /**
      * 判断出错异常是否需要重试
      *
@@ -148,4 +288,33 @@ public class FollowAndRetryInterceptor implements SAInterceptor {
         }
         return location;
     }
+
+    /**
+     * 同步调用的退避等待，作为一次交换登记到 {@link SARealCall}
+     */
+    private static final class Backoff implements SARealCall.Cancelable {
+        private boolean canceled;
+
+        synchronized void await(long delayMillis) throws IOException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            while (!canceled) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return;
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            // 调用超时时由 SARealCall 替换为 InterruptedIOException("timeout")
+            throw new IOException("Canceled");
+        }
+
+        @Override
+        public synchronized void cancel() {
+            canceled = true;
+            notifyAll();
+        }
+    }
 }
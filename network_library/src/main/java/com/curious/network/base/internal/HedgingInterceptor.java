@@ -0,0 +1,179 @@
+package com.curious.network.base.internal;
+
+import com.curious.network.base.SAHedgingPolicy;
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARealChain;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对冲请求拦截器，位于 {@link FollowAndRetryInterceptor} 之后，使用同样的规则判断请求能否重复发送。
+ * <p>
+ * 当前线程发出第一次尝试，{@link SAHedgingPolicy#delayMillis(String)} 之后还没有收到响应头时，
+ * 在 {@link com.curious.network.base.SADispatcher} 的线程池中发出第二次尝试。先收到的响应胜出，另一次尝试被取消；
+ * 两次都失败时抛出第一次的异常，由 {@link FollowAndRetryInterceptor} 决定是否重试
+ */
+public final class HedgingInterceptor implements SAInterceptor {
+    private final SAHttpClient client;
+    private final SAHedgingPolicy policy;
+    private final FollowAndRetryInterceptor followAndRetry;
+
+    public HedgingInterceptor(SAHttpClient client, FollowAndRetryInterceptor followAndRetry) {
+        this.client = client;
+        this.policy = client.hedgingPolicy();
+        this.followAndRetry = followAndRetry;
+    }
+
+    @Override
+    public SAResponse intercept(Chain chain) throws IOException {
+        SARequest request = chain.request();
+        if (!followAndRetry.isRetryable(request)) {
+            return chain.proceed(request);
+        }
+        SARealCall call = (SARealCall) chain.call();
+        String host = request.url().host();
+        policy.callStarted();
+
+        final Race race = new Race((SARealChain) chain, request, call.newAttempt(), call.newAttempt());
+        // 取消调用或者调用超时时取消两次尝试，胜出的尝试在读取响应体时也可以被中止
+        call.exchangeStarted(race);
+        long startNanos = System.nanoTime();
+        TimingWheel.Timeout timeout = TimingWheel.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                race.startHedge();
+            }
+        }, policy.delayMillis(host), TimeUnit.MILLISECONDS);
+        SAResponse response;
+        try {
+            response = race.runPrimary();
+        } finally {
+            timeout.cancel();
+        }
+        policy.recordLatency(host, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        return response;
+    }
+
+    /**
+     * 两次尝试的竞争，第一次尝试在调用线程中执行，第二次尝试在线程池中执行
+     */
+    private final class Race implements SARealCall.Cancelable {
+        private final SARealChain chain;
+        private final SARequest request;
+        private final SARealCall primary;
+        private final SARealCall hedge;
+
+        // 以下字段由 this 保护
+        private boolean primaryDone;
+        private boolean hedgeStarted;
+        private boolean hedgeDone;
+        private boolean canceled;
+        private SAResponse winner;
+
+        Race(SARealChain chain, SARequest request, SARealCall primary, SARealCall hedge) {
+            this.chain = chain;
+            this.request = request;
+            this.primary = primary;
+            this.hedge = hedge;
+        }
+
+        SAResponse runPrimary() throws IOException {
+            SAResponse response = null;
+            IOException failure = null;
+            try {
+                response = chain.withCall(primary).proceed(request);
+            } catch (IOException e) {
+                failure = e;
+            }
+            SAResponse hedgeResponse;
+            synchronized (this) {
+                primaryDone = true;
+                if (response != null && winner == null) {
+                    winner = response;
+                    hedgeResponse = null;
+                } else {
+                    // 第一次尝试失败或者落后，等待已经发出的第二次尝试
+                    try {
+                        while (winner == null && hedgeStarted && !hedgeDone) {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failure = new InterruptedIOException();
+                    }
+                    hedgeResponse = winner;
+                }
+            }
+            if (hedgeResponse == null) {
+                hedge.cancel();
+                if (response != null) return response;
+                throw failure;
+            }
+            Util.closeQuietly(response);
+            return hedgeResponse;
+        }
+
+        /**
+         * 计时线程中执行，第一次尝试还没有结束并且预算足够时发出第二次尝试
+         */
+        void startHedge() {
+            synchronized (this) {
+                if (primaryDone || canceled || !policy.acquireHedge()) return;
+                hedgeStarted = true;
+            }
+            try {
+                client.dispatcher().executorService().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runHedge();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    hedgeDone = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        private void runHedge() {
+            SAResponse response = null;
+            try {
+                response = chain.withCall(hedge).proceed(request);
+            } catch (IOException ignored) {
+                // 第一次尝试的结果为准
+            } catch (RuntimeException ignored) {
+                // 不能让第一次尝试一直等待
+            }
+            boolean won;
+            synchronized (this) {
+                hedgeDone = true;
+                won = response != null && winner == null;
+                if (won) winner = response;
+                notifyAll();
+            }
+            if (won) {
+                policy.hedgeWon();
+                primary.cancel();
+            } else {
+                Util.closeQuietly(response);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                canceled = true;
+            }
+            primary.cancel();
+            hedge.cancel();
+        }
+    }
+}
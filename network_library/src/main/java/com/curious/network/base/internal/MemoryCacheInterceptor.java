@@ -0,0 +1,50 @@
+package com.curious.network.base.internal;
+
+import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SAMemoryCache;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.internal.cache.CacheStrategy;
+
+import java.io.IOException;
+
+/**
+ * 内存缓存拦截器，位于 {@link ContentEncodingInterceptor} 之前，内存中保存解压后的响应体，命中时直接返回。
+ * 磁盘缓存的命中、304 合并后的响应和可以缓存的网络响应都会经过这里放入内存
+ */
+public class MemoryCacheInterceptor implements SAInterceptor {
+    private final SAMemoryCache memoryCache;
+
+    public MemoryCacheInterceptor(SAMemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    @Override
+    public SAResponse intercept(Chain chain) throws IOException {
+        SARequest request = chain.request();
+        // 缓存只保存完整的响应，Range 请求直接访问网络
+        if (request.header("Range") != null) {
+            return chain.proceed(request);
+        }
+
+        // 只返回新鲜的响应
+        if (request.method() == SARequest.HttpMethod.GET) {
+            SAResponse hotResponse = memoryCache.get(request);
+            if (hotResponse != null) {
+                return hotResponse;
+            }
+        }
+
+        SAResponse response = chain.proceed(request);
+        if (SARequest.HttpMethod.invalidatesCache(request.method())) {
+            memoryCache.remove(request);
+            return response;
+        }
+        if (!CacheStrategy.isCacheable(response, request)) {
+            return response;
+        }
+        // 下层的响应对应加上了 Accept-Encoding 的请求，Vary 需要按调用方的请求匹配
+        SAResponse entry = response.newBuilder().request(request).build();
+        return CacheInterceptor.cacheWritingResponse(memoryCache.put(entry), response);
+    }
+}
@@ -0,0 +1,41 @@
+package com.curious.network.base.internal;
+
+/**
+ * 回收复用的 8KB 字节数组，用来读取长度未知的响应体，避免每个响应都分配临时数组。
+ * 最多缓存 {@link #MAX_SIZE} 字节，超出的数组交给 GC
+ */
+public final class SegmentPool {
+    public static final int SEGMENT_SIZE = 8 * 1024;
+
+    /** 池中最多保留的总字节数 */
+    static final long MAX_SIZE = 64 * 1024;
+
+    /** 空闲的数组，guarded by SegmentPool.class */
+    private static final byte[][] segments = new byte[(int) (MAX_SIZE / SEGMENT_SIZE)][];
+    private static int count;
+
+    private SegmentPool() {
+    }
+
+    /** 取出一个 {@link #SEGMENT_SIZE} 大小的数组，内容是未定义的 */
+    public static byte[] take() {
+        synchronized (SegmentPool.class) {
+            if (count > 0) {
+                byte[] result = segments[--count];
+                segments[count] = null;
+                return result;
+            }
+        }
+        return new byte[SEGMENT_SIZE];
+    }
+
+    /** 归还通过 {@link #take()} 取得的数组，归还后不能再使用 */
+    public static void recycle(byte[] segment) {
+        if (segment == null || segment.length != SEGMENT_SIZE) return;
+        synchronized (SegmentPool.class) {
+            if (count < segments.length) {
+                segments[count++] = segment;
+            }
+        }
+    }
+}
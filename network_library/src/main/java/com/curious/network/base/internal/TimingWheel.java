@@ -0,0 +1,180 @@
+package com.curious.network.base.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 哈希时间轮，所有调用的超时共用一个守护线程。超时任务按到期的 tick 放进对应的槽，添加和取消都是 O(1)；
+ * 线程直接等到下一个非空的槽，没有任务时一直等待，不会按 tick 空转。到期的任务在这个线程中执行，不能阻塞
+ */
+public final class TimingWheel {
+    private static final TimingWheel INSTANCE = new TimingWheel(10, TimeUnit.MILLISECONDS, 512, "SAHttp Timeout");
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timeout[] wheel;
+    private final int mask;
+    private final String threadName;
+
+    // 以下字段由 this 保护
+    /** 已经处理完的 tick */
+    private long currentTick;
+    private int size;
+    private Thread thread;
+
+    /**
+     * @param ticksPerWheel 槽的数量，向上取整为 2 的幂
+     */
+    TimingWheel(long tickDuration, TimeUnit timeUnit, int ticksPerWheel, String threadName) {
+        int slots = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+        this.tickNanos = timeUnit.toNanos(tickDuration);
+        this.startNanos = System.nanoTime();
+        this.wheel = new Timeout[slots];
+        for (int i = 0; i < slots; i++) {
+            // 每个槽是一个带哨兵的双向循环链表
+            Timeout sentinel = new Timeout(this, null, 0);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            wheel[i] = sentinel;
+        }
+        this.mask = slots - 1;
+        this.threadName = threadName;
+    }
+
+    /** 所有 {@link com.curious.network.base.SARealCall} 共用的实例，精度为 10ms */
+    public static TimingWheel get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 在 delay 之后执行 task
+     *
+     * @return 用于在到期之前取消
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit timeUnit) {
+        long deadlineNanos = System.nanoTime() + timeUnit.toNanos(delay);
+        synchronized (this) {
+            long nowTick = tickAt(System.nanoTime());
+            if (size == 0 && nowTick > currentTick) {
+                // 空闲期间的 tick 都是空的，直接跳过
+                currentTick = nowTick;
+            }
+            long deadlineTick = Math.max(currentTick + 1, (deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+            Timeout timeout = new Timeout(this, task, deadlineTick);
+            Timeout sentinel = wheel[(int) (deadlineTick & mask)];
+            timeout.prev = sentinel.prev;
+            timeout.next = sentinel;
+            sentinel.prev.next = timeout;
+            sentinel.prev = timeout;
+            size++;
+            if (thread == null) {
+                thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        loop();
+                    }
+                }, threadName);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            notifyAll();
+            return timeout;
+        }
+    }
+
+    private long tickAt(long nanos) {
+        return (nanos - startNanos) / tickNanos;
+    }
+
+    private void loop() {
+        List<Timeout> expired = new ArrayList<>();
+        while (true) {
+            synchronized (this) {
+                try {
+                    awaitExpired(expired);
+                } catch (InterruptedException ignored) {
+                    continue;
+                }
+            }
+            for (int i = 0, n = expired.size(); i < n; i++) {
+                try {
+                    expired.get(i).task.run();
+                } catch (RuntimeException ignored) {
+                    // 单个任务的异常不影响其他超时
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    /**
+     * 等到下一个非空的槽到期，把其中已经到期的任务移到 expired
+     */
+    private void awaitExpired(List<Timeout> expired) throws InterruptedException {
+        while (true) {
+            if (size == 0) {
+                wait();
+                continue;
+            }
+            long nextTick = currentTick + 1;
+            for (int i = 0; i < wheel.length && isEmpty(wheel[(int) (nextTick & mask)]); i++) {
+                nextTick++;
+            }
+            long waitNanos = startNanos + nextTick * tickNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                continue;
+            }
+            // 中间的槽都是空的
+            currentTick = nextTick;
+            Timeout sentinel = wheel[(int) (nextTick & mask)];
+            for (Timeout timeout = sentinel.next; timeout != sentinel; ) {
+                Timeout next = timeout.next;
+                if (timeout.deadlineTick <= nextTick) {
+                    unlink(timeout);
+                    expired.add(timeout);
+                }
+                timeout = next;
+            }
+            if (!expired.isEmpty()) return;
+        }
+    }
+
+    private static boolean isEmpty(Timeout sentinel) {
+        return sentinel.next == sentinel;
+    }
+
+    private void unlink(Timeout timeout) {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        size--;
+    }
+
+    public static final class Timeout {
+        private final TimingWheel timingWheel;
+        private final Runnable task;
+        private final long deadlineTick;
+        // 以下字段由 timingWheel 保护，不在槽中时为 null
+        private Timeout prev;
+        private Timeout next;
+
+        Timeout(TimingWheel timingWheel, Runnable task, long deadlineTick) {
+            this.timingWheel = timingWheel;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * 取消还没有到期的任务，已经开始执行的任务不受影响
+         */
+        public void cancel() {
+            synchronized (timingWheel) {
+                if (next == null) return;
+                timingWheel.unlink(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.curious.network.base.internal;
+
+import android.os.Build;
+
+
+import com.curious.network.base.SAEventListener;
+import com.curious.network.base.SAHeader;
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SARequestBody;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SAResponseBody;
+import com.curious.network.base.SATransport;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * 基于 HttpURLConnection 的传输实现，连接复用完全依赖系统内部的连接池。
+ * DNS 解析和 TLS 握手在系统内部完成，{@link SAEventListener} 在连接阶段只能收到 connectStart 和 connectEnd，
+ * 两者之间包括了 DNS、TCP 和 TLS 的时间，复用连接时间隔接近 0
+ */
+public class UrlConnectionTransport implements SATransport {
+    private SAHttpClient client;
+
+    public UrlConnectionTransport(SAHttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public SAResponse execute(SARequest request, SARealCall call) throws IOException {
+        SAResponse response = sendHttpRequest(request, call);
+        return response;
+    }
+
+    /**
+     * 实际发送网络请求
+     *
+     * @param originalRequest request
+     * @param call 用于回调 {@link SAEventListener}
+     * @return SAResponse
+     * @throws IOException
+     */
+    private SAResponse sendHttpRequest(SARequest originalRequest, final SARealCall call) throws IOException {
+        final SAEventListener eventListener = call.eventListener();
+        final HttpURLConnection connection;
+        URL url = originalRequest.url().url();
+        if (client.proxy() != null) {
+            connection = (HttpURLConnection) url.openConnection(client.proxy());
+        } else {
+            connection = (HttpURLConnection) url.openConnection();
+        }
+        if (connection == null) {
+            throw new IllegalStateException(String.format("can not connect %s, it shouldn't happen", url.toString()));
+        }
+        final SARealCall.Cancelable cancelable = new SARealCall.Cancelable() {
+            @Override
+            public void cancel() {
+                connection.disconnect();
+            }
+        };
+        call.exchangeStarted(cancelable);
+        if (originalRequest.isHttps() && client.sslSocketFactory() != null) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(client.sslSocketFactory());
+        }
+
+        connection.setReadTimeout(client.readTimeout());
+        connection.setConnectTimeout(client.connectTimeout());
+        connection.setInstanceFollowRedirects(client.isUrlConnectionFollowRedirects());
+
+        // headers about
+        // try to fix bug: accidental EOFException before API 19
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            connection.setRequestProperty("Connection", "close");
+        }
+        List<SAHeader> headerList = originalRequest.headers();
+        for (SAHeader header : headerList) {
+            if (header.isSetHeader()) {
+                connection.setRequestProperty(header.getName(), header.getValue());
+            } else {
+                connection.addRequestProperty(header.getName(), header.getValue());
+            }
+        }
+        try {
+            connection.setRequestMethod(originalRequest.method().toString());
+        } catch (ProtocolException ex) {
+            try { // fix: HttpURLConnection not support PATCH method.
+                Field methodField = HttpURLConnection.class.getDeclaredField("method");
+                methodField.setAccessible(true);
+                methodField.set(connection, originalRequest.method().toString());
+            } catch (Throwable ignored) {
+                throw ex;
+            }
+        }
+        long sentRequestAtMillis = System.currentTimeMillis();
+        SARequestBody requestBody = originalRequest.body();
+        connection.setRequestProperty("Content-Type", requestBody.contentType());
+        // cookie about TODO 暂未实现
+        if (SARequest.HttpMethod.permitsRequestBody(originalRequest.method())) {
+            long contentLength = requestBody.contentLength();
+            if (contentLength < 0) {
+                connection.setChunkedStreamingMode(256 * 1024);
+            } else {
+                if (contentLength < Integer.MAX_VALUE) {
+                    connection.setFixedLengthStreamingMode((int) contentLength);
+                } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    connection.setFixedLengthStreamingMode(contentLength);
+                } else {
+                    connection.setChunkedStreamingMode(256 * 1024);
+                }
+            }
+            if (contentLength >= 0) {
+                connection.setRequestProperty("Content-Length", String.valueOf(contentLength));
+            }
+            connection.setDoOutput(true);
+        }
+        connect(connection, originalRequest, call);
+
+        if (SARequest.HttpMethod.permitsRequestBody(originalRequest.method())) {
+            eventListener.requestBodyStart(call, System.nanoTime());
+            CountingOutputStream outputStream = new CountingOutputStream(connection.getOutputStream());
+            requestBody.writeTo(outputStream);
+            outputStream.flush();
+            outputStream.close();
+            eventListener.requestBodyEnd(call, System.nanoTime(), outputStream.byteCount);
+        }
+
+        eventListener.responseHeadersStart(call, System.nanoTime());
+        SAResponse.Builder responseBuilder = new SAResponse.Builder().code(connection.getResponseCode()).headers(wrapHeaders(connection.getHeaderFields()));
+        responseBuilder.request(originalRequest);
+        responseBuilder.sentRequestAtMillis(sentRequestAtMillis);
+        responseBuilder.receivedResponseAtMillis(System.currentTimeMillis());
+        responseBuilder.message("no message");
+        eventListener.responseHeadersEnd(call, System.nanoTime(), responseBuilder.build());
+
+        InputStream inputStream = getInputStream(connection);
+        if (inputStream != null) {
+            inputStream = new CountingInputStream(inputStream) {
+                @Override
+                protected void onEnd(long byteCount, IOException e) {
+                    call.exchangeFinished(cancelable);
+                    eventListener.responseBodyEnd(call, System.nanoTime(), byteCount);
+                }
+            };
+        } else {
+            call.exchangeFinished(cancelable);
+        }
+        responseBuilder.body(SAResponseBody.create(connection.getContentType(), connection.getContentLength(), inputStream));
+        return responseBuilder.build();
+    }
+
+    /**
+     * 显式建立连接，以便回调连接的开始和结束时间
+     */
+    private void connect(HttpURLConnection connection, SARequest request, SARealCall call) throws IOException {
+        SAEventListener eventListener = call.eventListener();
+        Proxy proxy = client.proxy() != null ? client.proxy() : Proxy.NO_PROXY;
+        InetSocketAddress address = InetSocketAddress.createUnresolved(request.url().host(), request.url().port());
+        eventListener.connectStart(call, System.nanoTime(), address, proxy);
+        try {
+            connection.connect();
+        } catch (IOException e) {
+            eventListener.connectFailed(call, System.nanoTime(), address, proxy, e);
+            throw e;
+        }
+        eventListener.connectEnd(call, System.nanoTime(), address, proxy);
+    }
+
+    /** 统计写入的请求体字节数 */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long byteCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            byteCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            byteCount += len;
+        }
+    }
+
+    private InputStream getInputStream(HttpURLConnection connection) throws IOException {
+        return connection.getResponseCode() >= 400 ?
+                connection.getErrorStream() : connection.getInputStream();
+    }
+
+    private List<SAHeader> wrapHeaders(Map<String, List<String>> headerMap) {
+        List<SAHeader> headerList = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : headerMap.entrySet()) {
+            List<String> valueList = entry.getValue();
+            for (String value : valueList) {
+                headerList.add(new SAHeader(entry.getKey(), value, true));
+            }
+        }
+        return headerList;
+    }
+}
+
+
@@ -0,0 +1,103 @@
+package com.curious.network.base.internal;
+
+import com.curious.network.base.SAHeader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * 内部公用的工具方法
+ */
+public final class Util {
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+    public static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private Util() {
+    }
+
+    /**
+     * 从流中读取一行 ASCII 文本，去掉结尾的 CRLF
+     *
+     * @param in 输入流，调用方需要自己做缓冲
+     * @param limit 单行允许的最大字节数
+     * @return 读到的一行
+     * @throws IOException 行过长时抛出 ProtocolException，流结束时抛出 EOFException
+     */
+    public static String readAsciiLine(InputStream in, int limit) throws IOException {
+        StringBuilder result = new StringBuilder(80);
+        while (true) {
+            int c = in.read();
+            if (c == -1) {
+                throw new EOFException("unexpected end of stream, line: " + result);
+            }
+            if (c == '\n') {
+                int length = result.length();
+                if (length > 0 && result.charAt(length - 1) == '\r') {
+                    result.setLength(length - 1);
+                }
+                return result.toString();
+            }
+            if (result.length() >= limit) {
+                throw new ProtocolException("line too long: " + result.substring(0, 64) + "...");
+            }
+            result.append((char) c);
+        }
+    }
+
+    /**
+     * 忽略大小写查找第一个匹配的头信息
+     *
+     * @return 头信息的值，不存在时返回 null
+     */
+    public static String headerValue(List<? extends SAHeader> headers, String name) {
+        for (SAHeader header : headers) {
+            if (header.getName() != null && header.getName().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Socket 在 API 19 之前没有实现 Closeable，需要单独处理
+     */
+    public static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (Throwable ignored) {
+                //do nothing now
+            }
+        }
+    }
+
+    public static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (RuntimeException rethrown) {
+                throw rethrown;
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    /**
+     * 解析非负的 long，失败时返回 defaultValue
+     */
+    public static long parseLong(String value, long defaultValue) {
+        if (value == null) return defaultValue;
+        try {
+            long result = Long.parseLong(value.trim());
+            return result >= 0 ? result : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.curious.network.base.internal.cache;
+
+import com.curious.network.base.SAHeader;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 解析请求或响应中的 Cache-Control（以及 Pragma）头信息
+ */
+public final class CacheControl {
+    private boolean noCache;
+    private boolean noStore;
+    private int maxAgeSeconds = -1;
+    private boolean isPrivate;
+    private boolean isPublic;
+    private boolean mustRevalidate;
+    private int maxStaleSeconds = -1;
+    private int minFreshSeconds = -1;
+    private boolean onlyIfCached;
+
+    private CacheControl() {
+    }
+
+    public boolean noCache() {
+        return noCache;
+    }
+
+    public boolean noStore() {
+        return noStore;
+    }
+
+    public int maxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    public boolean isPrivate() {
+        return isPrivate;
+    }
+
+    public boolean isPublic() {
+        return isPublic;
+    }
+
+    public boolean mustRevalidate() {
+        return mustRevalidate;
+    }
+
+    public int maxStaleSeconds() {
+        return maxStaleSeconds;
+    }
+
+    public int minFreshSeconds() {
+        return minFreshSeconds;
+    }
+
+    public boolean onlyIfCached() {
+        return onlyIfCached;
+    }
+
+    public static CacheControl parse(List<SAHeader> headers) {
+        CacheControl result = new CacheControl();
+        for (SAHeader header : headers) {
+            String name = header.getName();
+            if (name == null) continue;
+            if (name.equalsIgnoreCase("Pragma")) {
+                if (header.getValue().toLowerCase(Locale.US).contains("no-cache")) {
+                    result.noCache = true;
+                }
+            } else if (name.equalsIgnoreCase("Cache-Control")) {
+                parseDirectives(result, header.getValue());
+            }
+        }
+        return result;
+    }
+
+    private static void parseDirectives(CacheControl result, String value) {
+        for (String directive : value.split(",")) {
+            directive = directive.trim();
+            if (directive.length() == 0) continue;
+            String parameter = null;
+            int equals = directive.indexOf('=');
+            if (equals != -1) {
+                parameter = directive.substring(equals + 1).trim();
+                if (parameter.length() > 1 && parameter.startsWith("\"") && parameter.endsWith("\"")) {
+                    parameter = parameter.substring(1, parameter.length() - 1);
+                }
+                directive = directive.substring(0, equals).trim();
+            }
+
+            if ("no-cache".equalsIgnoreCase(directive)) {
+                result.noCache = true;
+            } else if ("no-store".equalsIgnoreCase(directive)) {
+                result.noStore = true;
+            } else if ("max-age".equalsIgnoreCase(directive)) {
+                result.maxAgeSeconds = parseSeconds(parameter, -1);
+            } else if ("private".equalsIgnoreCase(directive)) {
+                result.isPrivate = true;
+            } else if ("public".equalsIgnoreCase(directive)) {
+                result.isPublic = true;
+            } else if ("must-revalidate".equalsIgnoreCase(directive)) {
+                result.mustRevalidate = true;
+            } else if ("max-stale".equalsIgnoreCase(directive)) {
+                result.maxStaleSeconds = parseSeconds(parameter, Integer.MAX_VALUE);
+            } else if ("min-fresh".equalsIgnoreCase(directive)) {
+                result.minFreshSeconds = parseSeconds(parameter, -1);
+            } else if ("only-if-cached".equalsIgnoreCase(directive)) {
+                result.onlyIfCached = true;
+            }
+        }
+    }
+
+    /**
+     * 解析秒数，超出 int 范围时取 Integer.MAX_VALUE
+     */
+    static int parseSeconds(String value, int defaultValue) {
+        if (value == null) return defaultValue;
+        try {
+            long seconds = Long.parseLong(value);
+            if (seconds > Integer.MAX_VALUE) {
+                return Integer.MAX_VALUE;
+            } else if (seconds < 0) {
+                return 0;
+            } else {
+                return (int) seconds;
+            }
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
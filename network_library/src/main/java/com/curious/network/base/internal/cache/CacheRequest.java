@@ -0,0 +1,15 @@
+package com.curious.network.base.internal.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 一次正在写入的缓存，响应体读完后调用 {@link #commit()}，中途失败调用 {@link #abort()}
+ */
+public interface CacheRequest {
+    OutputStream body() throws IOException;
+
+    void commit() throws IOException;
+
+    void abort();
+}
@@ -0,0 +1,208 @@
+package com.curious.network.base.internal.cache;
+
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+
+import java.net.HttpURLConnection;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 根据请求和缓存的响应决定：直接使用缓存、带条件头（If-None-Match / If-Modified-Since）去服务器验证，或者直接请求网络。
+ * <p>
+ * {@link #networkRequest} 为 null 表示不需要访问网络，{@link #cacheResponse} 为 null 表示缓存不可用
+ */
+public final class CacheStrategy {
+    /** 需要发送到网络的请求，不需要访问网络时为 null */
+    public final SARequest networkRequest;
+
+    /** 可以返回或者需要验证的缓存响应，不使用缓存时为 null */
+    public final SAResponse cacheResponse;
+
+    private CacheStrategy(SARequest networkRequest, SAResponse cacheResponse) {
+        this.networkRequest = networkRequest;
+        this.cacheResponse = cacheResponse;
+    }
+
+    /**
+     * 响应是否可以缓存，同时考虑请求和响应的 Cache-Control
+     */
+    public static boolean isCacheable(SAResponse response, SARequest request) {
+        switch (response.code()) {
+            case HttpURLConnection.HTTP_OK:
+            case HttpURLConnection.HTTP_NOT_AUTHORITATIVE:
+            case HttpURLConnection.HTTP_NO_CONTENT:
+            case HttpURLConnection.HTTP_MULT_CHOICE:
+            case HttpURLConnection.HTTP_MOVED_PERM:
+            case HttpURLConnection.HTTP_NOT_FOUND:
+            case HttpURLConnection.HTTP_BAD_METHOD:
+            case HttpURLConnection.HTTP_GONE:
+            case HttpURLConnection.HTTP_REQ_TOO_LONG:
+            case HttpURLConnection.HTTP_NOT_IMPLEMENTED:
+            case SAResponse.HTTP_PERM_REDIRECT:
+                // 这些状态码在没有明确过期时间时，也可以按启发式规则缓存
+                break;
+
+            case HttpURLConnection.HTTP_MOVED_TEMP:
+            case SAResponse.HTTP_TEMP_REDIRECT:
+                // 只有明确允许时才缓存
+                CacheControl cacheControl = CacheControl.parse(response.headers());
+                if (response.header("Expires") != null
+                        || cacheControl.maxAgeSeconds() != -1
+                        || cacheControl.isPublic()
+                        || cacheControl.isPrivate()) {
+                    break;
+                }
+                return false;
+
+            default:
+                return false;
+        }
+        return !CacheControl.parse(response.headers()).noStore()
+                && !CacheControl.parse(request.headers()).noStore();
+    }
+
+    public static final class Factory {
+        private final long nowMillis;
+        private final SARequest request;
+        private final SAResponse cacheResponse;
+
+        /** 源服务器生成响应的时间 */
+        private Date servedDate;
+        private String servedDateString;
+        private Date lastModified;
+        private String lastModifiedString;
+        private Date expires;
+        private String etag;
+
+        /** 响应头 Age 的值，-1 表示没有 */
+        private int ageSeconds = -1;
+
+        public Factory(long nowMillis, SARequest request, SAResponse cacheResponse) {
+            this.nowMillis = nowMillis;
+            this.request = request;
+            this.cacheResponse = cacheResponse;
+
+            if (cacheResponse != null) {
+                servedDateString = cacheResponse.header("Date");
+                servedDate = HttpDate.parse(servedDateString);
+                lastModifiedString = cacheResponse.header("Last-Modified");
+                lastModified = HttpDate.parse(lastModifiedString);
+                expires = HttpDate.parse(cacheResponse.header("Expires"));
+                etag = cacheResponse.header("ETag");
+                ageSeconds = CacheControl.parseSeconds(cacheResponse.header("Age"), -1);
+            }
+        }
+
+        public CacheStrategy get() {
+            CacheStrategy candidate = getCandidate();
+            if (candidate.networkRequest != null && CacheControl.parse(request.headers()).onlyIfCached()) {
+                // 只允许使用缓存，但缓存不可用，交给调用方返回 504
+                return new CacheStrategy(null, null);
+            }
+            return candidate;
+        }
+
+        private CacheStrategy getCandidate() {
+            if (cacheResponse == null) {
+                return new CacheStrategy(request, null);
+            }
+            if (!isCacheable(cacheResponse, request)) {
+                return new CacheStrategy(request, null);
+            }
+
+            CacheControl requestCaching = CacheControl.parse(request.headers());
+            if (requestCaching.noCache() || hasConditions(request)) {
+                return new CacheStrategy(request, null);
+            }
+
+            CacheControl responseCaching = CacheControl.parse(cacheResponse.headers());
+            long ageMillis = cacheResponseAge();
+            long freshMillis = computeFreshnessLifetime(responseCaching);
+
+            if (requestCaching.maxAgeSeconds() != -1) {
+                freshMillis = Math.min(freshMillis, TimeUnit.SECONDS.toMillis(requestCaching.maxAgeSeconds()));
+            }
+
+            long minFreshMillis = 0;
+            if (requestCaching.minFreshSeconds() != -1) {
+                minFreshMillis = TimeUnit.SECONDS.toMillis(requestCaching.minFreshSeconds());
+            }
+
+            long maxStaleMillis = 0;
+            if (!responseCaching.mustRevalidate() && requestCaching.maxStaleSeconds() != -1) {
+                maxStaleMillis = TimeUnit.SECONDS.toMillis(requestCaching.maxStaleSeconds());
+            }
+
+            if (!responseCaching.noCache() && ageMillis + minFreshMillis < freshMillis + maxStaleMillis) {
+                // 缓存仍然新鲜，不需要访问网络
+                return new CacheStrategy(null, cacheResponse);
+            }
+
+            // 缓存已经过期，带上条件头去服务器验证，服务器返回 304 时可以继续使用缓存
+            String conditionName;
+            String conditionValue;
+            if (etag != null) {
+                conditionName = "If-None-Match";
+                conditionValue = etag;
+            } else if (lastModified != null) {
+                conditionName = "If-Modified-Since";
+                conditionValue = lastModifiedString;
+            } else if (servedDate != null) {
+                conditionName = "If-Modified-Since";
+                conditionValue = servedDateString;
+            } else {
+                return new CacheStrategy(request, null);
+            }
+
+            SARequest conditionalRequest = request.newBuilder()
+                    .setHeader(conditionName, conditionValue)
+                    .build();
+            return new CacheStrategy(conditionalRequest, cacheResponse);
+        }
+
+        /**
+         * 从源服务器生成响应开始，到现在经过的时间
+         */
+        private long cacheResponseAge() {
+            long sentRequestMillis = cacheResponse.sentRequestAtMillis();
+            long receivedResponseMillis = cacheResponse.receivedResponseAtMillis();
+            long apparentReceivedAge = servedDate != null
+                    ? Math.max(0, receivedResponseMillis - servedDate.getTime())
+                    : 0;
+            long receivedAge = ageSeconds != -1
+                    ? Math.max(apparentReceivedAge, TimeUnit.SECONDS.toMillis(ageSeconds))
+                    : apparentReceivedAge;
+            long responseDuration = receivedResponseMillis - sentRequestMillis;
+            long residentDuration = nowMillis - receivedResponseMillis;
+            return receivedAge + responseDuration + residentDuration;
+        }
+
+        /**
+         * 响应从生成开始可以保持新鲜的时长
+         */
+        private long computeFreshnessLifetime(CacheControl responseCaching) {
+            if (responseCaching.maxAgeSeconds() != -1) {
+                return TimeUnit.SECONDS.toMillis(responseCaching.maxAgeSeconds());
+            } else if (expires != null) {
+                long servedMillis = servedDate != null
+                        ? servedDate.getTime()
+                        : cacheResponse.receivedResponseAtMillis();
+                long delta = expires.getTime() - servedMillis;
+                return delta > 0 ? delta : 0;
+            } else if (lastModified != null && cacheResponse.request().url().url().getQuery() == null) {
+                // RFC 7234 4.2.2 的启发式规则：取 Last-Modified 到生成时间间隔的 10%，带查询参数的 url 不使用
+                long servedMillis = servedDate != null
+                        ? servedDate.getTime()
+                        : cacheResponse.sentRequestAtMillis();
+                long delta = servedMillis - lastModified.getTime();
+                return delta > 0 ? (delta / 10) : 0;
+            }
+            return 0;
+        }
+
+        private static boolean hasConditions(SARequest request) {
+            return request.header("If-Modified-Since") != null || request.header("If-None-Match") != null;
+        }
+    }
+}
@@ -0,0 +1,685 @@
+package com.curious.network.base.internal.cache;
+
+import com.curious.network.base.SAResponseBody;
+import com.curious.network.base.internal.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * 基于日志文件（journal）的磁盘 LRU 缓存，总大小超过 maxSize 时淘汰最久未访问的条目。
+ * <p>
+ * 每个条目由 {@link #valueCount} 个文件组成，journal 的每一行记录一次操作：
+ * <pre>
+ *     DIRTY key              开始编辑，后面必须跟着一行 CLEAN 或 REMOVE
+ *     CLEAN key len0 len1    编辑成功提交，记录每个文件的长度
+ *     REMOVE key             条目被删除
+ *     READ key               条目被读取，用于恢复 LRU 顺序
+ * </pre>
+ * journal 中冗余的操作过多时会重写，读取 journal 失败则清空整个目录
+ */
+public final class DiskLruCache implements Closeable {
+    static final String JOURNAL_FILE = "journal";
+    static final String JOURNAL_FILE_TEMP = "journal.tmp";
+    static final String JOURNAL_FILE_BACKUP = "journal.bkp";
+    static final String MAGIC = "com.curious.network.DiskLruCache";
+    static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String DIRTY = "DIRTY";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+
+    /** 冗余操作超过这个数量，并且超过条目数时重写 journal */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File directory;
+    private final File journalFile;
+    private final File journalFileTmp;
+    private final File journalFileBackup;
+    private final int appVersion;
+    private final int valueCount;
+    private final long maxSize;
+
+    private long size = 0;
+    private Writer journalWriter;
+    private final LinkedHashMap<String, Entry> lruEntries = new LinkedHashMap<>(0, 0.75f, true);
+    private int redundantOpCount;
+    private boolean initialized;
+    private boolean closed;
+
+    /** 每次提交编辑时递增，用来判断 Snapshot 是否已经过期 */
+    private long nextSequenceNumber = 0;
+
+    public DiskLruCache(File directory, int appVersion, int valueCount, long maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+        if (valueCount <= 0) throw new IllegalArgumentException("valueCount <= 0");
+        this.directory = directory;
+        this.appVersion = appVersion;
+        this.valueCount = valueCount;
+        this.maxSize = maxSize;
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.journalFileTmp = new File(directory, JOURNAL_FILE_TEMP);
+        this.journalFileBackup = new File(directory, JOURNAL_FILE_BACKUP);
+    }
+
+    /**
+     * 第一次访问时才读取 journal，避免在构造 SAHttpClient 时做磁盘 IO
+     */
+    private synchronized void initialize() throws IOException {
+        if (initialized) return;
+
+        // 重写 journal 的过程中被中断时，只留下了备份文件
+        if (journalFileBackup.exists()) {
+            if (journalFile.exists()) {
+                journalFileBackup.delete();
+            } else {
+                journalFileBackup.renameTo(journalFile);
+            }
+        }
+
+        if (journalFile.exists()) {
+            try {
+                readJournal();
+                processJournal();
+                journalWriter = newJournalWriter(true);
+                initialized = true;
+                return;
+            } catch (IOException journalIsCorrupt) {
+                // journal 损坏时清空缓存重新开始
+                delete();
+            }
+        }
+        rebuildJournal();
+        initialized = true;
+    }
+
+    private void readJournal() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), Util.UTF_8));
+        try {
+            String magic = reader.readLine();
+            String version = reader.readLine();
+            String appVersionString = reader.readLine();
+            String valueCountString = reader.readLine();
+            String blank = reader.readLine();
+            if (!MAGIC.equals(magic)
+                    || !VERSION.equals(version)
+                    || !Integer.toString(appVersion).equals(appVersionString)
+                    || !Integer.toString(valueCount).equals(valueCountString)
+                    || !"".equals(blank)) {
+                throw new IOException("unexpected journal header: [" + magic + ", " + version + ", "
+                        + valueCountString + ", " + blank + "]");
+            }
+
+            int lineCount = 0;
+            for (String line; (line = reader.readLine()) != null; lineCount++) {
+                readJournalLine(line);
+            }
+            redundantOpCount = lineCount - lruEntries.size();
+        } finally {
+            SAResponseBody.closeQuietly(reader);
+        }
+    }
+
+    private void readJournalLine(String line) throws IOException {
+        int firstSpace = line.indexOf(' ');
+        if (firstSpace == -1) {
+            throw new IOException("unexpected journal line: " + line);
+        }
+        int keyBegin = firstSpace + 1;
+        int secondSpace = line.indexOf(' ', keyBegin);
+        String key;
+        if (secondSpace == -1) {
+            key = line.substring(keyBegin);
+            if (firstSpace == REMOVE.length() && line.startsWith(REMOVE)) {
+                lruEntries.remove(key);
+                return;
+            }
+        } else {
+            key = line.substring(keyBegin, secondSpace);
+        }
+
+        Entry entry = lruEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            lruEntries.put(key, entry);
+        }
+
+        if (secondSpace != -1 && firstSpace == CLEAN.length() && line.startsWith(CLEAN)) {
+            String[] parts = line.substring(secondSpace + 1).split(" ");
+            entry.readable = true;
+            entry.currentEditor = null;
+            entry.setLengths(parts);
+        } else if (secondSpace == -1 && firstSpace == DIRTY.length() && line.startsWith(DIRTY)) {
+            entry.currentEditor = new Editor(entry);
+        } else if (secondSpace == -1 && firstSpace == READ.length() && line.startsWith(READ)) {
+            // 只需要调整 LRU 顺序，get 已经完成
+        } else {
+            throw new IOException("unexpected journal line: " + line);
+        }
+    }
+
+    /**
+     * 计算缓存的总大小，删除中断的编辑留下的条目
+     */
+    private void processJournal() {
+        deleteIfExists(journalFileTmp);
+        for (Iterator<Entry> i = lruEntries.values().iterator(); i.hasNext(); ) {
+            Entry entry = i.next();
+            if (entry.currentEditor == null) {
+                for (int t = 0; t < valueCount; t++) {
+                    size += entry.lengths[t];
+                }
+            } else {
+                entry.currentEditor = null;
+                for (int t = 0; t < valueCount; t++) {
+                    deleteIfExists(entry.getCleanFile(t));
+                    deleteIfExists(entry.getDirtyFile(t));
+                }
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * 用当前的条目重写 journal，去掉冗余的操作
+     */
+    private synchronized void rebuildJournal() throws IOException {
+        if (journalWriter != null) {
+            journalWriter.close();
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("failed to create directory: " + directory);
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFileTmp), Util.UTF_8));
+        try {
+            writer.write(MAGIC);
+            writer.write("\n");
+            writer.write(VERSION);
+            writer.write("\n");
+            writer.write(Integer.toString(appVersion));
+            writer.write("\n");
+            writer.write(Integer.toString(valueCount));
+            writer.write("\n");
+            writer.write("\n");
+
+            for (Entry entry : lruEntries.values()) {
+                if (entry.currentEditor != null) {
+                    writer.write(DIRTY + ' ' + entry.key + '\n');
+                } else {
+                    writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+                }
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (journalFile.exists()) {
+            renameTo(journalFile, journalFileBackup, true);
+        }
+        renameTo(journalFileTmp, journalFile, false);
+        journalFileBackup.delete();
+
+        journalWriter = newJournalWriter(true);
+        redundantOpCount = 0;
+    }
+
+    private Writer newJournalWriter(boolean append) throws FileNotFoundException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, append), Util.UTF_8));
+    }
+
+    /**
+     * 返回条目的快照，条目不存在或者还没有提交时返回 null。返回的快照需要调用方关闭
+     */
+    public synchronized Snapshot get(String key) throws IOException {
+        initialize();
+        checkNotClosed();
+        Entry entry = lruEntries.get(key);
+        if (entry == null || !entry.readable) return null;
+
+        InputStream[] ins = new InputStream[valueCount];
+        try {
+            for (int i = 0; i < valueCount; i++) {
+                ins[i] = new FileInputStream(entry.getCleanFile(i));
+            }
+        } catch (FileNotFoundException e) {
+            // 文件被手动删除了
+            for (int i = 0; i < valueCount; i++) {
+                if (ins[i] != null) {
+                    SAResponseBody.closeQuietly(ins[i]);
+                } else {
+                    break;
+                }
+            }
+            removeEntry(entry);
+            return null;
+        }
+
+        redundantOpCount++;
+        journalWriter.append(READ + ' ' + key + '\n');
+        journalWriter.flush();
+        if (journalRebuildRequired()) {
+            rebuildJournal();
+        }
+        return new Snapshot(key, entry.sequenceNumber, ins, entry.lengths.clone());
+    }
+
+    /**
+     * 开始编辑条目，同一个条目正在被编辑时返回 null
+     */
+    public Editor edit(String key) throws IOException {
+        return edit(key, ANY_SEQUENCE_NUMBER);
+    }
+
+    private static final long ANY_SEQUENCE_NUMBER = -1;
+
+    private synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
+        initialize();
+        checkNotClosed();
+        Entry entry = lruEntries.get(key);
+        if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER
+                && (entry == null || entry.sequenceNumber != expectedSequenceNumber)) {
+            return null; // Snapshot is stale.
+        }
+        if (entry == null) {
+            entry = new Entry(key);
+            lruEntries.put(key, entry);
+        } else if (entry.currentEditor != null) {
+            return null; // Another edit is in progress.
+        }
+
+        Editor editor = new Editor(entry);
+        entry.currentEditor = editor;
+
+        // 先写入 DIRTY 防止文件泄漏
+        journalWriter.write(DIRTY + ' ' + key + '\n');
+        journalWriter.flush();
+        return editor;
+    }
+
+    public synchronized long size() throws IOException {
+        initialize();
+        return size;
+    }
+
+    public long maxSize() {
+        return maxSize;
+    }
+
+    private synchronized void completeEdit(Editor editor, boolean success) throws IOException {
+        Entry entry = editor.entry;
+        if (entry.currentEditor != editor) {
+            throw new IllegalStateException();
+        }
+
+        // 第一次创建的条目，每个文件都必须写入
+        if (success && !entry.readable) {
+            for (int i = 0; i < valueCount; i++) {
+                if (!editor.written[i]) {
+                    editor.abort();
+                    throw new IllegalStateException("Newly created entry didn't create value for index " + i);
+                }
+                if (!entry.getDirtyFile(i).exists()) {
+                    editor.abort();
+                    return;
+                }
+            }
+        }
+
+        for (int i = 0; i < valueCount; i++) {
+            File dirty = entry.getDirtyFile(i);
+            if (success) {
+                if (dirty.exists()) {
+                    File clean = entry.getCleanFile(i);
+                    renameTo(dirty, clean, true);
+                    long oldLength = entry.lengths[i];
+                    long newLength = clean.length();
+                    entry.lengths[i] = newLength;
+                    size = size - oldLength + newLength;
+                }
+            } else {
+                deleteIfExists(dirty);
+            }
+        }
+
+        redundantOpCount++;
+        entry.currentEditor = null;
+        if (entry.readable | success) {
+            entry.readable = true;
+            journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+            if (success) {
+                entry.sequenceNumber = nextSequenceNumber++;
+            }
+        } else {
+            lruEntries.remove(entry.key);
+            journalWriter.write(REMOVE + ' ' + entry.key + '\n');
+        }
+        journalWriter.flush();
+
+        if (size > maxSize || journalRebuildRequired()) {
+            trimToSize();
+            if (journalRebuildRequired()) {
+                rebuildJournal();
+            }
+        }
+    }
+
+    private boolean journalRebuildRequired() {
+        return redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= lruEntries.size();
+    }
+
+    /**
+     * 删除条目，正在编辑的条目不能删除
+     *
+     * @return 是否删除成功
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        initialize();
+        checkNotClosed();
+        Entry entry = lruEntries.get(key);
+        if (entry == null) return false;
+        return removeEntry(entry);
+    }
+
+    private boolean removeEntry(Entry entry) throws IOException {
+        if (entry.currentEditor != null) {
+            // 让正在进行的编辑无法提交
+            entry.currentEditor.detach();
+        }
+
+        for (int i = 0; i < valueCount; i++) {
+            File file = entry.getCleanFile(i);
+            deleteIfExists(file);
+            size -= entry.lengths[i];
+            entry.lengths[i] = 0;
+        }
+
+        redundantOpCount++;
+        journalWriter.append(REMOVE + ' ' + entry.key + '\n');
+        journalWriter.flush();
+        lruEntries.remove(entry.key);
+
+        if (journalRebuildRequired()) {
+            rebuildJournal();
+        }
+        return true;
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("cache is closed");
+        }
+    }
+
+    /**
+     * 按 LRU 顺序淘汰条目，直到总大小不超过 maxSize
+     */
+    private void trimToSize() throws IOException {
+        while (size > maxSize) {
+            Entry toEvict = null;
+            for (Entry entry : lruEntries.values()) {
+                if (entry.currentEditor == null) {
+                    toEvict = entry;
+                    break;
+                }
+            }
+            if (toEvict == null) return;
+            removeEntry(toEvict);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!initialized || closed) {
+            closed = true;
+            return;
+        }
+        for (Entry entry : new ArrayList<>(lruEntries.values())) {
+            if (entry.currentEditor != null) {
+                entry.currentEditor.abort();
+            }
+        }
+        trimToSize();
+        journalWriter.close();
+        journalWriter = null;
+        closed = true;
+    }
+
+    /**
+     * 关闭缓存并删除目录中的所有文件
+     */
+    public void delete() throws IOException {
+        close();
+        deleteContents(directory);
+        synchronized (this) {
+            lruEntries.clear();
+            size = 0;
+            closed = false;
+            initialized = false;
+        }
+    }
+
+    /**
+     * 删除所有条目，正在编辑的条目会在编辑结束后丢弃
+     */
+    public synchronized void evictAll() throws IOException {
+        initialize();
+        for (Entry entry : new ArrayList<>(lruEntries.values())) {
+            removeEntry(entry);
+        }
+    }
+
+    private static void deleteContents(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteContents(file);
+            }
+            if (!file.delete() && file.exists()) {
+                throw new IOException("failed to delete file: " + file);
+            }
+        }
+    }
+
+    private static void deleteIfExists(File file) {
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    private static void renameTo(File from, File to, boolean deleteDestination) throws IOException {
+        if (deleteDestination) {
+            deleteIfExists(to);
+        }
+        if (!from.renameTo(to)) {
+            throw new IOException("rename " + from + " to " + to + " failed");
+        }
+    }
+
+    /** 条目某一时刻的快照 */
+    public final class Snapshot implements Closeable {
+        private final String key;
+        private final long sequenceNumber;
+        private final InputStream[] ins;
+        private final long[] lengths;
+
+        private Snapshot(String key, long sequenceNumber, InputStream[] ins, long[] lengths) {
+            this.key = key;
+            this.sequenceNumber = sequenceNumber;
+            this.ins = ins;
+            this.lengths = lengths;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        /**
+         * 基于这个快照开始编辑，快照之后条目已经被修改时返回 null
+         */
+        public Editor edit() throws IOException {
+            return DiskLruCache.this.edit(key, sequenceNumber);
+        }
+
+        public InputStream getInputStream(int index) {
+            return ins[index];
+        }
+
+        public long getLength(int index) {
+            return lengths[index];
+        }
+
+        @Override
+        public void close() {
+            for (InputStream in : ins) {
+                SAResponseBody.closeQuietly(in);
+            }
+        }
+    }
+
+    /** 编辑条目的各个文件 */
+    public final class Editor {
+        private final Entry entry;
+        private final boolean[] written;
+        private boolean done;
+        private boolean detached;
+
+        private Editor(Entry entry) {
+            this.entry = entry;
+            this.written = new boolean[valueCount];
+        }
+
+        /** 条目被删除后，编辑的内容写入临时文件并在结束时丢弃 */
+        void detach() {
+            detached = true;
+        }
+
+        /**
+         * 返回写入 index 对应文件的输出流，提交前不会影响已有的内容
+         */
+        public OutputStream newOutputStream(int index) throws IOException {
+            synchronized (DiskLruCache.this) {
+                if (done) throw new IllegalStateException();
+                if (entry.currentEditor != this) {
+                    throw new IllegalStateException();
+                }
+                written[index] = true;
+                File dirtyFile = entry.getDirtyFile(index);
+                try {
+                    return new FileOutputStream(dirtyFile);
+                } catch (FileNotFoundException e) {
+                    // 目录可能被删除了，重新创建
+                    directory.mkdirs();
+                    return new FileOutputStream(dirtyFile);
+                }
+            }
+        }
+
+        public void commit() throws IOException {
+            synchronized (DiskLruCache.this) {
+                if (done) throw new IllegalStateException();
+                if (detached) {
+                    completeDetached();
+                } else if (entry.currentEditor == this) {
+                    completeEdit(this, true);
+                }
+                done = true;
+            }
+        }
+
+        public void abort() throws IOException {
+            synchronized (DiskLruCache.this) {
+                if (done) throw new IllegalStateException();
+                if (detached) {
+                    completeDetached();
+                } else if (entry.currentEditor == this) {
+                    completeEdit(this, false);
+                }
+                done = true;
+            }
+        }
+
+        private void completeDetached() {
+            for (int i = 0; i < valueCount; i++) {
+                deleteIfExists(entry.getDirtyFile(i));
+            }
+            if (entry.currentEditor == this) {
+                entry.currentEditor = null;
+            }
+        }
+    }
+
+    private final class Entry {
+        private final String key;
+
+        /** 每个文件的长度 */
+        private final long[] lengths;
+
+        /** 条目至少被成功提交过一次 */
+        private boolean readable;
+
+        /** 正在进行的编辑，没有时为 null */
+        private Editor currentEditor;
+
+        /** 最近一次提交的序号 */
+        private long sequenceNumber;
+
+        private Entry(String key) {
+            this.key = key;
+            this.lengths = new long[valueCount];
+        }
+
+        String getLengths() {
+            StringBuilder result = new StringBuilder();
+            for (long size : lengths) {
+                result.append(' ').append(size);
+            }
+            return result.toString();
+        }
+
+        private void setLengths(String[] strings) throws IOException {
+            if (strings.length != valueCount) {
+                throw invalidLengths(strings);
+            }
+            try {
+                for (int i = 0; i < strings.length; i++) {
+                    lengths[i] = Long.parseLong(strings[i]);
+                }
+            } catch (NumberFormatException e) {
+                throw invalidLengths(strings);
+            }
+        }
+
+        private IOException invalidLengths(String[] strings) {
+            StringBuilder builder = new StringBuilder("unexpected journal line: ");
+            for (String string : strings) {
+                builder.append(string).append(' ');
+            }
+            return new IOException(builder.toString());
+        }
+
+        File getCleanFile(int i) {
+            return new File(directory, key + "." + i);
+        }
+
+        File getDirtyFile(int i) {
+            return new File(directory, key + "." + i + ".tmp");
+        }
+    }
+}
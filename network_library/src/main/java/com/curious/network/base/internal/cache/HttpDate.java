@@ -0,0 +1,79 @@
+package com.curious.network.base.internal.cache;
+
+import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Http 头信息中日期的解析和格式化，兼容 RFC 1123 以外的几种常见格式
+ */
+public final class HttpDate {
+    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
+    /** RFC 1123 格式，也是输出使用的格式 */
+    private static final ThreadLocal<DateFormat> STANDARD_DATE_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat rfc1123 = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            rfc1123.setLenient(false);
+            rfc1123.setTimeZone(GMT);
+            return rfc1123;
+        }
+    };
+
+    private static final String[] BROWSER_COMPATIBLE_DATE_FORMAT_STRINGS = new String[]{
+            "EEE, dd MMM yyyy HH:mm:ss zzz", // RFC 822, updated by RFC 1123 with any TZ
+            "EEEE, dd-MMM-yy HH:mm:ss zzz", // RFC 850, obsoleted by RFC 1036 with any TZ.
+            "EEE MMM d HH:mm:ss yyyy", // ANSI C's asctime() format
+            "EEE, dd-MMM-yyyy HH:mm:ss z",
+            "EEE, dd-MMM-yyyy HH-mm-ss z",
+            "EEE, dd MMM yy HH:mm:ss z",
+            "EEE dd-MMM-yyyy HH:mm:ss z",
+            "EEE dd MMM yyyy HH:mm:ss z",
+    };
+
+    private static final ThreadLocal<DateFormat[]> BROWSER_COMPATIBLE_DATE_FORMATS = new ThreadLocal<DateFormat[]>() {
+        @Override
+        protected DateFormat[] initialValue() {
+            return new DateFormat[BROWSER_COMPATIBLE_DATE_FORMAT_STRINGS.length];
+        }
+    };
+
+    private HttpDate() {
+    }
+
+    /**
+     * @return 解析失败时返回 null
+     */
+    public static Date parse(String value) {
+        if (value == null || value.length() == 0) return null;
+
+        ParsePosition position = new ParsePosition(0);
+        Date result = STANDARD_DATE_FORMAT.get().parse(value, position);
+        if (position.getIndex() == value.length()) {
+            return result;
+        }
+        DateFormat[] formats = BROWSER_COMPATIBLE_DATE_FORMATS.get();
+        for (int i = 0; i < BROWSER_COMPATIBLE_DATE_FORMAT_STRINGS.length; i++) {
+            DateFormat format = formats[i];
+            if (format == null) {
+                format = new SimpleDateFormat(BROWSER_COMPATIBLE_DATE_FORMAT_STRINGS[i], Locale.US);
+                format.setTimeZone(GMT);
+                formats[i] = format;
+            }
+            position.setIndex(0);
+            result = format.parse(value, position);
+            if (position.getIndex() != 0) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    public static String format(Date value) {
+        return STANDARD_DATE_FORMAT.get().format(value);
+    }
+}
@@ -0,0 +1,85 @@
+package com.curious.network.base.internal.connection;
+
+import com.curious.network.base.internal.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * 通过反射配置 TLS 的 ALPN 协商。Android 10 和 Java 9 以上使用 {@link SSLParameters} 的标准接口，
+ * Android 5.0 到 9 使用 Conscrypt 的 setAlpnProtocols；都不支持时不协商，只能使用 HTTP/1.1
+ */
+public final class Alpn {
+    public static final String HTTP_1_1 = "http/1.1";
+    public static final String H2 = "h2";
+
+    private static final Method SET_APPLICATION_PROTOCOLS = method(SSLParameters.class, "setApplicationProtocols", String[].class);
+    private static final Method GET_APPLICATION_PROTOCOL = method(SSLSocket.class, "getApplicationProtocol");
+
+    private Alpn() {
+    }
+
+    /**
+     * 在握手之前设置客户端支持的协议，按优先级排列
+     */
+    public static void configure(SSLSocket socket, List<String> protocols) {
+        try {
+            if (SET_APPLICATION_PROTOCOLS != null) {
+                SSLParameters parameters = socket.getSSLParameters();
+                SET_APPLICATION_PROTOCOLS.invoke(parameters, (Object) protocols.toArray(new String[0]));
+                socket.setSSLParameters(parameters);
+                return;
+            }
+            Method setAlpnProtocols = method(socket.getClass(), "setAlpnProtocols", byte[].class);
+            if (setAlpnProtocols != null) {
+                setAlpnProtocols.invoke(socket, (Object) concatLengthPrefixed(protocols));
+            }
+        } catch (Exception ignored) {
+            // 不支持 ALPN 的实现，握手后按 HTTP/1.1 处理
+        }
+    }
+
+    /**
+     * 握手完成后协商出的协议
+     *
+     * @return 没有协商时返回 null
+     */
+    public static String selectedProtocol(SSLSocket socket) {
+        try {
+            if (GET_APPLICATION_PROTOCOL != null) {
+                String protocol = (String) GET_APPLICATION_PROTOCOL.invoke(socket);
+                if (protocol != null && !protocol.isEmpty()) return protocol;
+            }
+            Method getAlpnSelectedProtocol = method(socket.getClass(), "getAlpnSelectedProtocol");
+            if (getAlpnSelectedProtocol != null) {
+                byte[] protocol = (byte[]) getAlpnSelectedProtocol.invoke(socket);
+                if (protocol != null) return new String(protocol, Util.UTF_8);
+            }
+        } catch (Exception ignored) {
+            // 旧版本的 getApplicationProtocol 可能抛出 UnsupportedOperationException
+        }
+        return null;
+    }
+
+    private static byte[] concatLengthPrefixed(List<String> protocols) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        for (String protocol : protocols) {
+            byte[] bytes = protocol.getBytes(Util.ISO_8859_1);
+            result.write(bytes.length);
+            result.write(bytes, 0, bytes.length);
+        }
+        return result.toByteArray();
+    }
+
+    private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
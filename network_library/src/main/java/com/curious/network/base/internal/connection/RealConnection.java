@@ -0,0 +1,332 @@
+package com.curious.network.base.internal.connection;
+
+import android.os.Build;
+
+import com.curious.network.base.SADns;
+import com.curious.network.base.SAEventListener;
+import com.curious.network.base.SATlsSessionCache;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.internal.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * 一条 TCP（或 TLS）连接。HTTP/1.1 时同一时间只承载一次交换，空闲时放回 {@link com.curious.network.base.SAConnectionPool}；
+ * 通过 ALPN 协商出 h2 后交给 HTTP/2 的连接管理
+ */
+public final class RealConnection implements SARealCall.Cancelable {
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * 早期 Android 版本中 SocketChannel 适配出的 Socket 对 soTimeout 的支持不可靠。
+     * 适配出的 Socket 读取时持有 blockingLock，写入也需要这个锁，读写不能并发，所以只用于明文的 HTTP/1.1
+     */
+    private static final boolean USE_SOCKET_CHANNEL = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+
+    private final Route route;
+    private final SADns dns;
+    private final SATlsSessionCache tlsSessionCache;
+    private volatile Socket rawSocket;
+    /** 正在尝试连接的 socket，用于在连接过程中中止 */
+    private volatile Socket connectingSocket;
+    private volatile boolean canceled;
+    private Socket socket;
+    private InputStream source;
+    private OutputStream sink;
+    private String protocol = Alpn.HTTP_1_1;
+
+    /** 最近一次变为空闲的时间，由连接池维护 */
+    private long idleAtNanos = Long.MAX_VALUE;
+
+    /** 已经完成的交换次数，大于 0 说明是复用的连接 */
+    private int successCount;
+
+    public RealConnection(Route route, SADns dns, SATlsSessionCache tlsSessionCache) {
+        this.route = route;
+        this.dns = dns;
+        this.tlsSessionCache = tlsSessionCache;
+    }
+
+    public Route route() {
+        return route;
+    }
+
+    public Socket socket() {
+        return socket;
+    }
+
+    public InputStream source() {
+        return source;
+    }
+
+    public OutputStream sink() {
+        return sink;
+    }
+
+    /**
+     * 明文连接底层的 channel，写入前需要先 flush {@link #sink()}
+     *
+     * @return TLS 连接或者不是通过 {@link SocketChannel} 创建的 socket 返回 null
+     */
+    public WritableByteChannel channel() {
+        return socket == rawSocket ? rawSocket.getChannel() : null;
+    }
+
+    /**
+     * TLS 握手时通过 ALPN 协商出的协议，明文连接和没有协商时是 {@link Alpn#HTTP_1_1}
+     */
+    public String protocol() {
+        return protocol;
+    }
+
+    public long idleAtNanos() {
+        return idleAtNanos;
+    }
+
+    public void idleAtNanos(long idleAtNanos) {
+        this.idleAtNanos = idleAtNanos;
+    }
+
+    public boolean isReused() {
+        return successCount > 0;
+    }
+
+    public void exchangeSucceeded() {
+        successCount++;
+    }
+
+    /**
+     * 建立 HTTP/1.1 连接，依次尝试 host 解析出的每个地址；https 会在 TCP 连接（以及代理隧道）建立后完成 TLS 握手
+     *
+     * @param call 各个阶段回调它的 {@link SAEventListener}
+     */
+    public void connect(int connectTimeout, int readTimeout, SSLSocketFactory sslSocketFactory, SARealCall call)
+            throws IOException {
+        connect(connectTimeout, readTimeout, sslSocketFactory, null, !route.isHttps(), call);
+    }
+
+    /**
+     * 建立可能使用 HTTP/2 的连接，HTTP/2 在读取线程阻塞读取的同时由调用线程写入，总是使用普通的 Socket
+     *
+     * @param alpnProtocols https 时通过 ALPN 提供给服务器选择的协议，null 时不协商
+     */
+    public void connect(int connectTimeout, int readTimeout, SSLSocketFactory sslSocketFactory,
+                        List<String> alpnProtocols, SARealCall call) throws IOException {
+        connect(connectTimeout, readTimeout, sslSocketFactory, alpnProtocols, false, call);
+    }
+
+    /**
+     * @param socketChannel 是否通过 {@link SocketChannel} 创建 socket
+     */
+    private void connect(int connectTimeout, int readTimeout, SSLSocketFactory sslSocketFactory,
+                         List<String> alpnProtocols, boolean socketChannel, SARealCall call) throws IOException {
+        if (rawSocket != null) throw new IllegalStateException("already connected");
+        SAEventListener eventListener = call.eventListener();
+        Proxy proxy = route.proxy();
+        IOException lastException = null;
+        InetSocketAddress connectedAddress = null;
+        for (InetSocketAddress address : socketAddresses(call)) {
+            eventListener.connectStart(call, System.nanoTime(), address, proxy);
+            Socket socket = newSocket(proxy, socketChannel);
+            connectingSocket = socket;
+            try {
+                if (canceled) throw new SocketException("Canceled");
+                socket.connect(address, connectTimeout);
+                socket.setSoTimeout(readTimeout);
+                rawSocket = socket;
+                connectedAddress = address;
+                break;
+            } catch (IOException e) {
+                Util.closeQuietly(socket);
+                eventListener.connectFailed(call, System.nanoTime(), address, proxy, e);
+                lastException = e;
+            }
+        }
+        if (rawSocket == null) {
+            throw lastException != null ? lastException : new UnknownHostException(route.host());
+        }
+
+        try {
+            socket = rawSocket;
+            source = new BufferedInputStream(rawSocket.getInputStream(), BUFFER_SIZE);
+            sink = new BufferedOutputStream(rawSocket.getOutputStream(), BUFFER_SIZE);
+            if (route.requiresTunnel()) {
+                createTunnel();
+            }
+            if (route.isHttps()) {
+                eventListener.secureConnectStart(call, System.nanoTime());
+                boolean resumed = connectTls(sslSocketFactory, alpnProtocols);
+                eventListener.secureConnectEnd(call, System.nanoTime(), ((SSLSocket) socket).getSession(), resumed);
+            }
+        } catch (IOException e) {
+            close();
+            eventListener.connectFailed(call, System.nanoTime(), connectedAddress, proxy, e);
+            throw e;
+        }
+        eventListener.connectEnd(call, System.nanoTime(), connectedAddress, proxy);
+    }
+
+    /**
+     * 明文 HTTP/1.1 的直连和 Http 代理使用 {@link SocketChannel} 创建 socket，可以把文件直接 transferTo 到 socket
+     */
+    private static Socket newSocket(Proxy proxy, boolean socketChannel) throws IOException {
+        if (proxy.type() == Proxy.Type.SOCKS) {
+            return new Socket(proxy);
+        }
+        if (socketChannel && USE_SOCKET_CHANNEL) {
+            return SocketChannel.open().socket();
+        }
+        return new Socket();
+    }
+
+    private InetSocketAddress[] socketAddresses(SARealCall call) throws IOException {
+        Proxy proxy = route.proxy();
+        if (proxy.type() == Proxy.Type.SOCKS) {
+            // 交给 SOCKS 代理解析 host
+            return new InetSocketAddress[]{InetSocketAddress.createUnresolved(route.host(), route.port())};
+        }
+        String host;
+        int port;
+        if (proxy.type() == Proxy.Type.HTTP) {
+            InetSocketAddress proxyAddress = (InetSocketAddress) proxy.address();
+            host = proxyAddress.getHostName();
+            port = proxyAddress.getPort();
+        } else {
+            host = route.host();
+            port = route.port();
+        }
+        call.eventListener().dnsStart(call, System.nanoTime(), host);
+        List<InetAddress> addresses = dns.lookup(host);
+        call.eventListener().dnsEnd(call, System.nanoTime(), host, addresses);
+        InetSocketAddress[] result = new InetSocketAddress[addresses.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new InetSocketAddress(addresses.get(i), port);
+        }
+        return result;
+    }
+
+    /**
+     * 通过 Http 代理建立到目标服务器的隧道
+     */
+    private void createTunnel() throws IOException {
+        String hostPort = route.host() + ":" + route.port();
+        String request = "CONNECT " + hostPort + " HTTP/1.1\r\n"
+                + "Host: " + hostPort + "\r\n"
+                + "Proxy-Connection: Keep-Alive\r\n"
+                + "\r\n";
+        sink.write(request.getBytes(Util.ISO_8859_1));
+        sink.flush();
+
+        String statusLine = Util.readAsciiLine(source, MAX_LINE_LENGTH);
+        while (Util.readAsciiLine(source, MAX_LINE_LENGTH).length() != 0) {
+            // 丢弃代理返回的头信息
+        }
+        int code = statusLine.length() >= 12 ? Integer.parseInt(statusLine.substring(9, 12)) : -1;
+        if (code == 407) {
+            throw new IOException("Failed to authenticate with proxy");
+        }
+        if (code != 200) {
+            throw new IOException("Unexpected response code for CONNECT: " + statusLine);
+        }
+    }
+
+    /**
+     * @return 是否恢复了之前的 TLS session
+     */
+    private boolean connectTls(SSLSocketFactory sslSocketFactory, List<String> alpnProtocols) throws IOException {
+        if (sslSocketFactory == null) {
+            sslSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+        }
+        SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(rawSocket, route.host(), route.port(), true);
+        socket = sslSocket;
+        if (alpnProtocols != null) {
+            Alpn.configure(sslSocket, alpnProtocols);
+        }
+        tlsSessionCache.prepare(sslSocket);
+        sslSocket.startHandshake();
+        boolean resumed = tlsSessionCache.recordHandshake(route.host(), route.port(), sslSocket.getSession());
+        if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(route.host(), sslSocket.getSession())) {
+            throw new SSLPeerUnverifiedException("Hostname " + route.host() + " not verified");
+        }
+        if (alpnProtocols != null) {
+            String selected = Alpn.selectedProtocol(sslSocket);
+            if (selected != null) protocol = selected;
+        }
+        source = new BufferedInputStream(sslSocket.getInputStream(), BUFFER_SIZE);
+        sink = new BufferedOutputStream(sslSocket.getOutputStream(), BUFFER_SIZE);
+        return resumed;
+    }
+
+    /**
+     * 复用前检查连接是否仍然可用，服务器可能已经关闭了空闲连接
+     *
+     * @param doExtensiveChecks 是否尝试读取 socket，会有 1ms 左右的开销
+     */
+    public boolean isHealthy(boolean doExtensiveChecks) {
+        if (socket == null || socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+        if (!doExtensiveChecks) {
+            return true;
+        }
+        try {
+            if (source.available() > 0) {
+                // 空闲连接上不应该有未读的数据
+                return false;
+            }
+            int readTimeout = socket.getSoTimeout();
+            try {
+                socket.setSoTimeout(1);
+                // 返回 -1 说明已经被关闭，读到数据说明连接状态异常，都不能复用
+                source.read();
+                return false;
+            } finally {
+                socket.setSoTimeout(readTimeout);
+            }
+        } catch (SocketTimeoutException ignored) {
+            return true; // Read timed out; socket is good.
+        } catch (IOException e) {
+            return false; // Couldn't read; socket is closed.
+        }
+    }
+
+    public void close() {
+        Util.closeQuietly(socket);
+        Util.closeQuietly(rawSocket);
+    }
+
+    /**
+     * 从其他线程中止正在进行的连接或交换，阻塞在这条连接上的读写会抛出 SocketException
+     */
+    @Override
+    public void cancel() {
+        canceled = true;
+        Util.closeQuietly(connectingSocket);
+        Util.closeQuietly(rawSocket);
+    }
+
+    @Override
+    public String toString() {
+        return "Connection{" + route + ", protocol=" + protocol + ", reused=" + successCount + '}';
+    }
+}
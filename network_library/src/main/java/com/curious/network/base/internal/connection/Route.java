@@ -0,0 +1,91 @@
+package com.curious.network.base.internal.connection;
+
+import com.curious.network.base.SAHttpUrl;
+
+import java.net.Proxy;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * 连接的路由信息，scheme、host、port、proxy 都相同的请求可以复用同一个连接。
+ * 连接池可以被多个 client 共享，https 还要求是同一个 SSLSocketFactory 建立的连接，
+ * 不同的证书锁定或者信任配置不会复用其他 client 的 TLS 连接
+ */
+public final class Route {
+    final String scheme;
+    final String host;
+    final int port;
+    final Proxy proxy;
+    /** 按实例比较，明文连接为 null */
+    final SSLSocketFactory sslSocketFactory;
+
+    /**
+     * @param sslSocketFactory https 时建立 TLS 连接使用的 factory，null 表示默认的 factory；明文连接时忽略
+     */
+    public Route(String scheme, String host, int port, Proxy proxy, SSLSocketFactory sslSocketFactory) {
+        this.scheme = scheme;
+        this.host = host;
+        this.port = port;
+        this.proxy = proxy != null ? proxy : Proxy.NO_PROXY;
+        this.sslSocketFactory = "https".equals(scheme) ? sslSocketFactory : null;
+    }
+
+    public static Route of(SAHttpUrl url, Proxy proxy, SSLSocketFactory sslSocketFactory) {
+        return new Route(url.scheme(), url.host(), url.port(), proxy, sslSocketFactory);
+    }
+
+    public String scheme() {
+        return scheme;
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public Proxy proxy() {
+        return proxy;
+    }
+
+    public boolean isHttps() {
+        return "https".equals(scheme);
+    }
+
+    /**
+     * 通过 Http 代理访问 https 时，需要先用 CONNECT 建立隧道
+     */
+    public boolean requiresTunnel() {
+        return isHttps() && proxy.type() == Proxy.Type.HTTP;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof Route)) return false;
+        Route that = (Route) other;
+        return port == that.port
+                && scheme.equals(that.scheme)
+                && host.equals(that.host)
+                && proxy.equals(that.proxy)
+                && sslSocketFactory == that.sslSocketFactory;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 17;
+        result = 31 * result + scheme.hashCode();
+        result = 31 * result + host.hashCode();
+        result = 31 * result + port;
+        result = 31 * result + proxy.hashCode();
+        result = 31 * result + System.identityHashCode(sslSocketFactory);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Route{" + scheme + "://" + host + ":" + port + ", proxy=" + proxy + '}';
+    }
+}
@@ -0,0 +1,586 @@
+package com.curious.network.base.internal.http1;
+
+import com.curious.network.base.SAConnectionPool;
+import com.curious.network.base.SAEventListener;
+import com.curious.network.base.SAHeader;
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SARequestBody;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SAResponseBody;
+import com.curious.network.base.internal.ChannelRequestBody;
+import com.curious.network.base.internal.Util;
+import com.curious.network.base.internal.connection.RealConnection;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 在一条 {@link RealConnection} 上完成一次 HTTP/1.1 请求和响应的编解码。
+ * 响应体读完（或提前关闭并成功丢弃剩余数据）后，连接会被放回连接池
+ */
+public final class Http1Codec {
+    /** 响应头的最大长度 */
+    private static final int HEADER_LIMIT = 256 * 1024;
+
+    /** 提前关闭响应体时，丢弃剩余数据的最长等待时间 */
+    private static final int DISCARD_STREAM_TIMEOUT_MILLIS = 100;
+
+    /** 提前关闭响应体时，剩余数据超过这个长度就直接关闭连接，不再尝试复用 */
+    private static final long DISCARD_MAX_BYTES = 64 * 1024;
+
+    private static final String USER_AGENT = System.getProperty("http.agent");
+
+    private final SAConnectionPool connectionPool;
+    private final RealConnection connection;
+    private final SARealCall call;
+    private final SAEventListener eventListener;
+    private final InputStream source;
+    private final OutputStream sink;
+
+    private int headerLimit = HEADER_LIMIT;
+    private boolean responseStarted;
+    private boolean keepAlive;
+    private boolean released;
+    private long sentRequestAtMillis;
+
+    /** 从网络读取的响应体字节数，包括提前关闭时丢弃的部分 */
+    private long responseBodyBytes;
+
+    /** 正在丢弃剩余的响应体，此时不能释放连接 */
+    private boolean discarding;
+
+    public Http1Codec(SAConnectionPool connectionPool, RealConnection connection, SARealCall call) {
+        this.connectionPool = connectionPool;
+        this.connection = connection;
+        this.call = call;
+        this.eventListener = call.eventListener();
+        this.source = connection.source();
+        this.sink = connection.sink();
+    }
+
+    /**
+     * 是否已经开始读取响应。读取响应之前的失败，可以换一个新连接安全地重试
+     */
+    public boolean responseStarted() {
+        return responseStarted;
+    }
+
+    public SAResponse exchange(SARequest request) throws IOException {
+        try {
+            writeRequest(request);
+            return readResponse(request);
+        } catch (IOException e) {
+            released = true;
+            connection.close();
+            throw e;
+        }
+    }
+
+    private void writeRequest(SARequest request) throws IOException {
+        SARequestBody requestBody = request.body();
+        boolean hasBody = requestBody != null && SARequest.HttpMethod.permitsRequestBody(request.method());
+        long contentLength = hasBody ? requestBody.contentLength() : -1;
+
+        List<SAHeader> headers = requestHeaders(request, hasBody, contentLength);
+        String connectionHeader = Util.headerValue(headers, "Connection");
+        keepAlive = !"close".equalsIgnoreCase(connectionHeader);
+
+        sentRequestAtMillis = System.currentTimeMillis();
+        eventListener.requestHeadersStart(call, System.nanoTime());
+        byte[] head = requestHead(request, connection.route().proxy(), headers);
+        sink.write(head);
+        eventListener.requestHeadersEnd(call, System.nanoTime(), request, head.length);
+        if (!hasBody) {
+            sink.flush();
+            return;
+        }
+
+        eventListener.requestBodyStart(call, System.nanoTime());
+        long bodyBytes = contentLength;
+        WritableByteChannel channel = connection.channel();
+        if (contentLength >= 0 && channel != null && requestBody instanceof ChannelRequestBody) {
+            // 明文连接上直接写入 socket channel，文件可以零拷贝发送
+            sink.flush();
+            ((ChannelRequestBody) requestBody).writeTo(channel);
+        } else if (contentLength >= 0) {
+            OutputStream bodySink = new FixedLengthSink(sink, contentLength);
+            requestBody.writeTo(bodySink);
+            bodySink.close();
+        } else {
+            ChunkedSink chunkedSink = new ChunkedSink(sink);
+            OutputStream bodySink = new BufferedOutputStream(chunkedSink, 8 * 1024);
+            requestBody.writeTo(bodySink);
+            bodySink.close();
+            bodyBytes = chunkedSink.byteCount;
+        }
+        sink.flush();
+        eventListener.requestBodyEnd(call, System.nanoTime(), bodyBytes);
+    }
+
+    private SAResponse readResponse(SARequest request) throws IOException {
+        int code;
+        String message;
+        boolean http11;
+        List<SAHeader> headers;
+        eventListener.responseHeadersStart(call, System.nanoTime());
+        while (true) {
+            String statusLine = readLine();
+            responseStarted = true;
+            if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12 || statusLine.charAt(8) != ' ') {
+                throw new ProtocolException("Unexpected status line: " + statusLine);
+            }
+            http11 = statusLine.charAt(7) == '1';
+            try {
+                code = Integer.parseInt(statusLine.substring(9, 12));
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Unexpected status line: " + statusLine);
+            }
+            message = statusLine.length() > 13 ? statusLine.substring(13) : "";
+            headers = readHeaders();
+            // 跳过 100 Continue 等 1xx 的中间响应
+            if (code < 100 || code >= 200 || code == 101) break;
+        }
+
+        String connectionHeader = Util.headerValue(headers, "Connection");
+        if ("close".equalsIgnoreCase(connectionHeader)) {
+            keepAlive = false;
+        } else if (!http11 && !"keep-alive".equalsIgnoreCase(connectionHeader)) {
+            keepAlive = false;
+        }
+
+        SAResponse.Builder responseBuilder = new SAResponse.Builder()
+                .code(code)
+                .message(message)
+                .headers(headers)
+                .request(request)
+                .protocol(http11 ? "http/1.1" : "http/1.0")
+                .sentRequestAtMillis(sentRequestAtMillis)
+                .receivedResponseAtMillis(System.currentTimeMillis());
+        // 和 OkHttp 一样，这里的响应还没有响应体
+        eventListener.responseHeadersEnd(call, System.nanoTime(), responseBuilder.build());
+
+        InputStream body;
+        long contentLength = Util.parseLong(Util.headerValue(headers, "Content-Length"), -1);
+        if (!hasBody(code)) {
+            contentLength = 0;
+            body = new FixedLengthSource(0);
+        } else if ("chunked".equalsIgnoreCase(Util.headerValue(headers, "Transfer-Encoding"))) {
+            contentLength = -1;
+            body = new ChunkedSource();
+        } else if (contentLength != -1) {
+            body = new FixedLengthSource(contentLength);
+        } else {
+            keepAlive = false;
+            body = new UnknownLengthSource();
+        }
+
+        return responseBuilder
+                .body(SAResponseBody.create(Util.headerValue(headers, "Content-Type"), contentLength, body))
+                .build();
+    }
+
+    private List<SAHeader> readHeaders() throws IOException {
+        List<SAHeader> headers = new ArrayList<>();
+        for (String line; (line = readLine()).length() != 0; ) {
+            int index = line.indexOf(':');
+            if (index <= 0) {
+                throw new ProtocolException("Unexpected header: " + line);
+            }
+            headers.add(new SAHeader(line.substring(0, index).trim(), line.substring(index + 1).trim(), true));
+        }
+        return headers;
+    }
+
+    private String readLine() throws IOException {
+        String line = Util.readAsciiLine(source, headerLimit);
+        headerLimit -= line.length();
+        return line;
+    }
+
+    /**
+     * 补全 Host、Connection、User-Agent 和请求体相关的头信息
+     *
+     * @param contentLength 请求体的长度，-1 时使用 chunked 编码
+     */
+    public static List<SAHeader> requestHeaders(SARequest request, boolean hasBody, long contentLength) {
+        List<SAHeader> headers = new ArrayList<>(request.headers());
+        if (Util.headerValue(headers, "Host") == null) {
+            headers.add(new SAHeader("Host", hostHeader(request), true));
+        }
+        if (Util.headerValue(headers, "Connection") == null) {
+            headers.add(new SAHeader("Connection", "Keep-Alive", true));
+        }
+        if (USER_AGENT != null && Util.headerValue(headers, "User-Agent") == null) {
+            headers.add(new SAHeader("User-Agent", USER_AGENT, true));
+        }
+        if (hasBody) {
+            removeHeaders(headers, "Content-Type");
+            removeHeaders(headers, "Content-Length");
+            removeHeaders(headers, "Transfer-Encoding");
+            headers.add(new SAHeader("Content-Type", request.body().contentType(), true));
+            if (contentLength >= 0) {
+                headers.add(new SAHeader("Content-Length", String.valueOf(contentLength), true));
+            } else {
+                headers.add(new SAHeader("Transfer-Encoding", "chunked", true));
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * 编码请求行和头信息
+     */
+    public static byte[] requestHead(SARequest request, Proxy proxy, List<SAHeader> headers) {
+        StringBuilder builder = new StringBuilder(256);
+        builder.append(request.method().toString()).append(' ')
+                .append(requestTarget(request, proxy)).append(" HTTP/1.1\r\n");
+        for (SAHeader header : headers) {
+            builder.append(header.getName()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        builder.append("\r\n");
+        return builder.toString().getBytes(Util.ISO_8859_1);
+    }
+
+    private static String requestTarget(SARequest request, Proxy proxy) {
+        URL url = request.url().url();
+        if (!request.isHttps() && proxy.type() == Proxy.Type.HTTP) {
+            // 通过 Http 代理访问 http 时，需要使用完整的 url
+            return url.toString();
+        }
+        String file = url.getFile();
+        return file.isEmpty() ? "/" : file;
+    }
+
+    /**
+     * Host 头信息的值，默认端口时省略端口号
+     */
+    public static String hostHeader(SARequest request) {
+        String host = request.url().host();
+        int port = request.url().port();
+        if (host.indexOf(':') != -1 && !host.startsWith("[")) {
+            host = "[" + host + "]";
+        }
+        return port == -1 || port == SAHttpUrl.defaultPort(request.url().scheme()) ? host : host + ":" + port;
+    }
+
+    private static void removeHeaders(List<SAHeader> headers, String name) {
+        for (int i = headers.size() - 1; i >= 0; i--) {
+            if (name.equalsIgnoreCase(headers.get(i).getName())) {
+                headers.remove(i);
+            }
+        }
+    }
+
+    /** 这个状态码的响应是否有响应体 */
+    public static boolean hasBody(int code) {
+        return !((code >= 100 && code < 200) || code == 204 || code == 304);
+    }
+
+    /**
+     * 响应体读取结束，可复用的连接放回连接池，否则关闭
+     */
+    private void endOfInput(boolean reuseConnection) {
+        if (released || discarding) return;
+        released = true;
+        eventListener.responseBodyEnd(call, System.nanoTime(), responseBodyBytes);
+        // 连接放回连接池之后不能再被这个调用的超时中止
+        call.exchangeFinished(connection);
+        if (reuseConnection && keepAlive) {
+            connection.exchangeSucceeded();
+            connectionPool.put(connection);
+        } else {
+            connection.close();
+        }
+    }
+
+    /** 写入固定长度的请求体，并校验实际写入的字节数 */
+    private static final class FixedLengthSink extends OutputStream {
+        private final OutputStream sink;
+        private long bytesRemaining;
+        private boolean closed;
+
+        FixedLengthSink(OutputStream sink, long bytesRemaining) {
+            this.sink = sink;
+            this.bytesRemaining = bytesRemaining;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IllegalStateException("closed");
+            if (len > bytesRemaining) {
+                throw new ProtocolException("expected " + bytesRemaining + " bytes but received " + len);
+            }
+            sink.write(b, off, len);
+            bytesRemaining -= len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (closed) return;
+            sink.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (bytesRemaining > 0) throw new ProtocolException("unexpected end of stream");
+        }
+    }
+
+    /** 以 chunked 编码写入长度未知的请求体，前面需要有缓冲避免产生过小的 chunk */
+    private static final class ChunkedSink extends OutputStream {
+        private static final byte[] CRLF = {'\r', '\n'};
+        private final OutputStream sink;
+        private boolean closed;
+        /** 写入的数据字节数，不包括 chunk 头 */
+        long byteCount;
+
+        ChunkedSink(OutputStream sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IllegalStateException("closed");
+            if (len == 0) return;
+            sink.write(Integer.toHexString(len).getBytes(Util.ISO_8859_1));
+            sink.write(CRLF);
+            sink.write(b, off, len);
+            sink.write(CRLF);
+            byteCount += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (closed) return;
+            sink.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            sink.write("0\r\n\r\n".getBytes(Util.ISO_8859_1));
+        }
+    }
+
+    private abstract class AbstractSource extends InputStream {
+        private boolean closed;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public final int read(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("closed");
+            if (len == 0) return 0;
+            try {
+                return doRead(b, off, len);
+            } catch (IOException e) {
+                endOfInput(false);
+                throw e;
+            }
+        }
+
+        abstract int doRead(byte[] b, int off, int len) throws IOException;
+
+        /** 剩余未读的字节数，未知时返回 -1 */
+        abstract long bytesRemaining();
+
+        abstract boolean exhausted();
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (released) return;
+            if (!keepAlive || bytesRemaining() > DISCARD_MAX_BYTES) {
+                endOfInput(false);
+            } else {
+                endOfInput(discard());
+            }
+        }
+
+        /**
+         * 在较短的超时时间内读完剩余数据，成功后连接可以继续复用
+         */
+        private boolean discard() {
+            Socket socket = connection.socket();
+            try {
+                int readTimeout = socket.getSoTimeout();
+                socket.setSoTimeout(DISCARD_STREAM_TIMEOUT_MILLIS);
+                discarding = true;
+                try {
+                    byte[] buffer = new byte[2048];
+                    long discarded = 0;
+                    int read;
+                    while (discarded <= DISCARD_MAX_BYTES && (read = doRead(buffer, 0, buffer.length)) != -1) {
+                        discarded += read;
+                    }
+                } finally {
+                    discarding = false;
+                    socket.setSoTimeout(readTimeout);
+                }
+                return exhausted();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private final class FixedLengthSource extends AbstractSource {
+        private long bytesRemaining;
+
+        FixedLengthSource(long length) {
+            this.bytesRemaining = length;
+            if (bytesRemaining == 0) {
+                endOfInput(true);
+            }
+        }
+
+        @Override
+        int doRead(byte[] b, int off, int len) throws IOException {
+            if (bytesRemaining == 0) return -1;
+            int read = source.read(b, off, (int) Math.min(len, bytesRemaining));
+            if (read == -1) {
+                throw new ProtocolException("unexpected end of stream");
+            }
+            bytesRemaining -= read;
+            responseBodyBytes += read;
+            if (bytesRemaining == 0) {
+                endOfInput(true);
+            }
+            return read;
+        }
+
+        @Override
+        long bytesRemaining() {
+            return bytesRemaining;
+        }
+
+        @Override
+        boolean exhausted() {
+            return bytesRemaining == 0;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(source.available(), bytesRemaining);
+        }
+    }
+
+    private final class ChunkedSource extends AbstractSource {
+        private static final long NO_CHUNK_YET = -1L;
+        private long bytesRemainingInChunk = NO_CHUNK_YET;
+        private boolean hasMoreChunks = true;
+
+        @Override
+        int doRead(byte[] b, int off, int len) throws IOException {
+            if (!hasMoreChunks) return -1;
+            if (bytesRemainingInChunk == 0 || bytesRemainingInChunk == NO_CHUNK_YET) {
+                readChunkSize();
+                if (!hasMoreChunks) return -1;
+            }
+            int read = source.read(b, off, (int) Math.min(len, bytesRemainingInChunk));
+            if (read == -1) {
+                throw new ProtocolException("unexpected end of stream");
+            }
+            bytesRemainingInChunk -= read;
+            responseBodyBytes += read;
+            return read;
+        }
+
+        private void readChunkSize() throws IOException {
+            if (bytesRemainingInChunk != NO_CHUNK_YET) {
+                // 上一个 chunk 结尾的 CRLF
+                Util.readAsciiLine(source, 16);
+            }
+            String line = Util.readAsciiLine(source, 1024);
+            int extension = line.indexOf(';');
+            if (extension != -1) line = line.substring(0, extension);
+            try {
+                bytesRemainingInChunk = Long.parseLong(line.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Expected a hex chunk size but was " + line);
+            }
+            if (bytesRemainingInChunk < 0) {
+                throw new ProtocolException("Expected a hex chunk size but was " + line);
+            }
+            if (bytesRemainingInChunk == 0) {
+                hasMoreChunks = false;
+                readHeaders(); // trailers
+                endOfInput(true);
+            }
+        }
+
+        @Override
+        long bytesRemaining() {
+            return -1;
+        }
+
+        @Override
+        boolean exhausted() {
+            return !hasMoreChunks;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (!hasMoreChunks || bytesRemainingInChunk <= 0) return 0;
+            return (int) Math.min(source.available(), bytesRemainingInChunk);
+        }
+    }
+
+    /** 没有 Content-Length 也不是 chunked 的响应体，读到连接关闭为止，连接不能复用 */
+    private final class UnknownLengthSource extends AbstractSource {
+        private boolean inputExhausted;
+
+        @Override
+        int doRead(byte[] b, int off, int len) throws IOException {
+            if (inputExhausted) return -1;
+            int read = source.read(b, off, len);
+            if (read == -1) {
+                inputExhausted = true;
+                endOfInput(false);
+            } else {
+                responseBodyBytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        long bytesRemaining() {
+            return -1;
+        }
+
+        @Override
+        boolean exhausted() {
+            return inputExhausted;
+        }
+    }
+}
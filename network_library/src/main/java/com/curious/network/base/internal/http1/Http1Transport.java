@@ -0,0 +1,51 @@
+package com.curious.network.base.internal.http1;
+
+import com.curious.network.base.SAConnectionPool;
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SATransport;
+import com.curious.network.base.internal.connection.RealConnection;
+import com.curious.network.base.internal.connection.Route;
+
+import java.io.IOException;
+
+/**
+ * 基于 Socket 的 HTTP/1.1 传输实现，优先复用 {@link SAConnectionPool} 中的空闲连接
+ */
+public final class Http1Transport implements SATransport {
+    private final SAHttpClient client;
+    private final SAConnectionPool connectionPool;
+
+    public Http1Transport(SAHttpClient client) {
+        this.client = client;
+        this.connectionPool = client.connectionPool();
+    }
+
+    @Override
+    public SAResponse execute(SARequest request, SARealCall call) throws IOException {
+        Route route = Route.of(request.url(), client.proxy(), client.sslSocketFactory());
+        RealConnection pooled = connectionPool.get(route);
+        if (pooled != null) {
+            call.exchangeStarted(pooled);
+            call.eventListener().connectionAcquired(call, System.nanoTime(), true);
+            Http1Codec codec = new Http1Codec(connectionPool, pooled, call);
+            try {
+                return codec.exchange(request);
+            } catch (IOException e) {
+                // 服务器可能已经关闭了这个空闲连接，在收到任何响应数据之前失败的话，换一个新连接重试一次
+                if (codec.responseStarted() || isOneShot(request)) throw e;
+            }
+        }
+        RealConnection connection = new RealConnection(route, client.dns(), client.tlsSessionCache());
+        call.exchangeStarted(connection);
+        connection.connect(client.connectTimeout(), client.readTimeout(), client.sslSocketFactory(), call);
+        call.eventListener().connectionAcquired(call, System.nanoTime(), false);
+        return new Http1Codec(connectionPool, connection, call).exchange(request);
+    }
+
+    private static boolean isOneShot(SARequest request) {
+        return request.body() != null && request.body().isOneShot();
+    }
+}
@@ -0,0 +1,374 @@
+package com.curious.network.base.internal.http2;
+
+import com.curious.network.base.SAHeader;
+import com.curious.network.base.internal.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK 头部压缩（RFC 7541）。静态表加上按插入顺序保存的动态表，编码时重复发送的头信息只需要一两个字节
+ */
+final class Hpack {
+    private static final int PREFIX_4_BITS = 0x0f;
+    private static final int PREFIX_5_BITS = 0x1f;
+    private static final int PREFIX_6_BITS = 0x3f;
+    private static final int PREFIX_7_BITS = 0x7f;
+
+    /** 动态表中每个条目额外占用的字节数 */
+    private static final int ENTRY_OVERHEAD = 32;
+
+    static final Entry[] STATIC_TABLE = {
+            new Entry(":authority", ""),
+            new Entry(":method", "GET"),
+            new Entry(":method", "POST"),
+            new Entry(":path", "/"),
+            new Entry(":path", "/index.html"),
+            new Entry(":scheme", "http"),
+            new Entry(":scheme", "https"),
+            new Entry(":status", "200"),
+            new Entry(":status", "204"),
+            new Entry(":status", "206"),
+            new Entry(":status", "304"),
+            new Entry(":status", "400"),
+            new Entry(":status", "404"),
+            new Entry(":status", "500"),
+            new Entry("accept-charset", ""),
+            new Entry("accept-encoding", "gzip, deflate"),
+            new Entry("accept-language", ""),
+            new Entry("accept-ranges", ""),
+            new Entry("accept", ""),
+            new Entry("access-control-allow-origin", ""),
+            new Entry("age", ""),
+            new Entry("allow", ""),
+            new Entry("authorization", ""),
+            new Entry("cache-control", ""),
+            new Entry("content-disposition", ""),
+            new Entry("content-encoding", ""),
+            new Entry("content-language", ""),
+            new Entry("content-length", ""),
+            new Entry("content-location", ""),
+            new Entry("content-range", ""),
+            new Entry("content-type", ""),
+            new Entry("cookie", ""),
+            new Entry("date", ""),
+            new Entry("etag", ""),
+            new Entry("expect", ""),
+            new Entry("expires", ""),
+            new Entry("from", ""),
+            new Entry("host", ""),
+            new Entry("if-match", ""),
+            new Entry("if-modified-since", ""),
+            new Entry("if-none-match", ""),
+            new Entry("if-range", ""),
+            new Entry("if-unmodified-since", ""),
+            new Entry("last-modified", ""),
+            new Entry("link", ""),
+            new Entry("location", ""),
+            new Entry("max-forwards", ""),
+            new Entry("proxy-authenticate", ""),
+            new Entry("proxy-authorization", ""),
+            new Entry("range", ""),
+            new Entry("referer", ""),
+            new Entry("refresh", ""),
+            new Entry("retry-after", ""),
+            new Entry("server", ""),
+            new Entry("set-cookie", ""),
+            new Entry("strict-transport-security", ""),
+            new Entry("transfer-encoding", ""),
+            new Entry("user-agent", ""),
+            new Entry("vary", ""),
+            new Entry("via", ""),
+            new Entry("www-authenticate", "")
+    };
+
+    /** 名字在静态表中第一次出现的位置，从 1 开始 */
+    private static final Map<String, Integer> STATIC_NAME_INDEX = new HashMap<>();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAME_INDEX.put(STATIC_TABLE[i].name, i + 1);
+        }
+    }
+
+    private Hpack() {
+    }
+
+    static final class Entry {
+        final String name;
+        final String value;
+        final int size;
+
+        Entry(String name, String value) {
+            this.name = name;
+            this.value = value;
+            this.size = name.length() + value.length() + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * 动态表，最新插入的条目在队尾，索引 1 对应最新的条目
+     */
+    private static final class DynamicTable {
+        final List<Entry> entries = new ArrayList<>();
+        int byteCount;
+        int maxSize = Http2.DEFAULT_HEADER_TABLE_SIZE;
+
+        int size() {
+            return entries.size();
+        }
+
+        Entry get(int index) {
+            return entries.get(entries.size() - index);
+        }
+
+        void add(Entry entry) {
+            if (entry.size > maxSize) {
+                // 比整个表还大的条目会清空动态表，自身也不会被保存
+                entries.clear();
+                byteCount = 0;
+                return;
+            }
+            evict(maxSize - entry.size);
+            entries.add(entry);
+            byteCount += entry.size;
+        }
+
+        void resize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(maxSize);
+        }
+
+        private void evict(int limit) {
+            while (byteCount > limit) {
+                byteCount -= entries.remove(0).size;
+            }
+        }
+    }
+
+    /**
+     * 解码一个完整的头部块，动态表在同一个连接的多个头部块之间共享，只在读线程中使用
+     */
+    static final class Reader {
+        private final DynamicTable dynamicTable = new DynamicTable();
+        private final int maxHeaderListSize;
+        private byte[] block;
+        private int pos;
+        private int limit;
+
+        /**
+         * @param maxHeaderListSize 解码后所有头信息的最大长度，超过时认为是协议错误
+         */
+        Reader(int maxHeaderListSize) {
+            this.maxHeaderListSize = maxHeaderListSize;
+        }
+
+        List<SAHeader> readHeaders(byte[] block, int offset, int length) throws ProtocolException {
+            this.block = block;
+            this.pos = offset;
+            this.limit = offset + length;
+            List<SAHeader> headers = new ArrayList<>();
+            int headerListSize = 0;
+            while (pos < limit) {
+                int b = readByte();
+                Entry entry;
+                if ((b & 0x80) != 0) {
+                    // 1xxxxxxx 索引
+                    entry = entry(readInt(b, PREFIX_7_BITS));
+                } else if ((b & 0x40) != 0) {
+                    // 01xxxxxx 字面值，加入动态表
+                    entry = readLiteral(b, PREFIX_6_BITS);
+                    dynamicTable.add(entry);
+                } else if ((b & 0x20) != 0) {
+                    // 001xxxxx 动态表大小更新
+                    int maxSize = readInt(b, PREFIX_5_BITS);
+                    if (maxSize > Http2.DEFAULT_HEADER_TABLE_SIZE) {
+                        throw new ProtocolException("Invalid dynamic table size update " + maxSize);
+                    }
+                    dynamicTable.resize(maxSize);
+                    continue;
+                } else {
+                    // 0000xxxx 不加入动态表，0001xxxx 永不索引
+                    entry = readLiteral(b, PREFIX_4_BITS);
+                }
+                headerListSize += entry.size;
+                if (headerListSize > maxHeaderListSize) {
+                    throw new ProtocolException("header list too large");
+                }
+                headers.add(new SAHeader(entry.name, entry.value, false));
+            }
+            this.block = null;
+            return headers;
+        }
+
+        private Entry entry(int index) throws ProtocolException {
+            if (index >= 1 && index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+            int dynamicIndex = index - STATIC_TABLE.length;
+            if (dynamicIndex >= 1 && dynamicIndex <= dynamicTable.size()) {
+                return dynamicTable.get(dynamicIndex);
+            }
+            throw new ProtocolException("Header index out of range: " + index);
+        }
+
+        private Entry readLiteral(int b, int prefixMask) throws ProtocolException {
+            int nameIndex = readInt(b, prefixMask);
+            String name = nameIndex == 0 ? readString() : entry(nameIndex).name;
+            return new Entry(name, readString());
+        }
+
+        private String readString() throws ProtocolException {
+            int b = readByte();
+            boolean huffman = (b & 0x80) != 0;
+            int length = readInt(b, PREFIX_7_BITS);
+            if (length > limit - pos) throw new ProtocolException("string length out of range");
+            String result = huffman
+                    ? new String(Huffman.decode(block, pos, length), Util.ISO_8859_1)
+                    : new String(block, pos, length, Util.ISO_8859_1);
+            pos += length;
+            return result;
+        }
+
+        private int readInt(int firstByte, int prefixMask) throws ProtocolException {
+            int prefix = firstByte & prefixMask;
+            if (prefix < prefixMask) return prefix;
+            int result = prefixMask;
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 21) throw new ProtocolException("integer overflow");
+                int b = readByte();
+                result += (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+        }
+
+        private int readByte() throws ProtocolException {
+            if (pos >= limit) throw new ProtocolException("truncated header block");
+            return block[pos++] & 0xff;
+        }
+    }
+
+    /**
+     * 编码头部块。调用方需要保证同一个连接上的头部块按发送顺序编码
+     */
+    static final class Writer {
+        private final DynamicTable dynamicTable = new DynamicTable();
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+        /** 对方要求的动态表大小变小后，需要在下一个头部块的开头通知对方 */
+        private int pendingTableSizeUpdate = -1;
+
+        /**
+         * 对方的 SETTINGS_HEADER_TABLE_SIZE，为了控制内存最多只使用默认的 4096 字节
+         */
+        void headerTableSizeSetting(int headerTableSize) {
+            int maxSize = Math.min(headerTableSize, Http2.DEFAULT_HEADER_TABLE_SIZE);
+            if (maxSize == dynamicTable.maxSize) return;
+            pendingTableSizeUpdate = pendingTableSizeUpdate == -1 ? maxSize : Math.min(pendingTableSizeUpdate, maxSize);
+            dynamicTable.resize(maxSize);
+        }
+
+        /**
+         * @param headers 名字已经是小写，伪头信息在最前面
+         */
+        byte[] writeHeaders(List<SAHeader> headers) {
+            out.reset();
+            if (pendingTableSizeUpdate != -1) {
+                if (pendingTableSizeUpdate < dynamicTable.maxSize) {
+                    writeInt(pendingTableSizeUpdate, PREFIX_5_BITS, 0x20);
+                }
+                writeInt(dynamicTable.maxSize, PREFIX_5_BITS, 0x20);
+                pendingTableSizeUpdate = -1;
+            }
+            for (SAHeader header : headers) {
+                writeHeader(header.getName(), header.getValue());
+            }
+            return out.toByteArray();
+        }
+
+        private void writeHeader(String name, String value) {
+            int nameIndex = -1;
+            Integer staticIndex = STATIC_NAME_INDEX.get(name);
+            if (staticIndex != null) {
+                nameIndex = staticIndex;
+                for (int i = staticIndex - 1; i < STATIC_TABLE.length && STATIC_TABLE[i].name.equals(name); i++) {
+                    if (STATIC_TABLE[i].value.equals(value)) {
+                        writeInt(i + 1, PREFIX_7_BITS, 0x80);
+                        return;
+                    }
+                }
+            }
+            for (int i = 1; i <= dynamicTable.size(); i++) {
+                Entry entry = dynamicTable.get(i);
+                if (entry.name.equals(name)) {
+                    if (entry.value.equals(value)) {
+                        writeInt(STATIC_TABLE.length + i, PREFIX_7_BITS, 0x80);
+                        return;
+                    }
+                    if (nameIndex == -1) nameIndex = STATIC_TABLE.length + i;
+                }
+            }
+
+            int prefixMask;
+            int bits;
+            if (isSensitive(name)) {
+                // 永不索引，避免凭证出现在中间代理的压缩上下文中
+                prefixMask = PREFIX_4_BITS;
+                bits = 0x10;
+            } else if (isVolatile(name)) {
+                prefixMask = PREFIX_4_BITS;
+                bits = 0x00;
+            } else {
+                prefixMask = PREFIX_6_BITS;
+                bits = 0x40;
+                dynamicTable.add(new Entry(name, value));
+            }
+            if (nameIndex == -1) {
+                writeInt(0, prefixMask, bits);
+                writeString(name);
+            } else {
+                writeInt(nameIndex, prefixMask, bits);
+            }
+            writeString(value);
+        }
+
+        private static boolean isSensitive(String name) {
+            return "authorization".equals(name) || "proxy-authorization".equals(name);
+        }
+
+        /** 每个请求都不同的值，加入动态表只会挤掉其他可以复用的条目 */
+        private static boolean isVolatile(String name) {
+            return ":path".equals(name) || "content-length".equals(name);
+        }
+
+        private void writeString(String value) {
+            byte[] data = value.getBytes(Util.ISO_8859_1);
+            int huffmanLength = Huffman.encodedLength(data);
+            if (huffmanLength < data.length) {
+                writeInt(huffmanLength, PREFIX_7_BITS, 0x80);
+                Huffman.encode(data, out);
+            } else {
+                writeInt(data.length, PREFIX_7_BITS, 0);
+                out.write(data, 0, data.length);
+            }
+        }
+
+        private void writeInt(int value, int prefixMask, int bits) {
+            if (value < prefixMask) {
+                out.write(bits | value);
+                return;
+            }
+            out.write(bits | prefixMask);
+            value -= prefixMask;
+            while (value >= 0x80) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.curious.network.base.internal.http2;
+
+import com.curious.network.base.internal.Util;
+
+/**
+ * HTTP/2（RFC 7540）的帧类型、标志位、设置项和错误码
+ */
+final class Http2 {
+    static final byte[] CONNECTION_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(Util.ISO_8859_1);
+
+    static final int FRAME_HEADER_LENGTH = 9;
+    static final int INITIAL_MAX_FRAME_SIZE = 0x4000;
+    static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+    static final int DEFAULT_HEADER_TABLE_SIZE = 4096;
+    static final int DEFAULT_WEIGHT = 16;
+
+    static final int TYPE_DATA = 0x0;
+    static final int TYPE_HEADERS = 0x1;
+    static final int TYPE_PRIORITY = 0x2;
+    static final int TYPE_RST_STREAM = 0x3;
+    static final int TYPE_SETTINGS = 0x4;
+    static final int TYPE_PUSH_PROMISE = 0x5;
+    static final int TYPE_PING = 0x6;
+    static final int TYPE_GOAWAY = 0x7;
+    static final int TYPE_WINDOW_UPDATE = 0x8;
+    static final int TYPE_CONTINUATION = 0x9;
+
+    static final int FLAG_NONE = 0x0;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+
+    private static final String[] ERROR_NAMES = {
+            "NO_ERROR", "PROTOCOL_ERROR", "INTERNAL_ERROR", "FLOW_CONTROL_ERROR", "SETTINGS_TIMEOUT",
+            "STREAM_CLOSED", "FRAME_SIZE_ERROR", "REFUSED_STREAM", "CANCEL", "COMPRESSION_ERROR",
+            "CONNECT_ERROR", "ENHANCE_YOUR_CALM", "INADEQUATE_SECURITY", "HTTP_1_1_REQUIRED"
+    };
+
+    private Http2() {
+    }
+
+    static String errorName(int errorCode) {
+        return errorCode >= 0 && errorCode < ERROR_NAMES.length
+                ? ERROR_NAMES[errorCode] : "0x" + Integer.toHexString(errorCode);
+    }
+}
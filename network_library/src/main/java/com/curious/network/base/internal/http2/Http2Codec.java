@@ -0,0 +1,206 @@
+package com.curious.network.base.internal.http2;
+
+import com.curious.network.base.SAEventListener;
+import com.curious.network.base.SAHeader;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SARequestBody;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SAResponseBody;
+import com.curious.network.base.internal.Util;
+import com.curious.network.base.internal.connection.Alpn;
+import com.curious.network.base.internal.http1.Http1Codec;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 在 {@link Http2Connection} 的一个新流上完成一次请求和响应，负责 HTTP 语义和 HTTP/2 头信息之间的转换
+ */
+final class Http2Codec {
+    private static final String USER_AGENT = System.getProperty("http.agent");
+
+    /** HTTP/2 中禁止出现的连接相关头信息（RFC 7540 8.1.2.2），Host 改为 :authority */
+    private static final List<String> CONNECTION_HEADERS = Arrays.asList(
+            "connection", "host", "keep-alive", "proxy-connection", "te", "transfer-encoding", "upgrade");
+
+    private final Http2Connection connection;
+    private final SARealCall call;
+    private final SAEventListener eventListener;
+    private boolean responseStarted;
+
+    Http2Codec(Http2Connection connection, SARealCall call) {
+        this.connection = connection;
+        this.call = call;
+        this.eventListener = call.eventListener();
+    }
+
+    /**
+     * 是否已经收到响应头。之前的失败如果是连接问题，可以换一个新连接重试
+     */
+    boolean responseStarted() {
+        return responseStarted;
+    }
+
+    SAResponse exchange(SARequest request) throws IOException {
+        SARequestBody requestBody = request.body();
+        boolean hasBody = requestBody != null && SARequest.HttpMethod.permitsRequestBody(request.method());
+        long contentLength = hasBody ? requestBody.contentLength() : -1;
+
+        long sentRequestAtMillis = System.currentTimeMillis();
+        eventListener.requestHeadersStart(call, System.nanoTime());
+        Http2Stream stream = connection.newStream(requestHeaders(request, hasBody, contentLength), !hasBody,
+                request.priority());
+        try {
+            call.exchangeStarted(stream);
+        } catch (IOException e) {
+            stream.close(Http2.CANCEL);
+            throw e;
+        }
+        eventListener.requestHeadersEnd(call, System.nanoTime(), request, stream.requestHeaderByteCount);
+        if (hasBody) {
+            eventListener.requestBodyStart(call, System.nanoTime());
+            OutputStream sink = stream.sink();
+            try {
+                requestBody.writeTo(sink);
+                sink.close();
+            } catch (IOException e) {
+                stream.close(Http2.CANCEL);
+                throw e;
+            }
+            eventListener.requestBodyEnd(call, System.nanoTime(), stream.sinkByteCount());
+        }
+
+        eventListener.responseHeadersStart(call, System.nanoTime());
+        List<SAHeader> headers = new ArrayList<>();
+        int code = -1;
+        for (SAHeader header : stream.takeHeaders()) {
+            if (":status".equals(header.getName())) {
+                try {
+                    code = Integer.parseInt(header.getValue());
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Unexpected :status " + header.getValue());
+                }
+            } else if (!header.getName().startsWith(":")) {
+                headers.add(new SAHeader(header.getName(), header.getValue(), true));
+            }
+        }
+        responseStarted = true;
+        if (code == -1) {
+            stream.close(Http2.PROTOCOL_ERROR);
+            throw new ProtocolException("Expected ':status' header not present");
+        }
+
+        SAResponse.Builder responseBuilder = new SAResponse.Builder()
+                .code(code)
+                .message("")
+                .headers(headers)
+                .request(request)
+                .protocol(Alpn.H2)
+                .sentRequestAtMillis(sentRequestAtMillis)
+                .receivedResponseAtMillis(System.currentTimeMillis());
+        eventListener.responseHeadersEnd(call, System.nanoTime(), responseBuilder.build());
+
+        long responseLength = Http1Codec.hasBody(code)
+                ? Util.parseLong(Util.headerValue(headers, "content-length"), -1) : 0;
+        InputStream body = new BodySource(stream, stream.source());
+        return responseBuilder
+                .body(SAResponseBody.create(Util.headerValue(headers, "content-type"), responseLength, body))
+                .build();
+    }
+
+    /**
+     * 伪头信息在前，名字转为小写，去掉连接相关的头信息
+     */
+    static List<SAHeader> requestHeaders(SARequest request, boolean hasBody, long contentLength) {
+        List<SAHeader> result = new ArrayList<>(request.headers().size() + 6);
+        String file = request.url().url().getFile();
+        String authority = request.header("Host");
+        result.add(new SAHeader(":method", request.method().toString(), true));
+        result.add(new SAHeader(":path", file.isEmpty() ? "/" : file, true));
+        result.add(new SAHeader(":scheme", request.url().scheme(), true));
+        result.add(new SAHeader(":authority", authority != null ? authority : Http1Codec.hostHeader(request), true));
+        boolean hasUserAgent = false;
+        for (SAHeader header : request.headers()) {
+            String name = header.getName().toLowerCase(Locale.US);
+            if (CONNECTION_HEADERS.contains(name) && !("te".equals(name) && "trailers".equals(header.getValue()))) {
+                continue;
+            }
+            if (hasBody && ("content-type".equals(name) || "content-length".equals(name))) continue;
+            if ("user-agent".equals(name)) hasUserAgent = true;
+            result.add(new SAHeader(name, header.getValue(), true));
+        }
+        if (USER_AGENT != null && !hasUserAgent) {
+            result.add(new SAHeader("user-agent", USER_AGENT, true));
+        }
+        if (hasBody) {
+            result.add(new SAHeader("content-type", request.body().contentType(), true));
+            if (contentLength >= 0) {
+                result.add(new SAHeader("content-length", String.valueOf(contentLength), true));
+            }
+        }
+        return result;
+    }
+
+    /** 统计响应体的字节数，读完或关闭时回调 responseBodyEnd */
+    private final class BodySource extends FilterInputStream {
+        private final Http2Stream stream;
+        private long byteCount;
+        private boolean done;
+
+        BodySource(Http2Stream stream, InputStream in) {
+            super(in);
+            this.stream = stream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count == -1) {
+                done();
+            } else {
+                byteCount += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 2048)];
+            long skipped = 0;
+            while (skipped < n) {
+                int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (count == -1) break;
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            done();
+        }
+
+        private void done() {
+            if (done) return;
+            done = true;
+            call.exchangeFinished(stream);
+            eventListener.responseBodyEnd(call, System.nanoTime(), byteCount);
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.curious.network.base.internal.http2;
+
+import android.util.Log;
+
+import com.curious.network.base.SAHeader;
+import com.curious.network.base.internal.connection.RealConnection;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一条 HTTP/2 连接，同时承载多个 {@link Http2Stream}。一个守护线程负责读取所有帧并分发给各个流，
+ * 写入由发起请求的线程通过 {@link Http2Writer} 完成。
+ * <p>
+ * 空闲超过 keepAliveDuration 后由读线程发送 GOAWAY 并关闭连接。
+ * 锁的顺序是 {@link Http2Writer}、this、{@link Http2Stream}，流在持有自己的锁时不能调用连接的方法
+ */
+final class Http2Connection implements Http2Reader.Handler, Runnable {
+    private static final String TAG = "SA.Http2Connection";
+
+    /** 每个流的接收窗口，也是单个流在内存中缓冲的上限 */
+    static final int STREAM_WINDOW_SIZE = 256 * 1024;
+
+    /** 整个连接的接收窗口 */
+    static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private final RealConnection connection;
+    private final Http2Writer writer;
+    private final Http2Reader reader;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int writeTimeout;
+    private final long keepAliveDurationNs;
+
+    // 以下字段由 this 保护
+    private final Map<Integer, Http2Stream> streams = new HashMap<>();
+    private int nextStreamId = 1;
+    /** 已经拿到并发名额、还没有分配 id 的流 */
+    private int reservedStreams;
+    /** 不再创建新的流，可能是收到了 GOAWAY、流 id 用完或者连接已经关闭 */
+    private boolean shutdown;
+    private boolean closed;
+    private int peerMaxConcurrentStreams = Integer.MAX_VALUE;
+    private int peerInitialWindowSize = Http2.DEFAULT_INITIAL_WINDOW_SIZE;
+    /** 连接级别的发送窗口 */
+    private long bytesLeftInWriteWindow = Http2.DEFAULT_INITIAL_WINDOW_SIZE;
+    /** 连接级别已经被读走、还没有通过 WINDOW_UPDATE 归还的字节数 */
+    private long unacknowledgedBytesRead;
+    private long idleAtNanos = System.nanoTime();
+
+    /**
+     * @param connection 已经完成握手的连接，https 通过 ALPN 协商了 h2
+     */
+    Http2Connection(RealConnection connection, int connectTimeout, int readTimeout, int writeTimeout,
+                    long keepAliveDurationNs) {
+        this.connection = connection;
+        this.writer = new Http2Writer(connection.sink());
+        this.reader = new Http2Reader(connection.source());
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.writeTimeout = writeTimeout;
+        this.keepAliveDurationNs = keepAliveDurationNs;
+    }
+
+    /**
+     * 发送连接前言和设置，启动读线程
+     */
+    void start() throws IOException {
+        // 读线程只会在空闲时超时，各个流的读取超时由流自己计算
+        connection.socket().setSoTimeout((int) Math.min(Integer.MAX_VALUE,
+                TimeUnit.NANOSECONDS.toMillis(keepAliveDurationNs)));
+        writer.connectionPreface(new int[]{
+                Http2.SETTINGS_ENABLE_PUSH, 0,
+                Http2.SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE,
+                Http2.SETTINGS_MAX_HEADER_LIST_SIZE, Http2Reader.MAX_HEADER_LIST_SIZE
+        });
+        writer.windowUpdate(0, CONNECTION_WINDOW_SIZE - Http2.DEFAULT_INITIAL_WINDOW_SIZE);
+        Thread thread = new Thread(this, "SAHttp Http2Reader " + connection.route().host());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    RealConnection realConnection() {
+        return connection;
+    }
+
+    /**
+     * 是否可以创建新的流，空闲太久的连接可能已经被服务器或中间设备断开
+     */
+    synchronized boolean isHealthy(long nowNanos) {
+        if (shutdown) return false;
+        if (streams.isEmpty() && reservedStreams == 0 && nowNanos - idleAtNanos >= keepAliveDurationNs) {
+            return false;
+        }
+        return !connection.socket().isClosed();
+    }
+
+    synchronized int openStreamCount() {
+        return streams.size();
+    }
+
+    int maxDataLength() {
+        return writer.maxDataLength();
+    }
+
+    /**
+     * 创建新的流并发送请求头。达到对方的 SETTINGS_MAX_CONCURRENT_STREAMS 时等待其他流结束
+     *
+     * @param endStream 没有请求体时请求头就是流的结尾
+     * @param weight 流的权重，1~256
+     * @throws StreamResetException 连接已经不能创建新的流，可以在新连接上重试
+     */
+    Http2Stream newStream(List<SAHeader> headers, boolean endStream, int weight) throws IOException {
+        long deadline = deadline(connectTimeout);
+        synchronized (this) {
+            while (!shutdown && streams.size() + reservedStreams >= peerMaxConcurrentStreams) {
+                if (!await(deadline)) throw new SocketTimeoutException("timeout waiting for a free stream");
+            }
+            if (shutdown) throw new StreamResetException(Http2.REFUSED_STREAM);
+            reservedStreams++;
+        }
+        Http2Stream stream;
+        // 流 id 必须按递增的顺序出现在连接上，分配 id 和发送 HEADERS 放在同一个锁内
+        synchronized (writer) {
+            synchronized (this) {
+                reservedStreams--;
+                if (shutdown) throw new StreamResetException(Http2.REFUSED_STREAM);
+                stream = new Http2Stream(nextStreamId, this, endStream, readTimeout);
+                stream.bytesLeftInWriteWindow = peerInitialWindowSize;
+                streams.put(stream.id, stream);
+                nextStreamId += 2;
+                if (nextStreamId < 0) {
+                    // 流 id 用完，这条连接不再创建新的流
+                    shutdown = true;
+                }
+            }
+            try {
+                stream.requestHeaderByteCount = writer.headers(stream.id, endStream, weight, headers);
+            } catch (IOException e) {
+                close(Http2.PROTOCOL_ERROR, e);
+                throw e;
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * 按连接和流的发送窗口分帧写入请求体，窗口用完时等待对方的 WINDOW_UPDATE
+     */
+    void writeData(Http2Stream stream, boolean endStream, byte[] data, int offset, int length) throws IOException {
+        int maxFrameSize = writer.maxDataLength();
+        long deadline = deadline(writeTimeout);
+        boolean flushed = true;
+        do {
+            int toWrite = 0;
+            boolean timedOut = false;
+            synchronized (this) {
+                stream.checkOutNotClosed();
+                while (flushed && length > 0 && (bytesLeftInWriteWindow <= 0 || stream.bytesLeftInWriteWindow <= 0)) {
+                    if (!await(deadline)) {
+                        timedOut = true;
+                        break;
+                    }
+                    stream.checkOutNotClosed();
+                }
+                if (bytesLeftInWriteWindow > 0 && stream.bytesLeftInWriteWindow > 0) {
+                    toWrite = (int) Math.min(Math.min(length, maxFrameSize),
+                            Math.min(bytesLeftInWriteWindow, stream.bytesLeftInWriteWindow));
+                    bytesLeftInWriteWindow -= toWrite;
+                    stream.bytesLeftInWriteWindow -= toWrite;
+                }
+            }
+            if (timedOut) {
+                stream.close(Http2.CANCEL);
+                throw new SocketTimeoutException("timeout");
+            }
+            if (toWrite == 0 && length > 0) {
+                // 窗口用完，先把已经写入缓冲区的帧发出去，对方收到后才会归还窗口
+                writer.flush();
+                flushed = true;
+                continue;
+            }
+            length -= toWrite;
+            writer.data(stream.id, endStream && length == 0, data, offset, toWrite);
+            offset += toWrite;
+            flushed = false;
+        } while (length > 0);
+        writer.flush();
+    }
+
+    /**
+     * 调用方读走了数据（或者数据被丢弃），累计达到接收窗口的一半后归还给对方
+     */
+    void dataConsumed(long byteCount) {
+        if (byteCount <= 0) return;
+        long windowUpdate;
+        synchronized (this) {
+            unacknowledgedBytesRead += byteCount;
+            if (unacknowledgedBytesRead < CONNECTION_WINDOW_SIZE / 2) return;
+            windowUpdate = unacknowledgedBytesRead;
+            unacknowledgedBytesRead = 0;
+        }
+        writeWindowUpdateQuietly(0, windowUpdate);
+    }
+
+    void writeWindowUpdateQuietly(int streamId, long increment) {
+        try {
+            writer.windowUpdate(streamId, increment);
+        } catch (IOException ignored) {
+            // 连接已经断开，读线程会让所有流失败
+        }
+    }
+
+    void writeRstStreamQuietly(int streamId, int errorCode) {
+        try {
+            writer.rstStream(streamId, errorCode);
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 流已经结束或被重置，释放并发名额
+     */
+    void removeStream(Http2Stream stream) {
+        synchronized (this) {
+            if (streams.get(stream.id) != stream) return;
+            streams.remove(stream.id);
+            if (streams.isEmpty()) {
+                idleAtNanos = System.nanoTime();
+            }
+            notifyAll();
+        }
+    }
+
+    private synchronized Http2Stream stream(int streamId) {
+        return streams.get(streamId);
+    }
+
+    @Override
+    public void run() {
+        int errorCode = Http2.NO_ERROR;
+        IOException failure = null;
+        try {
+            while (reader.nextFrame(this)) {
+            }
+        } catch (ProtocolException e) {
+            errorCode = Http2.PROTOCOL_ERROR;
+            failure = e;
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            close(errorCode, failure);
+        }
+    }
+
+    /**
+     * 关闭连接，还没有结束的流都会失败
+     */
+    void close(int errorCode, IOException cause) {
+        List<Http2Stream> activeStreams;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            shutdown = true;
+            activeStreams = new ArrayList<>(streams.values());
+            streams.clear();
+            // 在锁内让流失败，等待发送窗口的线程被唤醒后能立即看到
+            IOException streamFailure = cause != null ? cause : new EOFException("connection closed");
+            for (Http2Stream stream : activeStreams) {
+                stream.receiveFailure(streamFailure);
+            }
+            notifyAll();
+        }
+        if (cause != null && !activeStreams.isEmpty()) {
+            Log.w(TAG, "Connection " + connection + " failed with " + activeStreams.size() + " active streams", cause);
+        }
+        try {
+            writer.goAway(0, errorCode);
+        } catch (IOException ignored) {
+        }
+        writer.close();
+        connection.close();
+    }
+
+    @Override
+    public void data(int streamId, boolean endStream, byte[] data, int offset, int length, int frameLength) {
+        Http2Stream stream = stream(streamId);
+        if (stream == null) {
+            // 已经结束或重置的流，数据直接丢弃，但仍然占用了连接的接收窗口
+            dataConsumed(frameLength);
+            return;
+        }
+        // 填充的部分直接归还
+        dataConsumed(frameLength - length);
+        stream.receiveData(data, offset, length, endStream);
+    }
+
+    @Override
+    public void headers(int streamId, boolean endStream, List<SAHeader> headers) throws IOException {
+        Http2Stream stream = stream(streamId);
+        if (stream == null) {
+            synchronized (this) {
+                if (streamId % 2 == 1 && streamId < nextStreamId) return; // 已经被本地重置的流
+            }
+            throw new ProtocolException("HEADERS for unknown stream " + streamId);
+        }
+        stream.receiveHeaders(headers, endStream);
+    }
+
+    @Override
+    public synchronized void rstStream(int streamId, int errorCode) {
+        Http2Stream stream = streams.remove(streamId);
+        if (stream == null) return;
+        stream.receiveRstStream(errorCode);
+        if (streams.isEmpty()) {
+            idleAtNanos = System.nanoTime();
+        }
+        notifyAll();
+    }
+
+    @Override
+    public void settings(int[] settings) throws IOException {
+        synchronized (this) {
+            for (int i = 0; i < settings.length; i += 2) {
+                int value = settings[i + 1];
+                if (settings[i] == Http2.SETTINGS_MAX_CONCURRENT_STREAMS) {
+                    peerMaxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                } else if (settings[i] == Http2.SETTINGS_INITIAL_WINDOW_SIZE) {
+                    long delta = value - peerInitialWindowSize;
+                    peerInitialWindowSize = value;
+                    for (Http2Stream stream : streams.values()) {
+                        stream.bytesLeftInWriteWindow += delta;
+                    }
+                }
+            }
+            notifyAll();
+        }
+        writer.applyAndAckSettings(settings);
+    }
+
+    @Override
+    public void settingsAck() {
+    }
+
+    @Override
+    public void ping(boolean ack, long payload) throws IOException {
+        if (!ack) {
+            writer.ping(true, payload);
+        }
+    }
+
+    /**
+     * 服务器不会处理 id 大于 lastStreamId 的流，这些流以 REFUSED_STREAM 失败，可以在新连接上重试
+     */
+    @Override
+    public synchronized void goAway(int lastStreamId, int errorCode) {
+        shutdown = true;
+        for (Iterator<Http2Stream> i = streams.values().iterator(); i.hasNext(); ) {
+            Http2Stream stream = i.next();
+            if (stream.id > lastStreamId) {
+                i.remove();
+                stream.receiveRstStream(Http2.REFUSED_STREAM);
+            }
+        }
+        if (streams.isEmpty()) {
+            idleAtNanos = System.nanoTime();
+        }
+        notifyAll();
+    }
+
+    @Override
+    public void windowUpdate(int streamId, long increment) {
+        synchronized (this) {
+            if (streamId == 0) {
+                bytesLeftInWriteWindow += increment;
+            } else {
+                Http2Stream stream = streams.get(streamId);
+                if (stream == null) return;
+                stream.bytesLeftInWriteWindow += increment;
+            }
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void idle() {
+        synchronized (this) {
+            if (!streams.isEmpty() || reservedStreams > 0) return;
+            if (System.nanoTime() - idleAtNanos < keepAliveDurationNs) return;
+            shutdown = true;
+        }
+        close(Http2.NO_ERROR, null);
+    }
+
+    private static long deadline(int timeoutMillis) {
+        return timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+    }
+
+    private boolean await(long deadline) throws InterruptedIOException {
+        try {
+            if (deadline == 0) {
+                wait();
+                return true;
+            }
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Http2Connection{" + connection.route() + '}';
+    }
+}
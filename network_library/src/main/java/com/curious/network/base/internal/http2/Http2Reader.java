@@ -0,0 +1,223 @@
+package com.curious.network.base.internal.http2;
+
+import com.curious.network.base.SAHeader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+
+/**
+ * 从连接中读取 HTTP/2 帧，HEADERS 和 CONTINUATION 合并后交给 HPACK 解码，只在连接的读线程中使用
+ */
+final class Http2Reader {
+    /** 解码后的响应头最大长度，和 HTTP/1.1 的限制一致 */
+    static final int MAX_HEADER_LIST_SIZE = 256 * 1024;
+
+    private final InputStream source;
+    private final Hpack.Reader hpackReader = new Hpack.Reader(MAX_HEADER_LIST_SIZE);
+    private final byte[] frameHeader = new byte[Http2.FRAME_HEADER_LENGTH];
+    private final byte[] payload = new byte[Http2.INITIAL_MAX_FRAME_SIZE];
+
+    interface Handler {
+        void data(int streamId, boolean endStream, byte[] data, int offset, int length, int frameLength)
+                throws IOException;
+
+        void headers(int streamId, boolean endStream, List<SAHeader> headers) throws IOException;
+
+        void rstStream(int streamId, int errorCode);
+
+        void settings(int[] settings) throws IOException;
+
+        void settingsAck();
+
+        void ping(boolean ack, long payload) throws IOException;
+
+        void goAway(int lastStreamId, int errorCode);
+
+        void windowUpdate(int streamId, long increment) throws IOException;
+
+        /** 在帧的边界上等待数据超时，连接仍然可用 */
+        void idle() throws IOException;
+    }
+
+    Http2Reader(InputStream source) {
+        this.source = source;
+    }
+
+    /**
+     * 读取并处理下一帧
+     *
+     * @return 对方正常关闭连接时返回 false
+     */
+    boolean nextFrame(Handler handler) throws IOException {
+        int first;
+        try {
+            first = source.read();
+        } catch (SocketTimeoutException e) {
+            handler.idle();
+            return true;
+        }
+        if (first == -1) return false;
+        frameHeader[0] = (byte) first;
+        readFully(frameHeader, 1, Http2.FRAME_HEADER_LENGTH - 1);
+        int length = ((frameHeader[0] & 0xff) << 16) | ((frameHeader[1] & 0xff) << 8) | (frameHeader[2] & 0xff);
+        int type = frameHeader[3] & 0xff;
+        int flags = frameHeader[4] & 0xff;
+        int streamId = readInt(frameHeader, 5) & 0x7fffffff;
+        if (length > Http2.INITIAL_MAX_FRAME_SIZE) {
+            throw new ProtocolException("FRAME_SIZE_ERROR: " + length);
+        }
+        readFully(payload, 0, length);
+
+        switch (type) {
+            case Http2.TYPE_DATA:
+                readData(handler, length, flags, streamId);
+                break;
+            case Http2.TYPE_HEADERS:
+                readHeaders(handler, length, flags, streamId);
+                break;
+            case Http2.TYPE_PRIORITY:
+                if (length != 5) throw new ProtocolException("TYPE_PRIORITY length: " + length + " != 5");
+                break;
+            case Http2.TYPE_RST_STREAM:
+                if (length != 4) throw new ProtocolException("TYPE_RST_STREAM length: " + length + " != 4");
+                if (streamId == 0) throw new ProtocolException("TYPE_RST_STREAM streamId == 0");
+                handler.rstStream(streamId, readInt(payload, 0));
+                break;
+            case Http2.TYPE_SETTINGS:
+                readSettings(handler, length, flags, streamId);
+                break;
+            case Http2.TYPE_PUSH_PROMISE:
+                // 连接建立时已经通过 SETTINGS_ENABLE_PUSH 禁用了服务器推送
+                throw new ProtocolException("PUSH_PROMISE while push is disabled");
+            case Http2.TYPE_PING:
+                if (length != 8) throw new ProtocolException("TYPE_PING length != 8: " + length);
+                if (streamId != 0) throw new ProtocolException("TYPE_PING streamId != 0");
+                handler.ping((flags & Http2.FLAG_ACK) != 0,
+                        ((long) readInt(payload, 0) << 32) | (readInt(payload, 4) & 0xffffffffL));
+                break;
+            case Http2.TYPE_GOAWAY:
+                if (length < 8) throw new ProtocolException("TYPE_GOAWAY length < 8: " + length);
+                if (streamId != 0) throw new ProtocolException("TYPE_GOAWAY streamId != 0");
+                handler.goAway(readInt(payload, 0) & 0x7fffffff, readInt(payload, 4));
+                break;
+            case Http2.TYPE_WINDOW_UPDATE:
+                if (length != 4) throw new ProtocolException("TYPE_WINDOW_UPDATE length != 4: " + length);
+                long increment = readInt(payload, 0) & 0x7fffffffL;
+                if (increment == 0) throw new ProtocolException("windowSizeIncrement was 0");
+                handler.windowUpdate(streamId, increment);
+                break;
+            case Http2.TYPE_CONTINUATION:
+                throw new ProtocolException("CONTINUATION without HEADERS");
+            default:
+                // 忽略未知类型的帧
+                break;
+        }
+        return true;
+    }
+
+    private void readData(Handler handler, int length, int flags, int streamId) throws IOException {
+        if (streamId == 0) throw new ProtocolException("TYPE_DATA streamId == 0");
+        int padding = (flags & Http2.FLAG_PADDED) != 0 ? payload[0] & 0xff : 0;
+        int offset = (flags & Http2.FLAG_PADDED) != 0 ? 1 : 0;
+        int dataLength = length - offset - padding;
+        if (dataLength < 0) throw new ProtocolException("PROTOCOL_ERROR padding " + padding + " > remaining length");
+        handler.data(streamId, (flags & Http2.FLAG_END_STREAM) != 0, payload, offset, dataLength, length);
+    }
+
+    private void readHeaders(Handler handler, int length, int flags, int streamId) throws IOException {
+        if (streamId == 0) throw new ProtocolException("PROTOCOL_ERROR: TYPE_HEADERS streamId == 0");
+        boolean endStream = (flags & Http2.FLAG_END_STREAM) != 0;
+        int offset = 0;
+        int padding = 0;
+        if ((flags & Http2.FLAG_PADDED) != 0) {
+            padding = payload[0] & 0xff;
+            offset = 1;
+        }
+        if ((flags & Http2.FLAG_PRIORITY) != 0) {
+            offset += 5; // 服务器发来的优先级没有意义
+        }
+        int fragmentLength = length - offset - padding;
+        if (fragmentLength < 0) throw new ProtocolException("PROTOCOL_ERROR padding " + padding + " > remaining length");
+
+        byte[] block = new byte[fragmentLength];
+        System.arraycopy(payload, offset, block, 0, fragmentLength);
+        int blockLength = fragmentLength;
+        while ((flags & Http2.FLAG_END_HEADERS) == 0) {
+            readFully(frameHeader, 0, Http2.FRAME_HEADER_LENGTH);
+            int continuationLength = ((frameHeader[0] & 0xff) << 16)
+                    | ((frameHeader[1] & 0xff) << 8) | (frameHeader[2] & 0xff);
+            int type = frameHeader[3] & 0xff;
+            flags = frameHeader[4] & 0xff;
+            if (type != Http2.TYPE_CONTINUATION) throw new ProtocolException(type + " != TYPE_CONTINUATION");
+            if ((readInt(frameHeader, 5) & 0x7fffffff) != streamId) {
+                throw new ProtocolException("TYPE_CONTINUATION streamId changed");
+            }
+            if (continuationLength > Http2.INITIAL_MAX_FRAME_SIZE
+                    || blockLength + continuationLength > MAX_HEADER_LIST_SIZE) {
+                throw new ProtocolException("header block too large");
+            }
+            if (blockLength + continuationLength > block.length) {
+                byte[] larger = new byte[Math.max(block.length * 2, blockLength + continuationLength)];
+                System.arraycopy(block, 0, larger, 0, blockLength);
+                block = larger;
+            }
+            readFully(block, blockLength, continuationLength);
+            blockLength += continuationLength;
+        }
+        handler.headers(streamId, endStream, hpackReader.readHeaders(block, 0, blockLength));
+    }
+
+    private void readSettings(Handler handler, int length, int flags, int streamId) throws IOException {
+        if (streamId != 0) throw new ProtocolException("TYPE_SETTINGS streamId != 0");
+        if ((flags & Http2.FLAG_ACK) != 0) {
+            if (length != 0) throw new ProtocolException("FRAME_SIZE_ERROR ack frame should be empty!");
+            handler.settingsAck();
+            return;
+        }
+        if (length % 6 != 0) throw new ProtocolException("TYPE_SETTINGS length % 6 != 0: " + length);
+        // 偶数位是 id，奇数位是值
+        int[] settings = new int[length / 6 * 2];
+        for (int i = 0; i < length; i += 6) {
+            int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+            int value = readInt(payload, i + 2);
+            switch (id) {
+                case Http2.SETTINGS_ENABLE_PUSH:
+                    if (value != 0 && value != 1) throw new ProtocolException("PROTOCOL_ERROR SETTINGS_ENABLE_PUSH != 0 or 1");
+                    break;
+                case Http2.SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) throw new ProtocolException("PROTOCOL_ERROR SETTINGS_INITIAL_WINDOW_SIZE > 2^31 - 1");
+                    break;
+                case Http2.SETTINGS_MAX_FRAME_SIZE:
+                    if (value < Http2.INITIAL_MAX_FRAME_SIZE || value > 16777215) {
+                        throw new ProtocolException("PROTOCOL_ERROR SETTINGS_MAX_FRAME_SIZE: " + value);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            settings[i / 3] = id;
+            settings[i / 3 + 1] = value;
+        }
+        handler.settings(settings);
+    }
+
+    private void readFully(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int count = source.read(buffer, offset, length);
+            if (count == -1) throw new EOFException("unexpected end of stream");
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24)
+                | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8)
+                | (buffer[offset + 3] & 0xff);
+    }
+}
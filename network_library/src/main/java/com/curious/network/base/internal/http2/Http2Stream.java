@@ -0,0 +1,373 @@
+package com.curious.network.base.internal.http2;
+
+import com.curious.network.base.SAHeader;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.internal.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接上的一个流，对应一次请求和响应。响应头和响应体由连接的读线程写入，调用方线程读取；
+ * 请求体由调用方线程按流量控制窗口分成 DATA 帧发送
+ */
+final class Http2Stream implements SARealCall.Cancelable {
+    final int id;
+    private final Http2Connection connection;
+    private final int readTimeout;
+
+    /** 对方允许发送的字节数，由 {@link Http2Connection} 的锁保护 */
+    long bytesLeftInWriteWindow;
+
+    /** 编码后的请求头字节数 */
+    int requestHeaderByteCount;
+
+    private final FramingSource source = new FramingSource();
+    private final FramingSink sink = new FramingSink();
+
+    // 以下字段由 this 保护
+    private List<SAHeader> responseHeaders;
+    /** 对方发送了 END_STREAM */
+    private boolean remoteFinished;
+    /** 本地发送了 END_STREAM */
+    private boolean localFinished;
+    /** 被重置时的错误码，-1 表示没有被重置 */
+    private int errorCode = -1;
+    /** 连接失败的原因 */
+    private IOException failure;
+
+    Http2Stream(int id, Http2Connection connection, boolean localFinished, int readTimeout) {
+        this.id = id;
+        this.connection = connection;
+        this.localFinished = localFinished;
+        this.readTimeout = readTimeout;
+    }
+
+    InputStream source() {
+        return source;
+    }
+
+    OutputStream sink() {
+        return sink;
+    }
+
+    long sinkByteCount() {
+        return sink.byteCount;
+    }
+
+    /**
+     * 等待响应头，跳过 1xx 的中间响应
+     */
+    List<SAHeader> takeHeaders() throws IOException {
+        long deadline = deadline();
+        synchronized (this) {
+            while (responseHeaders == null) {
+                checkNotReset();
+                if (!await(deadline)) break;
+            }
+            if (responseHeaders != null) return responseHeaders;
+        }
+        close(Http2.CANCEL);
+        throw new SocketTimeoutException("timeout");
+    }
+
+    /** 调用超时，重置这个流，不影响连接上的其他流 */
+    @Override
+    public void cancel() {
+        close(Http2.CANCEL);
+    }
+
+    /**
+     * 本地重置这个流，缓冲中未读的数据归还给连接的接收窗口
+     */
+    void close(int errorCode) {
+        long discarded;
+        synchronized (this) {
+            if (this.errorCode != -1 || failure != null || (remoteFinished && localFinished)) return;
+            this.errorCode = errorCode;
+            discarded = source.clear();
+            notifyAll();
+        }
+        connection.writeRstStreamQuietly(id, errorCode);
+        connection.dataConsumed(discarded);
+        connection.removeStream(this);
+    }
+
+    void receiveHeaders(List<SAHeader> headers, boolean endStream) {
+        synchronized (this) {
+            if (responseHeaders == null) {
+                String status = Util.headerValue(headers, ":status");
+                if (status != null && status.startsWith("1") && !endStream) return;
+                responseHeaders = headers;
+            }
+            // 之后的 HEADERS 是 trailers，不需要处理
+            if (endStream) remoteFinished = true;
+            notifyAll();
+        }
+        if (endStream) removeIfFinished();
+    }
+
+    /**
+     * 读线程收到 DATA 帧
+     *
+     * @param length 不包括填充的数据长度
+     */
+    void receiveData(byte[] data, int offset, int length, boolean endStream) {
+        long discarded = 0;
+        boolean flowControlError = false;
+        synchronized (this) {
+            if (source.closed || errorCode != -1) {
+                discarded = length;
+            } else if (source.unacknowledgedBytes + length > Http2Connection.STREAM_WINDOW_SIZE) {
+                flowControlError = true;
+            } else if (length > 0) {
+                byte[] chunk = new byte[length];
+                System.arraycopy(data, offset, chunk, 0, length);
+                source.chunks.add(chunk);
+                source.unacknowledgedBytes += length;
+            }
+            if (endStream) remoteFinished = true;
+            notifyAll();
+        }
+        if (flowControlError) {
+            close(Http2.FLOW_CONTROL_ERROR);
+            connection.dataConsumed(length);
+            return;
+        }
+        connection.dataConsumed(discarded);
+        if (endStream) removeIfFinished();
+    }
+
+    synchronized void receiveRstStream(int errorCode) {
+        if (this.errorCode != -1) return;
+        this.errorCode = errorCode;
+        notifyAll();
+    }
+
+    synchronized void receiveFailure(IOException e) {
+        if (failure != null || errorCode != -1) return;
+        failure = e;
+        notifyAll();
+    }
+
+    /**
+     * 发送请求体之前检查流是否还可以写入，在 {@link Http2Connection} 的锁内调用
+     */
+    synchronized void checkOutNotClosed() throws IOException {
+        if (localFinished) throw new IOException("stream finished");
+        checkNotReset();
+    }
+
+    private void checkNotReset() throws IOException {
+        if (errorCode != -1) throw new StreamResetException(errorCode);
+        if (failure != null) throw failure;
+    }
+
+    private void removeIfFinished() {
+        synchronized (this) {
+            if (!remoteFinished || !localFinished) return;
+        }
+        connection.removeStream(this);
+    }
+
+    private long deadline() {
+        return readTimeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readTimeout) : 0;
+    }
+
+    /**
+     * 在 this 上等待，最多到 deadline
+     *
+     * @return 已经超时返回 false
+     */
+    private boolean await(long deadline) throws InterruptedIOException {
+        try {
+            if (deadline == 0) {
+                wait();
+                return true;
+            }
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * 响应体，读走的数据达到接收窗口的一半后发送 WINDOW_UPDATE
+     */
+    private final class FramingSource extends InputStream {
+        // 以下字段由 Http2Stream.this 保护
+        final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        int headOffset;
+        /** 已经收到但还没有通过 WINDOW_UPDATE 归还给对方的字节数 */
+        long unacknowledgedBytes;
+        /** 已经被读走但还没有归还的字节数 */
+        long readBytes;
+        boolean closed;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            long deadline = deadline();
+            int count;
+            long windowUpdate = 0;
+            synchronized (Http2Stream.this) {
+                while (chunks.isEmpty()) {
+                    if (closed) throw new IOException("stream closed");
+                    if (remoteFinished) return -1;
+                    checkNotReset();
+                    if (!await(deadline)) break;
+                }
+                if (chunks.isEmpty()) {
+                    count = -1;
+                } else {
+                    byte[] head = chunks.peekFirst();
+                    count = Math.min(len, head.length - headOffset);
+                    System.arraycopy(head, headOffset, b, off, count);
+                    headOffset += count;
+                    if (headOffset == head.length) {
+                        chunks.pollFirst();
+                        headOffset = 0;
+                    }
+                    readBytes += count;
+                    if (!remoteFinished && readBytes >= Http2Connection.STREAM_WINDOW_SIZE / 2) {
+                        windowUpdate = readBytes;
+                        unacknowledgedBytes -= readBytes;
+                        readBytes = 0;
+                    }
+                }
+            }
+            if (count == -1) {
+                Http2Stream.this.close(Http2.CANCEL);
+                throw new SocketTimeoutException("timeout");
+            }
+            if (windowUpdate > 0) {
+                connection.writeWindowUpdateQuietly(id, windowUpdate);
+            }
+            connection.dataConsumed(count);
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (Http2Stream.this) {
+                if (closed) throw new IOException("stream closed");
+                int available = 0;
+                for (byte[] chunk : chunks) {
+                    available += chunk.length;
+                }
+                return available - headOffset;
+            }
+        }
+
+        /** 丢弃缓冲的数据，返回丢弃的字节数 */
+        long clear() {
+            long discarded = 0;
+            for (byte[] chunk : chunks) {
+                discarded += chunk.length;
+            }
+            discarded -= headOffset;
+            chunks.clear();
+            headOffset = 0;
+            return discarded;
+        }
+
+        /**
+         * 没有读完就关闭时重置这个流，让服务器停止发送
+         */
+        @Override
+        public void close() {
+            long discarded;
+            boolean cancel;
+            synchronized (Http2Stream.this) {
+                if (closed) return;
+                closed = true;
+                discarded = clear();
+                cancel = !remoteFinished && errorCode == -1 && failure == null;
+                Http2Stream.this.notifyAll();
+            }
+            connection.dataConsumed(discarded);
+            if (cancel) {
+                Http2Stream.this.close(Http2.CANCEL);
+            }
+        }
+    }
+
+    /**
+     * 请求体，数据攒满一帧后再发送
+     */
+    private final class FramingSink extends OutputStream {
+        private byte[] buffer;
+        private int size;
+        private boolean closed;
+        long byteCount;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("closed");
+            if (buffer == null) {
+                buffer = new byte[connection.maxDataLength()];
+            }
+            while (len > 0) {
+                int count = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, count);
+                size += count;
+                off += count;
+                len -= count;
+                byteCount += count;
+                if (size == buffer.length) {
+                    emit(false);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (closed) throw new IOException("closed");
+            if (size > 0) {
+                emit(false);
+            }
+        }
+
+        /** 发送剩余的数据和 END_STREAM */
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (buffer == null) {
+                buffer = new byte[0];
+            }
+            emit(true);
+            synchronized (Http2Stream.this) {
+                localFinished = true;
+            }
+            removeIfFinished();
+        }
+
+        private void emit(boolean endStream) throws IOException {
+            connection.writeData(Http2Stream.this, endStream, buffer, 0, size);
+            size = 0;
+        }
+    }
+}
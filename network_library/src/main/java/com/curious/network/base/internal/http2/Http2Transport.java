@@ -0,0 +1,174 @@
+package com.curious.network.base.internal.http2;
+
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SATransport;
+import com.curious.network.base.internal.connection.Alpn;
+import com.curious.network.base.internal.connection.RealConnection;
+import com.curious.network.base.internal.connection.Route;
+import com.curious.network.base.internal.http1.Http1Codec;
+import com.curious.network.base.internal.http1.Http1Transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HTTP/2 传输实现，每个路由只保持一条连接，所有请求作为不同的流在这条连接上并发。
+ * https 通过 ALPN 协商，服务器不支持 h2 时回退到 {@link Http1Transport}；http 只有在 prior knowledge 模式下才使用 h2c
+ */
+public final class Http2Transport implements SATransport {
+    private static final List<String> ALPN_PROTOCOLS = Collections.unmodifiableList(Arrays.asList(Alpn.H2, Alpn.HTTP_1_1));
+
+    private final SAHttpClient client;
+    private final boolean priorKnowledge;
+    private final Http1Transport http1Transport;
+    private final long keepAliveDurationNs;
+
+    // 以下字段由 this 保护
+    private final Map<Route, Http2Connection> connections = new HashMap<>();
+    /** 正在建立连接的路由，同一个路由的其他请求等待这条连接，而不是各自建立 */
+    private final Set<Route> connecting = new HashSet<>();
+    /** ALPN 没有协商出 h2 的路由，之后直接使用 HTTP/1.1 */
+    private final Set<Route> http1Routes = new HashSet<>();
+
+    /**
+     * @param priorKnowledge http 请求是否不经过协商直接使用 h2c，要求服务器支持
+     */
+    public Http2Transport(SAHttpClient client, boolean priorKnowledge) {
+        this.client = client;
+        this.priorKnowledge = priorKnowledge;
+        this.http1Transport = new Http1Transport(client);
+        this.keepAliveDurationNs = client.connectionPool().keepAliveDurationNanos();
+    }
+
+    @Override
+    public SAResponse execute(SARequest request, SARealCall call) throws IOException {
+        Route route = Route.of(request.url(), client.proxy(), client.sslSocketFactory());
+        if (!supportsHttp2(route)) {
+            return http1Transport.execute(request, call);
+        }
+        boolean retried = false;
+        while (true) {
+            Http2Connection connection;
+            synchronized (this) {
+                connection = awaitConnection(route);
+                if (connection == null && http1Routes.contains(route)) break;
+                if (connection == null) connecting.add(route);
+            }
+
+            boolean reused = connection != null;
+            if (connection == null) {
+                RealConnection realConnection = null;
+                boolean http1 = false;
+                try {
+                    realConnection = new RealConnection(route, client.dns(), client.tlsSessionCache());
+                    call.exchangeStarted(realConnection);
+                    connect(realConnection, call);
+                    if (route.isHttps() && !Alpn.H2.equals(realConnection.protocol())) {
+                        http1 = true;
+                    } else {
+                        Http2Connection newConnection = new Http2Connection(realConnection, client.connectTimeout(),
+                                client.readTimeout(), client.writeTimeout(), keepAliveDurationNs);
+                        newConnection.start();
+                        // 连接马上会被其他调用共享，之后只能中止这个调用自己的流
+                        call.exchangeFinished(realConnection);
+                        connection = newConnection;
+                    }
+                } catch (IOException e) {
+                    if (realConnection != null) realConnection.close();
+                    throw e;
+                } finally {
+                    synchronized (this) {
+                        connecting.remove(route);
+                        if (connection != null) {
+                            connections.put(route, connection);
+                        } else if (http1) {
+                            http1Routes.add(route);
+                        }
+                        notifyAll();
+                    }
+                }
+                if (http1) {
+                    // 服务器不支持 h2，直接在这条新连接上使用 HTTP/1.1
+                    call.eventListener().connectionAcquired(call, System.nanoTime(), false);
+                    return new Http1Codec(client.connectionPool(), realConnection, call).exchange(request);
+                }
+            }
+
+            call.eventListener().connectionAcquired(call, System.nanoTime(), reused);
+            Http2Codec codec = new Http2Codec(connection, call);
+            try {
+                return codec.exchange(request);
+            } catch (IOException e) {
+                if (retried || !isRecoverable(e, reused, codec) || isOneShot(request)) throw e;
+                retried = true;
+            }
+        }
+        return http1Transport.execute(request, call);
+    }
+
+    private boolean supportsHttp2(Route route) {
+        // https 经过代理时使用 CONNECT 隧道或 SOCKS，仍然可以通过 ALPN 协商
+        if (route.isHttps()) return true;
+        // 明文请求经过 Http 代理时请求行需要完整的 url，只能使用 HTTP/1.1
+        return priorKnowledge && route.proxy().type() != Proxy.Type.HTTP;
+    }
+
+    /**
+     * 取出这个路由上可以继续创建流的连接；其他线程正在建立连接时等待它完成
+     *
+     * @return 没有可用连接时返回 null
+     */
+    private Http2Connection awaitConnection(Route route) throws InterruptedIOException {
+        while (true) {
+            Http2Connection connection = connections.get(route);
+            if (connection != null) {
+                if (connection.isHealthy(System.nanoTime())) return connection;
+                connections.remove(route);
+            }
+            if (!connecting.contains(route)) return null;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private void connect(RealConnection connection, SARealCall call) throws IOException {
+        connection.connect(client.connectTimeout(), client.readTimeout(), client.sslSocketFactory(),
+                ALPN_PROTOCOLS, call);
+    }
+
+    /**
+     * 服务器拒绝了这个流（REFUSED_STREAM 或 GOAWAY），或者复用的连接在收到响应之前就断开了
+     */
+    private static boolean isRecoverable(IOException e, boolean reused, Http2Codec codec) {
+        if (e instanceof StreamResetException) {
+            return ((StreamResetException) e).isRefused();
+        }
+        return reused && !codec.responseStarted() && !(e instanceof InterruptedIOException);
+    }
+
+    private static boolean isOneShot(SARequest request) {
+        return request.body() != null && request.body().isOneShot();
+    }
+
+    /**
+     * 当前保持的 HTTP/2 连接数
+     */
+    public synchronized int connectionCount() {
+        return connections.size();
+    }
+}
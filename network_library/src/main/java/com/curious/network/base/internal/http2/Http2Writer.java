@@ -0,0 +1,165 @@
+package com.curious.network.base.internal.http2;
+
+import com.curious.network.base.SAHeader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * 向连接写入 HTTP/2 帧。所有方法互斥，一个帧不会被其他线程的帧打断；
+ * HPACK 的动态表要求头部块按编码顺序发送，所以编码和写入在同一个锁内完成
+ */
+final class Http2Writer {
+    private final OutputStream sink;
+    private final Hpack.Writer hpackWriter = new Hpack.Writer();
+    private final byte[] frameHeader = new byte[Http2.FRAME_HEADER_LENGTH];
+    private int maxFrameSize = Http2.INITIAL_MAX_FRAME_SIZE;
+    private boolean closed;
+
+    Http2Writer(OutputStream sink) {
+        this.sink = sink;
+    }
+
+    synchronized void connectionPreface(int[] settings) throws IOException {
+        checkNotClosed();
+        sink.write(Http2.CONNECTION_PREFACE);
+        writeSettings(settings);
+    }
+
+    /**
+     * 应用对方的设置并回复 ACK
+     */
+    synchronized void applyAndAckSettings(int[] settings) throws IOException {
+        checkNotClosed();
+        for (int i = 0; i < settings.length; i += 2) {
+            if (settings[i] == Http2.SETTINGS_MAX_FRAME_SIZE) {
+                maxFrameSize = settings[i + 1];
+            } else if (settings[i] == Http2.SETTINGS_HEADER_TABLE_SIZE) {
+                hpackWriter.headerTableSizeSetting(settings[i + 1]);
+            }
+        }
+        frameHeader(0, 0, Http2.TYPE_SETTINGS, Http2.FLAG_ACK);
+        sink.flush();
+    }
+
+    synchronized int maxDataLength() {
+        return maxFrameSize;
+    }
+
+    /**
+     * 编码并发送请求头，超过最大帧长度的部分放在 CONTINUATION 中
+     *
+     * @param weight 流的权重，默认值 16 时不发送优先级
+     * @return 编码后头部块的字节数
+     */
+    synchronized int headers(int streamId, boolean endStream, int weight, List<SAHeader> headers) throws IOException {
+        checkNotClosed();
+        byte[] block = hpackWriter.writeHeaders(headers);
+        int flags = endStream ? Http2.FLAG_END_STREAM : Http2.FLAG_NONE;
+        int priorityLength = 0;
+        if (weight != Http2.DEFAULT_WEIGHT) {
+            flags |= Http2.FLAG_PRIORITY;
+            priorityLength = 5;
+        }
+        int length = Math.min(block.length, maxFrameSize - priorityLength);
+        if (length == block.length) flags |= Http2.FLAG_END_HEADERS;
+        frameHeader(streamId, length + priorityLength, Http2.TYPE_HEADERS, flags);
+        if (priorityLength != 0) {
+            // 不依赖其他流，只通过权重让服务器按比例分配带宽
+            writeInt(0);
+            sink.write(weight - 1);
+        }
+        sink.write(block, 0, length);
+        for (int offset = length; offset < block.length; offset += length) {
+            length = Math.min(block.length - offset, maxFrameSize);
+            frameHeader(streamId, length, Http2.TYPE_CONTINUATION,
+                    offset + length == block.length ? Http2.FLAG_END_HEADERS : Http2.FLAG_NONE);
+            sink.write(block, offset, length);
+        }
+        sink.flush();
+        return block.length;
+    }
+
+    /**
+     * @param length 不能超过 {@link #maxDataLength()}，调用方负责流量控制
+     */
+    synchronized void data(int streamId, boolean endStream, byte[] data, int offset, int length) throws IOException {
+        checkNotClosed();
+        frameHeader(streamId, length, Http2.TYPE_DATA, endStream ? Http2.FLAG_END_STREAM : Http2.FLAG_NONE);
+        sink.write(data, offset, length);
+    }
+
+    synchronized void rstStream(int streamId, int errorCode) throws IOException {
+        checkNotClosed();
+        frameHeader(streamId, 4, Http2.TYPE_RST_STREAM, Http2.FLAG_NONE);
+        writeInt(errorCode);
+        sink.flush();
+    }
+
+    synchronized void ping(boolean ack, long payload) throws IOException {
+        checkNotClosed();
+        frameHeader(0, 8, Http2.TYPE_PING, ack ? Http2.FLAG_ACK : Http2.FLAG_NONE);
+        writeInt((int) (payload >>> 32));
+        writeInt((int) payload);
+        sink.flush();
+    }
+
+    synchronized void goAway(int lastGoodStreamId, int errorCode) throws IOException {
+        checkNotClosed();
+        frameHeader(0, 8, Http2.TYPE_GOAWAY, Http2.FLAG_NONE);
+        writeInt(lastGoodStreamId);
+        writeInt(errorCode);
+        sink.flush();
+    }
+
+    synchronized void windowUpdate(int streamId, long increment) throws IOException {
+        checkNotClosed();
+        frameHeader(streamId, 4, Http2.TYPE_WINDOW_UPDATE, Http2.FLAG_NONE);
+        writeInt((int) increment);
+        sink.flush();
+    }
+
+    synchronized void flush() throws IOException {
+        checkNotClosed();
+        sink.flush();
+    }
+
+    synchronized void close() {
+        closed = true;
+    }
+
+    private void writeSettings(int[] settings) throws IOException {
+        frameHeader(0, settings.length / 2 * 6, Http2.TYPE_SETTINGS, Http2.FLAG_NONE);
+        for (int i = 0; i < settings.length; i += 2) {
+            sink.write(settings[i] >>> 8);
+            sink.write(settings[i]);
+            writeInt(settings[i + 1]);
+        }
+        sink.flush();
+    }
+
+    private void frameHeader(int streamId, int length, int type, int flags) throws IOException {
+        frameHeader[0] = (byte) (length >>> 16);
+        frameHeader[1] = (byte) (length >>> 8);
+        frameHeader[2] = (byte) length;
+        frameHeader[3] = (byte) type;
+        frameHeader[4] = (byte) flags;
+        frameHeader[5] = (byte) (streamId >>> 24);
+        frameHeader[6] = (byte) (streamId >>> 16);
+        frameHeader[7] = (byte) (streamId >>> 8);
+        frameHeader[8] = (byte) streamId;
+        sink.write(frameHeader);
+    }
+
+    private void writeInt(int value) throws IOException {
+        sink.write(value >>> 24);
+        sink.write(value >>> 16);
+        sink.write(value >>> 8);
+        sink.write(value);
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (closed) throw new IOException("closed");
+    }
+}
@@ -0,0 +1,24 @@
+package com.curious.network.base.internal.http2;
+
+import java.io.IOException;
+
+/**
+ * 流被对方或本地以 RST_STREAM 重置，或者因为 GOAWAY 没有被服务器处理
+ */
+public final class StreamResetException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    final int errorCode;
+
+    StreamResetException(int errorCode) {
+        super("stream was reset: " + Http2.errorName(errorCode));
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * 服务器没有处理这个流（REFUSED_STREAM，或者流 id 大于 GOAWAY 中的 last-stream-id），可以在新连接上安全地重试
+     */
+    public boolean isRefused() {
+        return errorCode == Http2.REFUSED_STREAM;
+    }
+}
@@ -0,0 +1,585 @@
+package com.curious.network.base.internal.nio;
+
+import com.curious.network.base.internal.connection.Route;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * 一条非阻塞的 TCP（或 TLS）连接，同一时间只承载一次 {@link NioExchange}，空闲时放回 {@link NioTransport} 的连接池。
+ * 除了 {@link #isOpen()} 和 {@link #idleAtNanos()}，所有方法都只在所属的 {@link NioEventLoop} 线程中调用
+ */
+final class NioConnection {
+    private static final int STATE_CONNECTING = 0;
+    private static final int STATE_HANDSHAKING = 1;
+    private static final int STATE_OPEN = 2;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final NioTransport transport;
+    private final NioEventLoop eventLoop;
+    private final Route route;
+
+    private SocketChannel channel;
+    private SelectionKey key;
+    private SSLEngine engine;
+    /** 从 socket 读到、还没有解密的数据，写模式，只有 TLS 连接使用 */
+    private ByteBuffer netIn;
+    /** 等待解析的明文数据，写模式 */
+    private ByteBuffer appIn;
+    /** 等待写入 socket 的数据，读模式 */
+    private ByteBuffer netOut = EMPTY;
+    /** 等待加密的请求数据，读模式，只有 TLS 连接使用 */
+    private ByteBuffer appOut = EMPTY;
+
+    private int state = STATE_CONNECTING;
+    private InetSocketAddress[] addresses;
+    private int nextAddress;
+    private InetSocketAddress address;
+    private NioExchange exchange;
+    private boolean writing;
+    private boolean reused;
+    private long deadlineNanos;
+    private volatile long idleAtNanos = Long.MAX_VALUE;
+    private volatile boolean closed;
+
+    NioConnection(NioTransport transport, NioEventLoop eventLoop, Route route) {
+        this.transport = transport;
+        this.eventLoop = eventLoop;
+        this.route = route;
+    }
+
+    NioEventLoop eventLoop() {
+        return eventLoop;
+    }
+
+    Route route() {
+        return route;
+    }
+
+    boolean isOpen() {
+        return !closed;
+    }
+
+    long idleAtNanos() {
+        return idleAtNanos;
+    }
+
+    void idleAtNanos(long idleAtNanos) {
+        this.idleAtNanos = idleAtNanos;
+    }
+
+    /** 当前阶段的超时时间点，0 表示没有超时 */
+    long deadlineNanos() {
+        return deadlineNanos;
+    }
+
+    /**
+     * 依次尝试每个地址建立连接，成功后开始交换
+     */
+    void connect(InetSocketAddress[] addresses, NioExchange exchange) {
+        this.addresses = addresses;
+        this.exchange = exchange;
+        if (exchange.isCanceled()) {
+            // 在交给事件循环之前就超时了
+            fail(new SocketException("Canceled"));
+            return;
+        }
+        connectNext(null);
+    }
+
+    /**
+     * 复用连接池中的空闲连接开始交换
+     */
+    void reuse(NioExchange exchange) {
+        if (closed) {
+            // 从连接池取出之后被服务器关闭了
+            exchange.onFailure(new IOException("connection closed"), true);
+            return;
+        }
+        this.exchange = exchange;
+        if (exchange.isCanceled()) {
+            fail(new SocketException("Canceled"));
+            return;
+        }
+        exchange.eventListener.connectionAcquired(exchange.call, System.nanoTime(), true);
+        try {
+            startExchange();
+        } catch (IOException e) {
+            onException(e);
+        }
+    }
+
+    private void connectNext(IOException lastException) {
+        while (true) {
+            if (nextAddress >= addresses.length) {
+                fail(lastException != null ? lastException : new UnknownHostException(route.host()));
+                return;
+            }
+            address = addresses[nextAddress++];
+            exchange.eventListener.connectStart(exchange.call, System.nanoTime(), address, Proxy.NO_PROXY);
+            state = STATE_CONNECTING;
+            deadlineNanos = deadline(transport.connectTimeout());
+            boolean connected;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                key = eventLoop.register(channel, this);
+                connected = channel.connect(address);
+                if (!connected) {
+                    key.interestOps(SelectionKey.OP_CONNECT);
+                }
+            } catch (IOException e) {
+                closeChannel();
+                exchange.eventListener.connectFailed(exchange.call, System.nanoTime(), address, Proxy.NO_PROXY, e);
+                lastException = e;
+                continue;
+            }
+            if (connected) {
+                try {
+                    onConnected();
+                } catch (IOException e) {
+                    onException(e);
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Selector 通知的就绪事件
+     */
+    void onReady(int readyOps) {
+        try {
+            if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+                if (channel.finishConnect()) {
+                    onConnected();
+                }
+                return;
+            }
+            if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                onWritable();
+            }
+            if ((readyOps & SelectionKey.OP_READ) != 0 && !closed) {
+                onReadable();
+            }
+        } catch (IOException e) {
+            onException(e);
+        } catch (RuntimeException e) {
+            // SSLEngine 处理异常数据时可能抛出运行时异常
+            onException(new IOException(e));
+        }
+    }
+
+    void onTimeout() {
+        switch (state) {
+            case STATE_CONNECTING:
+                onException(new SocketTimeoutException("connect timed out"));
+                break;
+            case STATE_HANDSHAKING:
+                onException(new SocketTimeoutException("handshake timed out"));
+                break;
+            default:
+                if (exchange == null) {
+                    deadlineNanos = 0;
+                } else {
+                    fail(new SocketTimeoutException(writing ? "Write timed out" : "Read timed out"));
+                }
+                break;
+        }
+    }
+
+    private void onException(IOException e) {
+        if (closed) return;
+        if (state == STATE_CONNECTING) {
+            // 换下一个地址
+            closeChannel();
+            exchange.eventListener.connectFailed(exchange.call, System.nanoTime(), address, Proxy.NO_PROXY, e);
+            connectNext(e);
+            return;
+        }
+        if (state == STATE_HANDSHAKING) {
+            exchange.eventListener.connectFailed(exchange.call, System.nanoTime(), address, Proxy.NO_PROXY, e);
+        }
+        fail(e);
+    }
+
+    private void onConnected() throws IOException {
+        if (!route.isHttps()) {
+            appIn = ByteBuffer.allocate(BUFFER_SIZE);
+            connected();
+            return;
+        }
+        state = STATE_HANDSHAKING;
+        deadlineNanos = deadline(transport.readTimeout());
+        exchange.eventListener.secureConnectStart(exchange.call, System.nanoTime());
+        engine = transport.sslContext().createSSLEngine(route.host(), route.port());
+        engine.setUseClientMode(true);
+        transport.tlsSessionCache().prepare(engine);
+        SSLSession session = engine.getSession();
+        netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        netOut.flip();
+        key.interestOps(SelectionKey.OP_READ);
+        engine.beginHandshake();
+        handshake();
+    }
+
+    private void handshake() throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                case NEED_WRAP: {
+                    if (!flush()) return;
+                    netOut.clear();
+                    SSLEngineResult result = engine.wrap(EMPTY, netOut);
+                    netOut.flip();
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                        netOut.flip();
+                    } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLHandshakeException("Connection closed during handshake");
+                    }
+                    if (!flush()) return;
+                    break;
+                }
+                case NEED_UNWRAP: {
+                    if (!flush()) return;
+                    netIn.flip();
+                    SSLEngineResult result = engine.unwrap(netIn, appIn);
+                    netIn.compact();
+                    switch (result.getStatus()) {
+                        case BUFFER_UNDERFLOW:
+                            if (!netIn.hasRemaining()) {
+                                netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                            }
+                            int read = channel.read(netIn);
+                            if (read == -1) {
+                                throw new SSLHandshakeException("Remote host closed connection during handshake");
+                            }
+                            if (read == 0) return;
+                            break;
+                        case BUFFER_OVERFLOW:
+                            appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                            break;
+                        case CLOSED:
+                            throw new SSLHandshakeException("Connection closed during handshake");
+                        default:
+                            break;
+                    }
+                    break;
+                }
+                default:
+                    handshakeFinished();
+                    return;
+            }
+        }
+    }
+
+    private void handshakeFinished() throws IOException {
+        SSLSession session = engine.getSession();
+        if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(route.host(), session)) {
+            throw new SSLPeerUnverifiedException("Hostname " + route.host() + " not verified");
+        }
+        boolean resumed = transport.tlsSessionCache().recordHandshake(route.host(), route.port(), session);
+        exchange.eventListener.secureConnectEnd(exchange.call, System.nanoTime(), session, resumed);
+        connected();
+    }
+
+    private void connected() throws IOException {
+        state = STATE_OPEN;
+        long now = System.nanoTime();
+        exchange.eventListener.connectEnd(exchange.call, now, address, Proxy.NO_PROXY);
+        exchange.eventListener.connectionAcquired(exchange.call, now, false);
+        startExchange();
+    }
+
+    private void startExchange() throws IOException {
+        ByteBuffer request = exchange.start(this);
+        if (engine == null) {
+            netOut = request;
+        } else {
+            appOut = request;
+        }
+        writing = true;
+        deadlineNanos = deadline(transport.writeTimeout());
+        // 同时关注可读，服务器可能提前响应或者关闭连接
+        key.interestOps(SelectionKey.OP_READ);
+        writeRequest();
+    }
+
+    private void onWritable() throws IOException {
+        if (state == STATE_HANDSHAKING) {
+            handshake();
+        } else if (writing) {
+            writeRequest();
+        } else {
+            flush();
+        }
+    }
+
+    private void writeRequest() throws IOException {
+        while (true) {
+            if (!flush()) return;
+            if (engine == null || !appOut.hasRemaining()) {
+                // 当前这段已经写完，取请求体的下一段
+                ByteBuffer next = exchange.nextRequestChunk();
+                if (next == null) break;
+                if (engine == null) {
+                    netOut = next;
+                } else {
+                    appOut = next;
+                }
+                continue;
+            }
+            netOut.clear();
+            SSLEngineResult result = engine.wrap(appOut, netOut);
+            netOut.flip();
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                netOut.flip();
+            } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("Connection closed");
+            }
+        }
+        writing = false;
+        deadlineNanos = deadline(transport.readTimeout());
+        exchange.requestSent();
+    }
+
+    /**
+     * 尽量把 netOut 写入 socket，写不完时关注可写事件
+     *
+     * @return netOut 是否已经写完
+     */
+    private boolean flush() throws IOException {
+        while (netOut.hasRemaining()) {
+            if (channel.write(netOut) == 0) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return false;
+            }
+            if (writing) {
+                deadlineNanos = deadline(transport.writeTimeout());
+            }
+        }
+        if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+        return true;
+    }
+
+    private void onReadable() throws IOException {
+        if (state == STATE_HANDSHAKING) {
+            handshake();
+            return;
+        }
+        if (exchange == null) {
+            // 空闲连接上不应该有数据，读到数据或者被服务器关闭都不能再复用
+            if (fill() != 0) close();
+            return;
+        }
+        while (exchange != null) {
+            if (exchange.isPaused()) {
+                // 调用方读得慢，暂停读取，等待期间不计算读超时
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                deadlineNanos = 0;
+                return;
+            }
+            int read = fill();
+            if (appIn.position() > 0) {
+                NioExchange current = exchange;
+                appIn.flip();
+                current.onData(appIn);
+                appIn.compact();
+                if (exchange == current && !writing) {
+                    deadlineNanos = deadline(transport.readTimeout());
+                }
+            }
+            if (read == -1) {
+                if (exchange != null) {
+                    exchange.onEndOfStream();
+                }
+                close();
+                return;
+            }
+            if (read == 0) return;
+        }
+    }
+
+    /**
+     * 从 socket 读取数据，TLS 连接会解密到 appIn
+     *
+     * @return appIn 中可以解析的字节数，没有新数据时返回 0，连接被关闭时返回 -1
+     */
+    private int fill() throws IOException {
+        if (engine == null) {
+            return channel.read(appIn);
+        }
+        int read = channel.read(netIn);
+        boolean closedByPeer = false;
+        netIn.flip();
+        try {
+            while (netIn.hasRemaining()) {
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+                SSLEngineResult.Status status = result.getStatus();
+                if (status == SSLEngineResult.Status.CLOSED) {
+                    closedByPeer = true;
+                    break;
+                }
+                if (status == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    break;
+                }
+                if (status == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    if (appIn.position() == 0) {
+                        appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                        continue;
+                    }
+                    // 先解析已经解密的数据
+                    break;
+                }
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                }
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    break;
+                }
+            }
+        } finally {
+            netIn.compact();
+        }
+        if (!netIn.hasRemaining()) {
+            netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+        }
+        if (appIn.position() > 0) return appIn.position();
+        return read == -1 || closedByPeer ? -1 : 0;
+    }
+
+    /**
+     * 调用方读走了缓冲的响应体，恢复读取
+     */
+    void resume(NioExchange exchange) {
+        if (closed || this.exchange != exchange) return;
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        deadlineNanos = deadline(transport.readTimeout());
+        try {
+            // TLS 连接可能还有已经读到但没有解密的数据，不会再触发可读事件
+            onReadable();
+        } catch (IOException e) {
+            onException(e);
+        }
+    }
+
+    /**
+     * 交换正常结束
+     *
+     * @param reuse 连接是否可以复用
+     */
+    void release(NioExchange exchange, boolean reuse) {
+        if (this.exchange != exchange) return;
+        this.exchange = null;
+        deadlineNanos = 0;
+        // 在 onData 中调用，此时 appIn 是读模式，还有数据说明服务器多发了数据
+        // 服务器提前响应时请求体可能还没有写完
+        if (!reuse || writing || appIn.hasRemaining()) {
+            close();
+            return;
+        }
+        reused = true;
+        key.interestOps(SelectionKey.OP_READ);
+        transport.put(this);
+    }
+
+    /**
+     * 调用方没有读完响应体就关闭了，剩余的数据无法丢弃，直接关闭连接
+     */
+    /** 调用超时，交换以失败结束 */
+    void cancel(NioExchange exchange) {
+        if (this.exchange != exchange) return;
+        fail(new SocketException("Canceled"));
+    }
+
+    void abort(NioExchange exchange) {
+        if (this.exchange != exchange) return;
+        this.exchange = null;
+        close();
+    }
+
+    private void fail(IOException e) {
+        NioExchange current = exchange;
+        exchange = null;
+        close();
+        if (current != null) {
+            current.onFailure(e, reused);
+        }
+    }
+
+    void close() {
+        if (closed) return;
+        closed = true;
+        deadlineNanos = 0;
+        eventLoop.deregister(this);
+        closeChannel();
+        transport.remove(this);
+    }
+
+    private void closeChannel() {
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 握手过程中的证书校验等耗时任务，直接在事件循环线程中执行
+     */
+    private void runDelegatedTasks() {
+        for (Runnable task; (task = engine.getDelegatedTask()) != null; ) {
+            task.run();
+        }
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int size) {
+        ByteBuffer result = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+        buffer.flip();
+        result.put(buffer);
+        return result;
+    }
+
+    private static long deadline(int timeoutMillis) {
+        if (timeoutMillis <= 0) return 0;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        return deadline != 0 ? deadline : 1;
+    }
+
+    @Override
+    public String toString() {
+        return "NioConnection{" + route + ", reused=" + reused + '}';
+    }
+}
@@ -0,0 +1,128 @@
+package com.curious.network.base.internal.nio;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一个线程加一个 Selector，负责注册在它上面的所有 {@link NioConnection} 的 IO 和超时。
+ * 连接的状态只在这个线程中修改，其他线程通过 {@link #execute(Runnable)} 提交任务
+ */
+final class NioEventLoop implements Runnable {
+    private static final String TAG = "SA.NioEventLoop";
+
+    /** 没有超时需要检查时，select 的最长等待时间 */
+    private static final long MAX_SELECT_MILLIS = 1000;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+    /** 注册在这个事件循环上的连接，只在事件循环线程中访问 */
+    private final Set<NioConnection> connections = new HashSet<>();
+
+    NioEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 在事件循环线程中执行任务，任务不能阻塞
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop() && wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    SelectionKey register(SocketChannel channel, NioConnection connection) throws ClosedChannelException {
+        connections.add(connection);
+        return channel.register(selector, 0, connection);
+    }
+
+    void deregister(NioConnection connection) {
+        connections.remove(connection);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                long timeoutMillis = nextTimeoutMillis(System.nanoTime());
+                wakenUp.set(false);
+                if (tasks.isEmpty()) {
+                    selector.select(timeoutMillis);
+                } else {
+                    selector.selectNow();
+                }
+                processSelectedKeys();
+                runTasks();
+                checkTimeouts(System.nanoTime());
+            } catch (Throwable e) {
+                // 单个连接的异常已经在 NioConnection 中处理，这里只防止事件循环线程意外退出
+                Log.e(TAG, "Unexpected exception in event loop", e);
+            }
+        }
+    }
+
+    private long nextTimeoutMillis(long now) {
+        long timeoutMillis = MAX_SELECT_MILLIS;
+        for (NioConnection connection : connections) {
+            long deadline = connection.deadlineNanos();
+            if (deadline != 0) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(deadline - now) + 1;
+                timeoutMillis = Math.max(1, Math.min(timeoutMillis, millis));
+            }
+        }
+        return timeoutMillis;
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if (!key.isValid()) continue;
+            ((NioConnection) key.attachment()).onReady(key.readyOps());
+        }
+    }
+
+    private void runTasks() {
+        for (Runnable task; (task = tasks.poll()) != null; ) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Unexpected exception in task", e);
+            }
+        }
+    }
+
+    private void checkTimeouts(long now) {
+        for (NioConnection connection : new ArrayList<>(connections)) {
+            long deadline = connection.deadlineNanos();
+            if (deadline != 0 && now - deadline >= 0) {
+                connection.onTimeout();
+            }
+        }
+    }
+}
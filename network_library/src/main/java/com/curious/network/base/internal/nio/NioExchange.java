@@ -0,0 +1,513 @@
+package com.curious.network.base.internal.nio;
+
+import com.curious.network.base.SAEventListener;
+import com.curious.network.base.SAHeader;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SARequestBody;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SAResponseBody;
+import com.curious.network.base.SATransport;
+import com.curious.network.base.internal.ChannelRequestBody;
+import com.curious.network.base.internal.Util;
+import com.curious.network.base.internal.connection.Route;
+import com.curious.network.base.internal.http1.Http1Codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一次 HTTP/1.1 交换的状态机。请求在 {@link #prepare()} 中编码，之后由 {@link NioConnection} 分段写出，
+ * 文件请求体在写出时才分块读取；
+ * 响应在事件循环线程中按收到的数据逐步解析，收到响应头时回调 {@link SATransport.Callback}，
+ * 响应体写入 {@link NioSource} 由调用方读取
+ */
+final class NioExchange implements SARealCall.Cancelable {
+    /** 响应头的最大长度 */
+    private static final int HEADER_LIMIT = 256 * 1024;
+    /** 不能分段写出的请求体需要完整缓存在内存中，超过这个长度直接失败 */
+    static final int MAX_BUFFERED_BODY = 8 * 1024 * 1024;
+    /** 文件请求体每次读取的长度，较小的内存片段也会合并到这个长度再写出 */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int STATE_STATUS_LINE = 0;
+    private static final int STATE_HEADERS = 1;
+    private static final int STATE_FIXED_LENGTH = 2;
+    private static final int STATE_CHUNK_SIZE = 3;
+    private static final int STATE_CHUNK_DATA = 4;
+    private static final int STATE_CHUNK_END = 5;
+    private static final int STATE_TRAILERS = 6;
+    private static final int STATE_UNTIL_CLOSE = 7;
+    private static final int STATE_DONE = 8;
+
+    final SARequest request;
+    final SARealCall call;
+    final SAEventListener eventListener;
+    final Route route;
+    private final NioTransport transport;
+    private final SATransport.Callback callback;
+
+    private byte[] requestHead;
+    /** 请求体的片段，没有请求体时为 null */
+    private List<ChannelRequestBody.Segment> requestBody;
+    private long requestBodyLength;
+    private boolean keepAlive;
+    private long sentRequestAtMillis;
+
+    /** 当前使用的连接，调用方线程读取响应体时通过它恢复读取或者中止交换 */
+    private volatile NioConnection connection;
+    private volatile boolean canceled;
+
+    // 以下字段只在事件循环线程中访问
+    private int state = STATE_STATUS_LINE;
+    private final StringBuilder line = new StringBuilder(64);
+    private int headerLimit = HEADER_LIMIT;
+    private boolean responseStarted;
+    private boolean retried;
+    private int code;
+    private String message;
+    private boolean http11;
+    private List<SAHeader> headers;
+    private long bytesRemaining;
+    private long responseBodyBytes;
+    private NioSource source;
+    /** 下一个要写出的请求体片段 */
+    private int segmentIndex;
+    /** 正在写出的文件片段 */
+    private FileChannel file;
+    private long fileRemaining;
+    private ByteBuffer fileBuffer;
+
+    NioExchange(NioTransport transport, SARequest request, SARealCall call, SATransport.Callback callback) {
+        this.transport = transport;
+        this.request = request;
+        this.call = call;
+        this.eventListener = call.eventListener();
+        this.callback = callback;
+        // 空闲连接只在这个 transport 内复用，TLS 总是使用 client 的 SSLContext
+        this.route = Route.of(request.url(), null, null);
+    }
+
+    /**
+     * 编码请求行、头信息和请求体。会调用 {@link SARequestBody#writeTo}，只能在允许阻塞的线程中调用
+     */
+    void prepare() throws IOException {
+        if (requestHead != null) return;
+        SARequestBody body = request.body();
+        boolean hasBody = body != null && SARequest.HttpMethod.permitsRequestBody(request.method());
+        if (hasBody) {
+            requestBody = new ArrayList<>();
+            if (!(body instanceof ChannelRequestBody) || !((ChannelRequestBody) body).segments(requestBody)) {
+                // 长度未知的请求体也缓存下来，以 Content-Length 发送
+                requestBody.clear();
+                requestBody.add(ChannelRequestBody.Segment.of(buffer(body)));
+            }
+            for (ChannelRequestBody.Segment segment : requestBody) {
+                requestBodyLength += segment.length();
+            }
+            long contentLength = body.contentLength();
+            if (contentLength != -1 && contentLength != requestBodyLength) {
+                throw new ProtocolException("expected " + contentLength + " bytes but received " + requestBodyLength);
+            }
+        }
+        List<SAHeader> requestHeaders = Http1Codec.requestHeaders(request, hasBody, hasBody ? requestBodyLength : -1);
+        keepAlive = !"close".equalsIgnoreCase(Util.headerValue(requestHeaders, "Connection"));
+        requestHead = Http1Codec.requestHead(request, route.proxy(), requestHeaders);
+    }
+
+    private static byte[] buffer(SARequestBody body) throws IOException {
+        long contentLength = body.contentLength();
+        if (contentLength > MAX_BUFFERED_BODY) {
+            throw bodyTooLarge(contentLength);
+        }
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(contentLength > 0 ? (int) contentLength : 1024);
+        body.writeTo(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if ((long) buffer.size() + len > MAX_BUFFERED_BODY) {
+                    throw bodyTooLarge((long) buffer.size() + len);
+                }
+                buffer.write(b, off, len);
+            }
+        });
+        return buffer.toByteArray();
+    }
+
+    private static IOException bodyTooLarge(long length) {
+        return new IOException("request body too large for NIO transport: " + length
+                + " bytes, use a file body or the HTTP_1_1 transport");
+    }
+
+    /**
+     * 取得连接之后、交给事件循环之前调用，之后的 {@link #cancel()} 会在这个连接的事件循环中中止交换
+     */
+    void attach(NioConnection connection) {
+        this.connection = connection;
+    }
+
+    boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * 调用超时，在事件循环中以失败结束交换并关闭连接。还没有取得连接时由 {@link NioTransport} 在取得连接前检查
+     */
+    @Override
+    public void cancel() {
+        canceled = true;
+        final NioConnection connection = this.connection;
+        if (connection == null) return;
+        connection.eventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                connection.cancel(NioExchange.this);
+            }
+        });
+    }
+
+    /**
+     * 连接准备好后开始交换，返回需要写出的第一段请求数据，之后通过 {@link #nextRequestChunk()} 取得剩余部分
+     */
+    ByteBuffer start(NioConnection connection) {
+        this.connection = connection;
+        // 换新连接重试时从头开始写
+        closeFile();
+        segmentIndex = 0;
+        // 请求头和开头较小的内存片段合并成一次写出
+        int size = requestHead.length;
+        int merged = 0;
+        while (requestBody != null && merged < requestBody.size()) {
+            byte[] bytes = requestBody.get(merged).bytes();
+            if (bytes == null || size + bytes.length > CHUNK_SIZE) break;
+            size += bytes.length;
+            merged++;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(requestHead);
+        for (; segmentIndex < merged; segmentIndex++) {
+            buffer.put(requestBody.get(segmentIndex).bytes());
+        }
+        buffer.flip();
+
+        sentRequestAtMillis = System.currentTimeMillis();
+        long now = System.nanoTime();
+        eventListener.requestHeadersStart(call, now);
+        eventListener.requestHeadersEnd(call, now, request, requestHead.length);
+        if (requestBody != null) {
+            eventListener.requestBodyStart(call, now);
+        }
+        return buffer;
+    }
+
+    /**
+     * 上一段请求数据写完之后在事件循环线程中调用，文件片段每次读取 {@link #CHUNK_SIZE}
+     *
+     * @return 下一段请求数据，全部写完时返回 null
+     */
+    ByteBuffer nextRequestChunk() throws IOException {
+        while (true) {
+            if (file != null) {
+                if (fileRemaining > 0) {
+                    if (fileBuffer == null) {
+                        fileBuffer = ByteBuffer.allocate(CHUNK_SIZE);
+                    }
+                    fileBuffer.clear();
+                    fileBuffer.limit((int) Math.min(CHUNK_SIZE, fileRemaining));
+                    if (file.read(fileBuffer) == -1) {
+                        ChannelRequestBody.Segment segment = requestBody.get(segmentIndex);
+                        throw segment.unexpectedEnd(segment.length() - fileRemaining);
+                    }
+                    fileBuffer.flip();
+                    fileRemaining -= fileBuffer.remaining();
+                    return fileBuffer;
+                }
+                closeFile();
+                segmentIndex++;
+            }
+            if (requestBody == null || segmentIndex >= requestBody.size()) return null;
+            ChannelRequestBody.Segment segment = requestBody.get(segmentIndex);
+            if (segment.bytes() != null) {
+                segmentIndex++;
+                return ByteBuffer.wrap(segment.bytes());
+            }
+            file = segment.openFile();
+            fileRemaining = segment.length();
+        }
+    }
+
+    private void closeFile() {
+        if (file != null) {
+            Util.closeQuietly(file);
+            file = null;
+        }
+    }
+
+    /** 请求已经全部写出 */
+    void requestSent() {
+        long now = System.nanoTime();
+        if (requestBody != null) {
+            eventListener.requestBodyEnd(call, now, requestBodyLength);
+        }
+        eventListener.responseHeadersStart(call, now);
+    }
+
+    boolean isDone() {
+        return state == STATE_DONE;
+    }
+
+    /** 响应体缓冲已满，需要暂停读取 */
+    boolean isPaused() {
+        return source != null && source.pauseIfFull();
+    }
+
+    /**
+     * 解析收到的数据，in 中的数据会全部消费，除非交换已经结束
+     */
+    void onData(ByteBuffer in) throws IOException {
+        while (in.hasRemaining() && state != STATE_DONE) {
+            switch (state) {
+                case STATE_FIXED_LENGTH: {
+                    int count = (int) Math.min(in.remaining(), bytesRemaining);
+                    deliverBody(in, count);
+                    bytesRemaining -= count;
+                    if (bytesRemaining == 0) {
+                        finish(true);
+                    }
+                    break;
+                }
+                case STATE_CHUNK_DATA: {
+                    int count = (int) Math.min(in.remaining(), bytesRemaining);
+                    deliverBody(in, count);
+                    bytesRemaining -= count;
+                    if (bytesRemaining == 0) {
+                        state = STATE_CHUNK_END;
+                    }
+                    break;
+                }
+                case STATE_UNTIL_CLOSE:
+                    deliverBody(in, in.remaining());
+                    break;
+                default:
+                    String line = readLine(in);
+                    if (line == null) return;
+                    onLine(line);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 连接被服务器关闭
+     */
+    void onEndOfStream() throws IOException {
+        if (state == STATE_UNTIL_CLOSE) {
+            finish(false);
+        } else if (state != STATE_DONE) {
+            throw responseStarted ? new ProtocolException("unexpected end of stream") : new EOFException("unexpected end of stream");
+        }
+    }
+
+    private String readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                String result = line.toString();
+                line.setLength(0);
+                return result;
+            }
+            if (--headerLimit < 0) {
+                throw new ProtocolException("header too long");
+            }
+            line.append((char) (b & 0xff));
+        }
+        return null;
+    }
+
+    private void onLine(String line) throws IOException {
+        switch (state) {
+            case STATE_STATUS_LINE:
+                responseStarted = true;
+                if (!line.startsWith("HTTP/1.") || line.length() < 12 || line.charAt(8) != ' ') {
+                    throw new ProtocolException("Unexpected status line: " + line);
+                }
+                http11 = line.charAt(7) == '1';
+                try {
+                    code = Integer.parseInt(line.substring(9, 12));
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Unexpected status line: " + line);
+                }
+                message = line.length() > 13 ? line.substring(13) : "";
+                headers = new ArrayList<>();
+                state = STATE_HEADERS;
+                break;
+            case STATE_HEADERS:
+                if (line.length() != 0) {
+                    int index = line.indexOf(':');
+                    if (index <= 0) {
+                        throw new ProtocolException("Unexpected header: " + line);
+                    }
+                    headers.add(new SAHeader(line.substring(0, index).trim(), line.substring(index + 1).trim(), true));
+                } else if (code >= 100 && code < 200 && code != 101) {
+                    // 跳过 100 Continue 等 1xx 的中间响应
+                    state = STATE_STATUS_LINE;
+                } else {
+                    onHeaders();
+                }
+                break;
+            case STATE_CHUNK_SIZE: {
+                int extension = line.indexOf(';');
+                String size = (extension != -1 ? line.substring(0, extension) : line).trim();
+                try {
+                    bytesRemaining = Long.parseLong(size, 16);
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Expected a hex chunk size but was " + line);
+                }
+                if (bytesRemaining < 0) {
+                    throw new ProtocolException("Expected a hex chunk size but was " + line);
+                }
+                state = bytesRemaining == 0 ? STATE_TRAILERS : STATE_CHUNK_DATA;
+                break;
+            }
+            case STATE_CHUNK_END:
+                if (line.length() != 0) {
+                    throw new ProtocolException("Expected CRLF after chunk but was " + line);
+                }
+                state = STATE_CHUNK_SIZE;
+                break;
+            case STATE_TRAILERS:
+                if (line.length() == 0) {
+                    finish(true);
+                }
+                break;
+            default:
+                throw new IllegalStateException("state: " + state);
+        }
+    }
+
+    private void onHeaders() {
+        String connectionHeader = Util.headerValue(headers, "Connection");
+        if ("close".equalsIgnoreCase(connectionHeader)) {
+            keepAlive = false;
+        } else if (!http11 && !"keep-alive".equalsIgnoreCase(connectionHeader)) {
+            keepAlive = false;
+        }
+
+        SAResponse.Builder responseBuilder = new SAResponse.Builder()
+                .code(code)
+                .message(message)
+                .headers(headers)
+                .request(request)
+                .protocol(http11 ? "http/1.1" : "http/1.0")
+                .sentRequestAtMillis(sentRequestAtMillis)
+                .receivedResponseAtMillis(System.currentTimeMillis());
+        eventListener.responseHeadersEnd(call, System.nanoTime(), responseBuilder.build());
+
+        long contentLength = Util.parseLong(Util.headerValue(headers, "Content-Length"), -1);
+        if (!Http1Codec.hasBody(code)) {
+            contentLength = 0;
+        } else if ("chunked".equalsIgnoreCase(Util.headerValue(headers, "Transfer-Encoding"))) {
+            contentLength = -1;
+            state = STATE_CHUNK_SIZE;
+        } else if (contentLength != -1) {
+            bytesRemaining = contentLength;
+            state = STATE_FIXED_LENGTH;
+        } else {
+            keepAlive = false;
+            state = STATE_UNTIL_CLOSE;
+        }
+        headerLimit = HEADER_LIMIT;
+
+        source = new NioSource(this);
+        SAResponse response = responseBuilder
+                .body(SAResponseBody.create(Util.headerValue(headers, "Content-Type"), contentLength, source))
+                .build();
+        callback.onResponse(response);
+        if (contentLength == 0) {
+            finish(true);
+        }
+    }
+
+    private void deliverBody(ByteBuffer in, int byteCount) {
+        source.offer(in, byteCount);
+        responseBodyBytes += byteCount;
+    }
+
+    /**
+     * 响应体读取结束，先释放连接再通知调用方，调用方马上发起的下一个请求就可以复用这个连接
+     */
+    private void finish(boolean reuseConnection) {
+        state = STATE_DONE;
+        closeFile();
+        call.exchangeFinished(this);
+        connection.release(this, reuseConnection && keepAlive);
+        eventListener.responseBodyEnd(call, System.nanoTime(), responseBodyBytes);
+        source.complete();
+    }
+
+    /**
+     * 连接失败，连接已经被关闭。复用的空闲连接在收到任何响应数据之前失败的话，换一个新连接重试一次
+     */
+    void onFailure(IOException e, boolean reusedConnection) {
+        if (state == STATE_DONE) return;
+        closeFile();
+        if (reusedConnection && !responseStarted && !retried && !canceled) {
+            retried = true;
+            connection = null;
+            line.setLength(0);
+            headerLimit = HEADER_LIMIT;
+            transport.retryOnNewConnection(this);
+            return;
+        }
+        state = STATE_DONE;
+        if (source != null) {
+            eventListener.responseBodyEnd(call, System.nanoTime(), responseBodyBytes);
+            source.fail(e);
+        } else {
+            callback.onFailure(e);
+        }
+    }
+
+    /** 调用方读走了数据，恢复读取 */
+    void resume() {
+        final NioConnection connection = this.connection;
+        if (connection == null) return;
+        connection.eventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                connection.resume(NioExchange.this);
+            }
+        });
+    }
+
+    /** 调用方没有读完就关闭了响应体 */
+    void abort() {
+        final NioConnection connection = this.connection;
+        if (connection == null) return;
+        connection.eventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state == STATE_DONE) return;
+                state = STATE_DONE;
+                closeFile();
+                eventListener.responseBodyEnd(call, System.nanoTime(), responseBodyBytes);
+                connection.abort(NioExchange.this);
+            }
+        });
+    }
+}
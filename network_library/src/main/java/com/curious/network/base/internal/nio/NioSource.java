@@ -0,0 +1,131 @@
+package com.curious.network.base.internal.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 事件循环写入、调用方线程读取的响应体。缓冲的数据超过 {@link #HIGH_WATER_MARK} 时暂停读取 socket，
+ * 调用方读到低于 {@link #LOW_WATER_MARK} 后再恢复，读得慢的调用方不会让内存无限增长
+ */
+final class NioSource extends InputStream {
+    private static final int HIGH_WATER_MARK = 64 * 1024;
+    private static final int LOW_WATER_MARK = 16 * 1024;
+
+    private final NioExchange exchange;
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private int headOffset;
+    private int buffered;
+    private boolean paused;
+    private boolean complete;
+    private IOException failure;
+    private boolean closed;
+
+    NioSource(NioExchange exchange) {
+        this.exchange = exchange;
+    }
+
+    /** 事件循环线程调用，复制 in 中接下来的 byteCount 个字节 */
+    synchronized void offer(ByteBuffer in, int byteCount) {
+        if (closed) {
+            in.position(in.position() + byteCount);
+            return;
+        }
+        byte[] chunk = new byte[byteCount];
+        in.get(chunk);
+        chunks.add(chunk);
+        buffered += byteCount;
+        notifyAll();
+    }
+
+    /**
+     * 事件循环线程调用，返回 true 时暂停读取，直到调用方把数据读走后通过 {@link NioExchange#resume()} 恢复
+     */
+    synchronized boolean pauseIfFull() {
+        if (buffered >= HIGH_WATER_MARK) {
+            paused = true;
+        }
+        return paused;
+    }
+
+    synchronized void complete() {
+        complete = true;
+        notifyAll();
+    }
+
+    synchronized void fail(IOException e) {
+        if (complete) return;
+        failure = e;
+        notifyAll();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int count = read(b, 0, 1);
+        return count == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count;
+        boolean resume = false;
+        synchronized (this) {
+            if (closed) throw new IOException("closed");
+            if (len == 0) return 0;
+            while (chunks.isEmpty()) {
+                if (failure != null) throw failure;
+                if (complete) return -1;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            byte[] head = chunks.peekFirst();
+            count = Math.min(len, head.length - headOffset);
+            System.arraycopy(head, headOffset, b, off, count);
+            headOffset += count;
+            if (headOffset == head.length) {
+                chunks.pollFirst();
+                headOffset = 0;
+            }
+            buffered -= count;
+            if (paused && buffered <= LOW_WATER_MARK) {
+                paused = false;
+                resume = true;
+            }
+        }
+        if (resume) {
+            exchange.resume();
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        if (closed) throw new IOException("closed");
+        return buffered;
+    }
+
+    /**
+     * 没有读完就关闭时，连接上还有剩余的响应体，直接关闭连接
+     */
+    @Override
+    public void close() {
+        boolean abort;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            chunks.clear();
+            buffered = 0;
+            abort = !complete && failure == null;
+        }
+        if (abort) {
+            exchange.abort();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.curious.network.base.internal.nio;
+
+import com.curious.network.base.SAConnectionPool;
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SATlsSessionCache;
+import com.curious.network.base.SATransport;
+import com.curious.network.base.internal.Util;
+import com.curious.network.base.internal.connection.Route;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.SocketException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * 基于 Selector 的 HTTP/1.1 传输实现。少量 {@link NioEventLoop} 线程负责所有连接的读写，
+ * 每个请求是一个 {@link NioExchange} 状态机；只有 DNS 解析和编码请求体这类阻塞操作在一个很小的线程池中执行。
+ * <p>
+ * 空闲连接按 {@link SAConnectionPool} 的配置保留，但和 {@link SATransport#HTTP_1_1} 的连接不共享
+ */
+public final class NioTransport implements SATransport, SATransport.Async {
+    /** 执行 DNS 解析和编码请求体的线程数 */
+    private static final int BLOCKING_THREADS = 4;
+
+    private final SAHttpClient client;
+    private final NioEventLoop[] eventLoops;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+    private final ExecutorService blockingExecutor;
+    private final int maxIdleConnections;
+    private final long keepAliveDurationNs;
+
+    /** 按路由保存的空闲连接，最近放回的在队尾 */
+    private final Map<Route, Deque<NioConnection>> idleConnections = new HashMap<>();
+    private int idleConnectionCount;
+    private SSLContext sslContext;
+
+    public NioTransport(SAHttpClient client) {
+        this(client, Math.min(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param eventLoopCount 事件循环线程数，每个线程可以负责成百上千条连接
+     */
+    public NioTransport(SAHttpClient client, int eventLoopCount) {
+        if (eventLoopCount <= 0) throw new IllegalArgumentException("eventLoopCount <= 0");
+        if (client.proxy() != null && client.proxy().type() != Proxy.Type.DIRECT) {
+            throw new IllegalArgumentException("NIO transport does not support proxy");
+        }
+        if (client.sslSocketFactory() != null && client.sslContext() == null) {
+            throw new IllegalArgumentException("NIO transport requires sslContext instead of sslSocketFactory");
+        }
+        this.client = client;
+        this.sslContext = client.sslContext();
+        SAConnectionPool connectionPool = client.connectionPool();
+        this.maxIdleConnections = connectionPool.maxIdleConnections();
+        this.keepAliveDurationNs = connectionPool.keepAliveDurationNanos();
+        this.eventLoops = new NioEventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; i++) {
+            try {
+                eventLoops[i] = new NioEventLoop("SAHttp NioEventLoop #" + (i + 1));
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open selector", e);
+            }
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(BLOCKING_THREADS, BLOCKING_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new BlockingThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        this.blockingExecutor = executor;
+    }
+
+    /**
+     * 指定事件循环线程数的 {@link SATransport.Factory}
+     */
+    public static SATransport.Factory factory(final int eventLoopCount) {
+        return new SATransport.Factory() {
+            @Override
+            public SATransport create(SAHttpClient client) {
+                return new NioTransport(client, eventLoopCount);
+            }
+        };
+    }
+
+    /**
+     * 同步执行时当前线程等待响应头，响应体仍然由事件循环读取
+     */
+    @Override
+    public SAResponse execute(SARequest request, SARealCall call) throws IOException {
+        ResponseFuture future = new ResponseFuture();
+        enqueue(request, call, future);
+        return future.await();
+    }
+
+    @Override
+    public void enqueue(SARequest request, SARealCall call, Callback callback) {
+        NioExchange exchange = new NioExchange(this, request, call, callback);
+        try {
+            call.exchangeStarted(exchange);
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return;
+        }
+        start(exchange, true);
+    }
+
+    void retryOnNewConnection(NioExchange exchange) {
+        start(exchange, false);
+    }
+
+    private void start(final NioExchange exchange, final boolean allowPooled) {
+        try {
+            blockingExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connect(exchange, allowPooled);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            InterruptedIOException ioException = new InterruptedIOException("executor rejected");
+            ioException.initCause(e);
+            exchange.onFailure(ioException, false);
+        }
+    }
+
+    /**
+     * 在 blockingExecutor 中执行：编码请求，取得连接，然后交给事件循环
+     */
+    private void connect(final NioExchange exchange, boolean allowPooled) {
+        try {
+            exchange.prepare();
+            final NioConnection pooled = allowPooled ? get(exchange.route) : null;
+            if (pooled != null) {
+                exchange.attach(pooled);
+                if (exchange.isCanceled()) {
+                    closeAsync(pooled);
+                    throw new SocketException("Canceled");
+                }
+                pooled.eventLoop().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        pooled.reuse(exchange);
+                    }
+                });
+                return;
+            }
+            final InetSocketAddress[] addresses = resolve(exchange);
+            NioEventLoop eventLoop = eventLoops[(nextEventLoop.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length];
+            final NioConnection connection = new NioConnection(this, eventLoop, exchange.route);
+            exchange.attach(connection);
+            if (exchange.isCanceled()) throw new SocketException("Canceled");
+            eventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connection.connect(addresses, exchange);
+                }
+            });
+        } catch (IOException e) {
+            exchange.onFailure(e, false);
+        } catch (RuntimeException | Error e) {
+            // 请求体、Dns 等调用方代码抛出的异常也要结束交换，否则等待响应的调用方永远不会返回
+            exchange.onFailure(new IOException(e), false);
+            if (e instanceof Error) throw (Error) e;
+        }
+    }
+
+    private InetSocketAddress[] resolve(NioExchange exchange) throws IOException {
+        String host = exchange.route.host();
+        exchange.eventListener.dnsStart(exchange.call, System.nanoTime(), host);
+        List<InetAddress> addresses = client.dns().lookup(host);
+        exchange.eventListener.dnsEnd(exchange.call, System.nanoTime(), host, addresses);
+        InetSocketAddress[] result = new InetSocketAddress[addresses.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new InetSocketAddress(addresses.get(i), exchange.route.port());
+        }
+        return result;
+    }
+
+    synchronized SSLContext sslContext() throws IOException {
+        if (sslContext == null) {
+            try {
+                sslContext = SSLContext.getDefault();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("No default SSLContext", e);
+            }
+        }
+        return sslContext;
+    }
+
+    SATlsSessionCache tlsSessionCache() {
+        return client.tlsSessionCache();
+    }
+
+    int connectTimeout() {
+        return client.connectTimeout();
+    }
+
+    int readTimeout() {
+        return client.readTimeout();
+    }
+
+    int writeTimeout() {
+        return client.writeTimeout();
+    }
+
+    /**
+     * 取出最近放回的空闲连接，顺便关闭空闲太久的连接
+     */
+    private synchronized NioConnection get(Route route) {
+        Deque<NioConnection> connections = idleConnections.get(route);
+        if (connections == null) return null;
+        long now = System.nanoTime();
+        for (NioConnection connection; (connection = connections.pollLast()) != null; ) {
+            idleConnectionCount--;
+            if (connection.isOpen() && now - connection.idleAtNanos() < keepAliveDurationNs) {
+                return connection;
+            }
+            closeAsync(connection);
+        }
+        return null;
+    }
+
+    /**
+     * 放回空闲连接，超出数量限制时关闭空闲最久的连接
+     */
+    synchronized void put(NioConnection connection) {
+        connection.idleAtNanos(System.nanoTime());
+        Deque<NioConnection> connections = idleConnections.get(connection.route());
+        if (connections == null) {
+            connections = new ArrayDeque<>();
+            idleConnections.put(connection.route(), connections);
+        }
+        connections.addLast(connection);
+        idleConnectionCount++;
+        while (idleConnectionCount > maxIdleConnections) {
+            NioConnection oldest = null;
+            for (Deque<NioConnection> deque : idleConnections.values()) {
+                NioConnection first = deque.peekFirst();
+                if (first != null && (oldest == null || first.idleAtNanos() < oldest.idleAtNanos())) {
+                    oldest = first;
+                }
+            }
+            idleConnections.get(oldest.route()).pollFirst();
+            idleConnectionCount--;
+            closeAsync(oldest);
+        }
+    }
+
+    /**
+     * 连接被关闭，如果在空闲连接中就移除
+     */
+    synchronized void remove(NioConnection connection) {
+        Deque<NioConnection> connections = idleConnections.get(connection.route());
+        if (connections == null) return;
+        for (Iterator<NioConnection> i = connections.iterator(); i.hasNext(); ) {
+            if (i.next() == connection) {
+                i.remove();
+                idleConnectionCount--;
+                return;
+            }
+        }
+    }
+
+    private static void closeAsync(final NioConnection connection) {
+        connection.eventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                connection.close();
+            }
+        });
+    }
+
+    /**
+     * 同步请求等待响应头
+     */
+    private static final class ResponseFuture implements Callback {
+        private SAResponse response;
+        private IOException failure;
+        private boolean abandoned;
+
+        @Override
+        public synchronized void onResponse(SAResponse response) {
+            if (abandoned) {
+                Util.closeQuietly(response);
+                return;
+            }
+            this.response = response;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onFailure(IOException e) {
+            this.failure = e;
+            notifyAll();
+        }
+
+        synchronized SAResponse await() throws IOException {
+            while (response == null && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    abandoned = true;
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            if (failure != null) throw failure;
+            return response;
+        }
+    }
+
+    private static final class BlockingThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SAHttp NioBlocking #" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
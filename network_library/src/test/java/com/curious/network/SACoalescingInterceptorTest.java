@@ -0,0 +1,370 @@
+package com.curious.network;
+
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SAResponseBody;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用假的网络层代替真正的请求，第一个到达 {@link SACoalescingInterceptor} 的调用是领头的请求
+ */
+public class SACoalescingInterceptorTest {
+    private static final String URL = "http://example.com/a";
+
+    private final FakeNetwork network = new FakeNetwork();
+
+    @Test
+    public void followersShareLeaderResponse() throws Exception {
+        SACoalescingInterceptor coalescing = new SACoalescingInterceptor();
+        SAHttpClient client = client(coalescing, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        network.enqueue(respondAfter(release, "shared", true));
+
+        Caller leader = Caller.start(client);
+        network.awaitRequests(1);
+        List<Caller> followers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            followers.add(Caller.start(client));
+        }
+        for (Caller follower : followers) {
+            follower.awaitWaiting();
+        }
+        release.countDown();
+
+        assertEquals("shared", leader.body());
+        for (Caller follower : followers) {
+            assertEquals("shared", follower.body());
+        }
+        assertEquals(1, network.requests.get());
+        assertEquals(3, coalescing.coalescedCount());
+    }
+
+    @Test
+    public void differentKeyHeadersAreNotCoalesced() throws Exception {
+        SACoalescingInterceptor coalescing = new SACoalescingInterceptor("Accept-Language");
+        SAHttpClient client = client(coalescing, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        network.enqueue(respondAfter(release, "en", true));
+        network.enqueue(respondAfter(null, "fr", true));
+
+        Caller english = Caller.start(client, get("Accept-Language", "en"));
+        network.awaitRequests(1);
+        Caller french = Caller.start(client, get("Accept-Language", "fr"));
+        assertEquals("fr", french.body());
+        release.countDown();
+        assertEquals("en", english.body());
+        assertEquals(0, coalescing.coalescedCount());
+    }
+
+    @Test
+    public void bodyOverMaxSizeWithContentLengthIsNotShared() throws Exception {
+        assertOversizedBodyNotShared(true);
+    }
+
+    @Test
+    public void bodyOverMaxSizeWithoutContentLengthIsNotShared() throws Exception {
+        assertOversizedBodyNotShared(false);
+    }
+
+    @Test
+    public void leaderFailureIsSharedWithFollowers() throws Exception {
+        SAHttpClient client = client(new SACoalescingInterceptor(), 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        network.enqueue(new Answer() {
+            @Override
+            public SAResponse answer(SAInterceptor.Chain chain) throws IOException {
+                await(release);
+                throw new IOException("reset");
+            }
+        });
+
+        Caller leader = Caller.start(client);
+        network.awaitRequests(1);
+        Caller follower = Caller.start(client);
+        follower.awaitWaiting();
+        release.countDown();
+
+        assertEquals("reset", leader.failure().getMessage());
+        assertEquals("reset", follower.failure().getCause().getMessage());
+        assertEquals(1, network.requests.get());
+    }
+
+    @Test
+    public void leaderRuntimeExceptionClosesResponse() throws Exception {
+        SAHttpClient client = client(new SACoalescingInterceptor(), 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean closed = new AtomicBoolean();
+        network.enqueue(new Answer() {
+            @Override
+            public SAResponse answer(SAInterceptor.Chain chain) {
+                await(release);
+                InputStream broken = new InputStream() {
+                    @Override
+                    public int read() {
+                        throw new IllegalStateException("broken body");
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.set(true);
+                    }
+                };
+                return response(chain.request(), SAResponseBody.create("text/plain", -1L, broken));
+            }
+        });
+
+        Caller leader = Caller.start(client);
+        network.awaitRequests(1);
+        Caller follower = Caller.start(client);
+        follower.awaitWaiting();
+        release.countDown();
+
+        assertTrue(leader.failure() instanceof IllegalStateException);
+        assertTrue(closed.get());
+        assertTrue(follower.failure() instanceof IOException);
+    }
+
+    @Test
+    public void canceledFollowerStopsWaiting() throws Exception {
+        SAHttpClient client = client(new SACoalescingInterceptor(), 0);
+        CountDownLatch release = new CountDownLatch(1);
+        network.enqueue(respondAfter(release, "shared", true));
+
+        Caller leader = Caller.start(client);
+        network.awaitRequests(1);
+        Caller follower = Caller.start(client);
+        follower.awaitWaiting();
+        follower.call.cancel();
+
+        assertEquals("Canceled", follower.failure().getMessage());
+        release.countDown();
+        assertEquals("shared", leader.body());
+        assertEquals(1, network.requests.get());
+    }
+
+    @Test
+    public void timedOutFollowerStopsWaiting() throws Exception {
+        SACoalescingInterceptor coalescing = new SACoalescingInterceptor();
+        CountDownLatch release = new CountDownLatch(1);
+        network.enqueue(respondAfter(release, "shared", true));
+
+        Caller leader = Caller.start(client(coalescing, 0));
+        network.awaitRequests(1);
+        Caller follower = Caller.start(client(coalescing, 100));
+
+        Throwable failure = follower.failure();
+        assertTrue(String.valueOf(failure), failure instanceof InterruptedIOException);
+        assertEquals("timeout", failure.getMessage());
+        release.countDown();
+        assertEquals("shared", leader.body());
+    }
+
+    @Test
+    public void canceledLeaderLetsFollowersProceed() throws Exception {
+        SAHttpClient client = client(new SACoalescingInterceptor(), 0);
+        network.enqueue(new Answer() {
+            @Override
+            public SAResponse answer(SAInterceptor.Chain chain) throws IOException {
+                // 像真正的交换一样登记到调用上，取消时中止
+                final CountDownLatch canceled = new CountDownLatch(1);
+                SARealCall.Cancelable exchange = new SARealCall.Cancelable() {
+                    @Override
+                    public void cancel() {
+                        canceled.countDown();
+                    }
+                };
+                SARealCall call = (SARealCall) chain.call();
+                call.exchangeStarted(exchange);
+                try {
+                    await(canceled);
+                } finally {
+                    call.exchangeFinished(exchange);
+                }
+                throw new IOException("Canceled");
+            }
+        });
+        network.enqueue(respondAfter(null, "own", true));
+
+        Caller leader = Caller.start(client);
+        network.awaitRequests(1);
+        Caller follower = Caller.start(client);
+        follower.awaitWaiting();
+        leader.call.cancel();
+
+        assertEquals("Canceled", leader.failure().getMessage());
+        assertEquals("own", follower.body());
+        assertEquals(2, network.requests.get());
+    }
+
+    private void assertOversizedBodyNotShared(boolean knownLength) throws Exception {
+        SACoalescingInterceptor coalescing = new SACoalescingInterceptor(4);
+        SAHttpClient client = client(coalescing, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        network.enqueue(respondAfter(release, "too large", knownLength));
+        network.enqueue(respondAfter(null, "own", knownLength));
+
+        Caller leader = Caller.start(client);
+        network.awaitRequests(1);
+        Caller follower = Caller.start(client);
+        follower.awaitWaiting();
+        release.countDown();
+
+        assertEquals("too large", leader.body());
+        assertEquals("own", follower.body());
+        assertEquals(2, network.requests.get());
+        assertEquals(0, coalescing.coalescedCount());
+    }
+
+    private SAHttpClient client(SACoalescingInterceptor coalescing, int callTimeoutMillis) {
+        return new SAHttpClient.Builder()
+                .callTimeout(callTimeoutMillis)
+                .addInterceptor(coalescing)
+                .addInterceptor(network)
+                .build();
+    }
+
+    private static SARequest get(String... namesAndValues) {
+        SARequest.Builder builder = new SARequest.Builder().url(SAHttpUrl.get(URL));
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            builder.setHeader(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return builder.build();
+    }
+
+    private static SAResponse response(SARequest request, SAResponseBody body) {
+        return new SAResponse.Builder().request(request).code(200).message("OK").body(body).build();
+    }
+
+    /**
+     * @param release 不为 null 时等待它再返回响应
+     */
+    private static Answer respondAfter(final CountDownLatch release, final String body, final boolean knownLength) {
+        return new Answer() {
+            @Override
+            public SAResponse answer(SAInterceptor.Chain chain) {
+                if (release != null) await(release);
+                byte[] bytes = body.getBytes();
+                return response(chain.request(), SAResponseBody.create("text/plain",
+                        knownLength ? bytes.length : -1L, new ByteArrayInputStream(bytes)));
+            }
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) throw new AssertionError("latch timed out");
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private interface Answer {
+        SAResponse answer(SAInterceptor.Chain chain) throws IOException;
+    }
+
+    /**
+     * 放在合并拦截器之后，按顺序返回预先放入的响应，不访问真正的网络
+     */
+    private static final class FakeNetwork implements SAInterceptor {
+        final AtomicInteger requests = new AtomicInteger();
+        private final LinkedList<Answer> answers = new LinkedList<>();
+
+        synchronized void enqueue(Answer answer) {
+            answers.add(answer);
+        }
+
+        void awaitRequests(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (requests.get() < count) {
+                if (System.currentTimeMillis() > deadline) throw new AssertionError("no request");
+                Thread.sleep(5);
+            }
+        }
+
+        @Override
+        public SAResponse intercept(Chain chain) throws IOException {
+            Answer answer;
+            synchronized (this) {
+                answer = answers.removeFirst();
+            }
+            requests.incrementAndGet();
+            return answer.answer(chain);
+        }
+    }
+
+    /**
+     * 在单独的线程中执行一个调用并读完响应体
+     */
+    private static final class Caller extends Thread {
+        final SARealCall call;
+        private volatile String body;
+        private volatile Throwable failure;
+
+        private Caller(SARealCall call) {
+            this.call = call;
+        }
+
+        static Caller start(SAHttpClient client) {
+            return start(client, get());
+        }
+
+        static Caller start(SAHttpClient client, SARequest request) {
+            Caller caller = new Caller((SARealCall) client.newCall(request));
+            caller.setDaemon(true);
+            caller.start();
+            return caller;
+        }
+
+        @Override
+        public void run() {
+            try {
+                SAResponse response = call.execute();
+                body = response.body().string();
+            } catch (Throwable e) {
+                failure = e;
+            }
+        }
+
+        /**
+         * 等待线程阻塞在领头请求的结果上
+         */
+        void awaitWaiting() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (getState() != State.WAITING && getState() != State.TIMED_WAITING) {
+                if (System.currentTimeMillis() > deadline) throw new AssertionError("not waiting: " + getState());
+                Thread.sleep(5);
+            }
+        }
+
+        String body() throws InterruptedException {
+            join(5000);
+            if (failure != null) throw new AssertionError(failure);
+            return body;
+        }
+
+        Throwable failure() throws InterruptedException {
+            join(5000);
+            assertNotNull("expected a failure but got " + body, failure);
+            return failure;
+        }
+    }
+}
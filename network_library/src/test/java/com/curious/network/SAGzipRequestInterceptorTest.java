@@ -0,0 +1,151 @@
+package com.curious.network;
+
+import com.curious.network.base.SACall;
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SARequestBody;
+import com.curious.network.base.SAResponse;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SAGzipRequestInterceptor} 压缩请求体，写请求体失败时不写 gzip 结尾
+ */
+public class SAGzipRequestInterceptorTest {
+    private final FakeChain chain = new FakeChain();
+
+    @Test
+    public void compressesLargeBody() throws IOException {
+        String content = repeat("hello ", 1000);
+        SARequest request = post(SARequestBody.create("text/plain", content));
+        new SAGzipRequestInterceptor().intercept(chain.with(request));
+
+        SARequest sent = chain.sent;
+        assertEquals("gzip", sent.header("Content-Encoding"));
+        assertEquals(-1, sent.body().contentLength());
+        assertEquals(content, gunzip(write(sent.body())));
+    }
+
+    @Test
+    public void smallBodyIsNotCompressed() throws IOException {
+        SARequest request = post(SARequestBody.create("text/plain", "hello"));
+        new SAGzipRequestInterceptor().intercept(chain.with(request));
+        assertSame(request, chain.sent);
+    }
+
+    @Test
+    public void otherHostsAreNotCompressed() throws IOException {
+        SARequest request = post(SARequestBody.create("text/plain", repeat("a", 2048)));
+        new SAGzipRequestInterceptor("api.example.com").intercept(chain.with(request));
+        assertSame(request, chain.sent);
+    }
+
+    @Test
+    public void failedBodyWritesNoTrailer() throws IOException {
+        SARequestBody failing = new SARequestBody() {
+            @Override
+            public String contentType() {
+                return "text/plain";
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(repeat("x", 100).getBytes("utf-8"));
+                throw new IOException("source failed");
+            }
+
+            @Override
+            public String stringContent() {
+                return null;
+            }
+        };
+        new SAGzipRequestInterceptor(0).intercept(chain.with(post(failing)));
+
+        final boolean[] closed = new boolean[1];
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        try {
+            chain.sent.body().writeTo(out);
+            fail();
+        } catch (IOException expected) {
+            assertEquals("source failed", expected.getMessage());
+        }
+        // 只有构造 gzip 流时写出的 10 字节文件头，没有压缩数据和结尾
+        assertEquals(10, out.size());
+        assertFalse(closed[0]);
+    }
+
+    private static SARequest post(SARequestBody body) {
+        return new SARequest.Builder()
+                .url(SAHttpUrl.get("http://example.com/a"))
+                .method(SARequest.HttpMethod.POST)
+                .body(body)
+                .build();
+    }
+
+    private static byte[] write(SARequestBody body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int count; (count = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, count);
+        }
+        return out.toString("utf-8");
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 记录传到下一个拦截器的请求
+     */
+    private static final class FakeChain implements SAInterceptor.Chain {
+        SARequest request;
+        SARequest sent;
+
+        FakeChain with(SARequest request) {
+            this.request = request;
+            return this;
+        }
+
+        @Override
+        public SARequest request() {
+            return request;
+        }
+
+        @Override
+        public SACall call() {
+            return null;
+        }
+
+        @Override
+        public SAResponse proceed(SARequest request) {
+            sent = request;
+            return null;
+        }
+    }
+}
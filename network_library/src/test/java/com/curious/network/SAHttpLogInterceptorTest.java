@@ -0,0 +1,46 @@
+package com.curious.network;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SAHttpLogInterceptor} 记录响应体时的解码和二进制内容判断
+ */
+public class SAHttpLogInterceptorTest {
+    private static final Charset UTF_8 = Charset.forName("utf-8");
+
+    @Test
+    public void truncatedPrefixDropsPartialCharacter() {
+        byte[] bytes = "中文".getBytes(UTF_8);
+        byte[] prefix = new byte[4];
+        System.arraycopy(bytes, 0, prefix, 0, prefix.length);
+        assertEquals("中", SAHttpLogInterceptor.decode(prefix, UTF_8, false));
+        assertTrue(SAHttpLogInterceptor.isPlaintext(SAHttpLogInterceptor.decode(prefix, UTF_8, false)));
+    }
+
+    @Test
+    public void completeBodyReportsMalformedEnding() {
+        byte[] bytes = "中文".getBytes(UTF_8);
+        byte[] body = new byte[4];
+        System.arraycopy(bytes, 0, body, 0, body.length);
+        assertEquals("中\uFFFD", SAHttpLogInterceptor.decode(body, UTF_8, true));
+    }
+
+    @Test
+    public void plaintext() {
+        assertTrue(SAHttpLogInterceptor.isPlaintext(""));
+        assertTrue(SAHttpLogInterceptor.isPlaintext("{\"a\":1}\r\n\t"));
+        assertTrue(SAHttpLogInterceptor.isPlaintext("中文"));
+    }
+
+    @Test
+    public void binary() {
+        // PNG 文件头
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 0x0d};
+        assertFalse(SAHttpLogInterceptor.isPlaintext(SAHttpLogInterceptor.decode(png, UTF_8, true)));
+        assertFalse(SAHttpLogInterceptor.isPlaintext("abc\u0000def"));
+    }
+}
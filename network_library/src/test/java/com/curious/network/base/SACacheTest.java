@@ -0,0 +1,223 @@
+package com.curious.network.base;
+
+import com.curious.network.base.internal.CacheInterceptor;
+import com.curious.network.base.internal.Util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 通过 {@link CacheInterceptor} 验证 {@link SACache} 的 304 合并、Vary 匹配和修改请求后的失效
+ */
+public class SACacheTest {
+    private static final String URL = "http://example.com/a";
+
+    private final File directory;
+    private final SACache cache;
+    private final CacheInterceptor interceptor;
+    private final FakeChain chain = new FakeChain();
+
+    public SACacheTest() throws IOException {
+        directory = Files.createTempDirectory("SACacheTest").toFile();
+        cache = new SACache(directory, 1024 * 1024);
+        interceptor = new CacheInterceptor(cache);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void notModifiedMergesHeadersIntoCache() throws IOException {
+        chain.enqueue(200, "hello",
+                "Cache-Control", "max-age=0",
+                "ETag", "\"v1\"",
+                "Content-Type", "text/plain",
+                "X-Version", "1");
+        assertEquals("hello", execute(get()).body().string());
+
+        chain.enqueue(304, "",
+                "Cache-Control", "max-age=3600",
+                "ETag", "\"v1\"",
+                "Content-Type", "application/json",
+                "X-Version", "2");
+        SAResponse response = execute(get());
+        assertEquals("\"v1\"", chain.requests.get(1).header("If-None-Match"));
+        assertEquals(200, response.code());
+        assertEquals("hello", response.body().string());
+        assertEquals("2", response.header("X-Version"));
+        // Content-* 以缓存的响应为准
+        assertEquals("text/plain", response.header("Content-Type"));
+        assertEquals(1, cache.hitCount());
+
+        // 合并后的响应头已经写回磁盘，max-age=3600 之内不再访问网络
+        response = execute(get());
+        assertEquals(2, chain.requests.size());
+        assertEquals("hello", response.body().string());
+        assertEquals("2", response.header("X-Version"));
+        assertEquals("max-age=3600", response.header("Cache-Control"));
+        assertEquals(2, cache.hitCount());
+    }
+
+    @Test
+    public void modifiedResponseReplacesCache() throws IOException {
+        chain.enqueue(200, "v1", "Cache-Control", "max-age=0", "ETag", "\"v1\"");
+        execute(get()).body().string();
+        chain.enqueue(200, "v2", "Cache-Control", "max-age=3600", "ETag", "\"v2\"");
+        assertEquals("v2", execute(get()).body().string());
+
+        assertEquals("v2", execute(get()).body().string());
+        assertEquals(2, chain.requests.size());
+    }
+
+    @Test
+    public void varyHeadersMustMatch() throws IOException {
+        chain.enqueue(200, "english", "Cache-Control", "max-age=3600", "Vary", "Accept-Language");
+        assertEquals("english", execute(get("Accept-Language", "en")).body().string());
+
+        assertEquals("english", execute(get("Accept-Language", "en")).body().string());
+        assertEquals(1, chain.requests.size());
+
+        chain.enqueue(200, "french", "Cache-Control", "max-age=3600", "Vary", "Accept-Language");
+        assertEquals("french", execute(get("Accept-Language", "fr")).body().string());
+        assertEquals(2, chain.requests.size());
+
+        // 没有这个请求头也算不匹配
+        chain.enqueue(200, "default", "Cache-Control", "max-age=3600", "Vary", "Accept-Language");
+        assertEquals("default", execute(get()).body().string());
+        assertEquals(3, chain.requests.size());
+    }
+
+    @Test
+    public void varyFieldNamesAreCaseInsensitive() throws IOException {
+        chain.enqueue(200, "gzip", "Cache-Control", "max-age=3600", "Vary", "ACCEPT-ENCODING");
+        execute(get("accept-encoding", "gzip")).body().string();
+        assertEquals("gzip", execute(get("Accept-Encoding", "gzip")).body().string());
+        assertEquals(1, chain.requests.size());
+    }
+
+    @Test
+    public void varyAllIsNotCached() throws IOException {
+        chain.enqueue(200, "a", "Cache-Control", "max-age=3600", "Vary", "*");
+        execute(get()).body().string();
+        chain.enqueue(200, "b", "Cache-Control", "max-age=3600");
+        assertEquals("b", execute(get()).body().string());
+        assertEquals(2, chain.requests.size());
+    }
+
+    @Test
+    public void postInvalidatesCache() throws IOException {
+        assertInvalidatedBy(SARequest.HttpMethod.POST);
+    }
+
+    @Test
+    public void putInvalidatesCache() throws IOException {
+        assertInvalidatedBy(SARequest.HttpMethod.PUT);
+    }
+
+    @Test
+    public void deleteInvalidatesCache() throws IOException {
+        assertInvalidatedBy(SARequest.HttpMethod.DELETE);
+    }
+
+    @Test
+    public void partiallyReadBodyIsNotCached() throws IOException {
+        chain.enqueue(200, "hello", "Cache-Control", "max-age=3600");
+        SAResponse response = execute(get());
+        response.body().byteStream().read();
+        response.close();
+        assertEquals(1, cache.writeAbortCount());
+
+        chain.enqueue(200, "hello", "Cache-Control", "max-age=3600");
+        execute(get()).body().string();
+        assertEquals(2, chain.requests.size());
+    }
+
+    private void assertInvalidatedBy(SARequest.HttpMethod method) throws IOException {
+        chain.enqueue(200, "cached", "Cache-Control", "max-age=3600");
+        execute(get()).body().string();
+        assertEquals("cached", execute(get()).body().string());
+        assertEquals(1, chain.requests.size());
+
+        chain.enqueue(200, "done");
+        SARequest modify = new SARequest.Builder()
+                .url(SAHttpUrl.get(URL))
+                .method(method)
+                .body(SARequestBody.create("text/plain", "x"))
+                .build();
+        assertEquals("done", execute(modify).body().string());
+
+        chain.enqueue(200, "fresh", "Cache-Control", "max-age=3600");
+        assertEquals("fresh", execute(get()).body().string());
+        assertEquals(3, chain.requests.size());
+    }
+
+    private SAResponse execute(SARequest request) throws IOException {
+        chain.request = request;
+        return interceptor.intercept(chain);
+    }
+
+    private static SARequest get(String... namesAndValues) {
+        SARequest.Builder builder = new SARequest.Builder().url(SAHttpUrl.get(URL));
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            builder.setHeader(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 按顺序返回预先放入的响应，记录到达网络的请求
+     */
+    private static final class FakeChain implements SAInterceptor.Chain {
+        final List<SARequest> requests = new ArrayList<>();
+        final LinkedList<SAResponse.Builder> responses = new LinkedList<>();
+        SARequest request;
+
+        void enqueue(int code, String body, String... namesAndValues) {
+            List<SAHeader> headers = new ArrayList<>();
+            for (int i = 0; i < namesAndValues.length; i += 2) {
+                headers.add(new SAHeader(namesAndValues[i], namesAndValues[i + 1], true));
+            }
+            byte[] bytes = body.getBytes(Util.UTF_8);
+            responses.add(new SAResponse.Builder()
+                    .code(code)
+                    .message("")
+                    .headers(headers)
+                    .body(SAResponseBody.create(Util.headerValue(headers, "Content-Type"), bytes.length,
+                            new ByteArrayInputStream(bytes))));
+        }
+
+        @Override
+        public SARequest request() {
+            return request;
+        }
+
+        @Override
+        public SACall call() {
+            return null;
+        }
+
+        @Override
+        public SAResponse proceed(SARequest request) {
+            requests.add(request);
+            long now = System.currentTimeMillis();
+            return responses.removeFirst()
+                    .request(request)
+                    .sentRequestAtMillis(now)
+                    .receivedResponseAtMillis(now)
+                    .build();
+        }
+    }
+}
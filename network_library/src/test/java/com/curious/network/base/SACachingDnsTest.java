@@ -0,0 +1,195 @@
+package com.curious.network.base;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SACachingDns} 的 ttl 过期、失败缓存、提前刷新和预解析
+ */
+public class SACachingDnsTest {
+    private static final String HOST = "example.com";
+
+    private final FakeDns delegate = new FakeDns();
+
+    @Test
+    public void cachesUntilTtlExpires() throws Exception {
+        SACachingDns dns = new SACachingDns(delegate, 300, 0, TimeUnit.MILLISECONDS);
+        delegate.address = address(1);
+        assertEquals(address(1), dns.lookup(HOST).get(0));
+        delegate.address = address(2);
+        // host 不区分大小写
+        assertEquals(address(1), dns.lookup("EXAMPLE.com").get(0));
+        assertEquals(1, delegate.lookups.get());
+        assertEquals(1, dns.hitCount());
+
+        Thread.sleep(350);
+        assertEquals(address(2), dns.lookup(HOST).get(0));
+        assertEquals(2, delegate.lookups.get());
+        assertEquals(2, dns.missCount());
+    }
+
+    @Test
+    public void failuresAreCachedForNegativeTtl() throws Exception {
+        SACachingDns dns = new SACachingDns(delegate, 60, 300, TimeUnit.MILLISECONDS);
+        assertUnknownHost(dns);
+        assertUnknownHost(dns);
+        assertEquals(1, delegate.lookups.get());
+        assertEquals(1, dns.hitCount());
+
+        Thread.sleep(350);
+        delegate.address = address(1);
+        assertEquals(address(1), dns.lookup(HOST).get(0));
+        assertEquals(2, delegate.lookups.get());
+    }
+
+    @Test
+    public void zeroNegativeTtlDoesNotCacheFailures() throws Exception {
+        SACachingDns dns = new SACachingDns(delegate, 60, 0, TimeUnit.SECONDS);
+        assertUnknownHost(dns);
+        assertUnknownHost(dns);
+        assertEquals(2, delegate.lookups.get());
+    }
+
+    @Test
+    public void emptyResultIsAFailure() throws Exception {
+        SADns empty = new SADns() {
+            @Override
+            public List<InetAddress> lookup(String hostname) {
+                return Collections.emptyList();
+            }
+        };
+        SACachingDns dns = new SACachingDns(empty, 60, 0, TimeUnit.SECONDS);
+        try {
+            dns.lookup(HOST);
+            fail();
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    @Test
+    public void refreshesAheadOfExpiry() throws Exception {
+        // 剩余不到 1/4 ttl，也就是 300ms 之后开始刷新
+        SACachingDns dns = new SACachingDns(delegate, 400, 0, TimeUnit.MILLISECONDS);
+        delegate.address = address(1);
+        dns.lookup(HOST);
+
+        Thread.sleep(320);
+        delegate.address = address(2);
+        // 不等待刷新，仍然返回缓存的结果
+        assertEquals(address(1), dns.lookup(HOST).get(0));
+        delegate.awaitLookups(2);
+        assertEquals(1, dns.refreshCount());
+        assertEquals(1, dns.missCount());
+
+        awaitAddress(dns, address(2));
+        assertEquals(2, delegate.lookups.get());
+    }
+
+    @Test
+    public void failedRefreshKeepsUnexpiredResult() throws Exception {
+        SACachingDns dns = new SACachingDns(delegate, 400, 300, TimeUnit.MILLISECONDS);
+        delegate.address = address(1);
+        dns.lookup(HOST);
+
+        Thread.sleep(320);
+        delegate.address = null;
+        dns.lookup(HOST);
+        delegate.awaitLookups(2);
+        // 等后台刷新结束
+        Thread.sleep(20);
+        assertEquals(address(1), dns.lookup(HOST).get(0));
+    }
+
+    @Test
+    public void prefetchResolvesInBackground() throws Exception {
+        SACachingDns dns = new SACachingDns(delegate, 60, 0, TimeUnit.SECONDS);
+        delegate.address = address(1);
+        dns.prefetch(HOST, null);
+        delegate.awaitLookups(1);
+        awaitAddress(dns, address(1));
+        assertEquals(0, dns.missCount());
+        assertEquals(1, dns.refreshCount());
+
+        // 已经缓存并且不需要刷新的 host 被跳过
+        dns.prefetch(HOST);
+        assertEquals(1, dns.refreshCount());
+        assertEquals(1, delegate.lookups.get());
+    }
+
+    @Test
+    public void uncheckedExceptionsAreRethrownUnchanged() throws Exception {
+        final IllegalArgumentException failure = new IllegalArgumentException("bad host");
+        SADns throwing = new SADns() {
+            @Override
+            public List<InetAddress> lookup(String hostname) {
+                throw failure;
+            }
+        };
+        SACachingDns dns = new SACachingDns(throwing, 60, 10, TimeUnit.SECONDS);
+        try {
+            dns.lookup(HOST);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    private static void assertUnknownHost(SACachingDns dns) {
+        try {
+            dns.lookup(HOST);
+            fail();
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    /**
+     * 等待后台解析写入缓存，只通过命中的查询检查，不会触发新的解析
+     */
+    private static void awaitAddress(SACachingDns dns, InetAddress expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            long misses = dns.missCount();
+            InetAddress actual = dns.lookup(HOST).get(0);
+            assertEquals(misses, dns.missCount());
+            if (expected.equals(actual)) return;
+            if (System.currentTimeMillis() > deadline) fail("expected " + expected + " but was " + actual);
+            Thread.sleep(5);
+        }
+    }
+
+    private static InetAddress address(int last) throws UnknownHostException {
+        return InetAddress.getByAddress(HOST, new byte[]{10, 0, 0, (byte) last});
+    }
+
+    /**
+     * 返回 address，为 null 时解析失败
+     */
+    private static final class FakeDns implements SADns {
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile InetAddress address;
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            lookups.incrementAndGet();
+            InetAddress result = address;
+            if (result == null) throw new UnknownHostException(hostname);
+            return Collections.singletonList(result);
+        }
+
+        void awaitLookups(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (lookups.get() < count) {
+                if (System.currentTimeMillis() > deadline) fail("no lookup");
+                Thread.sleep(5);
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.curious.network.base;
+
+import com.curious.network.base.SACircuitBreakerInterceptor.CircuitOpenException;
+import com.curious.network.base.SACircuitBreakerInterceptor.State;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SACircuitBreakerInterceptorTest {
+    private static final String HOST = "example.com";
+
+    private final SAHttpClient client = new SAHttpClient.Builder().build();
+    private final List<String> transitions = Collections.synchronizedList(new ArrayList<String>());
+    private final SACircuitBreakerInterceptor.Listener listener = new SACircuitBreakerInterceptor.Listener() {
+        @Override
+        public void onStateChange(String host, State from, State to) {
+            transitions.add(from + "->" + to);
+        }
+    };
+
+    @Test
+    public void opensWhenFailureRateReached() throws IOException {
+        SACircuitBreakerInterceptor breaker = newBuilder().build();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(200, breaker.intercept(new FakeChain(200)).code());
+        }
+        assertEquals(503, breaker.intercept(new FakeChain(503)).code());
+        assertEquals(State.CLOSED, breaker.state(HOST));
+        expectFailure(breaker, new FakeChain(new IOException("reset")));
+        assertEquals(State.CLOSED, breaker.state(HOST));
+        expectFailure(breaker, new FakeChain(new IOException("reset")));
+        // 6 次调用中 3 次失败
+        assertEquals(State.OPEN, breaker.state(HOST));
+
+        FakeChain rejected = new FakeChain(200);
+        try {
+            breaker.intercept(rejected);
+            fail();
+        } catch (CircuitOpenException e) {
+            assertEquals(HOST, e.host());
+        }
+        assertEquals(0, rejected.proceeded);
+    }
+
+    @Test
+    public void canceledCallsAreNotCounted() throws IOException {
+        SACircuitBreakerInterceptor breaker = newBuilder().build();
+        for (int i = 0; i < 10; i++) {
+            FakeChain chain = new FakeChain(new IOException("Canceled"));
+            chain.call.cancel();
+            expectFailure(breaker, chain);
+        }
+        assertEquals(State.CLOSED, breaker.state(HOST));
+    }
+
+    @Test
+    public void halfOpenClosesAfterProbesSucceed() throws IOException {
+        SACircuitBreakerInterceptor breaker = newBuilder().openDuration(0, TimeUnit.MILLISECONDS).build();
+        open(breaker);
+        for (int i = 0; i < 2; i++) {
+            breaker.intercept(new FakeChain(200));
+            assertEquals(State.HALF_OPEN, breaker.state(HOST));
+        }
+        breaker.intercept(new FakeChain(200));
+        assertEquals(State.CLOSED, breaker.state(HOST));
+        assertEquals(Arrays.asList("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+
+        // 恢复后重新统计，之前的失败不再计入
+        breaker.intercept(new FakeChain(503));
+        assertEquals(State.CLOSED, breaker.state(HOST));
+    }
+
+    @Test
+    public void failedProbeReopens() throws IOException {
+        SACircuitBreakerInterceptor breaker = newBuilder().openDuration(0, TimeUnit.MILLISECONDS).build();
+        open(breaker);
+        breaker.intercept(new FakeChain(503));
+        assertEquals(Arrays.asList("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->OPEN"), transitions);
+    }
+
+    /**
+     * 半开状态下被拒绝的调用不消耗探测次数，被取消的探测归还探测次数
+     */
+    @Test
+    public void canceledProbeReturnsPermit() throws Exception {
+        SACircuitBreakerInterceptor breaker = newBuilder()
+                .openDuration(0, TimeUnit.MILLISECONDS)
+                .probeCalls(1)
+                .build();
+        open(breaker);
+
+        FakeChain probe = new FakeChain(new IOException("Canceled"));
+        probe.await = new CountDownLatch(1);
+        Thread thread = intercept(breaker, probe);
+        probe.entered.await(5, TimeUnit.SECONDS);
+        assertEquals(State.HALF_OPEN, breaker.state(HOST));
+        for (int i = 0; i < 5; i++) {
+            try {
+                breaker.intercept(new FakeChain(200));
+                fail();
+            } catch (CircuitOpenException expected) {
+            }
+        }
+        probe.call.cancel();
+        probe.await.countDown();
+        thread.join(5000);
+
+        breaker.intercept(new FakeChain(200));
+        assertEquals(State.CLOSED, breaker.state(HOST));
+    }
+
+    /**
+     * 上一轮半开状态的探测在重新熔断之后才结束，不计入下一轮
+     */
+    @Test
+    public void staleProbeIgnored() throws Exception {
+        SACircuitBreakerInterceptor breaker = newBuilder()
+                .openDuration(0, TimeUnit.MILLISECONDS)
+                .probeCalls(2)
+                .build();
+        open(breaker);
+
+        FakeChain slowProbe = new FakeChain(200);
+        slowProbe.await = new CountDownLatch(1);
+        Thread thread = intercept(breaker, slowProbe);
+        slowProbe.entered.await(5, TimeUnit.SECONDS);
+        breaker.intercept(new FakeChain(503));
+        assertEquals(State.OPEN, breaker.state(HOST));
+
+        // 下一轮的第一个探测成功后，上一轮的探测也成功了，仍然需要这一轮的第二个探测
+        breaker.intercept(new FakeChain(200));
+        slowProbe.await.countDown();
+        thread.join(5000);
+        assertEquals(State.HALF_OPEN, breaker.state(HOST));
+        breaker.intercept(new FakeChain(200));
+        assertEquals(State.CLOSED, breaker.state(HOST));
+    }
+
+    private SACircuitBreakerInterceptor.Builder newBuilder() {
+        return new SACircuitBreakerInterceptor.Builder()
+                .minimumCalls(4)
+                .failureRateThreshold(50)
+                .probeCalls(3)
+                .listener(listener);
+    }
+
+    private void open(SACircuitBreakerInterceptor breaker) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            breaker.intercept(new FakeChain(500));
+        }
+    }
+
+    private static void expectFailure(SACircuitBreakerInterceptor breaker, FakeChain chain) {
+        try {
+            breaker.intercept(chain);
+            fail();
+        } catch (CircuitOpenException e) {
+            throw new AssertionError(e);
+        } catch (IOException expected) {
+        }
+    }
+
+    private static Thread intercept(final SACircuitBreakerInterceptor breaker, final FakeChain chain) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    breaker.intercept(chain);
+                } catch (IOException ignored) {
+                    // 由测试检查熔断状态
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private final class FakeChain implements SAInterceptor.Chain {
+        final SARequest request = new SARequest.Builder().url(SAHttpUrl.get("http://" + HOST + "/")).build();
+        final SACall call = client.newCall(request);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final int code;
+        final IOException failure;
+        CountDownLatch await;
+        int proceeded;
+
+        FakeChain(int code) {
+            this.code = code;
+            this.failure = null;
+        }
+
+        FakeChain(IOException failure) {
+            this.code = 0;
+            this.failure = failure;
+        }
+
+        @Override
+        public SARequest request() {
+            return request;
+        }
+
+        @Override
+        public SACall call() {
+            return call;
+        }
+
+        @Override
+        public SAResponse proceed(SARequest request) throws IOException {
+            proceeded++;
+            entered.countDown();
+            if (await != null) {
+                try {
+                    await.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (failure != null) throw failure;
+            return new SAResponse.Builder().request(request).code(code).message("").build();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.curious.network.base;
+
+import com.curious.network.base.internal.ChannelRequestBody;
+import com.curious.network.base.internal.Util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SAMultipartBody} 的编码格式，以及提前算出的长度和实际写出的字节数一致
+ */
+public class SAMultipartBodyTest {
+    private final File file;
+
+    public SAMultipartBodyTest() throws IOException {
+        file = File.createTempFile("SAMultipartBodyTest", ".txt");
+        OutputStream out = new FileOutputStream(file);
+        out.write("file content\n".getBytes(Util.UTF_8));
+        out.close();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void encoding() throws IOException {
+        SAMultipartBody body = new SAMultipartBody.Builder("AaB03x")
+                .addFormDataPart("title", "holiday")
+                .addFormDataPart("photo", "1.jpg", SARequestBody.create("image/jpeg", new byte[]{'j', 'p', 'g'}))
+                .build();
+        String expected = ""
+                + "--AaB03x\r\n"
+                + "Content-Disposition: form-data; name=\"title\"\r\n"
+                + "Content-Length: 7\r\n"
+                + "\r\n"
+                + "holiday\r\n"
+                + "--AaB03x\r\n"
+                + "Content-Disposition: form-data; name=\"photo\"; filename=\"1.jpg\"\r\n"
+                + "Content-Type: image/jpeg\r\n"
+                + "Content-Length: 3\r\n"
+                + "\r\n"
+                + "jpg\r\n"
+                + "--AaB03x--\r\n";
+        assertEquals("multipart/form-data; boundary=AaB03x", body.contentType());
+        assertEquals(expected, new String(write(body), Util.UTF_8));
+        assertEquals(expected.length(), body.contentLength());
+    }
+
+    @Test
+    public void otherMultipartType() throws IOException {
+        List<SAHeader> headers = new ArrayList<>();
+        headers.add(new SAHeader("Content-ID", "<1>", true));
+        SAMultipartBody body = new SAMultipartBody.Builder("b")
+                .setType(SAMultipartBody.MIXED)
+                .addPart(headers, SARequestBody.create("text/plain", "a"))
+                .build();
+        assertEquals("multipart/mixed; boundary=b", body.contentType());
+        assertTrue(new String(write(body), Util.UTF_8).startsWith("--b\r\nContent-ID: <1>\r\n"));
+    }
+
+    @Test
+    public void quotedStringsAreEscapedAndUtf8Encoded() throws IOException {
+        SAMultipartBody body = new SAMultipartBody.Builder("b")
+                .addFormDataPart("a\"b\r\nc", "照片.jpg", SARequestBody.create("image/jpeg", new byte[0]))
+                .build();
+        String written = new String(write(body), Util.UTF_8);
+        assertTrue(written, written.contains(
+                "Content-Disposition: form-data; name=\"a%22b%0D%0Ac\"; filename=\"照片.jpg\"\r\n"));
+        assertEquals(write(body).length, body.contentLength());
+    }
+
+    @Test
+    public void contentLengthMatchesWrittenBytes() throws IOException {
+        SAMultipartBody body = new SAMultipartBody.Builder()
+                .addFormDataPart("text", "多字节文本")
+                .addFormDataPart("empty", null)
+                .addFormDataPart("file", "text/plain", file)
+                .addFormDataPart("bytes", "b.bin", SARequestBody.create("application/octet-stream", new byte[100]))
+                .build();
+        byte[] written = write(body);
+        assertEquals(written.length, body.contentLength());
+
+        // 写入 channel 时文件部分直接从 channel 传输，结果和写入 OutputStream 一样
+        ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+        body.writeTo(Channels.newChannel(channelOut));
+        assertArrayEquals(written, channelOut.toByteArray());
+    }
+
+    @Test
+    public void segmentsMatchWrittenBytes() throws IOException {
+        SAMultipartBody body = new SAMultipartBody.Builder()
+                .addFormDataPart("text", "value")
+                .addFormDataPart("file", "text/plain", file)
+                .addFormDataPart("more", "value")
+                .build();
+        List<ChannelRequestBody.Segment> segments = new ArrayList<>();
+        assertTrue(body.segments(segments));
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        long total = 0;
+        for (ChannelRequestBody.Segment segment : segments) {
+            total += segment.length();
+            if (segment.file() != null) {
+                assertEquals(file, segment.file());
+                joined.write(Files.readAllBytes(file.toPath()));
+            } else {
+                joined.write(segment.bytes());
+            }
+        }
+        assertEquals(body.contentLength(), total);
+        assertArrayEquals(write(body), joined.toByteArray());
+    }
+
+    @Test
+    public void unknownPartLengthMakesBodyLengthUnknown() throws IOException {
+        SARequestBody stream = SARequestBody.create("text/plain",
+                Channels.newChannel(new ByteArrayInputStream("abc".getBytes(Util.UTF_8))), -1);
+        SAMultipartBody body = new SAMultipartBody.Builder("b")
+                .addFormDataPart("text", "value")
+                .addFormDataPart("stream", "s.txt", stream)
+                .build();
+        assertEquals(-1, body.contentLength());
+        assertFalse(body.segments(new ArrayList<ChannelRequestBody.Segment>()));
+        assertTrue(body.isOneShot());
+        String written = new String(write(body), Util.UTF_8);
+        assertTrue(written, written.contains("filename=\"s.txt\"\r\nContent-Type: text/plain\r\n\r\nabc\r\n"));
+    }
+
+    @Test
+    public void invalidParts() {
+        try {
+            new SAMultipartBody.Builder().build();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            new SAMultipartBody.Builder().setType("text/plain");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new SAMultipartBody.Builder().addPart(
+                    Collections.singletonList(new SAHeader("content-type", "text/plain", true)),
+                    SARequestBody.create("text/plain", "a"));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static byte[] write(SARequestBody body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return out.toByteArray();
+    }
+}
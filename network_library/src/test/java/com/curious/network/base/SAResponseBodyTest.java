@@ -0,0 +1,40 @@
+package com.curious.network.base;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SAResponseBodyTest {
+
+    @Test
+    public void stringDecodesDeclaredCharset() throws IOException {
+        byte[] data = "中文".getBytes("GBK");
+        assertEquals("中文", body("text/plain; charset=GBK", data).string());
+    }
+
+    @Test
+    public void stringAfterBytesUsesBufferedBytes() throws IOException {
+        byte[] data = "hello".getBytes("UTF-8");
+        SAResponseBody body = body("text/plain", data);
+        assertArrayEquals(data, body.bytes());
+        assertEquals("hello", body.string());
+        assertArrayEquals(data, body.bytes());
+    }
+
+    /**
+     * string() 没有保留原始字节，重新编码会改变无法解码的字节
+     */
+    @Test(expected = IllegalStateException.class)
+    public void bytesAfterStringThrows() throws IOException {
+        SAResponseBody body = body("text/plain; charset=utf-8", new byte[]{'a', (byte) 0xff, 'b'});
+        assertEquals("a\ufffdb", body.string());
+        body.bytes();
+    }
+
+    private static SAResponseBody body(String contentType, byte[] data) {
+        return SAResponseBody.create(contentType, data.length, new ByteArrayInputStream(data));
+    }
+}
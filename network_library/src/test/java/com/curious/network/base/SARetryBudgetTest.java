@@ -0,0 +1,105 @@
+package com.curious.network.base;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SARetryBudgetTest {
+
+    @Test
+    public void startsFullAndExhausts() {
+        SARetryBudget budget = new SARetryBudget(0.1, 3);
+        assertEquals(3.0, budget.tokens(), 0);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(budget.tryWithdraw());
+        }
+        assertFalse(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+        assertEquals(3, budget.retryCount());
+        assertEquals(2, budget.exhaustedCount());
+        assertEquals(0.0, budget.tokens(), 0);
+    }
+
+    /**
+     * 每 10 个调用存入一个令牌
+     */
+    @Test
+    public void depositsRefillByRatio() {
+        SARetryBudget budget = new SARetryBudget(0.1, 3);
+        drain(budget);
+        for (int i = 0; i < 9; i++) {
+            budget.deposit();
+        }
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    public void balanceCappedAtMaxTokens() {
+        SARetryBudget budget = new SARetryBudget(1, 2);
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+        assertEquals(2.0, budget.tokens(), 0);
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    public void zeroMaxTokensNeverRetries() {
+        SARetryBudget budget = new SARetryBudget(0.5, 0);
+        budget.deposit();
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRatioRejected() {
+        new SARetryBudget(-0.1, 10);
+    }
+
+    /**
+     * 并发取出时不会超过桶里的令牌数
+     */
+    @Test
+    public void concurrentWithdrawNeverOverdraws() throws InterruptedException {
+        final SARetryBudget budget = new SARetryBudget(0.1, 100);
+        final AtomicInteger granted = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 100; j++) {
+                        if (budget.tryWithdraw()) granted.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, granted.get());
+        assertEquals(100, budget.retryCount());
+        assertEquals(700, budget.exhaustedCount());
+    }
+
+    private static void drain(SARetryBudget budget) {
+        while (budget.tryWithdraw()) {
+            // 取完所有令牌
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.curious.network.base;
+
+import com.curious.network.base.internal.cache.HttpDate;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SARetryPolicyTest {
+    private final SARetryPolicy policy = new SARetryPolicy.Builder()
+            .backoff(100, 1000, TimeUnit.MILLISECONDS)
+            .maxRetryAfter(10, TimeUnit.SECONDS)
+            .build();
+
+    @Test
+    public void backoffStaysWithinExponentialCeiling() {
+        for (int retryTimes = 0; retryTimes < 100; retryTimes++) {
+            long ceiling = retryTimes < 4 ? 100L << retryTimes : 1000;
+            for (int i = 0; i < 200; i++) {
+                long delay = policy.backoffMillis(retryTimes);
+                assertTrue("retryTimes=" + retryTimes + " delay=" + delay, delay >= 0 && delay < ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void zeroBaseDelayRetriesImmediately() {
+        SARetryPolicy immediate = new SARetryPolicy.Builder().backoff(0, 0, TimeUnit.MILLISECONDS).build();
+        assertEquals(0, immediate.backoffMillis(0));
+        assertEquals(0, immediate.backoffMillis(70));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxDelayBelowBaseDelayRejected() {
+        new SARetryPolicy.Builder().backoff(2, 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void retryAfterSeconds() {
+        assertEquals(2000, policy.retryAfterMillis(response(503, "2"), 0));
+        assertEquals(3000, policy.retryAfterMillis(response(429, " 3 "), 0));
+        assertEquals(0, policy.retryAfterMillis(response(429, "0"), 0));
+    }
+
+    @Test
+    public void retryAfterHttpDate() {
+        long delay = policy.retryAfterMillis(response(503, HttpDate.format(new Date(System.currentTimeMillis() + 5000))), 0);
+        // HTTP 日期精确到秒
+        assertTrue("delay=" + delay, delay > 3000 && delay <= 5000);
+        assertEquals(0, policy.retryAfterMillis(response(503, HttpDate.format(new Date(0))), 0));
+    }
+
+    @Test
+    public void retryAfterBeyondLimitOrInvalidNotRetried() {
+        assertEquals(-1, policy.retryAfterMillis(response(503, "11"), 0));
+        assertEquals(-1, policy.retryAfterMillis(response(503, "-1"), 0));
+        assertEquals(-1, policy.retryAfterMillis(response(503, "soon"), 0));
+        assertEquals(-1, policy.retryAfterMillis(response(503, String.valueOf(Long.MAX_VALUE)), 0));
+    }
+
+    @Test
+    public void missingRetryAfterUsesBackoff() {
+        long delay = policy.retryAfterMillis(response(429, null), 1);
+        assertTrue("delay=" + delay, delay >= 0 && delay < 200);
+    }
+
+    @Test
+    public void otherStatusCodesNotRetried() {
+        assertEquals(-1, policy.retryAfterMillis(response(500, "1"), 0));
+        assertEquals(-1, policy.retryAfterMillis(response(200, null), 0));
+    }
+
+    @Test
+    public void onlyIdempotentMethodsRetriedByDefault() {
+        assertTrue(policy.permitsRetry(request(SARequest.HttpMethod.GET)));
+        assertTrue(policy.permitsRetry(request(SARequest.HttpMethod.PUT)));
+        assertFalse(policy.permitsRetry(request(SARequest.HttpMethod.POST)));
+
+        SARetryPolicy nonIdempotent = new SARetryPolicy.Builder().retryNonIdempotent(true).build();
+        assertTrue(nonIdempotent.permitsRetry(request(SARequest.HttpMethod.POST)));
+    }
+
+    @Test
+    public void acquireRetryUsesBudget() {
+        SARetryPolicy budgeted = new SARetryPolicy.Builder().budget(new SARetryBudget(0.5, 1)).build();
+        assertTrue(budgeted.acquireRetry());
+        assertFalse(budgeted.acquireRetry());
+        budgeted.callStarted();
+        budgeted.callStarted();
+        assertTrue(budgeted.acquireRetry());
+
+        SARetryPolicy unlimited = new SARetryPolicy.Builder().budget(null).build();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(unlimited.acquireRetry());
+        }
+    }
+
+    private static SARequest request(SARequest.HttpMethod method) {
+        return new SARequest.Builder().url(SAHttpUrl.get("http://example.com/")).method(method).build();
+    }
+
+    private static SAResponse response(int code, String retryAfter) {
+        SAResponse.Builder builder = new SAResponse.Builder().request(request(SARequest.HttpMethod.GET)).code(code);
+        if (retryAfter != null) builder.header("Retry-After", retryAfter);
+        return builder.build();
+    }
+}
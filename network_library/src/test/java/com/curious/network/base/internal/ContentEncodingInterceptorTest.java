@@ -0,0 +1,319 @@
+package com.curious.network.base.internal;
+
+import com.curious.network.base.SACall;
+import com.curious.network.base.SAConnectionPool;
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SAResponseBody;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ContentEncodingInterceptor} 识别 gzip、zlib 和裸 deflate，去掉编码相关的响应头，解压结束后读完原始流
+ */
+public class ContentEncodingInterceptorTest {
+    private static final String URL = "http://example.com/a";
+    private static final String CONTENT = "hello hello hello hello, 你好";
+
+    @Test
+    public void gzipIsDecoded() throws IOException {
+        assertDecoded("gzip", gzip(CONTENT));
+    }
+
+    @Test
+    public void zlibDeflateIsDecoded() throws IOException {
+        assertDecoded("deflate", deflate(CONTENT, false));
+    }
+
+    @Test
+    public void rawDeflateIsDecoded() throws IOException {
+        assertDecoded("deflate", deflate(CONTENT, true));
+    }
+
+    @Test
+    public void encodingNameIsCaseInsensitive() throws IOException {
+        assertDecoded("GZIP", gzip(CONTENT));
+    }
+
+    @Test
+    public void identityIsUnchanged() {
+        SAResponse response = response(200, "br", new byte[]{1, 2, 3});
+        assertSame(response, ContentEncodingInterceptor.decode(response));
+        response = response(200, null, new byte[]{1, 2, 3});
+        assertSame(response, ContentEncodingInterceptor.decode(response));
+    }
+
+    @Test
+    public void responsesWithoutBodyOnlyLoseHeaders() throws IOException {
+        SAResponse response = ContentEncodingInterceptor.decode(response(304, "gzip", new byte[0]));
+        assertNull(response.header("Content-Encoding"));
+        assertNull(response.header("Content-Length"));
+        assertEquals("", response.body().string());
+    }
+
+    @Test
+    public void sourceIsReadToEnd() throws IOException {
+        assertSourceExhausted("gzip", gzip(CONTENT));
+        assertSourceExhausted("deflate", deflate(CONTENT, false));
+        assertSourceExhausted("deflate", deflate(CONTENT, true));
+    }
+
+    @Test
+    public void interceptAddsAcceptEncoding() throws IOException {
+        FakeChain chain = new FakeChain(response(200, "gzip", gzip(CONTENT)));
+        SAResponse response = new ContentEncodingInterceptor().intercept(chain.with(request()));
+        assertEquals("gzip, deflate", chain.sent.header("Accept-Encoding"));
+        assertEquals(CONTENT, response.body().string());
+    }
+
+    @Test
+    public void explicitAcceptEncodingIsNotDecoded() throws IOException {
+        assertNotTransparent(request("Accept-Encoding", "gzip"));
+        // Range 的偏移量针对编码后的数据
+        assertNotTransparent(request("Range", "bytes=0-9"));
+    }
+
+    @Test
+    public void connectionIsPooledWhenDecodedBodyIsReadToEnd() throws Exception {
+        final byte[] body = deflate(CONTENT, false);
+        final AtomicInteger accepted = new AtomicInteger();
+        final ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        accepted.incrementAndGet();
+                        serve(socket, body);
+                    }
+                } catch (IOException ignored) {
+                    // 服务器关闭
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+
+        SAConnectionPool pool = new SAConnectionPool();
+        SAHttpClient client = new SAHttpClient.Builder().connectionPool(pool).build();
+        SARequest request = new SARequest.Builder()
+                .url(SAHttpUrl.get("http://127.0.0.1:" + server.getLocalPort() + "/"))
+                .build();
+        try {
+            for (int i = 0; i < 2; i++) {
+                SAResponse response = client.newCall(request).execute();
+                InputStream in = response.body().byteStream();
+                assertEquals(CONTENT, readUtf8(in));
+                // 没有关闭，解压结束时就已经读完原始流，连接回到连接池
+                assertEquals(1, pool.idleConnectionCount());
+                in.close();
+            }
+            assertEquals(1, accepted.get());
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void assertDecoded(String encoding, byte[] encoded) throws IOException {
+        SAResponse response = ContentEncodingInterceptor.decode(response(200, encoding, encoded));
+        assertNull(response.header("Content-Encoding"));
+        assertNull(response.header("Content-Length"));
+        assertEquals("text/plain", response.header("Content-Type"));
+        assertEquals(-1, response.body().contentLength());
+        assertEquals(CONTENT, response.body().string());
+    }
+
+    private static void assertSourceExhausted(String encoding, byte[] encoded) throws IOException {
+        RecordingInputStream source = new RecordingInputStream(new ByteArrayInputStream(encoded));
+        SAResponse response = ContentEncodingInterceptor.decode(new SAResponse.Builder()
+                .request(request())
+                .code(200)
+                .header("Content-Encoding", encoding)
+                .body(SAResponseBody.create("text/plain", encoded.length, source))
+                .build());
+        InputStream in = response.body().byteStream();
+        assertEquals(CONTENT, readUtf8(in));
+        assertTrue(encoding, source.exhausted);
+        assertFalse(source.closed);
+        in.close();
+        assertTrue(source.closed);
+    }
+
+    private static void assertNotTransparent(SARequest request) throws IOException {
+        SAResponse network = response(200, "gzip", gzip(CONTENT));
+        FakeChain chain = new FakeChain(network);
+        SAResponse response = new ContentEncodingInterceptor().intercept(chain.with(request));
+        assertSame(request, chain.sent);
+        assertSame(network, response);
+    }
+
+    /**
+     * 一个连接上按顺序回应 GET 请求，每次返回同样的 chunked deflate 响应
+     */
+    private static void serve(Socket socket, byte[] body) throws IOException {
+        InputStream in = socket.getInputStream();
+        OutputStream out = socket.getOutputStream();
+        try {
+            while (readRequestHead(in)) {
+                String head = "HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: text/plain; charset=utf-8\r\n"
+                        + "Content-Encoding: deflate\r\n"
+                        + "Transfer-Encoding: chunked\r\n"
+                        + "\r\n"
+                        + Integer.toHexString(body.length) + "\r\n";
+                out.write(head.getBytes(Util.ISO_8859_1));
+                out.write(body);
+                // 解压结束时还没有读到最后的空块
+                out.write("\r\n0\r\n\r\n".getBytes(Util.ISO_8859_1));
+                out.flush();
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * 读到请求头结尾的空行，连接关闭时返回 false
+     */
+    private static boolean readRequestHead(InputStream in) throws IOException {
+        int matched = 0;
+        byte[] end = {'\r', '\n', '\r', '\n'};
+        int b;
+        while ((b = in.read()) != -1) {
+            matched = b == end[matched] ? matched + 1 : (b == '\r' ? 1 : 0);
+            if (matched == end.length) return true;
+        }
+        return false;
+    }
+
+    private static SARequest request(String... namesAndValues) {
+        SARequest.Builder builder = new SARequest.Builder().url(SAHttpUrl.get(URL));
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            builder.setHeader(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return builder.build();
+    }
+
+    private static SAResponse response(int code, String encoding, byte[] body) {
+        SAResponse.Builder builder = new SAResponse.Builder()
+                .request(request())
+                .code(code)
+                .header("Content-Type", "text/plain")
+                .header("Content-Length", Integer.toString(body.length));
+        if (encoding != null) builder.header("Content-Encoding", encoding);
+        return builder.body(SAResponseBody.create("text/plain", body.length, new ByteArrayInputStream(body))).build();
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(content.getBytes(Util.UTF_8));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(String content, boolean nowrap) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+        DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+        out.write(content.getBytes(Util.UTF_8));
+        out.close();
+        deflater.end();
+        return bytes.toByteArray();
+    }
+
+    private static String readUtf8(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        for (int count; (count = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, count);
+        }
+        return new String(out.toByteArray(), Util.UTF_8);
+    }
+
+    /**
+     * 记录原始流是否读到了结尾、是否被关闭
+     */
+    private static final class RecordingInputStream extends FilterInputStream {
+        boolean exhausted;
+        boolean closed;
+
+        RecordingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) exhausted = true;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count == -1) exhausted = true;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    /**
+     * 记录传到下一个拦截器的请求，返回固定的响应
+     */
+    private static final class FakeChain implements SAInterceptor.Chain {
+        private final SAResponse response;
+        SARequest request;
+        SARequest sent;
+
+        FakeChain(SAResponse response) {
+            this.response = response;
+        }
+
+        FakeChain with(SARequest request) {
+            this.request = request;
+            return this;
+        }
+
+        @Override
+        public SARequest request() {
+            return request;
+        }
+
+        @Override
+        public SACall call() {
+            return null;
+        }
+
+        @Override
+        public SAResponse proceed(SARequest request) {
+            sent = request;
+            return response;
+        }
+    }
+}
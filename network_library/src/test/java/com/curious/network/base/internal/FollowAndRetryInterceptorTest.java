@@ -0,0 +1,118 @@
+package com.curious.network.base.internal;
+
+import com.curious.network.base.SAHeader;
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SAResponseBody;
+import com.curious.network.base.SARetryPolicy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * 同步拦截器和异步回调共用的 {@link FollowAndRetryInterceptor.FollowUps}
+ */
+public class FollowAndRetryInterceptorTest {
+    private final SAHttpClient client = new SAHttpClient.Builder()
+            .maxFollows(1)
+            .retryPolicy(new SARetryPolicy.Builder()
+                    .backoff(10, 10, TimeUnit.MILLISECONDS)
+                    .maxRetryAfter(5, TimeUnit.SECONDS)
+                    .budget(null)
+                    .build())
+            .build();
+    private final SARealCall call = (SARealCall) client.newCall(get("http://example.com/a"));
+    private final FollowAndRetryInterceptor.FollowUps followUps =
+            new FollowAndRetryInterceptor(client).newFollowUps(call, call.request());
+
+    @Test
+    public void finalResponseIsReturned() throws IOException {
+        AtomicBoolean closed = new AtomicBoolean();
+        assertEquals(-1, followUps.onResponse(response(200, null, null, closed)));
+        assertFalse(closed.get());
+        assertSame(call.request(), followUps.request());
+    }
+
+    @Test
+    public void redirectReplacesRequest() throws IOException {
+        AtomicBoolean closed = new AtomicBoolean();
+        assertEquals(0, followUps.onResponse(response(302, "Location", "/b", closed)));
+        assertTrue(closed.get());
+        assertEquals("http://example.com/b", followUps.request().url().toString());
+    }
+
+    @Test
+    public void tooManyRedirectsClosesResponse() throws IOException {
+        followUps.onResponse(response(302, "Location", "/b", new AtomicBoolean()));
+        AtomicBoolean closed = new AtomicBoolean();
+        try {
+            followUps.onResponse(response(301, "Location", "/c", closed));
+            fail();
+        } catch (ProtocolException expected) {
+        }
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void retryAfterDelaysSameRequest() throws IOException {
+        AtomicBoolean closed = new AtomicBoolean();
+        assertEquals(1000, followUps.onResponse(response(503, "Retry-After", "1", closed)));
+        assertTrue(closed.get());
+        assertSame(call.request(), followUps.request());
+    }
+
+    @Test
+    public void failureBacksOffUntilMaxRetryTimes() {
+        for (int i = 0; i < client.maxRetryTimes(); i++) {
+            long delay = followUps.onFailure(new IOException("reset"));
+            assertTrue(delay >= 0 && delay <= 10);
+        }
+        assertEquals(-1, followUps.onFailure(new IOException("reset")));
+    }
+
+    @Test
+    public void protocolFailureIsNotRetried() {
+        assertEquals(-1, followUps.onFailure(new ProtocolException("bad")));
+    }
+
+    @Test
+    public void canceledCallStopsFollowing() throws IOException {
+        call.cancel();
+        assertEquals(-1, followUps.onFailure(new IOException("reset")));
+        AtomicBoolean closed = new AtomicBoolean();
+        assertEquals(-1, followUps.onResponse(response(302, "Location", "/b", closed)));
+        assertFalse(closed.get());
+    }
+
+    private static SARequest get(String url) {
+        return new SARequest.Builder().url(SAHttpUrl.get(url)).build();
+    }
+
+    private static SAResponse response(int code, String header, String value, final AtomicBoolean closed) {
+        SAResponseBody body = SAResponseBody.create("text/plain", 0, new ByteArrayInputStream(new byte[0]) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        });
+        return new SAResponse.Builder()
+                .request(get("http://example.com/a"))
+                .code(code)
+                .headers(header != null
+                        ? Collections.singletonList(new SAHeader(header, value, true))
+                        : Collections.<SAHeader>emptyList())
+                .body(body)
+                .build();
+    }
+}
@@ -0,0 +1,260 @@
+package com.curious.network.base.internal;
+
+import com.curious.network.base.SAHedgingPolicy;
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SAInterceptor;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARealChain;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SARequestBody;
+import com.curious.network.base.SAResponse;
+import com.curious.network.base.SAResponseBody;
+import com.curious.network.base.SARetryBudget;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用假的传输层代替 {@link ConnectInterceptor}，第一个到达的是第一次尝试，第二个是对冲请求
+ */
+public class HedgingInterceptorTest {
+    private static final long DELAY_MILLIS = 20;
+
+    private final SAHedgingPolicy policy = new SAHedgingPolicy.Builder()
+            .delay(DELAY_MILLIS, TimeUnit.MILLISECONDS)
+            .budget(null)
+            .build();
+    private final SAHttpClient client = new SAHttpClient.Builder().hedgingPolicy(policy).build();
+
+    @Test
+    public void fastPrimaryDoesNotHedge() throws IOException {
+        FakeTransport transport = new FakeTransport(respond("primary"), respond("hedge"));
+        assertEquals("primary", execute(transport, get()).body().string());
+        sleep(3 * DELAY_MILLIS);
+        assertEquals(1, transport.attempts.get());
+        assertEquals(0, policy.hedgeCount());
+    }
+
+    @Test
+    public void hedgeWinsAndCancelsPrimary() throws IOException {
+        Attempt primary = blockUntilCanceled(null);
+        FakeTransport transport = new FakeTransport(primary, respond("hedge"));
+        assertEquals("hedge", execute(transport, get()).body().string());
+        assertTrue(primary.canceled.get());
+        assertEquals(2, transport.attempts.get());
+        assertEquals(1, policy.hedgeCount());
+        assertEquals(1, policy.hedgeWinCount());
+    }
+
+    @Test
+    public void primaryWinsAndCancelsHedge() throws IOException {
+        Attempt hedge = blockUntilCanceled(null);
+        FakeTransport transport = new FakeTransport(respondAfter("primary", 5 * DELAY_MILLIS), hedge);
+        assertEquals("primary", execute(transport, get()).body().string());
+        assertTrue(hedge.canceled.get());
+        assertEquals(1, policy.hedgeCount());
+        assertEquals(0, policy.hedgeWinCount());
+    }
+
+    /**
+     * 被取消的尝试仍然返回了响应，落后的响应要被关闭
+     */
+    @Test
+    public void lateLoserResponseIsClosed() throws IOException {
+        AtomicBoolean closed = new AtomicBoolean();
+        Attempt primary = blockUntilCanceled(response("late", closed));
+        FakeTransport transport = new FakeTransport(primary, respond("hedge"));
+        assertEquals("hedge", execute(transport, get()).body().string());
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void failedPrimaryWaitsForHedge() throws IOException {
+        FakeTransport transport = new FakeTransport(failAfter("primary", 2 * DELAY_MILLIS),
+                respondAfter("hedge", 3 * DELAY_MILLIS));
+        assertEquals("hedge", execute(transport, get()).body().string());
+    }
+
+    @Test
+    public void bothFailedThrowsPrimaryFailure() {
+        FakeTransport transport = new FakeTransport(failAfter("primary", 2 * DELAY_MILLIS),
+                failAfter("hedge", DELAY_MILLIS));
+        try {
+            execute(transport, get());
+            fail();
+        } catch (IOException e) {
+            assertEquals("primary", e.getMessage());
+        }
+    }
+
+    @Test
+    public void cancelingCallCancelsBothAttempts() throws Exception {
+        final Attempt primary = blockUntilCanceled(null);
+        final Attempt hedge = blockUntilCanceled(null);
+        FakeTransport transport = new FakeTransport(primary, hedge);
+        final SARealCall call = newCall(get());
+        new Thread() {
+            @Override
+            public void run() {
+                HedgingInterceptorTest.sleep(5 * DELAY_MILLIS);
+                call.cancel();
+            }
+        }.start();
+        try {
+            execute(transport, call);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertTrue(primary.canceled.get());
+        assertTrue(hedge.canceled.get());
+    }
+
+    @Test
+    public void nonIdempotentRequestNotHedged() throws IOException {
+        SARequest post = new SARequest.Builder()
+                .url(SAHttpUrl.get("http://example.com/"))
+                .method(SARequest.HttpMethod.POST)
+                .body(SARequestBody.create("text/plain", "body"))
+                .build();
+        FakeTransport transport = new FakeTransport(respondAfter("primary", 3 * DELAY_MILLIS), respond("hedge"));
+        assertEquals("primary", execute(transport, post).body().string());
+        assertEquals(1, transport.attempts.get());
+    }
+
+    @Test
+    public void exhaustedBudgetSkipsHedge() throws IOException {
+        SAHedgingPolicy limited = new SAHedgingPolicy.Builder()
+                .delay(DELAY_MILLIS, TimeUnit.MILLISECONDS)
+                .budget(new SARetryBudget(0, 0))
+                .build();
+        SAHttpClient limitedClient = new SAHttpClient.Builder().hedgingPolicy(limited).build();
+        FakeTransport transport = new FakeTransport(respondAfter("primary", 3 * DELAY_MILLIS), respond("hedge"));
+        SARequest request = get();
+        SARealCall call = (SARealCall) limitedClient.newCall(request);
+        SAInterceptor hedging = new HedgingInterceptor(limitedClient, new FollowAndRetryInterceptor(limitedClient));
+        SAResponse response = new SARealChain(Arrays.asList(hedging, transport), 0, request, call).proceed(request);
+        assertEquals("primary", response.body().string());
+        assertEquals(1, transport.attempts.get());
+        assertEquals(0, limited.hedgeCount());
+    }
+
+    private SAResponse execute(FakeTransport transport, SARequest request) throws IOException {
+        return execute(transport, newCall(request));
+    }
+
+    private SAResponse execute(FakeTransport transport, SARealCall call) throws IOException {
+        SAInterceptor hedging = new HedgingInterceptor(client, new FollowAndRetryInterceptor(client));
+        SARequest request = call.request();
+        return new SARealChain(Arrays.asList(hedging, transport), 0, request, call).proceed(request);
+    }
+
+    private SARealCall newCall(SARequest request) {
+        return (SARealCall) client.newCall(request);
+    }
+
+    private static SARequest get() {
+        return new SARequest.Builder().url(SAHttpUrl.get("http://example.com/")).build();
+    }
+
+    private static SAResponse response(String body, final AtomicBoolean closed) {
+        byte[] bytes = body.getBytes();
+        SAResponseBody responseBody = SAResponseBody.create("text/plain", bytes.length, new ByteArrayInputStream(bytes) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        });
+        return new SAResponse.Builder().request(get()).code(200).body(responseBody).build();
+    }
+
+    private static Attempt respond(String body) {
+        return respondAfter(body, 0);
+    }
+
+    private static Attempt respondAfter(final String body, final long millis) {
+        return new Attempt() {
+            @Override
+            SAResponse run(SARealCall call) {
+                sleep(millis);
+                return response(body, new AtomicBoolean());
+            }
+        };
+    }
+
+    private static Attempt failAfter(final String message, final long millis) {
+        return new Attempt() {
+            @Override
+            SAResponse run(SARealCall call) throws IOException {
+                sleep(millis);
+                throw new IOException(message);
+            }
+        };
+    }
+
+    /**
+     * 像真正的交换一样登记到尝试上，被取消后返回 response，为 null 时抛出 IOException("Canceled")
+     */
+    private static Attempt blockUntilCanceled(final SAResponse response) {
+        return new Attempt() {
+            @Override
+            SAResponse run(SARealCall call) throws IOException {
+                final CountDownLatch latch = new CountDownLatch(1);
+                SARealCall.Cancelable exchange = new SARealCall.Cancelable() {
+                    @Override
+                    public void cancel() {
+                        canceled.set(true);
+                        latch.countDown();
+                    }
+                };
+                call.exchangeStarted(exchange);
+                try {
+                    if (!latch.await(5, TimeUnit.SECONDS)) throw new AssertionError("not canceled");
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                } finally {
+                    call.exchangeFinished(exchange);
+                }
+                if (response == null) throw new IOException("Canceled");
+                return response;
+            }
+        };
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private abstract static class Attempt {
+        final AtomicBoolean canceled = new AtomicBoolean();
+
+        abstract SAResponse run(SARealCall call) throws IOException;
+    }
+
+    private static final class FakeTransport implements SAInterceptor {
+        final Attempt[] script;
+        final AtomicInteger attempts = new AtomicInteger();
+
+        FakeTransport(Attempt... script) {
+            this.script = script;
+        }
+
+        @Override
+        public SAResponse intercept(Chain chain) throws IOException {
+            return script[attempts.getAndIncrement()].run((SARealCall) chain.call());
+        }
+    }
+}
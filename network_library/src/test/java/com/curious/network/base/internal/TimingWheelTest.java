@@ -0,0 +1,123 @@
+package com.curious.network.base.internal;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * 使用 8 个槽、每个 tick 1ms 的时间轮，8ms 之后的任务会绕回已经用过的槽
+ */
+public class TimingWheelTest {
+    private final TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8, "TimingWheelTest");
+
+    @Test
+    public void expiresAfterDelay() throws InterruptedException {
+        Task task = new Task();
+        wheel.schedule(task, 20, TimeUnit.MILLISECONDS);
+        assertTrue(task.await());
+        assertTrue(task.elapsedMillis() >= 20);
+        assertEquals(1, task.runs.get());
+    }
+
+    /**
+     * 同一个槽中的任务分属不同的轮次，只有到期的那个执行
+     */
+    @Test
+    public void wrapAroundWaitsForOwnRound() throws InterruptedException {
+        Task first = new Task();
+        Task second = new Task();
+        Task third = new Task();
+        wheel.schedule(third, 19, TimeUnit.MILLISECONDS);
+        wheel.schedule(second, 11, TimeUnit.MILLISECONDS);
+        wheel.schedule(first, 3, TimeUnit.MILLISECONDS);
+
+        assertTrue(first.await());
+        assertTrue(second.await());
+        assertTrue(third.await());
+        assertTrue(first.elapsedMillis() >= 3);
+        assertTrue(second.elapsedMillis() >= 11);
+        assertTrue(third.elapsedMillis() >= 19);
+    }
+
+    @Test
+    public void longDelayFiresOnce() throws InterruptedException {
+        Task task = new Task();
+        wheel.schedule(task, 50, TimeUnit.MILLISECONDS);
+        assertTrue(task.await());
+        assertTrue(task.elapsedMillis() >= 50);
+        Thread.sleep(30);
+        assertEquals(1, task.runs.get());
+    }
+
+    @Test
+    public void cancelAcrossWrapAround() throws InterruptedException {
+        Task canceled = new Task();
+        Task kept = new Task();
+        Task later = new Task();
+        TimingWheel.Timeout timeout = wheel.schedule(canceled, 11, TimeUnit.MILLISECONDS);
+        wheel.schedule(kept, 3, TimeUnit.MILLISECONDS);
+        wheel.schedule(later, 30, TimeUnit.MILLISECONDS);
+        // 从下一轮的槽中移除，同一个槽中这一轮的任务不受影响
+        timeout.cancel();
+
+        assertTrue(kept.await());
+        assertTrue(later.await());
+        assertEquals(0, canceled.runs.get());
+        // 重复取消没有影响
+        timeout.cancel();
+    }
+
+    @Test
+    public void cancelAfterExpiryIsIgnored() throws InterruptedException {
+        Task task = new Task();
+        TimingWheel.Timeout timeout = wheel.schedule(task, 2, TimeUnit.MILLISECONDS);
+        assertTrue(task.await());
+        timeout.cancel();
+        assertEquals(1, task.runs.get());
+
+        // 时间轮仍然可以继续使用
+        Task next = new Task();
+        wheel.schedule(next, 2, TimeUnit.MILLISECONDS);
+        assertTrue(next.await());
+    }
+
+    @Test
+    public void failingTaskDoesNotStopWheel() throws InterruptedException {
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException();
+            }
+        }, 1, TimeUnit.MILLISECONDS);
+        Task task = new Task();
+        wheel.schedule(task, 5, TimeUnit.MILLISECONDS);
+        assertTrue(task.await());
+    }
+
+    private static final class Task implements Runnable {
+        final long scheduledAtNanos = System.nanoTime();
+        final AtomicLong firedAtNanos = new AtomicLong();
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void run() {
+            firedAtNanos.compareAndSet(0, System.nanoTime());
+            runs.incrementAndGet();
+            latch.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return latch.await(5, TimeUnit.SECONDS);
+        }
+
+        long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(firedAtNanos.get() - scheduledAtNanos);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.curious.network.base.internal.cache;
+
+import com.curious.network.base.SAHeader;
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SAResponse;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link CacheStrategy} 的新鲜度计算、启发式过期和条件请求
+ */
+public class CacheStrategyTest {
+    private static final String URL = "http://example.com/a";
+
+    /** 响应在一小时之前收到 */
+    private final long nowMillis = 1500000000000L;
+    private final long receivedMillis = nowMillis - TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void noCachedResponseUsesNetwork() {
+        CacheStrategy strategy = strategy(request(), null);
+        assertNotNull(strategy.networkRequest);
+        assertNull(strategy.cacheResponse);
+    }
+
+    @Test
+    public void freshMaxAgeIsServedFromCache() {
+        CacheStrategy strategy = strategy(request(), response(200, "Cache-Control", "max-age=7200"));
+        assertNull(strategy.networkRequest);
+        assertNotNull(strategy.cacheResponse);
+    }
+
+    @Test
+    public void staleMaxAgeWithoutValidatorUsesNetwork() {
+        CacheStrategy strategy = strategy(request(), response(200, "Cache-Control", "max-age=60"));
+        assertNotNull(strategy.networkRequest);
+        assertNull(strategy.networkRequest.header("If-None-Match"));
+        assertNull(strategy.cacheResponse);
+    }
+
+    @Test
+    public void staleWithETagIsRevalidated() {
+        CacheStrategy strategy = strategy(request(),
+                response(200, "Cache-Control", "max-age=60", "ETag", "\"v1\""));
+        assertEquals("\"v1\"", strategy.networkRequest.header("If-None-Match"));
+        assertNotNull(strategy.cacheResponse);
+    }
+
+    @Test
+    public void staleWithLastModifiedIsRevalidated() {
+        String lastModified = date(-TimeUnit.DAYS.toMillis(1));
+        CacheStrategy strategy = strategy(request(),
+                response(200, "Cache-Control", "max-age=60", "Last-Modified", lastModified));
+        assertEquals(lastModified, strategy.networkRequest.header("If-Modified-Since"));
+        assertNotNull(strategy.cacheResponse);
+    }
+
+    @Test
+    public void ageHeaderCountsTowardsAge() {
+        // 收到时已经在中间缓存里放了 2 小时
+        CacheStrategy strategy = strategy(request(),
+                response(200, "Cache-Control", "max-age=10800", "Age", "7200", "ETag", "\"v1\""));
+        assertNotNull(strategy.networkRequest);
+    }
+
+    @Test
+    public void expiresRelativeToDate() {
+        long served = receivedMillis;
+        assertNull(strategy(request(), response(200,
+                "Date", HttpDate.format(new Date(served)),
+                "Expires", HttpDate.format(new Date(served + TimeUnit.HOURS.toMillis(2))))).networkRequest);
+        assertNotNull(strategy(request(), response(200,
+                "Date", HttpDate.format(new Date(served)),
+                "Expires", HttpDate.format(new Date(served + TimeUnit.MINUTES.toMillis(30))))).networkRequest);
+    }
+
+    @Test
+    public void heuristicExpirationIsTenPercentOfLastModifiedAge() {
+        // Last-Modified 在 Date 之前 20 小时，可以新鲜 2 小时
+        String served = HttpDate.format(new Date(receivedMillis));
+        String lastModified = HttpDate.format(new Date(receivedMillis - TimeUnit.HOURS.toMillis(20)));
+        assertNull(strategy(request(), response(200, "Date", served, "Last-Modified", lastModified)).networkRequest);
+
+        // 只有 5 小时则只能新鲜 30 分钟，已经过期
+        lastModified = HttpDate.format(new Date(receivedMillis - TimeUnit.HOURS.toMillis(5)));
+        CacheStrategy strategy = strategy(request(), response(200, "Date", served, "Last-Modified", lastModified));
+        assertEquals(lastModified, strategy.networkRequest.header("If-Modified-Since"));
+    }
+
+    @Test
+    public void heuristicExpirationSkipsUrlsWithQuery() {
+        String served = HttpDate.format(new Date(receivedMillis));
+        String lastModified = HttpDate.format(new Date(receivedMillis - TimeUnit.DAYS.toMillis(100)));
+        SARequest request = new SARequest.Builder().url(SAHttpUrl.get(URL + "?q=1")).build();
+        SAResponse response = builder(request, 200, "Date", served, "Last-Modified", lastModified).build();
+        assertNotNull(new CacheStrategy.Factory(nowMillis, request, response).get().networkRequest);
+    }
+
+    @Test
+    public void requestNoCacheSkipsCache() {
+        CacheStrategy strategy = strategy(request("Cache-Control", "no-cache"),
+                response(200, "Cache-Control", "max-age=7200"));
+        assertNotNull(strategy.networkRequest);
+        assertNull(strategy.cacheResponse);
+    }
+
+    @Test
+    public void requestMaxAgeLimitsFreshness() {
+        CacheStrategy strategy = strategy(request("Cache-Control", "max-age=60"),
+                response(200, "Cache-Control", "max-age=7200", "ETag", "\"v1\""));
+        assertNotNull(strategy.networkRequest);
+    }
+
+    @Test
+    public void maxStaleAcceptsStaleResponse() {
+        assertNull(strategy(request("Cache-Control", "max-stale=7200"),
+                response(200, "Cache-Control", "max-age=60")).networkRequest);
+        // must-revalidate 时不能使用过期的缓存
+        assertNotNull(strategy(request("Cache-Control", "max-stale=7200"),
+                response(200, "Cache-Control", "max-age=60, must-revalidate")).networkRequest);
+    }
+
+    @Test
+    public void responseNoCacheIsAlwaysRevalidated() {
+        CacheStrategy strategy = strategy(request(),
+                response(200, "Cache-Control", "no-cache, max-age=7200", "ETag", "\"v1\""));
+        assertEquals("\"v1\"", strategy.networkRequest.header("If-None-Match"));
+    }
+
+    @Test
+    public void onlyIfCachedWithStaleResponseIsUnsatisfiable() {
+        CacheStrategy strategy = strategy(request("Cache-Control", "only-if-cached"),
+                response(200, "Cache-Control", "max-age=60"));
+        assertNull(strategy.networkRequest);
+        assertNull(strategy.cacheResponse);
+    }
+
+    @Test
+    public void cacheability() {
+        SARequest request = request();
+        assertTrue(CacheStrategy.isCacheable(response(200), request));
+        assertTrue(CacheStrategy.isCacheable(response(404), request));
+        assertFalse(CacheStrategy.isCacheable(response(500), request));
+        assertFalse(CacheStrategy.isCacheable(response(200, "Cache-Control", "no-store"), request));
+        assertFalse(CacheStrategy.isCacheable(response(200), request("Cache-Control", "no-store")));
+        // 302 只有明确指定了过期时间才缓存
+        assertFalse(CacheStrategy.isCacheable(response(302), request));
+        assertTrue(CacheStrategy.isCacheable(response(302, "Cache-Control", "max-age=60"), request));
+    }
+
+    private CacheStrategy strategy(SARequest request, SAResponse cacheResponse) {
+        return new CacheStrategy.Factory(nowMillis, request, cacheResponse).get();
+    }
+
+    private String date(long offsetMillis) {
+        return HttpDate.format(new Date(receivedMillis + offsetMillis));
+    }
+
+    private static SARequest request(String... namesAndValues) {
+        SARequest.Builder builder = new SARequest.Builder().url(SAHttpUrl.get(URL));
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            builder.setHeader(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return builder.build();
+    }
+
+    private SAResponse response(int code, String... namesAndValues) {
+        return builder(request(), code, namesAndValues).build();
+    }
+
+    private SAResponse.Builder builder(SARequest request, int code, String... namesAndValues) {
+        List<SAHeader> headers = new ArrayList<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.add(new SAHeader(namesAndValues[i], namesAndValues[i + 1], true));
+        }
+        return new SAResponse.Builder()
+                .request(request)
+                .code(code)
+                .headers(headers)
+                .sentRequestAtMillis(receivedMillis - 100)
+                .receivedResponseAtMillis(receivedMillis);
+    }
+}
@@ -0,0 +1,288 @@
+package com.curious.network.base.internal.cache;
+
+import com.curious.network.base.internal.Util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link DiskLruCache} 的 journal 读写、崩溃恢复、重写和按大小淘汰
+ */
+public class DiskLruCacheTest {
+    private static final int APP_VERSION = 100;
+
+    private final File directory;
+    private DiskLruCache cache;
+
+    public DiskLruCacheTest() throws IOException {
+        directory = Files.createTempDirectory("DiskLruCacheTest").toFile();
+        cache = open(Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void writeAndReadEntry() throws IOException {
+        set("k1", "abc", "de");
+        assertValues("k1", "abc", "de");
+        assertEquals(5, cache.size());
+        assertJournal("DIRTY k1", "CLEAN k1 3 2", "READ k1");
+    }
+
+    @Test
+    public void entriesSurviveReopen() throws IOException {
+        set("k1", "abc", "de");
+        set("k2", "f", "gh");
+        cache.close();
+
+        cache = open(Long.MAX_VALUE);
+        assertValues("k1", "abc", "de");
+        assertValues("k2", "f", "gh");
+        assertEquals(8, cache.size());
+    }
+
+    @Test
+    public void unfinishedEditIsDroppedOnReopen() throws IOException {
+        set("k1", "abc", "de");
+        DiskLruCache.Editor editor = cache.edit("k2");
+        write(editor, 0, "f");
+        write(editor, 1, "gh");
+        // 模拟进程在提交之前被杀死：不关闭缓存，journal 中只有 DIRTY
+        File dirty = new File(directory, "k2.0.tmp");
+        assertTrue(dirty.exists());
+
+        DiskLruCache reopened = open(Long.MAX_VALUE);
+        assertNull(reopened.get("k2"));
+        assertFalse(dirty.exists());
+        assertEquals(5, reopened.size());
+        DiskLruCache.Snapshot snapshot = reopened.get("k1");
+        assertEquals("abc", read(snapshot.getInputStream(0)));
+        snapshot.close();
+        reopened.close();
+    }
+
+    @Test
+    public void abortedEditOfExistingEntryKeepsOldValue() throws IOException {
+        set("k1", "abc", "de");
+        DiskLruCache.Editor editor = cache.edit("k1");
+        write(editor, 0, "xyz");
+        editor.abort();
+        assertValues("k1", "abc", "de");
+    }
+
+    @Test
+    public void corruptJournalClearsCache() throws IOException {
+        set("k1", "abc", "de");
+        cache.close();
+        writeFile(new File(directory, DiskLruCache.JOURNAL_FILE), "not a journal\n");
+
+        cache = open(Long.MAX_VALUE);
+        assertNull(cache.get("k1"));
+        assertFalse(new File(directory, "k1.0").exists());
+        assertEquals(0, cache.size());
+        // 重建后可以继续使用
+        set("k2", "f", "gh");
+        assertValues("k2", "f", "gh");
+    }
+
+    @Test
+    public void corruptJournalLineClearsCache() throws IOException {
+        set("k1", "abc", "de");
+        cache.close();
+        appendFile(new File(directory, DiskLruCache.JOURNAL_FILE), "CLEAN k1 3\n");
+
+        cache = open(Long.MAX_VALUE);
+        assertNull(cache.get("k1"));
+    }
+
+    @Test
+    public void backupJournalIsRestored() throws IOException {
+        set("k1", "abc", "de");
+        cache.close();
+        // 重写 journal 时在删除旧文件之后、写入新文件之前被中断
+        File journal = new File(directory, DiskLruCache.JOURNAL_FILE);
+        assertTrue(journal.renameTo(new File(directory, DiskLruCache.JOURNAL_FILE_BACKUP)));
+
+        cache = open(Long.MAX_VALUE);
+        assertValues("k1", "abc", "de");
+        assertTrue(journal.exists());
+        assertFalse(new File(directory, DiskLruCache.JOURNAL_FILE_BACKUP).exists());
+    }
+
+    @Test
+    public void redundantOperationsRebuildJournal() throws IOException {
+        set("k1", "abc", "de");
+        for (int i = 0; i < 2100; i++) {
+            cache.get("k1").close();
+        }
+        // 超过 2000 条冗余操作后重写，只剩下重写之后的读取记录
+        List<String> lines = journalBody();
+        assertTrue(String.valueOf(lines.size()), lines.size() < 200);
+        assertEquals("CLEAN k1 3 2", lines.get(0));
+        assertValues("k1", "abc", "de");
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWhenOverMaxSize() throws IOException {
+        cache.close();
+        cache = open(10);
+        set("a", "aa", "aa");
+        set("b", "bb", "bb");
+        // 读取 a 之后 b 成为最久没有使用的条目
+        cache.get("a").close();
+        set("c", "cc", "cc");
+
+        assertNull(cache.get("b"));
+        assertValues("a", "aa", "aa");
+        assertValues("c", "cc", "cc");
+        assertEquals(8, cache.size());
+        assertFalse(new File(directory, "b.0").exists());
+    }
+
+    @Test
+    public void growingEntryEvictsOthers() throws IOException {
+        cache.close();
+        cache = open(10);
+        set("a", "a", "a");
+        set("b", "b", "b");
+        set("a", "aaaaa", "aaaa");
+        assertNull(cache.get("b"));
+        assertEquals(9, cache.size());
+    }
+
+    @Test
+    public void removeDuringEditDiscardsEdit() throws IOException {
+        DiskLruCache.Editor editor = cache.edit("k1");
+        write(editor, 0, "abc");
+        write(editor, 1, "de");
+        assertTrue(cache.remove("k1"));
+        editor.commit();
+        assertNull(cache.get("k1"));
+        assertFalse(new File(directory, "k1.0.tmp").exists());
+    }
+
+    @Test
+    public void concurrentEditIsRejected() throws IOException {
+        DiskLruCache.Editor editor = cache.edit("k1");
+        assertNull(cache.edit("k1"));
+        editor.abort();
+        assertNotNull(cache.edit("k1"));
+    }
+
+    @Test
+    public void staleSnapshotCannotEdit() throws IOException {
+        set("k1", "abc", "de");
+        DiskLruCache.Snapshot snapshot = cache.get("k1");
+        set("k1", "xyz", "w");
+        assertNull(snapshot.edit());
+        snapshot.close();
+    }
+
+    @Test
+    public void newEntryMustWriteEveryValue() throws IOException {
+        DiskLruCache.Editor editor = cache.edit("k1");
+        write(editor, 0, "abc");
+        try {
+            editor.commit();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertNull(cache.get("k1"));
+    }
+
+    private DiskLruCache open(long maxSize) {
+        return new DiskLruCache(directory, APP_VERSION, 2, maxSize);
+    }
+
+    private void set(String key, String value0, String value1) throws IOException {
+        DiskLruCache.Editor editor = cache.edit(key);
+        write(editor, 0, value0);
+        write(editor, 1, value1);
+        editor.commit();
+    }
+
+    private void assertValues(String key, String value0, String value1) throws IOException {
+        DiskLruCache.Snapshot snapshot = cache.get(key);
+        assertNotNull(key, snapshot);
+        try {
+            assertEquals(value0, read(snapshot.getInputStream(0)));
+            assertEquals(value1, read(snapshot.getInputStream(1)));
+            assertEquals(value0.length(), snapshot.getLength(0));
+            assertEquals(value1.length(), snapshot.getLength(1));
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private void assertJournal(String... expected) throws IOException {
+        assertEquals(Arrays.asList(expected), journalBody());
+    }
+
+    /**
+     * journal 中文件头之后的内容
+     */
+    private List<String> journalBody() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(new File(directory, DiskLruCache.JOURNAL_FILE)), Util.UTF_8));
+        try {
+            assertEquals(DiskLruCache.MAGIC, reader.readLine());
+            assertEquals(DiskLruCache.VERSION, reader.readLine());
+            assertEquals(Integer.toString(APP_VERSION), reader.readLine());
+            assertEquals("2", reader.readLine());
+            assertEquals("", reader.readLine());
+            List<String> result = new ArrayList<>();
+            for (String line; (line = reader.readLine()) != null; ) {
+                result.add(line);
+            }
+            return result;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void write(DiskLruCache.Editor editor, int index, String value) throws IOException {
+        OutputStream out = editor.newOutputStream(index);
+        out.write(value.getBytes(Util.UTF_8));
+        out.close();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        StringBuilder result = new StringBuilder();
+        byte[] buffer = new byte[64];
+        for (int count; (count = in.read(buffer)) != -1; ) {
+            result.append(new String(buffer, 0, count, Util.UTF_8));
+        }
+        return result.toString();
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes(Util.UTF_8));
+        out.close();
+    }
+
+    private static void appendFile(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file, true);
+        out.write(content.getBytes(Util.UTF_8));
+        out.close();
+    }
+}
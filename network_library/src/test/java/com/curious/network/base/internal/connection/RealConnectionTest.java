@@ -0,0 +1,125 @@
+package com.curious.network.base.internal.connection;
+
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RealConnectionTest {
+    private final SAHttpClient client = new SAHttpClient.Builder().build();
+    private ServerSocket serverSocket;
+    private Thread server;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        // 读到一个字节后原样写回
+        server = new Thread("echo") {
+            @Override
+            public void run() {
+                try (Socket socket = serverSocket.accept()) {
+                    InputStream in = socket.getInputStream();
+                    OutputStream out = socket.getOutputStream();
+                    int b;
+                    while ((b = in.read()) != -1) {
+                        out.write(b);
+                        out.flush();
+                    }
+                } catch (IOException ignored) {
+                    // 测试结束时关闭
+                }
+            }
+        };
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        serverSocket.close();
+        server.join(5000);
+    }
+
+    @Test
+    public void http1PlaintextUsesChannel() throws IOException {
+        RealConnection connection = newConnection();
+        connection.connect(5000, 5000, null, newCall());
+        try {
+            assertNotNull(connection.channel());
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * 读取线程阻塞在 read 中时，其他线程仍然可以写入，HTTP/2 的读取线程和调用线程共用一条连接
+     */
+    @Test
+    public void http2ConcurrentReadAndWrite() throws Exception {
+        final RealConnection connection = newConnection();
+        connection.connect(5000, 10000, null, null, newCall());
+        try {
+            assertNull(connection.channel());
+            assertNull(connection.socket().getChannel());
+
+            final AtomicInteger read = new AtomicInteger(-2);
+            Thread reader = new Thread("reader") {
+                @Override
+                public void run() {
+                    try {
+                        read.set(connection.source().read());
+                    } catch (IOException ignored) {
+                        // 没有读到时 read 保持 -2
+                    }
+                }
+            };
+            reader.start();
+            // 等读取线程进入阻塞的 read
+            Thread.sleep(200);
+
+            Thread writer = new Thread("writer") {
+                @Override
+                public void run() {
+                    try {
+                        connection.sink().write(42);
+                        connection.sink().flush();
+                    } catch (IOException ignored) {
+                        // 读取线程会因为读不到数据而失败
+                    }
+                }
+            };
+            writer.start();
+            writer.join(5000);
+            assertFalse("writer blocked behind reader", writer.isAlive());
+            reader.join(5000);
+            assertEquals(42, read.get());
+        } finally {
+            connection.close();
+        }
+    }
+
+    private RealConnection newConnection() {
+        Route route = new Route("http", "127.0.0.1", serverSocket.getLocalPort(), null, null);
+        return new RealConnection(route, client.dns(), client.tlsSessionCache());
+    }
+
+    private SARealCall newCall() {
+        SARequest request = new SARequest.Builder()
+                .url(SAHttpUrl.get("http://127.0.0.1:" + serverSocket.getLocalPort() + "/"))
+                .build();
+        return (SARealCall) client.newCall(request);
+    }
+}
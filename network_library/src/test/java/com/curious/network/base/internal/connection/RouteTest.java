@@ -0,0 +1,36 @@
+package com.curious.network.base.internal.connection;
+
+import org.junit.Test;
+
+import java.net.Proxy;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import static org.junit.Assert.*;
+
+public class RouteTest {
+
+    @Test
+    public void httpsRoutesDifferBySslSocketFactory() throws Exception {
+        SSLSocketFactory first = newSslSocketFactory();
+        SSLSocketFactory second = newSslSocketFactory();
+        Route route = new Route("https", "example.com", 443, null, first);
+        assertEquals(route, new Route("https", "example.com", 443, Proxy.NO_PROXY, first));
+        assertEquals(route.hashCode(), new Route("https", "example.com", 443, null, first).hashCode());
+        assertNotEquals(route, new Route("https", "example.com", 443, null, second));
+        assertNotEquals(route, new Route("https", "example.com", 443, null, null));
+    }
+
+    @Test
+    public void httpRoutesIgnoreSslSocketFactory() throws Exception {
+        assertEquals(new Route("http", "example.com", 80, null, newSslSocketFactory()),
+                new Route("http", "example.com", 80, null, null));
+    }
+
+    private static SSLSocketFactory newSslSocketFactory() throws Exception {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, null, null);
+        return sslContext.getSocketFactory();
+    }
+}
@@ -0,0 +1,186 @@
+package com.curious.network.base.internal.http2;
+
+import com.curious.network.base.SAHeader;
+
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 使用 RFC 7541 附录 C 的示例验证 {@link Hpack} 的编解码和动态表
+ */
+public class HpackTest {
+    private final Hpack.Reader reader = new Hpack.Reader(Http2Reader.MAX_HEADER_LIST_SIZE);
+
+    /** C.3 不使用 Huffman 编码的请求，动态表在三个头部块之间共享 */
+    @Test
+    public void requestsWithoutHuffman() throws ProtocolException {
+        assertEquals(Arrays.asList(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com"),
+                read("8286 8441 0f77 7777 2e65 7861 6d70 6c65 2e63 6f6d"));
+        assertEquals(Arrays.asList(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com",
+                "cache-control: no-cache"),
+                read("8286 84be 5808 6e6f 2d63 6163 6865"));
+        assertEquals(Arrays.asList(":method: GET", ":scheme: https", ":path: /index.html",
+                ":authority: www.example.com", "custom-key: custom-value"),
+                read("8287 85bf 400a 6375 7374 6f6d 2d6b 6579 0c63 7573 746f 6d2d 7661 6c75 65"));
+    }
+
+    /** C.4 与 C.3 相同的请求，字符串使用 Huffman 编码 */
+    @Test
+    public void requestsWithHuffman() throws ProtocolException {
+        assertEquals(Arrays.asList(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com"),
+                read("8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff"));
+        assertEquals(Arrays.asList(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com",
+                "cache-control: no-cache"),
+                read("8286 84be 5886 a8eb 1064 9cbf"));
+        assertEquals(Arrays.asList(":method: GET", ":scheme: https", ":path: /index.html",
+                ":authority: www.example.com", "custom-key: custom-value"),
+                read("8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf"));
+    }
+
+    /** C.5 动态表缩小到 256 字节后，新条目会淘汰最早加入的条目 */
+    @Test
+    public void dynamicTableEviction() throws ProtocolException {
+        // 第一个头部块前面加上动态表大小更新 001xxxxx = 256
+        assertEquals(Arrays.asList(":status: 302", "cache-control: private",
+                "date: Mon, 21 Oct 2013 20:13:21 GMT", "location: https://www.example.com"),
+                read("3fe1 01"
+                        + "4803 3330 3258 0770 7269 7661 7465 611d 4d6f 6e2c 2032 3120 4f63 7420 3230 3133"
+                        + "2032 303a 3133 3a32 3120 474d 546e 1768 7474 7073 3a2f 2f77 7777 2e65 7861 6d70"
+                        + "6c65 2e63 6f6d"));
+        // :status: 302 被淘汰，其他条目的索引各自后移一位
+        assertEquals(Arrays.asList(":status: 307", "cache-control: private",
+                "date: Mon, 21 Oct 2013 20:13:21 GMT", "location: https://www.example.com"),
+                read("4803 3330 37c1 c0bf"));
+        assertEquals(Arrays.asList(":status: 200", "cache-control: private",
+                "date: Mon, 21 Oct 2013 20:13:22 GMT", "location: https://www.example.com",
+                "content-encoding: gzip",
+                "set-cookie: foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1"),
+                read("88c1 611d 4d6f 6e2c 2032 3120 4f63 7420 3230 3133 2032 303a 3133 3a32 3220 474d"
+                        + "54c0 5a04 677a 6970 7738 666f 6f3d 4153 444a 4b48 514b 425a 584f 5157 454f 5049"
+                        + "5541 5851 5745 4f49 553b 206d 6178 2d61 6765 3d33 3630 303b 2076 6572 7369 6f6e"
+                        + "3d31"));
+
+        // 最后动态表只剩三个条目：set-cookie、content-encoding、date
+        assertEquals(Arrays.asList("set-cookie: foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1",
+                "content-encoding: gzip", "date: Mon, 21 Oct 2013 20:13:22 GMT"),
+                read("bebf c0"));
+        try {
+            read("c1");
+            fail();
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    @Test
+    public void tableSizeUpdateLargerThanDefaultIsRejected() {
+        try {
+            // 001xxxxx = 4097
+            read("3fe2 1f");
+            fail();
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    @Test
+    public void truncatedBlockIsRejected() {
+        try {
+            read("4803 3330");
+            fail();
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    @Test
+    public void headerListSizeIsLimited() {
+        Hpack.Reader small = new Hpack.Reader(64);
+        try {
+            // 每个条目按 32 字节的开销计算，两个头信息就会超过 64
+            small.readHeaders(hex("8286"), 0, 2);
+            fail();
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    @Test
+    public void writerRoundTripUsesDynamicTable() throws ProtocolException {
+        Hpack.Writer writer = new Hpack.Writer();
+        List<SAHeader> headers = headers(
+                ":method", "GET",
+                ":scheme", "https",
+                ":authority", "www.example.com",
+                ":path", "/index.html",
+                "user-agent", "SAHttp",
+                "custom-key", "custom-value");
+
+        byte[] first = writer.writeHeaders(headers);
+        assertEquals(strings(headers), read(first));
+        byte[] second = writer.writeHeaders(headers);
+        assertEquals(strings(headers), read(second));
+        // 第二次除了 :path 之外都命中动态表，只剩索引
+        assertTrue(second.length + " < " + first.length, second.length < first.length / 2);
+    }
+
+    @Test
+    public void sensitiveHeadersAreNeverIndexed() throws ProtocolException {
+        Hpack.Writer writer = new Hpack.Writer();
+        byte[] block = writer.writeHeaders(headers("authorization", "Bearer secret"));
+        // 0001xxxx 永不索引，名字使用静态表的索引 23
+        assertEquals(0x1f, block[0] & 0xff);
+        assertEquals(23 - 15, block[1] & 0xff);
+        assertEquals(Arrays.asList("authorization: Bearer secret"), read(block));
+
+        // 没有加入动态表，再次编码仍然是字面值
+        byte[] again = writer.writeHeaders(headers("authorization", "Bearer secret"));
+        assertArrayEquals(block, again);
+    }
+
+    @Test
+    public void smallerPeerTableSizeIsAnnounced() throws ProtocolException {
+        Hpack.Writer writer = new Hpack.Writer();
+        writer.writeHeaders(headers("custom-key", "custom-value"));
+        writer.headerTableSizeSetting(0);
+        byte[] block = writer.writeHeaders(headers("custom-key", "custom-value"));
+        // 001xxxxx = 0，之后的条目不能再引用动态表
+        assertEquals(0x20, block[0] & 0xff);
+        assertEquals(Arrays.asList("custom-key: custom-value"), read(block));
+    }
+
+    private List<String> read(String hex) throws ProtocolException {
+        return read(hex(hex));
+    }
+
+    private List<String> read(byte[] block) throws ProtocolException {
+        return strings(reader.readHeaders(block, 0, block.length));
+    }
+
+    private static List<SAHeader> headers(String... namesAndValues) {
+        List<SAHeader> result = new ArrayList<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            result.add(new SAHeader(namesAndValues[i], namesAndValues[i + 1], false));
+        }
+        return result;
+    }
+
+    private static List<String> strings(List<SAHeader> headers) {
+        List<String> result = new ArrayList<>();
+        for (SAHeader header : headers) {
+            result.add(header.getName() + ": " + header.getValue());
+        }
+        return result;
+    }
+
+    static byte[] hex(String hex) {
+        hex = hex.replace(" ", "");
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return result;
+    }
+}
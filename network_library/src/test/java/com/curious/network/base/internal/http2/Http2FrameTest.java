@@ -0,0 +1,219 @@
+package com.curious.network.base.internal.http2;
+
+import com.curious.network.base.SAHeader;
+import com.curious.network.base.internal.Util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link Http2Writer} 写出的帧经过 {@link Http2Reader} 读回后内容不变
+ */
+public class Http2FrameTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final Http2Writer writer = new Http2Writer(bytes);
+
+    @Test
+    public void headersAndData() throws IOException {
+        writer.headers(1, false, Http2.DEFAULT_WEIGHT, Arrays.asList(
+                new SAHeader(":method", "POST", false),
+                new SAHeader(":path", "/upload", false),
+                new SAHeader("content-type", "text/plain", false)));
+        byte[] body = "hello".getBytes(Util.UTF_8);
+        writer.data(1, false, body, 0, 2);
+        writer.data(1, true, body, 2, 3);
+
+        assertEquals(Arrays.asList(
+                "headers 1 false [:method: POST, :path: /upload, content-type: text/plain]",
+                "data 1 false he 2",
+                "data 1 true llo 3"), readAll());
+    }
+
+    @Test
+    public void priorityIsSkippedByReader() throws IOException {
+        writer.headers(3, true, 256, Collections.singletonList(new SAHeader(":method", "GET", false)));
+        // 9 字节帧头 + 5 字节优先级 + 1 字节索引
+        assertEquals(15, bytes.size());
+        assertEquals(Http2.FLAG_END_STREAM | Http2.FLAG_END_HEADERS | Http2.FLAG_PRIORITY, bytes.toByteArray()[4]);
+        assertEquals(255, bytes.toByteArray()[13] & 0xff);
+        assertEquals(Collections.singletonList("headers 3 true [:method: GET]"), readAll());
+    }
+
+    @Test
+    public void largeHeaderBlockIsSplitIntoContinuations() throws IOException {
+        StringBuilder value = new StringBuilder();
+        Random random = new Random(0);
+        while (value.length() < 40000) {
+            // 随机字符让 Huffman 编码后仍然超过两个帧
+            value.append((char) ('!' + random.nextInt(90)));
+        }
+        writer.headers(5, true, Http2.DEFAULT_WEIGHT,
+                Collections.singletonList(new SAHeader("x-large", value.toString(), false)));
+
+        byte[] frames = bytes.toByteArray();
+        assertEquals(Http2.TYPE_HEADERS, frames[3]);
+        assertEquals(Http2.FLAG_END_STREAM, frames[4]);
+        int continuation = Http2.FRAME_HEADER_LENGTH + Http2.INITIAL_MAX_FRAME_SIZE;
+        assertEquals(Http2.TYPE_CONTINUATION, frames[continuation + 3]);
+        assertEquals(Collections.singletonList("headers 5 true [x-large: " + value + "]"), readAll());
+    }
+
+    @Test
+    public void controlFrames() throws IOException {
+        writer.rstStream(7, Http2.REFUSED_STREAM);
+        writer.ping(false, 0x0102030405060708L);
+        writer.ping(true, -1L);
+        writer.goAway(9, Http2.NO_ERROR);
+        writer.windowUpdate(0, 0x7fffffffL);
+        writer.windowUpdate(3, 1);
+        writer.applyAndAckSettings(new int[0]);
+
+        assertEquals(Arrays.asList(
+                "rst 7 " + Http2.REFUSED_STREAM,
+                "ping false 72623859790382856",
+                "ping true -1",
+                "goAway 9 " + Http2.NO_ERROR,
+                "windowUpdate 0 2147483647",
+                "windowUpdate 3 1",
+                "settingsAck"), readAll());
+    }
+
+    @Test
+    public void connectionPrefaceAndSettings() throws IOException {
+        writer.connectionPreface(new int[]{
+                Http2.SETTINGS_ENABLE_PUSH, 0,
+                Http2.SETTINGS_INITIAL_WINDOW_SIZE, 65536});
+        byte[] frames = bytes.toByteArray();
+        byte[] preface = Arrays.copyOf(frames, Http2.CONNECTION_PREFACE.length);
+        assertArrayEquals(Http2.CONNECTION_PREFACE, preface);
+
+        Recorder recorder = new Recorder();
+        Http2Reader reader = new Http2Reader(new ByteArrayInputStream(frames, preface.length,
+                frames.length - preface.length));
+        assertTrue(reader.nextFrame(recorder));
+        assertEquals(Collections.singletonList("settings [" + Http2.SETTINGS_ENABLE_PUSH + ", 0, "
+                + Http2.SETTINGS_INITIAL_WINDOW_SIZE + ", 65536]"), recorder.events);
+        assertFalse(reader.nextFrame(recorder));
+    }
+
+    @Test
+    public void peerMaxFrameSizeIsApplied() throws IOException {
+        assertEquals(Http2.INITIAL_MAX_FRAME_SIZE, writer.maxDataLength());
+        writer.applyAndAckSettings(new int[]{Http2.SETTINGS_MAX_FRAME_SIZE, 32768});
+        assertEquals(32768, writer.maxDataLength());
+        assertEquals(Collections.singletonList("settingsAck"), readAll());
+    }
+
+    @Test
+    public void oversizedFrameIsRejected() throws IOException {
+        byte[] frame = new byte[Http2.FRAME_HEADER_LENGTH + Http2.INITIAL_MAX_FRAME_SIZE + 1];
+        frame[0] = 0;
+        frame[1] = (byte) 0x40;
+        frame[2] = 1;
+        frame[3] = Http2.TYPE_DATA;
+        frame[8] = 1;
+        try {
+            new Http2Reader(new ByteArrayInputStream(frame)).nextFrame(new Recorder());
+            fail();
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    @Test
+    public void zeroWindowUpdateIsRejected() throws IOException {
+        writer.windowUpdate(1, 0);
+        try {
+            readAll();
+            fail();
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    @Test
+    public void truncatedFrameFails() throws IOException {
+        writer.ping(false, 1);
+        byte[] frames = bytes.toByteArray();
+        try {
+            new Http2Reader(new ByteArrayInputStream(frames, 0, frames.length - 1)).nextFrame(new Recorder());
+            fail();
+        } catch (EOFException expected) {
+        }
+    }
+
+    private List<String> readAll() throws IOException {
+        Recorder recorder = new Recorder();
+        Http2Reader reader = new Http2Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        while (reader.nextFrame(recorder)) {
+        }
+        return recorder.events;
+    }
+
+    /**
+     * 把收到的帧记录成字符串
+     */
+    static class Recorder implements Http2Reader.Handler {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void data(int streamId, boolean endStream, byte[] data, int offset, int length, int frameLength) {
+            events.add("data " + streamId + " " + endStream + " "
+                    + new String(data, offset, length, Util.UTF_8) + " " + frameLength);
+        }
+
+        @Override
+        public void headers(int streamId, boolean endStream, List<SAHeader> headers) {
+            List<String> strings = new ArrayList<>();
+            for (SAHeader header : headers) {
+                strings.add(header.getName() + ": " + header.getValue());
+            }
+            events.add("headers " + streamId + " " + endStream + " " + strings);
+        }
+
+        @Override
+        public void rstStream(int streamId, int errorCode) {
+            events.add("rst " + streamId + " " + errorCode);
+        }
+
+        @Override
+        public void settings(int[] settings) {
+            events.add("settings " + Arrays.toString(settings));
+        }
+
+        @Override
+        public void settingsAck() {
+            events.add("settingsAck");
+        }
+
+        @Override
+        public void ping(boolean ack, long payload) {
+            events.add("ping " + ack + " " + payload);
+        }
+
+        @Override
+        public void goAway(int lastStreamId, int errorCode) {
+            events.add("goAway " + lastStreamId + " " + errorCode);
+        }
+
+        @Override
+        public void windowUpdate(int streamId, long increment) {
+            events.add("windowUpdate " + streamId + " " + increment);
+        }
+
+        @Override
+        public void idle() {
+            events.add("idle");
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package com.curious.network.base.internal.http2;
+
+import com.curious.network.base.SAHeader;
+import com.curious.network.base.SAHttpClient;
+import com.curious.network.base.SAHttpUrl;
+import com.curious.network.base.SARealCall;
+import com.curious.network.base.SARequest;
+import com.curious.network.base.SARequestBody;
+import com.curious.network.base.SAResponse;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 使用脚本化的 h2c 服务器验证 {@link Http2Transport} 的流量控制和被拒绝流的重试
+ */
+public class Http2TransportTest {
+    private final SAHttpClient client = new SAHttpClient.Builder()
+            .connectTimeout(5000)
+            .readTimeout(5000)
+            .writeTimeout(5000)
+            .build();
+    private final Http2Transport transport = new Http2Transport(client, true);
+    private FakeServer server;
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) server.close();
+    }
+
+    @Test
+    public void refusedStreamIsRetriedOnSameConnection() throws Exception {
+        server = new FakeServer(new Script() {
+            @Override
+            public void serve(int index, ServerConnection connection) throws IOException {
+                assertEquals("headers 1 true", connection.next("headers"));
+                connection.writer.rstStream(1, Http2.REFUSED_STREAM);
+                assertEquals("headers 3 true", connection.next("headers"));
+                connection.respond(3, "ok");
+            }
+        });
+
+        assertEquals("ok", execute(get()));
+        assertEquals(1, server.connectionCount.get());
+    }
+
+    @Test
+    public void goAwayIsRetriedOnNewConnection() throws Exception {
+        server = new FakeServer(new Script() {
+            @Override
+            public void serve(int index, ServerConnection connection) throws IOException {
+                assertEquals("headers 1 true", connection.next("headers"));
+                if (index == 0) {
+                    // 服务器没有处理任何流就要关闭连接
+                    connection.writer.goAway(0, Http2.NO_ERROR);
+                } else {
+                    connection.respond(1, "ok");
+                }
+            }
+        });
+
+        assertEquals("ok", execute(get()));
+        assertEquals(2, server.connectionCount.get());
+    }
+
+    @Test
+    public void refusedStreamIsRetriedOnlyOnce() throws Exception {
+        server = new FakeServer(new Script() {
+            @Override
+            public void serve(int index, ServerConnection connection) throws IOException {
+                assertEquals("headers 1 true", connection.next("headers"));
+                connection.writer.rstStream(1, Http2.REFUSED_STREAM);
+                assertEquals("headers 3 true", connection.next("headers"));
+                connection.writer.rstStream(3, Http2.REFUSED_STREAM);
+            }
+        });
+
+        try {
+            execute(get());
+            fail();
+        } catch (StreamResetException expected) {
+            assertTrue(expected.isRefused());
+        }
+    }
+
+    @Test
+    public void otherResetIsNotRetried() throws Exception {
+        server = new FakeServer(new Script() {
+            @Override
+            public void serve(int index, ServerConnection connection) throws IOException {
+                assertEquals("headers 1 true", connection.next("headers"));
+                connection.writer.rstStream(1, Http2.INTERNAL_ERROR);
+            }
+        });
+
+        try {
+            execute(get());
+            fail();
+        } catch (StreamResetException expected) {
+            assertFalse(expected.isRefused());
+        }
+        assertEquals(1, server.connectionCount.get());
+    }
+
+    @Test
+    public void requestBodyWaitsForConnectionWindowUpdate() throws Exception {
+        final byte[] body = new byte[100000];
+        server = new FakeServer(new Script() {
+            @Override
+            public void serve(int index, ServerConnection connection) throws IOException {
+                assertEquals("headers 1 false", connection.next("headers"));
+                // 连接的发送窗口初始只有 65535 字节，用完后客户端必须停下来
+                assertEquals(Http2.DEFAULT_INITIAL_WINDOW_SIZE, connection.readData(1, Http2.DEFAULT_INITIAL_WINDOW_SIZE));
+                assertNull(connection.nextWithin(300));
+                connection.writer.windowUpdate(0, body.length - Http2.DEFAULT_INITIAL_WINDOW_SIZE);
+                connection.readData(1, body.length - Http2.DEFAULT_INITIAL_WINDOW_SIZE);
+                assertEquals(body.length, connection.dataBytes);
+                connection.respond(1, "done");
+            }
+            // 流的窗口足够大，只有连接的窗口会限制发送
+        }, Http2.SETTINGS_INITIAL_WINDOW_SIZE, 1024 * 1024);
+
+        assertEquals("done", execute(post(body)));
+    }
+
+    @Test
+    public void requestBodyWaitsForStreamWindowUpdate() throws Exception {
+        final byte[] body = new byte[5000];
+        server = new FakeServer(new Script() {
+            @Override
+            public void serve(int index, ServerConnection connection) throws IOException {
+                assertEquals("headers 1 true", connection.next("headers"));
+                connection.respond(1, "ok");
+                assertEquals("headers 3 false", connection.next("headers"));
+                // 流的发送窗口只有 1000 字节
+                assertEquals(1000, connection.readData(3, 1000));
+                assertNull(connection.nextWithin(300));
+                connection.writer.windowUpdate(3, 4000);
+                assertEquals(4000, connection.readData(3, 4000));
+                connection.respond(3, "done");
+            }
+        }, Http2.SETTINGS_INITIAL_WINDOW_SIZE, 1000);
+
+        // 收到第一个响应时服务器的设置已经生效
+        assertEquals("ok", execute(get()));
+        assertEquals("done", execute(post(body)));
+    }
+
+    @Test
+    public void responseBodyReturnsStreamWindow() throws Exception {
+        server = new FakeServer(new Script() {
+            @Override
+            public void serve(int index, ServerConnection connection) throws IOException {
+                connection.next("headers");
+                connection.writer.headers(1, false, Http2.DEFAULT_WEIGHT,
+                        Collections.singletonList(new SAHeader(":status", "200", false)));
+                // 先用完客户端 256 KB 的流窗口，客户端读走一半后应该归还
+                byte[] chunk = new byte[Http2.INITIAL_MAX_FRAME_SIZE];
+                for (int i = 0; i < Http2Connection.STREAM_WINDOW_SIZE / chunk.length; i++) {
+                    connection.writer.data(1, false, chunk, 0, chunk.length);
+                }
+                connection.writer.flush();
+                String update = connection.next("windowUpdate 1");
+                long increment = Long.parseLong(update.substring("windowUpdate 1 ".length()));
+                assertTrue(String.valueOf(increment), increment >= Http2Connection.STREAM_WINDOW_SIZE / 2);
+                connection.writer.data(1, true, chunk, 0, chunk.length);
+                connection.writer.flush();
+            }
+        });
+
+        SAResponse response = transport.execute(get(), newCall(get()));
+        InputStream in = response.body().byteStream();
+        long total = 0;
+        byte[] buffer = new byte[8192];
+        for (int count; (count = in.read(buffer)) != -1; ) {
+            total += count;
+        }
+        response.close();
+        assertEquals(Http2Connection.STREAM_WINDOW_SIZE + Http2.INITIAL_MAX_FRAME_SIZE, total);
+        server.checkNoFailure();
+    }
+
+    private String execute(SARequest request) throws Exception {
+        try {
+            SAResponse response = transport.execute(request, newCall(request));
+            try {
+                assertEquals(200, response.code());
+                return response.body().string();
+            } finally {
+                response.close();
+            }
+        } finally {
+            server.checkNoFailure();
+        }
+    }
+
+    private SARealCall newCall(SARequest request) {
+        return (SARealCall) client.newCall(request);
+    }
+
+    private SARequest get() {
+        return new SARequest.Builder().url(SAHttpUrl.get(server.url())).build();
+    }
+
+    private SARequest post(byte[] body) {
+        return new SARequest.Builder()
+                .url(SAHttpUrl.get(server.url()))
+                .method(SARequest.HttpMethod.POST)
+                .body(SARequestBody.create("application/octet-stream", body))
+                .build();
+    }
+
+    interface Script {
+        /**
+         * @param index 第几条连接，从 0 开始
+         */
+        void serve(int index, ServerConnection connection) throws IOException;
+    }
+
+    /**
+     * 只支持 prior knowledge 的 h2c 服务器，每条连接交给脚本处理
+     */
+    static final class FakeServer implements Runnable {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final AtomicInteger connectionCount = new AtomicInteger();
+        private final Script script;
+        private final int[] settings;
+        private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+        private volatile Throwable failure;
+
+        FakeServer(Script script, int... settings) throws IOException {
+            this.script = script;
+            this.settings = settings;
+            Thread thread = new Thread(this, "FakeServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                sockets.add(socket);
+                final int index = connectionCount.getAndIncrement();
+                Thread thread = new Thread("FakeServer connection " + index) {
+                    @Override
+                    public void run() {
+                        try {
+                            script.serve(index, new ServerConnection(socket, settings));
+                        } catch (Throwable e) {
+                            failure = e;
+                        }
+                    }
+                };
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        void checkNoFailure() throws Exception {
+            Throwable e = failure;
+            if (e instanceof Exception) throw (Exception) e;
+            if (e instanceof Error) throw (Error) e;
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 服务器一侧的连接，读到的帧记录成字符串，设置帧自动回复 ACK
+     */
+    static final class ServerConnection extends Http2FrameTest.Recorder {
+        final Socket socket;
+        final Http2Reader reader;
+        final Http2Writer writer;
+        long dataBytes;
+
+        ServerConnection(Socket socket, int[] settings) throws IOException {
+            this.socket = socket;
+            byte[] preface = new byte[Http2.CONNECTION_PREFACE.length];
+            new DataInputStream(socket.getInputStream()).readFully(preface);
+            assertArrayEquals(Http2.CONNECTION_PREFACE, preface);
+            this.reader = new Http2Reader(socket.getInputStream());
+            this.writer = new Http2Writer(socket.getOutputStream());
+            writeSettings(socket.getOutputStream(), settings);
+        }
+
+        /**
+         * 读取帧直到出现以 prefix 开头的事件
+         */
+        String next(String prefix) throws IOException {
+            while (true) {
+                String event = nextWithin(0);
+                if (event == null) continue;
+                if (event.startsWith(prefix)) return event;
+            }
+        }
+
+        /**
+         * 读取下一个不是设置的事件
+         *
+         * @return 超时没有收到新的帧时返回 null
+         */
+        String nextWithin(int timeoutMillis) throws IOException {
+            socket.setSoTimeout(timeoutMillis);
+            while (true) {
+                events.clear();
+                try {
+                    if (!reader.nextFrame(this)) throw new IOException("client closed the connection");
+                } catch (SocketTimeoutException e) {
+                    return null;
+                }
+                if (events.isEmpty()) continue;
+                String event = events.get(0);
+                if (event.equals("idle")) return null;
+                if (!event.startsWith("settings")) return event;
+            }
+        }
+
+        /**
+         * 读取这个流上的 DATA 帧，直到累计 byteCount 字节
+         */
+        long readData(int streamId, long byteCount) throws IOException {
+            long read = 0;
+            while (read < byteCount) {
+                String event = next("data " + streamId);
+                read += Long.parseLong(event.substring(event.lastIndexOf(' ') + 1));
+            }
+            return read;
+        }
+
+        void respond(int streamId, String body) throws IOException {
+            writer.headers(streamId, false, Http2.DEFAULT_WEIGHT, Arrays.asList(
+                    new SAHeader(":status", "200", false),
+                    new SAHeader("content-type", "text/plain", false)));
+            byte[] bytes = body.getBytes("UTF-8");
+            writer.data(streamId, true, bytes, 0, bytes.length);
+            writer.flush();
+        }
+
+        @Override
+        public void data(int streamId, boolean endStream, byte[] data, int offset, int length, int frameLength) {
+            dataBytes += length;
+            events.add("data " + streamId + " " + endStream + " " + length);
+        }
+
+        @Override
+        public void headers(int streamId, boolean endStream, List<SAHeader> headers) {
+            events.add("headers " + streamId + " " + endStream);
+        }
+
+        @Override
+        public void settings(int[] settings) {
+            super.settings(settings);
+            try {
+                writer.applyAndAckSettings(settings);
+            } catch (IOException ignored) {
+            }
+        }
+
+        private static void writeSettings(OutputStream out, int[] settings) throws IOException {
+            int length = settings.length / 2 * 6;
+            out.write(new byte[]{0, 0, (byte) length, Http2.TYPE_SETTINGS, Http2.FLAG_NONE, 0, 0, 0, 0});
+            for (int i = 0; i < settings.length; i += 2) {
+                out.write(settings[i] >>> 8);
+                out.write(settings[i]);
+                out.write(settings[i + 1] >>> 24);
+                out.write(settings[i + 1] >>> 16);
+                out.write(settings[i + 1] >>> 8);
+                out.write(settings[i + 1]);
+            }
+            out.flush();
+        }
+    }
+}
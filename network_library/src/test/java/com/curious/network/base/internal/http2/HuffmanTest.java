@@ -0,0 +1,78 @@
+package com.curious.network.base.internal.http2;
+
+import com.curious.network.base.internal.Util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link Huffman} 的编码结果与 RFC 7541 附录 C 一致，并且可以解码回原始字节
+ */
+public class HuffmanTest {
+
+    @Test
+    public void rfcExamples() throws ProtocolException {
+        assertEncoded("www.example.com", "f1e3c2e5f23a6ba0ab90f4ff");
+        assertEncoded("no-cache", "a8eb10649cbf");
+        assertEncoded("custom-key", "25a849e95ba97d7f");
+        assertEncoded("custom-value", "25a849e95bb8e8b4bf");
+        assertEncoded("302", "6402");
+        assertEncoded("private", "aec3771a4b");
+        assertEncoded("Mon, 21 Oct 2013 20:13:21 GMT", "d07abe941054d444a8200595040b8166e082a62d1bff");
+        assertEncoded("https://www.example.com", "9d29ad171863c78f0b97c8e9ae82ae43d3");
+    }
+
+    @Test
+    public void everyByteRoundTrips() throws ProtocolException {
+        byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        assertRoundTrip(data);
+        for (int i = 0; i < data.length; i++) {
+            assertRoundTrip(new byte[]{(byte) i});
+        }
+    }
+
+    @Test
+    public void randomDataRoundTrips() throws ProtocolException {
+        Random random = new Random(0);
+        for (int i = 0; i < 200; i++) {
+            byte[] data = new byte[random.nextInt(64)];
+            random.nextBytes(data);
+            assertRoundTrip(data);
+        }
+    }
+
+    @Test
+    public void decodeHonorsOffset() throws ProtocolException {
+        byte[] encoded = HpackTest.hex("00 f1e3c2e5f23a6ba0ab90f4ff 00");
+        assertEquals("www.example.com",
+                new String(Huffman.decode(encoded, 1, encoded.length - 2), Util.ISO_8859_1));
+    }
+
+    private static void assertEncoded(String value, String hex) throws ProtocolException {
+        byte[] data = value.getBytes(Util.ISO_8859_1);
+        byte[] expected = HpackTest.hex(hex);
+        assertEquals(expected.length, Huffman.encodedLength(data));
+        assertArrayEquals(expected, encode(data));
+        assertEquals(value, new String(Huffman.decode(expected, 0, expected.length), Util.ISO_8859_1));
+    }
+
+    private static void assertRoundTrip(byte[] data) throws ProtocolException {
+        byte[] encoded = encode(data);
+        assertEquals(Huffman.encodedLength(data), encoded.length);
+        assertArrayEquals(data, Huffman.decode(encoded, 0, encoded.length));
+    }
+
+    private static byte[] encode(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Huffman.encode(data, out);
+        return out.toByteArray();
+    }
+}
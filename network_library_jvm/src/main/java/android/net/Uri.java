@@ -0,0 +1,52 @@
+package android.net;
+
+import java.nio.charset.Charset;
+
+/**
+ * 只实现了 {@link Builder#appendQueryParameter(String, String)} 和 {@link #getEncodedQuery()}，
+ * 编码规则和 Android 的 Uri.encode 相同：字母、数字和 _-!.~'()* 不编码，其他字符按 UTF-8 百分号编码
+ */
+public final class Uri {
+    private static final String ALLOWED = "_-!.~'()*";
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String encodedQuery;
+
+    private Uri(String encodedQuery) {
+        this.encodedQuery = encodedQuery;
+    }
+
+    public String getEncodedQuery() {
+        return encodedQuery;
+    }
+
+    public static String encode(String s) {
+        if (s == null) return null;
+        StringBuilder builder = new StringBuilder(s.length());
+        for (byte b : s.getBytes(UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || ALLOWED.indexOf(c) != -1) {
+                builder.append(c);
+            } else {
+                builder.append('%').append(HEX_DIGITS[(c >> 4) & 0xf]).append(HEX_DIGITS[c & 0xf]);
+            }
+        }
+        return builder.toString();
+    }
+
+    public static final class Builder {
+        private final StringBuilder query = new StringBuilder();
+
+        public Builder appendQueryParameter(String key, String value) {
+            if (query.length() > 0) query.append('&');
+            query.append(encode(key)).append('=').append(encode(value));
+            return this;
+        }
+
+        public Uri build() {
+            return new Uri(query.length() == 0 ? null : query.toString());
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package android.os;
+
+/**
+ * JVM 上按最新的 Android 版本处理
+ */
+public final class Build {
+    private Build() {
+    }
+
+    public static final class VERSION {
+        public static final int SDK_INT = VERSION_CODES.Q;
+    }
+
+    public static final class VERSION_CODES {
+        public static final int KITKAT = 19;
+        public static final int LOLLIPOP = 21;
+        public static final int N = 24;
+        public static final int Q = 29;
+    }
+}